@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns the JSON results of JMH (-rf json -rff results.json) into a stable text format, one line per benchmark
+ * and parameters, sorted, so that the results of two releases can be compared with diff.
+ * Given two result files, prints the change of each score instead.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.orange.ngsi2.benchmark.BenchmarkResults results.json
+ * java -cp benchmarks.jar com.orange.ngsi2.benchmark.BenchmarkResults previous.json results.json
+ * </pre>
+ */
+public final class BenchmarkResults {
+
+    private BenchmarkResults() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 1) {
+            print(read(new File(args[0])), System.out);
+        } else if (args.length == 2) {
+            compare(read(new File(args[0])), read(new File(args[1])), System.out);
+        } else {
+            System.err.println("Usage: BenchmarkResults [previous.json] results.json");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the results by benchmark name and parameters
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> results = new TreeMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            StringBuilder key = new StringBuilder(shortName(result.path("benchmark").asText()));
+            // JMH writes the parameters in declaration order, sorted for a stable key
+            Map<String, String> params = new TreeMap<>();
+            Iterator<Map.Entry<String, JsonNode>> fields = result.path("params").fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                params.put(field.getKey(), field.getValue().asText());
+            }
+            params.forEach((name, value) -> key.append(':').append(name).append('=').append(value));
+            JsonNode metric = result.path("primaryMetric");
+            results.put(key.toString(), new Score(result.path("mode").asText(), metric.path("score").asDouble(),
+                    error(metric.path("scoreError").asDouble()), metric.path("scoreUnit").asText()));
+        }
+        return results;
+    }
+
+    static void print(Map<String, Score> results, PrintStream out) {
+        results.forEach((key, score) -> out.println(String.format(Locale.ROOT, "%s\t%s\t%.3f\t+- %.3f\t%s",
+                key, score.mode, score.score, score.error, score.unit)));
+    }
+
+    static void compare(Map<String, Score> previous, Map<String, Score> results, PrintStream out) {
+        results.forEach((key, score) -> {
+            Score before = previous.get(key);
+            if (before == null || !before.unit.equals(score.unit)) {
+                out.println(String.format(Locale.ROOT, "%s\t%s\tnew\t%.3f\t%s", key, score.mode, score.score, score.unit));
+                return;
+            }
+            // throughput: higher is better, other modes measure a time: lower is better
+            double change = score.mode.equals("thrpt") ? score.score / before.score : before.score / score.score;
+            boolean significant = Math.abs(score.score - before.score) > score.error + before.error;
+            out.println(String.format(Locale.ROOT, "%s\t%s\t%.3f\t-> %.3f\t%s\t%s%.2fx", key, score.mode, before.score,
+                    score.score, score.unit, significant ? (change >= 1 ? "faster " : "slower ") : "same ", change));
+        });
+        previous.keySet().stream().filter(key -> !results.containsKey(key)).forEach(key -> out.println(key + "\tremoved"));
+    }
+
+    /**
+     * @return the error, 0 when JMH could not compute it (single iteration)
+     */
+    private static double error(double error) {
+        return Double.isNaN(error) ? 0 : error;
+    }
+
+    /**
+     * @return the name of the benchmark without the package
+     */
+    private static String shortName(String benchmark) {
+        String prefix = BenchmarkResults.class.getPackage().getName() + ".";
+        return benchmark.startsWith(prefix) ? benchmark.substring(prefix.length()) : benchmark;
+    }
+
+    static final class Score {
+
+        final String mode;
+
+        final double score;
+
+        final double error;
+
+        final String unit;
+
+        Score(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.FieldValidator;
+import com.orange.ngsi2.model.Metadata;
+import com.orange.ngsi2.server.BulkValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validation of the entities of a bulk update as done by Ngsi2BaseController, sequential or in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BulkValidationBenchmark {
+
+    @Param({"5000"})
+    private int entities;
+
+    @Param({"20"})
+    private int attributes;
+
+    /* 0: sequential validation */
+    @Param({"0", "512"})
+    private int threshold;
+
+    private List<Entity> bulk;
+
+    private BulkValidator validator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bulk = new ArrayList<>(entities);
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity("urn:ngsi:Room:building-" + (i / 100) + ":room-" + i, "Room");
+            for (int j = 0; j < attributes; j++) {
+                Attribute attribute = new Attribute(j);
+                attribute.setType(Optional.of("Number"));
+                attribute.addMetadata("unitCode", new Metadata("Text", "CEL"));
+                entity.setAttributes("attribute_" + j, attribute);
+            }
+            bulk.add(entity);
+        }
+        validator = new BulkValidator();
+        validator.setThreshold(threshold);
+    }
+
+    @Benchmark
+    public List<Entity> validate() {
+        validator.validate(bulk, FieldValidator::validate);
+        return bulk;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.model.FieldValidator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Syntax validation of the fields of a bulk update (1000 entities of 20 attributes with metadata),
+ * by the former regular expression and by the FieldValidator lookup table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FieldValidatorBenchmark {
+
+    private static final Pattern FIELD_PATTERN = Pattern.compile("[\\x21\\x22\\x24\\x25\\x27-\\x2E\\x30-\\x3E\\x40-\\x7E]*");
+
+    @Param({"1000"})
+    private int entities;
+
+    @Param({"20"})
+    private int attributes;
+
+    private String[] fields;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        /* id, type, then name, type, metadata name and metadata type of each attribute */
+        int perEntity = 2 + 4 * attributes;
+        fields = new String[entities * perEntity];
+        int n = 0;
+        for (int i = 0; i < entities; i++) {
+            fields[n++] = "urn:ngsi-ld:Room:building-" + (i / 100) + ":room-" + i;
+            fields[n++] = "Room";
+            for (int j = 0; j < attributes; j++) {
+                fields[n++] = "attribute_" + j;
+                fields[n++] = "Number";
+                fields[n++] = "unitCode";
+                fields[n++] = "Text";
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean regex() {
+        boolean valid = true;
+        for (String field : fields) {
+            valid &= field.length() <= 256 && FIELD_PATTERN.matcher(field).matches();
+        }
+        return valid;
+    }
+
+    @Benchmark
+    public boolean lookupTable() {
+        boolean valid = true;
+        for (String field : fields) {
+            valid &= FieldValidator.isValid(field);
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.geo.GeoIndex;
+import com.orange.ngsi2.geo.GeoPredicate;
+import com.orange.ngsi2.geo.Shape;
+import com.orange.ngsi2.model.Coordinate;
+import com.orange.ngsi2.model.GeoQuery;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near queries on sensors spread over a city, through the grid index and by a linear scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GeoIndexBenchmark {
+
+    /* about 30 km x 30 km */
+    private static final double MIN_LATITUDE = 45.0, MIN_LONGITUDE = 5.5, SPAN = 0.3;
+
+    @Param({"2000000"})
+    private int sensors;
+
+    @Param({"500"})
+    private float distance;
+
+    private GeoIndex<Integer> index;
+
+    private Shape[] shapes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        index = new GeoIndex<>();
+        shapes = new Shape[sensors];
+        for (int i = 0; i < sensors; i++) {
+            shapes[i] = Shape.point(MIN_LATITUDE + random.nextDouble() * SPAN, MIN_LONGITUDE + random.nextDouble() * SPAN);
+            index.put(i, shapes[i]);
+        }
+    }
+
+    @Benchmark
+    public Set<Integer> nearIndexed() {
+        return index.query(near());
+    }
+
+    @Benchmark
+    public Set<Integer> nearScan() {
+        GeoPredicate predicate = near();
+        Set<Integer> result = new HashSet<>();
+        for (int i = 0; i < shapes.length; i++) {
+            if (predicate.test(shapes[i])) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    private GeoPredicate near() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Coordinate center = new Coordinate(MIN_LATITUDE + random.nextDouble() * SPAN, MIN_LONGITUDE + random.nextDouble() * SPAN);
+        return GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.maxDistance, distance, GeoQuery.Geometry.point, Collections.singletonList(center)));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Paginated;
+import com.orange.ngsi2.store.InMemoryEntityStore;
+import com.orange.ngsi2.store.InMemoryNgsi2Controller;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Read throughput of the in-memory entity store, from all available cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InMemoryEntityStoreBenchmark {
+
+    @Param({"1000000"})
+    private int entities;
+
+    @Param({"1000"})
+    private int types;
+
+    private InMemoryEntityStore store;
+
+    private Controller controller;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = new InMemoryEntityStore();
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity(id(i), type(i));
+            entity.setAttributes("temperature", new Attribute(20 + (i % 150) / 10.0));
+            entity.setAttributes("humidity", new Attribute(i % 100));
+            if (i % 10 == 0) {
+                entity.setAttributes("pressure", new Attribute(1013));
+            }
+            store.add(entity);
+        }
+        controller = new Controller(store);
+    }
+
+    @Benchmark
+    public Entity getByIdAndType() {
+        int i = ThreadLocalRandom.current().nextInt(entities);
+        return store.get(id(i), type(i));
+    }
+
+    @Benchmark
+    public List<Entity> getById() {
+        return store.getById(id(ThreadLocalRandom.current().nextInt(entities)));
+    }
+
+    @Benchmark
+    public List<Entity> findFirstPageByType() {
+        String type = type(ThreadLocalRandom.current().nextInt(types));
+        return store.find(null, Collections.singleton(type), null, null).limit(20).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<Entity> listEntitiesByTypeAndAttrs() throws Exception {
+        String type = type(ThreadLocalRandom.current().nextInt(types));
+        // consume the streamed page as the response would
+        return controller.list(type, 20, 0).getItems();
+    }
+
+    private String id(int i) {
+        return "urn:ngsi:Sensor:" + i;
+    }
+
+    private String type(int i) {
+        return "Sensor" + (i % types);
+    }
+
+    /**
+     * Exposes the listEntities hook as called by the endpoint
+     */
+    private static class Controller extends InMemoryNgsi2Controller {
+
+        private final List<String> attrs = Collections.singletonList("temperature");
+
+        Controller(InMemoryEntityStore store) {
+            super(store);
+        }
+
+        Paginated<Entity> list(String type, int limit, int offset) throws Exception {
+            return listEntities(null, Collections.singleton(type), null, limit, offset, attrs, null, null, Collections.emptyList());
+        }
+    }
+}
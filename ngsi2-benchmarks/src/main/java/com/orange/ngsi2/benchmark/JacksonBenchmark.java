@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Condition;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Metadata;
+import com.orange.ngsi2.model.Notification;
+import com.orange.ngsi2.model.Registration;
+import com.orange.ngsi2.model.SubjectEntity;
+import com.orange.ngsi2.model.SubjectRegistration;
+import com.orange.ngsi2.model.SubjectSubscription;
+import com.orange.ngsi2.model.Subscription;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson round-trips (serialization then deserialization) of the model, with the modules used by the client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JacksonBenchmark {
+
+    @Param({"20"})
+    private int attributes;
+
+    private ObjectMapper objectMapper;
+
+    private Entity entity;
+
+    private Subscription subscription;
+
+    private Registration registration;
+
+    private Notification notification;
+
+    @Setup(Level.Trial)
+    public void setup() throws MalformedURLException {
+        objectMapper = new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        entity = new Entity("urn:ngsi:Room:DC_S1-D41", "Room");
+        for (int i = 0; i < attributes; i++) {
+            Attribute attribute = new Attribute(20 + i / 10.0);
+            attribute.setType(Optional.of("Number"));
+            attribute.addMetadata("unitCode", new Metadata("Text", "CEL"));
+            entity.setAttributes("temperature" + i, attribute);
+        }
+
+        notification = new Notification(Arrays.asList("temperature", "humidity"), new URL("http://localhost:1234/notify"));
+        notification.setThrottling(Optional.of(5L));
+        notification.setAttrsFormat(Optional.of(Notification.Format.keyValues));
+        notification.setHeader("Fiware-Service", "smartcity");
+
+        SubjectEntity room = new SubjectEntity();
+        room.setIdPattern(Optional.of("urn:ngsi:Room:.*"));
+        room.setType(Optional.of("Room"));
+        Condition condition = new Condition();
+        condition.setAttributes(Collections.singletonList("temperature"));
+        condition.setExpression("q", "temperature>40");
+        subscription = new Subscription("abcdef", new SubjectSubscription(Collections.singletonList(room), condition),
+                notification, Instant.parse("2016-04-05T14:00:00.20Z"), Subscription.Status.active);
+
+        registration = new Registration("abcdef", new URL("http://localhost:1234/provider"));
+        registration.setDuration("PT1M");
+        registration.setSubject(new SubjectRegistration(Collections.singletonList(room), Arrays.asList("temperature", "humidity")));
+        registration.addMetadata("provider", new Metadata("Text", "example"));
+    }
+
+    @Benchmark
+    public Entity entity() throws IOException {
+        return objectMapper.readValue(objectMapper.writeValueAsBytes(entity), Entity.class);
+    }
+
+    @Benchmark
+    public Subscription subscription() throws IOException {
+        return objectMapper.readValue(objectMapper.writeValueAsBytes(subscription), Subscription.class);
+    }
+
+    @Benchmark
+    public Registration registration() throws IOException {
+        return objectMapper.readValue(objectMapper.writeValueAsBytes(registration), Registration.class);
+    }
+
+    @Benchmark
+    public Notification notification() throws IOException {
+        return objectMapper.readValue(objectMapper.writeValueAsBytes(notification), Notification.class);
+    }
+}
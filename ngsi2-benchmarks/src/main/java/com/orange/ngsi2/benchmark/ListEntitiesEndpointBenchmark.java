@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.store.InMemoryEntityStore;
+import com.orange.ngsi2.store.InMemoryNgsi2Controller;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+/**
+ * End-to-end dispatch of GET /v2/entities through Spring MVC (MockMvc) to the in-memory store:
+ * parameter binding, validation, query, and JSON rendering of a page of entities.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ListEntitiesEndpointBenchmark {
+
+    @Param({"100000"})
+    private int entities;
+
+    @Param({"100"})
+    private int types;
+
+    @Param({"normalized", "keyValues"})
+    private String options;
+
+    private AnnotationConfigWebApplicationContext context;
+
+    private MockMvc mockMvc;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new AnnotationConfigWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.register(WebConfiguration.class);
+        context.refresh();
+        mockMvc = webAppContextSetup(context).build();
+
+        InMemoryEntityStore store = context.getBean(InMemoryNgsi2Controller.class).getEntityStore();
+        for (int i = 0; i < entities; i++) {
+            Entity entity = new Entity("urn:ngsi:Sensor:" + i, "Sensor" + (i % types));
+            entity.setAttributes("temperature", new Attribute(20 + (i % 150) / 10.0));
+            entity.setAttributes("humidity", new Attribute(i % 100));
+            store.add(entity);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public byte[] listEntitiesByType() throws Exception {
+        String type = "Sensor" + ThreadLocalRandom.current().nextInt(types);
+        return mockMvc.perform(get("/v2/entities").param("type", type).param("limit", "20").param("options", options)
+                .accept(MediaType.APPLICATION_JSON))
+                .andReturn().getResponse().getContentAsByteArray();
+    }
+
+    @Configuration
+    @EnableWebMvc
+    public static class WebConfiguration extends WebMvcConfigurerAdapter {
+
+        @Bean
+        public ObjectMapper objectMapper() {
+            return new ObjectMapper().registerModule(new Jdk8Module());
+        }
+
+        @Bean
+        public InMemoryNgsi2Controller inMemoryNgsi2Controller() {
+            return new InMemoryNgsi2Controller();
+        }
+
+        @Override
+        public void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
+            converters.add(new MappingJackson2HttpMessageConverter(objectMapper()));
+        }
+    }
+}
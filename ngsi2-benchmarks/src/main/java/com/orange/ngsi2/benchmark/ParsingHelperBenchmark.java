@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.model.Coordinate;
+import com.orange.ngsi2.model.GeoQuery;
+import com.orange.ngsi2.server.Ngsi2ParsingHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the text/plain attribute values and of the geographical query parameters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParsingHelperBenchmark {
+
+    /* one value of each kind, numbers trying the narrowest formats first */
+    private static final String[] TEXT_VALUES = {"true", "null", "\"Kitchen\"", "42", "4200000000", "23.5"};
+
+    private static final String POLYGON = "45.10,5.70;45.12,5.70;45.12,5.74;45.10,5.74;45.10,5.70";
+
+    @Benchmark
+    public void parseTextValue(Blackhole blackhole) {
+        for (String value : TEXT_VALUES) {
+            blackhole.consume(Ngsi2ParsingHelper.parseTextValue(value));
+        }
+    }
+
+    @Benchmark
+    public List<Coordinate> parseCoordinates() {
+        return Ngsi2ParsingHelper.parseCoordinates(POLYGON);
+    }
+
+    @Benchmark
+    public GeoQuery parseGeoQueryNear() {
+        return Ngsi2ParsingHelper.parseGeoQuery("near;maxDistance:1000", "point", "45.11,5.72");
+    }
+
+    @Benchmark
+    public GeoQuery parseGeoQueryPolygon() {
+        return Ngsi2ParsingHelper.parseGeoQuery("coveredBy", "polygon", POLYGON);
+    }
+}
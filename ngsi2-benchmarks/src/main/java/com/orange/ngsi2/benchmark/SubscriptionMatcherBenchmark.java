@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.benchmark;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Condition;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Notification;
+import com.orange.ngsi2.model.SubjectEntity;
+import com.orange.ngsi2.model.SubjectSubscription;
+import com.orange.ngsi2.model.Subscription;
+import com.orange.ngsi2.server.notification.SubscriptionMatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching an entity change against subscriptions by id, by type, by idPattern prefix and by condition attributes.
+ * The cost depends on the number of subscriptions matching the subject or the changed attribute, not on the total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SubscriptionMatcherBenchmark {
+
+    private static final String[] TYPES = {"Room", "Car", "Street", "Parking", "Sensor"};
+
+    private static final String[] ATTRIBUTES = {"temperature", "humidity", "speed", "occupancy", "pressure"};
+
+    @Param({"1000", "100000"})
+    private int subscriptions;
+
+    private int entities;
+
+    private SubscriptionMatcher matcher;
+
+    @Setup(Level.Trial)
+    public void setup() throws MalformedURLException {
+        Random random = new Random(42);
+        URL callback = new URL("http://localhost:1028/accumulate");
+        entities = subscriptions;
+        matcher = new SubscriptionMatcher();
+        for (int i = 0; i < subscriptions; i++) {
+            SubjectEntity subjectEntity = new SubjectEntity();
+            int kind = random.nextInt(100);
+            if (kind < 80) {
+                // most subscriptions watch a single entity
+                subjectEntity.setId(Optional.of(id(random.nextInt(entities))));
+                subjectEntity.setType(Optional.of(TYPES[random.nextInt(TYPES.length)]));
+            } else if (kind < 99) {
+                // groups of 100 entities
+                subjectEntity.setIdPattern(Optional.of("^urn:entity:" + random.nextInt(entities / 100 + 1) + ":"));
+            } else {
+                // a few subscriptions watch a whole type
+                subjectEntity.setType(Optional.of(TYPES[random.nextInt(TYPES.length)]));
+            }
+            Condition condition = new Condition();
+            condition.setAttributes(Collections.singletonList(ATTRIBUTES[random.nextInt(ATTRIBUTES.length)]));
+            Subscription subscription = new Subscription("s" + i,
+                    new SubjectSubscription(Collections.singletonList(subjectEntity), condition),
+                    new Notification(Collections.emptyList(), callback), null, Subscription.Status.active);
+            matcher.register(subscription);
+        }
+    }
+
+    @Benchmark
+    public List<Subscription> match() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Entity entity = new Entity(id(random.nextInt(entities)), TYPES[random.nextInt(TYPES.length)]);
+        String attribute = ATTRIBUTES[random.nextInt(ATTRIBUTES.length)];
+        entity.setAttributes(attribute, new Attribute(random.nextInt(100)));
+        return matcher.match(entity, Collections.singletonList(attribute));
+    }
+
+    private static String id(int i) {
+        return "urn:entity:" + (i / 100) + ":" + i;
+    }
+}
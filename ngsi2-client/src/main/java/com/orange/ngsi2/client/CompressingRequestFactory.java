@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureAdapter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Decompresses the gzip or deflate responses while they are read by the message converters, and compresses with
+ * gzip the request bodies given a "Content-Encoding: gzip" header when larger than REQUEST_THRESHOLD bytes (the
+ * header being removed from smaller ones).
+ */
+final class CompressingRequestFactory implements AsyncClientHttpRequestFactory {
+
+    final static String GZIP = "gzip";
+
+    final static String DEFLATE = "deflate";
+
+    final static int REQUEST_THRESHOLD = 1024;
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final AsyncClientHttpRequestFactory requestFactory;
+
+    CompressingRequestFactory(AsyncClientHttpRequestFactory requestFactory) {
+        this.requestFactory = requestFactory;
+    }
+
+    AsyncClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    @Override
+    public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        return new CompressingRequest(requestFactory.createAsyncRequest(uri, httpMethod));
+    }
+
+    private static class CompressingRequest implements AsyncClientHttpRequest {
+
+        private final AsyncClientHttpRequest request;
+
+        /**
+         * Body to compress, null when not compressed
+         */
+        private ByteArrayOutputStream buffer;
+
+        CompressingRequest(AsyncClientHttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            if (buffer != null) {
+                return buffer;
+            }
+            if (GZIP.equalsIgnoreCase(request.getHeaders().getFirst("Content-Encoding"))) {
+                buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+                return buffer;
+            }
+            return request.getBody();
+        }
+
+        @Override
+        public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+            if (buffer != null) {
+                if (buffer.size() > REQUEST_THRESHOLD) {
+                    try (GZIPOutputStream out = new GZIPOutputStream(request.getBody(), BUFFER_SIZE)) {
+                        buffer.writeTo(out);
+                    }
+                } else {
+                    request.getHeaders().remove("Content-Encoding");
+                    buffer.writeTo(request.getBody());
+                }
+            }
+            return new ListenableFutureAdapter<ClientHttpResponse, ClientHttpResponse>(request.executeAsync()) {
+                @Override
+                protected ClientHttpResponse adapt(ClientHttpResponse response) {
+                    String encoding = response.getHeaders().getFirst("Content-Encoding");
+                    if (encoding != null) {
+                        encoding = encoding.trim();
+                        if (GZIP.equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding) || DEFLATE.equalsIgnoreCase(encoding)) {
+                            return new DecompressingResponse(response, encoding);
+                        }
+                    }
+                    return response;
+                }
+            };
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+
+    /**
+     * Response whose body is decompressed while read. Its Content-Length remains the one of the compressed body.
+     */
+    private static class DecompressingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+
+        private final String encoding;
+
+        private final HttpHeaders headers = new HttpHeaders();
+
+        private InputStream body;
+
+        DecompressingResponse(ClientHttpResponse response, String encoding) {
+            this.response = response;
+            this.encoding = encoding;
+            headers.putAll(response.getHeaders());
+            headers.remove("Content-Encoding");
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                InputStream in = response.getBody();
+                if (in == null) {
+                    return null;
+                }
+                // an empty body has no gzip header
+                PushbackInputStream pushback = new PushbackInputStream(in, 1);
+                int first = pushback.read();
+                if (first == -1) {
+                    body = pushback;
+                } else {
+                    pushback.unread(first);
+                    body = DEFLATE.equalsIgnoreCase(encoding) ? new InflaterInputStream(pushback) : new GZIPInputStream(pushback, BUFFER_SIZE);
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public HttpStatus getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public int getRawStatusCode() throws IOException {
+            return response.getRawStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (body != null) {
+                    // release the native state of the inflater
+                    body.close();
+                }
+            } catch (IOException e) {
+                // ignore, the response is closed anyway
+            } finally {
+                response.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Last ETag and body (as a JSON tree) received for each URI, the least recently used URIs being evicted above the capacity.
+ */
+final class ETagCache {
+
+    static final class Entry {
+
+        private final String eTag;
+
+        private final JsonNode body;
+
+        Entry(String eTag, JsonNode body) {
+            this.eTag = eTag;
+            this.body = body;
+        }
+
+        String getETag() {
+            return eTag;
+        }
+
+        JsonNode getBody() {
+            return body;
+        }
+    }
+
+    private final Map<URI, Entry> entries;
+
+    ETagCache(int capacity) {
+        this.entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized Entry get(URI uri) {
+        return entries.get(uri);
+    }
+
+    synchronized void put(URI uri, String eTag, JsonNode body) {
+        entries.put(uri, new Entry(eTag, body));
+    }
+
+    synchronized void remove(URI uri) {
+        entries.remove(uri);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * URI of an endpoint of the NGSIv2 API, like "v2/entities/{entityId}", parsed once for a base URL.
+ * Expanding the variables and adding the query parameters only appends percent-encoded strings to a buffer reused
+ * by each thread, giving the same URI as building it with UriComponentsBuilder and then expanding and encoding it
+ * with the UriTemplate of AsyncRestTemplate: variables are encoded as path, query parameters as query parameters.
+ * As UriComponentsBuilder.toUriString() already encoded the query of the endpoints without variables, their query
+ * parameters are still encoded twice.
+ */
+final class EndpointTemplate {
+
+    private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The encoded literal parts between the variables, the first one including the base URL
+     */
+    private final String[] literals;
+
+    /**
+     * Prefix of the percent-encoded octets of the query parameters
+     */
+    private final String queryEscape;
+
+    /**
+     * @param baseURL the base URL for the NGSIv2 service
+     * @param path the path of the endpoint, relative to the base URL, with variables in braces
+     */
+    EndpointTemplate(String baseURL, String path) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = path.indexOf('{', start)) >= 0) {
+            int close = path.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed variable in " + path);
+            }
+            parts.add(path.substring(start, open));
+            start = close + 1;
+        }
+        parts.add(path.substring(start));
+        literals = new String[parts.size()];
+        literals[0] = UriComponentsBuilder.fromHttpUrl(baseURL).path(parts.get(0)).build().encode().toUriString();
+        for (int i = 1; i < literals.length; i++) {
+            StringBuilder literal = new StringBuilder();
+            encode(literal, parts.get(i), false, "%");
+            literals[i] = literal.toString();
+        }
+        queryEscape = literals.length == 1 ? "%25" : "%";
+    }
+
+    /**
+     * @param values the values of the variables, in order
+     * @return the URI of the endpoint, to complete with query parameters
+     */
+    Uri expand(String... values) {
+        if (values.length != literals.length - 1) {
+            throw new IllegalArgumentException("Expected " + (literals.length - 1) + " values, got " + values.length);
+        }
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        buffer.append(literals[0]);
+        for (int i = 0; i < values.length; i++) {
+            encode(buffer, values[i], false, "%");
+            buffer.append(literals[i + 1]);
+        }
+        return new Uri(buffer, queryEscape);
+    }
+
+    /**
+     * An expanded URI being built
+     */
+    static final class Uri {
+
+        private final StringBuilder buffer;
+
+        private final String escape;
+
+        private boolean hasQuery;
+
+        private Uri(StringBuilder buffer, String escape) {
+            this.buffer = buffer;
+            this.escape = escape;
+        }
+
+        /**
+         * @param name the name of the parameter
+         * @param value the value of the parameter, the parameter is not added if null or empty
+         * @return this URI
+         */
+        Uri queryParam(String name, Object value) {
+            if (value != null) {
+                String string = value.toString();
+                if (!string.isEmpty()) {
+                    buffer.append(hasQuery ? '&' : '?');
+                    hasQuery = true;
+                    encode(buffer, name, true, escape);
+                    buffer.append('=');
+                    encode(buffer, string, true, escape);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param name the name of the parameter
+         * @param values the values of the parameter, joined with commas, the parameter is not added if null or empty
+         * @return this URI
+         */
+        Uri queryParam(String name, Collection<? extends CharSequence> values) {
+            if (values != null && !values.isEmpty()) {
+                queryParam(name, String.join(",", values));
+            }
+            return this;
+        }
+
+        /**
+         * @param name the name of the parameter
+         * @param value the value of the parameter, the parameter is not added if not positive
+         * @return this URI
+         */
+        Uri queryParam(String name, int value) {
+            if (value > 0) {
+                buffer.append(hasQuery ? '&' : '?');
+                hasQuery = true;
+                encode(buffer, name, true, escape);
+                buffer.append('=').append(value);
+            }
+            return this;
+        }
+
+        URI toURI() {
+            return URI.create(buffer.toString());
+        }
+
+        @Override
+        public String toString() {
+            return buffer.toString();
+        }
+    }
+
+    /**
+     * Append the string percent-encoded as a path, or as a query parameter name or value
+     * @param escape the prefix of the encoded octets, "%25" to encode twice
+     */
+    static void encode(StringBuilder buffer, String string, boolean queryParam, String escape) {
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                // slow path for the non ASCII characters
+                encodeUtf8(buffer, string.substring(i), queryParam, escape);
+                return;
+            }
+            if (isAllowed(c, queryParam)) {
+                buffer.append(c);
+            } else {
+                appendEscaped(buffer, c, escape);
+            }
+        }
+    }
+
+    private static void encodeUtf8(StringBuilder buffer, String string, boolean queryParam, String escape) {
+        for (byte b : string.getBytes(StandardCharsets.UTF_8)) {
+            if (b >= 0 && isAllowed((char) b, queryParam)) {
+                buffer.append((char) b);
+            } else {
+                appendEscaped(buffer, b & 0xFF, escape);
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder buffer, int b, String escape) {
+        buffer.append(escape).append(HEX[b >> 4]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * Same rules as the PATH and QUERY_PARAM types of Spring HierarchicalUriComponents (RFC 3986)
+     */
+    private static boolean isAllowed(char c, boolean queryParam) {
+        if (queryParam) {
+            if (c == '=' || c == '+' || c == '&') {
+                return false;
+            }
+            if (c == '?') {
+                return true;
+            }
+        }
+        return isPchar(c) || c == '/';
+    }
+
+    private static boolean isPchar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~'
+                || c == '!' || c == '$' || c == '&' || c == '\'' || c == '(' || c == ')' || c == '*' || c == '+'
+                || c == ',' || c == ';' || c == '=' || c == ':' || c == '@';
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ngsi2ClientMetrics keeping by operation a latency histogram (HdrHistogram, in microseconds), the number of
+ * requests in flight, the request and response bytes and the number of errors by error code.
+ * Requires the org.hdrhistogram:HdrHistogram dependency.
+ *
+ * <pre>
+ * HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+ * client.setMetrics(metrics);
+ * ...
+ * System.out.println(metrics.report());
+ * </pre>
+ */
+public class HdrHistogramClientMetrics implements Ngsi2ClientMetrics {
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private final int significantDigits;
+
+    /**
+     * Metrics with latencies recorded with 3 significant digits
+     */
+    public HdrHistogramClientMetrics() {
+        this(3);
+    }
+
+    /**
+     * @param significantDigits the precision of the recorded latencies, from 0 to 5 significant digits
+     */
+    public HdrHistogramClientMetrics(int significantDigits) {
+        if (significantDigits < 0 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 0 and 5");
+        }
+        this.significantDigits = significantDigits;
+    }
+
+    @Override
+    public void requestStarted(String operation) {
+        operation(operation).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void requestSucceeded(String operation, long durationNanos, long requestBytes, long responseBytes) {
+        Operation metrics = operation(operation);
+        metrics.record(durationNanos, requestBytes);
+        if (responseBytes > 0) {
+            metrics.responseBytes.add(responseBytes);
+        }
+    }
+
+    @Override
+    public void requestFailed(String operation, long durationNanos, long requestBytes, String error) {
+        Operation metrics = operation(operation);
+        metrics.record(durationNanos, requestBytes);
+        metrics.errors.computeIfAbsent(error, e -> new LongAdder()).increment();
+    }
+
+    /**
+     * @return the metrics of the operations called since the creation or the last reset
+     */
+    public Map<String, Operation> getOperations() {
+        return Collections.unmodifiableMap(new TreeMap<>(operations));
+    }
+
+    /**
+     * @param operation the name of the operation
+     * @return the metrics of the operation, or null if never called
+     */
+    public Operation getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * @return the number of requests in flight, all operations included
+     */
+    public int getInFlight() {
+        return operations.values().stream().mapToInt(Operation::getInFlight).sum();
+    }
+
+    /**
+     * Clear the latencies, bytes and errors of all the operations. Requests in flight are kept.
+     */
+    public void reset() {
+        operations.values().forEach(Operation::reset);
+    }
+
+    /**
+     * @return a table of the operations sorted by decreasing 99th percentile latency, in milliseconds
+     */
+    public String report() {
+        // latencies copied once, so that the order does not change while sorting
+        List<Snapshot> snapshots = new ArrayList<>(operations.size());
+        operations.forEach((name, operation) -> snapshots.add(new Snapshot(name, operation)));
+        snapshots.sort(Comparator.comparingLong((Snapshot snapshot) -> snapshot.p99).reversed());
+        StringBuilder report = new StringBuilder(String.format("%-28s %8s %8s %8s %8s %8s %8s %6s %s%n",
+                "operation", "count", "p50", "p99", "p99.9", "max", "bytes", "flight", "errors"));
+        for (Snapshot snapshot : snapshots) {
+            Operation operation = snapshot.operation;
+            Histogram latency = snapshot.latency;
+            report.append(String.format("%-28s %8d %8.2f %8.2f %8.2f %8.2f %8d %6d %s%n", snapshot.name,
+                    latency.getTotalCount(),
+                    latency.getValueAtPercentile(50) / 1000.0, snapshot.p99 / 1000.0,
+                    latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaxValue() / 1000.0,
+                    operation.getRequestBytes() + operation.getResponseBytes(), operation.getInFlight(),
+                    operation.getErrors()));
+        }
+        return report.toString();
+    }
+
+    private Operation operation(String operation) {
+        Operation metrics = operations.get(operation);
+        if (metrics == null) {
+            metrics = operations.computeIfAbsent(operation, o -> new Operation(significantDigits));
+        }
+        return metrics;
+    }
+
+    /**
+     * Latency of an operation copied for the report
+     */
+    private static final class Snapshot {
+
+        final String name;
+
+        final Operation operation;
+
+        final Histogram latency;
+
+        final long p99;
+
+        Snapshot(String name, Operation operation) {
+            this.name = name;
+            this.operation = operation;
+            this.latency = operation.getLatency();
+            this.p99 = latency.getValueAtPercentile(99);
+        }
+    }
+
+    /**
+     * Metrics of an operation
+     */
+    public static class Operation {
+
+        private final ConcurrentHistogram latency;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final LongAdder requestBytes = new LongAdder();
+
+        private final LongAdder responseBytes = new LongAdder();
+
+        private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        private Operation(int significantDigits) {
+            latency = new ConcurrentHistogram(significantDigits);
+        }
+
+        private void record(long durationNanos, long bytes) {
+            inFlight.decrementAndGet();
+            latency.recordValue(TimeUnit.NANOSECONDS.toMicros(Math.max(0, durationNanos)));
+            requestBytes.add(bytes);
+        }
+
+        private void reset() {
+            latency.reset();
+            requestBytes.reset();
+            responseBytes.reset();
+            errors.clear();
+        }
+
+        /**
+         * @return a copy of the latency histogram of the completed requests, successful or not, in microseconds
+         */
+        public Histogram getLatency() {
+            return latency.copy();
+        }
+
+        /**
+         * @return the number of requests sent and not completed yet
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the total size of the request bodies
+         */
+        public long getRequestBytes() {
+            return requestBytes.sum();
+        }
+
+        /**
+         * @return the total size of the response bodies with a Content-Length header
+         */
+        public long getResponseBytes() {
+            return responseBytes.sum();
+        }
+
+        /**
+         * @return the number of failed requests by error code
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> counts = new TreeMap<>();
+            errors.forEach((error, count) -> counts.put(error, count.sum()));
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Counts the bytes of the request bodies written by AsyncRestTemplate.
+ * AsyncRestTemplate writes the body in the thread calling exchange(), the count of the last request of the
+ * thread is kept until taken by takeRequestBytes().
+ */
+final class MeteredRequestFactory implements AsyncClientHttpRequestFactory {
+
+    private static final ThreadLocal<long[]> requestBytes = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final AsyncClientHttpRequestFactory requestFactory;
+
+    MeteredRequestFactory(AsyncClientHttpRequestFactory requestFactory) {
+        this.requestFactory = requestFactory;
+    }
+
+    AsyncClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * @return the number of bytes of the last request body written by the current thread, and reset it
+     */
+    static long takeRequestBytes() {
+        long[] count = requestBytes.get();
+        long bytes = count[0];
+        count[0] = 0;
+        return bytes;
+    }
+
+    @Override
+    public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        return new MeteredRequest(requestFactory.createAsyncRequest(uri, httpMethod));
+    }
+
+    private static class MeteredRequest implements AsyncClientHttpRequest {
+
+        private final AsyncClientHttpRequest request;
+
+        private final long[] count = requestBytes.get();
+
+        MeteredRequest(AsyncClientHttpRequest request) {
+            this.request = request;
+            count[0] = 0;
+        }
+
+        @Override
+        public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+            return request.executeAsync();
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return new FilterOutputStream(request.getBody()) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    count[0]++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                    count[0] += len;
+                }
+            };
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.BulkUpdateRequest;
+import com.orange.ngsi2.model.Entity;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers the entity creations, updates and deletions of a Ngsi2Client and sends them as bulk updates (/v2/op/update),
+ * when a batch holds a given number of entities or after a given delay, whichever comes first.
+ * <p>
+ * A batch has a single action: a call with another action than the pending batch sends it first. Batches are sent
+ * one at a time, each one once the bulk update of the previous one has completed, so that the changes of an entity
+ * are applied in order. Repeated changes of the same entity within a batch are merged into one,
+ * the last value of an attribute wins. The future of each call completes when its batch is processed,
+ * a failure of the bulk update fails all the calls of the batch.
+ */
+public class Ngsi2BatchingClient implements Closeable {
+
+    private final Ngsi2Client client;
+
+    private final int maxEntities;
+
+    private final long maxDelay;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownScheduler;
+
+    private Batch pending;
+
+    /**
+     * Batches to send, in order
+     */
+    private final Deque<Batch> ready = new ArrayDeque<>();
+
+    /**
+     * True while a bulk update is in flight
+     */
+    private boolean sending;
+
+    /**
+     * @param client the client sending the bulk updates
+     * @param maxEntities the number of entities sending a batch
+     * @param maxDelay the maximum time a change is kept before being sent
+     * @param unit the unit of maxDelay
+     */
+    public Ngsi2BatchingClient(Ngsi2Client client, int maxEntities, long maxDelay, TimeUnit unit) {
+        this(client, maxEntities, maxDelay, unit, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ngsi2-batching");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * @param client the client sending the bulk updates
+     * @param maxEntities the number of entities sending a batch
+     * @param maxDelay the maximum time a change is kept before being sent
+     * @param unit the unit of maxDelay
+     * @param scheduler the scheduler of the delayed sendings, not shut down by close
+     */
+    public Ngsi2BatchingClient(Ngsi2Client client, int maxEntities, long maxDelay, TimeUnit unit,
+            ScheduledExecutorService scheduler) {
+        this(client, maxEntities, maxDelay, unit, scheduler, false);
+    }
+
+    private Ngsi2BatchingClient(Ngsi2Client client, int maxEntities, long maxDelay, TimeUnit unit,
+            ScheduledExecutorService scheduler, boolean ownScheduler) {
+        if (maxEntities <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException("maxEntities must be positive and maxDelay not negative");
+        }
+        this.client = client;
+        this.maxEntities = maxEntities;
+        this.maxDelay = unit.toMillis(maxDelay);
+        this.scheduler = scheduler;
+        this.ownScheduler = ownScheduler;
+    }
+
+    /**
+     * Create an entity, sent with the APPEND action: an existing entity is updated instead of rejected
+     * @param entity the Entity to add
+     * @return the listener to notify of completion
+     */
+    public ListenableFuture<Void> addEntity(Entity entity) {
+        return add(BulkUpdateRequest.Action.APPEND, entity.getId(), entity.getType(), entity.getAttributes());
+    }
+
+    /**
+     * Update existing or append some attributes to an entity, sent with the APPEND action,
+     * or APPEND_STRICT when append is true
+     * @param entityId the entity ID
+     * @param type optional entity type to avoid ambiguity when multiple entities have the same ID, null for empty
+     * @param attributes the attributes to update or to append
+     * @param append if true, will only allow to append new attributes
+     * @return the listener to notify of completion
+     */
+    public ListenableFuture<Void> updateEntity(String entityId, String type, Map<String, Attribute> attributes, boolean append) {
+        return add(append ? BulkUpdateRequest.Action.APPEND_STRICT : BulkUpdateRequest.Action.APPEND, entityId, type, attributes);
+    }
+
+    /**
+     * Delete an entity, sent with the DELETE action
+     * @param entityId the entity ID
+     * @param type optional entity type to avoid ambiguity when multiple entities have the same ID, null for empty
+     * @return the listener to notify of completion
+     */
+    public ListenableFuture<Void> deleteEntity(String entityId, String type) {
+        return add(BulkUpdateRequest.Action.DELETE, entityId, type, null);
+    }
+
+    /**
+     * Send the pending batch now
+     */
+    public void flush() {
+        synchronized (this) {
+            enqueue(pending);
+            pending = null;
+        }
+        sendNext();
+    }
+
+    /**
+     * Send the pending batch and stop the scheduler if created by this client
+     */
+    @Override
+    public void close() {
+        flush();
+        if (ownScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    private ListenableFuture<Void> add(BulkUpdateRequest.Action action, String entityId, String type,
+            Map<String, Attribute> attributes) {
+        SettableListenableFuture<Void> future = new SettableListenableFuture<>();
+        synchronized (this) {
+            if (pending != null && pending.action != action) {
+                enqueue(pending);
+                pending = null;
+            }
+            if (pending == null) {
+                pending = new Batch(action);
+                if (maxEntities > 1) {
+                    Batch batch = pending;
+                    batch.timer = scheduler.schedule(() -> flush(batch), maxDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+            pending.add(entityId, type, attributes, future);
+            if (pending.entities.size() >= maxEntities) {
+                enqueue(pending);
+                pending = null;
+            }
+        }
+        sendNext();
+        return future;
+    }
+
+    /**
+     * Send the batch if still pending
+     */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                return;
+            }
+            enqueue(batch);
+            pending = null;
+        }
+        sendNext();
+    }
+
+    /**
+     * Queue a batch to send, called holding the lock
+     */
+    private void enqueue(Batch batch) {
+        if (batch == null) {
+            return;
+        }
+        if (batch.timer != null) {
+            batch.timer.cancel(false);
+        }
+        ready.add(batch);
+    }
+
+    /**
+     * Send the next queued batch, unless a bulk update is in flight: it is then sent on completion of that one
+     */
+    private void sendNext() {
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                if (sending || ready.isEmpty()) {
+                    return;
+                }
+                batch = ready.poll();
+                sending = true;
+            }
+            if (send(batch)) {
+                return;
+            }
+            synchronized (this) {
+                sending = false;
+            }
+        }
+    }
+
+    /**
+     * @return true if the bulk update was started, false if it failed immediately
+     */
+    private boolean send(Batch batch) {
+        List<Entity> entities = new ArrayList<>(batch.entities.size());
+        batch.entities.forEach((key, attributes) -> entities.add(new Entity(key.id, key.type, attributes)));
+        ListenableFuture<Void> result;
+        try {
+            result = client.bulkUpdate(new BulkUpdateRequest(batch.action, entities));
+        } catch (RuntimeException e) {
+            batch.futures.forEach(future -> future.setException(e));
+            return false;
+        }
+        result.addCallback(
+                ignored -> {
+                    batch.futures.forEach(future -> future.set(null));
+                    sent();
+                },
+                ex -> {
+                    batch.futures.forEach(future -> future.setException(ex));
+                    sent();
+                });
+        return true;
+    }
+
+    private void sent() {
+        synchronized (this) {
+            sending = false;
+        }
+        sendNext();
+    }
+
+    /**
+     * The merged changes of entities, for a single action
+     */
+    private static final class Batch {
+
+        final BulkUpdateRequest.Action action;
+
+        final Map<Key, Map<String, Attribute>> entities = new LinkedHashMap<>();
+
+        final List<SettableListenableFuture<Void>> futures = new ArrayList<>();
+
+        ScheduledFuture<?> timer;
+
+        Batch(BulkUpdateRequest.Action action) {
+            this.action = action;
+        }
+
+        void add(String entityId, String type, Map<String, Attribute> attributes, SettableListenableFuture<Void> future) {
+            Map<String, Attribute> merged = entities.computeIfAbsent(new Key(entityId, type), key -> new LinkedHashMap<>());
+            if (attributes != null) {
+                merged.putAll(attributes);
+            }
+            futures.add(future);
+        }
+    }
+
+    private static final class Key {
+
+        final String id;
+
+        final String type;
+
+        Key(String id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return id.equals(key.id) && Objects.equals(type, key.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + Objects.hashCode(type);
+        }
+    }
+}
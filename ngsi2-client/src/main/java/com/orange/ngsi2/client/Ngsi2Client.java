@@ -18,26 +18,32 @@
 package com.orange.ngsi2.client;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.orange.ngsi2.exception.Ngsi2Exception;
 import com.orange.ngsi2.model.*;
 import org.springframework.http.*;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.util.concurrent.ListenableFuture;
-import org.springframework.util.concurrent.ListenableFutureAdapter;
 import org.springframework.web.client.AsyncRestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * NGSIv2 API Client
  */
-public class Ngsi2Client {
+public class Ngsi2Client implements Closeable {
 
     private final static Map<String, ?> noParams = Collections.emptyMap();
 
@@ -45,7 +51,33 @@ public class Ngsi2Client {
 
     private HttpHeaders httpHeaders;
 
-    private String baseURL;
+    private EndpointTemplate v2Uri;
+    private EndpointTemplate entitiesUri;
+    private EndpointTemplate entityUri;
+    private EndpointTemplate attributeUri;
+    private EndpointTemplate attributeValueUri;
+    private EndpointTemplate typesUri;
+    private EndpointTemplate typeUri;
+    private EndpointTemplate registrationsUri;
+    private EndpointTemplate registrationUri;
+    private EndpointTemplate subscriptionsUri;
+    private EndpointTemplate subscriptionUri;
+    private EndpointTemplate bulkUpdateUri;
+    private EndpointTemplate bulkQueryUri;
+    private EndpointTemplate bulkRegisterUri;
+    private EndpointTemplate bulkDiscoverUri;
+
+    private AutoCloseable transport;
+
+    private Ngsi2ClientMetrics metrics = Ngsi2ClientMetrics.NONE;
+
+    private boolean smile;
+
+    private boolean compression;
+
+    private boolean bulkUpdateCompression;
+
+    private volatile ETagCache eTagCache;
 
     private Ngsi2Client() {
         // set default headers for Content-Type and Accept to application/JSON
@@ -62,7 +94,23 @@ public class Ngsi2Client {
     public Ngsi2Client(AsyncRestTemplate asyncRestTemplate, String baseURL) {
         this();
         this.asyncRestTemplate = asyncRestTemplate;
-        this.baseURL = baseURL;
+
+        // Parse the URI of each endpoint once
+        v2Uri = new EndpointTemplate(baseURL, "v2");
+        entitiesUri = new EndpointTemplate(baseURL, "v2/entities");
+        entityUri = new EndpointTemplate(baseURL, "v2/entities/{entityId}");
+        attributeUri = new EndpointTemplate(baseURL, "v2/entities/{entityId}/attrs/{attributeName}");
+        attributeValueUri = new EndpointTemplate(baseURL, "v2/entities/{entityId}/attrs/{attributeName}/value");
+        typesUri = new EndpointTemplate(baseURL, "v2/types");
+        typeUri = new EndpointTemplate(baseURL, "v2/types/{entityType}");
+        registrationsUri = new EndpointTemplate(baseURL, "v2/registrations");
+        registrationUri = new EndpointTemplate(baseURL, "v2/registrations/{registrationId}");
+        subscriptionsUri = new EndpointTemplate(baseURL, "v2/subscriptions");
+        subscriptionUri = new EndpointTemplate(baseURL, "v2/subscriptions/{subscriptionId}");
+        bulkUpdateUri = new EndpointTemplate(baseURL, "v2/op/update");
+        bulkQueryUri = new EndpointTemplate(baseURL, "v2/op/query");
+        bulkRegisterUri = new EndpointTemplate(baseURL, "v2/op/register");
+        bulkDiscoverUri = new EndpointTemplate(baseURL, "v2/op/discover");
 
         // Inject NGSI2 error handler and Java 8 support
         injectNgsi2ErrorHandler();
@@ -70,18 +118,42 @@ public class Ngsi2Client {
     }
 
     /**
-     * @return the list of supported operations under /v2
+     * Constructor for a client owning its transport
+     * @param asyncRestTemplate AsyncRestTemplate to handle requests
+     * @param baseURL base URL for the NGSIv2 service
+     * @param transport the transport of the AsyncRestTemplate, closed with this client
      */
-    public ListenableFuture<Map<String, String>> getV2() {
-        ListenableFuture<ResponseEntity<JsonNode>> responseFuture = request(HttpMethod.GET, baseURL + "v2", null, JsonNode.class);
-        return new ListenableFutureAdapter<Map<String, String>, ResponseEntity<JsonNode>>(responseFuture) {
-            @Override
-            protected Map<String, String> adapt(ResponseEntity<JsonNode> result) throws ExecutionException {
-                Map<String, String> services = new HashMap<>();
-                result.getBody().fields().forEachRemaining(entry -> services.put(entry.getKey(), entry.getValue().textValue()));
-                return services;
+    Ngsi2Client(AsyncRestTemplate asyncRestTemplate, String baseURL, AutoCloseable transport) {
+        this(asyncRestTemplate, baseURL);
+        this.transport = transport;
+    }
+
+    /**
+     * Release the connections and threads of a client created by Ngsi2ClientBuilder.
+     * Does nothing when the AsyncRestTemplate was given to the constructor: it is left to its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
             }
-        };
+        }
+    }
+
+    /**
+     * @return the list of supported operations under /v2
+     */
+    public Ngsi2Future<Map<String, String>> getV2() {
+        return new Ngsi2Future<>(request("getV2", HttpMethod.GET, v2Uri.expand().toURI(), null, JsonNode.class), result -> {
+            Map<String, String> services = new HashMap<>();
+            result.getBody().fields().forEachRemaining(entry -> services.put(entry.getKey(), entry.getValue().textValue()));
+            return services;
+        });
     }
 
     /*
@@ -99,7 +171,7 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a pagined list of Entities
      */
-    public ListenableFuture<Paginated<Entity>> getEntities(Collection<String> ids, String idPattern,
+    public Ngsi2Future<Paginated<Entity>> getEntities(Collection<String> ids, String idPattern,
             Collection<String> types, Collection<String> attrs,
             int offset, int limit, boolean count) {
 
@@ -120,27 +192,48 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a pagined list of Entities
      */
-    public ListenableFuture<Paginated<Entity>> getEntities(Collection<String> ids, String idPattern,
+    public Ngsi2Future<Paginated<Entity>> getEntities(Collection<String> ids, String idPattern,
                                                            Collection<String> types, Collection<String> attrs,
                                                            String query, GeoQuery geoQuery,
                                                            Collection<String> orderBy,
                                                            int offset, int limit, boolean count) {
 
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities");
-        addParam(builder, "id", ids);
-        addParam(builder, "idPattern", idPattern);
-        addParam(builder, "type", types);
-        addParam(builder, "attrs", attrs);
-        addParam(builder, "query", query);
-        addGeoQueryParams(builder, geoQuery);
-        addParam(builder, "orderBy", orderBy);
-        addPaginationParams(builder, offset, limit);
+        EndpointTemplate.Uri uri = entitiesUri.expand();
+        uri.queryParam("id", ids);
+        uri.queryParam("idPattern", idPattern);
+        uri.queryParam("type", types);
+        uri.queryParam("attrs", attrs);
+        uri.queryParam("query", query);
+        addGeoQueryParams(uri, geoQuery);
+        uri.queryParam("orderBy", orderBy);
+        addPaginationParams(uri, offset, limit);
         if (count) {
-            addParam(builder, "options", "count");
+            uri.queryParam("options", "count");
         }
 
-        return adaptPaginated(request(HttpMethod.GET, builder.toUriString(), null, Entity[].class), offset, limit);
+        return adaptPaginated(request("getEntities", HttpMethod.GET, uri.toURI(), null, Entity[].class), offset, limit);
+    }
+
+    /**
+     * Retrieve all the Entities matching a query, page after page while the stream is consumed
+     * @param ids an optional list of entity IDs (cannot be used with idPatterns)
+     * @param idPattern an optional pattern of entity IDs (cannot be used with ids)
+     * @param types an optional list of types of entity
+     * @param attrs an optional list of attributes to return for all entities
+     * @param query an optional Simple Query Language query
+     * @param geoQuery an optional Geo query
+     * @param orderBy an option list of attributes to define the order of entities, for a stable pagination
+     * @param pageSize the number of entities requested at once
+     * @param readAhead the number of pages requested in advance, while the current page is consumed
+     * @return the entities, to be closed if not consumed entirely
+     */
+    public Stream<Entity> streamEntities(Collection<String> ids, String idPattern,
+                                         Collection<String> types, Collection<String> attrs,
+                                         String query, GeoQuery geoQuery,
+                                         Collection<String> orderBy,
+                                         int pageSize, int readAhead) {
+        return stream(new PageIterator<>((offset, limit, count) ->
+                getEntities(ids, idPattern, types, attrs, query, geoQuery, orderBy, offset, limit, count), pageSize, readAhead));
     }
 
     /**
@@ -148,8 +241,8 @@ public class Ngsi2Client {
      * @param entity the Entity to add
      * @return the listener to notify of completion
      */
-    public ListenableFuture<Void> addEntity(Entity entity) {
-        return adapt(request(HttpMethod.POST, UriComponentsBuilder.fromHttpUrl(baseURL).path("v2/entities").toUriString(), entity, Void.class));
+    public Ngsi2Future<Void> addEntity(Entity entity) {
+        return adapt(request("addEntity", HttpMethod.POST, entitiesUri.expand().toURI(), entity, Void.class));
     }
 
     /**
@@ -159,12 +252,11 @@ public class Ngsi2Client {
      * @param attrs the list of attributes to retreive for this entity, null or empty means all attributes
      * @return the entity
      */
-    public ListenableFuture<Entity> getEntity(String entityId, String type, Collection<String> attrs) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}");
-        addParam(builder, "type", type);
-        addParam(builder, "attrs", attrs);
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(entityId).toUriString(), null, Entity.class));
+    public Ngsi2Future<Entity> getEntity(String entityId, String type, Collection<String> attrs) {
+        EndpointTemplate.Uri uri = entityUri.expand(entityId);
+        uri.queryParam("type", type);
+        uri.queryParam("attrs", attrs);
+        return conditionalGet("getEntity", uri.toURI(), Entity.class);
     }
 
     /**
@@ -175,14 +267,13 @@ public class Ngsi2Client {
      * @param append if true, will only allow to append new attributes
      * @return the listener to notify of completion
      */
-    public ListenableFuture<Void> updateEntity(String entityId, String type, Map<String, Attribute> attributes, boolean append) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}");
-        addParam(builder, "type", type);
+    public Ngsi2Future<Void> updateEntity(String entityId, String type, Map<String, Attribute> attributes, boolean append) {
+        EndpointTemplate.Uri uri = entityUri.expand(entityId);
+        uri.queryParam("type", type);
         if (append) {
-            addParam(builder, "options", "append");
+            uri.queryParam("options", "append");
         }
-        return adapt(request(HttpMethod.POST, builder.buildAndExpand(entityId).toUriString(), attributes, Void.class));
+        return adapt(request("updateEntity", HttpMethod.POST, uri.toURI(), attributes, Void.class));
     }
 
     /**
@@ -192,11 +283,10 @@ public class Ngsi2Client {
      * @param attributes the new set of attributes
      * @return the listener to notify of completion
      */
-    public ListenableFuture<Void> replaceEntity(String entityId, String type, Map<String, Attribute> attributes) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.PUT, builder.buildAndExpand(entityId).toUriString(), attributes, Void.class));
+    public Ngsi2Future<Void> replaceEntity(String entityId, String type, Map<String, Attribute> attributes) {
+        EndpointTemplate.Uri uri = entityUri.expand(entityId);
+        uri.queryParam("type", type);
+        return adapt(request("replaceEntity", HttpMethod.PUT, uri.toURI(), attributes, Void.class));
     }
 
     /**
@@ -205,11 +295,10 @@ public class Ngsi2Client {
      * @param type optional entity type to avoid ambiguity when multiple entities have the same ID, null or zero-length for empty
      * @return the listener to notify of completion
      */
-    public ListenableFuture<Void> deleteEntity(String entityId, String type) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.DELETE, builder.buildAndExpand(entityId).toUriString(), null, Void.class));
+    public Ngsi2Future<Void> deleteEntity(String entityId, String type) {
+        EndpointTemplate.Uri uri = entityUri.expand(entityId);
+        uri.queryParam("type", type);
+        return adapt(request("deleteEntity", HttpMethod.DELETE, uri.toURI(), null, Void.class));
     }
 
     /*
@@ -223,11 +312,10 @@ public class Ngsi2Client {
      * @param attributeName the attribute name
      * @return
      */
-    public ListenableFuture<Attribute> getAttribute(String entityId, String type, String attributeName) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}/attrs/{attributeName}");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(entityId, attributeName).toUriString(), null, Attribute.class));
+    public Ngsi2Future<Attribute> getAttribute(String entityId, String type, String attributeName) {
+        EndpointTemplate.Uri uri = attributeUri.expand(entityId, attributeName);
+        uri.queryParam("type", type);
+        return adapt(request("getAttribute", HttpMethod.GET, uri.toURI(), null, Attribute.class));
     }
 
     /**
@@ -237,11 +325,10 @@ public class Ngsi2Client {
      * @param attributeName the attribute name
      * @return
      */
-    public ListenableFuture<Void> updateAttribute(String entityId, String type, String attributeName, Attribute attribute) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}/attrs/{attributeName}");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.PUT, builder.buildAndExpand(entityId, attributeName).toUriString(), attribute, Void.class));
+    public Ngsi2Future<Void> updateAttribute(String entityId, String type, String attributeName, Attribute attribute) {
+        EndpointTemplate.Uri uri = attributeUri.expand(entityId, attributeName);
+        uri.queryParam("type", type);
+        return adapt(request("updateAttribute", HttpMethod.PUT, uri.toURI(), attribute, Void.class));
     }
 
     /**
@@ -251,11 +338,10 @@ public class Ngsi2Client {
      * @param attributeName the attribute name
      * @return
      */
-    public ListenableFuture<Attribute> deleteAttribute(String entityId, String type, String attributeName) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}/attrs/{attributeName}");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.DELETE, builder.buildAndExpand(entityId, attributeName).toUriString(), null, Attribute.class));
+    public Ngsi2Future<Attribute> deleteAttribute(String entityId, String type, String attributeName) {
+        EndpointTemplate.Uri uri = attributeUri.expand(entityId, attributeName);
+        uri.queryParam("type", type);
+        return adapt(request("deleteAttribute", HttpMethod.DELETE, uri.toURI(), null, Attribute.class));
     }
 
     /*
@@ -269,11 +355,10 @@ public class Ngsi2Client {
      * @param attributeName the attribute name
      * @return
      */
-    public ListenableFuture<Object> getAttributeValue(String entityId, String type, String attributeName) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}/attrs/{attributeName}/value");
-        addParam(builder, "type", type);
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(entityId, attributeName).toUriString(), null, Object.class));
+    public Ngsi2Future<Object> getAttributeValue(String entityId, String type, String attributeName) {
+        EndpointTemplate.Uri uri = attributeValueUri.expand(entityId, attributeName);
+        uri.queryParam("type", type);
+        return adapt(request("getAttributeValue", HttpMethod.GET, uri.toURI(), null, Object.class));
     }
 
     /**
@@ -283,13 +368,12 @@ public class Ngsi2Client {
      * @param attributeName the attribute name
      * @return
      */
-    public ListenableFuture<String> getAttributeValueAsString(String entityId, String type, String attributeName) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/entities/{entityId}/attrs/{attributeName}/value");
-        addParam(builder, "type", type);
+    public Ngsi2Future<String> getAttributeValueAsString(String entityId, String type, String attributeName) {
+        EndpointTemplate.Uri uri = attributeValueUri.expand(entityId, attributeName);
+        uri.queryParam("type", type);
         HttpHeaders httpHeaders = cloneHttpHeaders();
         httpHeaders.setAccept(Collections.singletonList(MediaType.TEXT_PLAIN));
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(entityId, attributeName).toUriString(), httpHeaders, null, String.class));
+        return adapt(request("getAttributeValueAsString", HttpMethod.GET, uri.toURI(), httpHeaders, null, String.class));
     }
 
     /*
@@ -303,14 +387,13 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a pagined list of entity types
      */
-    public ListenableFuture<Paginated<EntityType>> getEntityTypes(int offset, int limit, boolean count) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/types");
-        addPaginationParams(builder, offset, limit);
+    public Ngsi2Future<Paginated<EntityType>> getEntityTypes(int offset, int limit, boolean count) {
+        EndpointTemplate.Uri uri = typesUri.expand();
+        addPaginationParams(uri, offset, limit);
         if (count) {
-            addParam(builder, "options", "count");
+            uri.queryParam("options", "count");
         }
-        return adaptPaginated(request(HttpMethod.GET, builder.toUriString(), null, EntityType[].class), offset, limit);
+        return adaptPaginated(request("getEntityTypes", HttpMethod.GET, uri.toURI(), null, EntityType[].class), offset, limit);
     }
 
     /**
@@ -318,10 +401,9 @@ public class Ngsi2Client {
      * @param entityType the entityType to retrieve
      * @return an entity type
      */
-    public ListenableFuture<EntityType> getEntityType(String entityType) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/types/{entityType}");
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(entityType).toUriString(), null, EntityType.class));
+    public Ngsi2Future<EntityType> getEntityType(String entityType) {
+        EndpointTemplate.Uri uri = typeUri.expand(entityType);
+        return conditionalGet("getEntityType", uri.toURI(), EntityType.class);
     }
 
     /*
@@ -332,18 +414,12 @@ public class Ngsi2Client {
      * Retrieve the list of all Registrations
      * @return a list of registrations
      */
-    public ListenableFuture<List<Registration>> getRegistrations() {
+    public Ngsi2Future<List<Registration>> getRegistrations() {
 
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/registrations");
+        EndpointTemplate.Uri uri = registrationsUri.expand();
 
-        ListenableFuture<ResponseEntity<Registration[]>> e = request(HttpMethod.GET, builder.toUriString(), null, Registration[].class);
-        return new ListenableFutureAdapter<List<Registration>, ResponseEntity<Registration[]>>(e) {
-            @Override
-            protected List<Registration> adapt(ResponseEntity<Registration[]> result) throws ExecutionException {
-                return new ArrayList<>(Arrays.asList(result.getBody()));
-            }
-        };
+        return new Ngsi2Future<>(request("getRegistrations", HttpMethod.GET, uri.toURI(), null, Registration[].class),
+                result -> new ArrayList<>(Arrays.asList(result.getBody())));
     }
 
     /**
@@ -351,8 +427,8 @@ public class Ngsi2Client {
      * @param registration the Registration to add
      * @return the listener to notify of completion
      */
-    public ListenableFuture<Void> addRegistration(Registration registration) {
-        return adapt(request(HttpMethod.POST, UriComponentsBuilder.fromHttpUrl(baseURL).path("v2/registrations").toUriString(), registration, Void.class));
+    public Ngsi2Future<Void> addRegistration(Registration registration) {
+        return adapt(request("addRegistration", HttpMethod.POST, registrationsUri.expand().toURI(), registration, Void.class));
     }
 
     /**
@@ -360,10 +436,9 @@ public class Ngsi2Client {
      * @param registrationId the registration ID
      * @return registration
      */
-    public ListenableFuture<Registration> getRegistration(String registrationId) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/registrations/{registrationId}");
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(registrationId).toUriString(), null, Registration.class));
+    public Ngsi2Future<Registration> getRegistration(String registrationId) {
+        EndpointTemplate.Uri uri = registrationUri.expand(registrationId);
+        return adapt(request("getRegistration", HttpMethod.GET, uri.toURI(), null, Registration.class));
     }
 
     /**
@@ -371,10 +446,9 @@ public class Ngsi2Client {
      * @param registrationId the registration ID
      * @return
      */
-    public ListenableFuture<Void> updateRegistration(String registrationId, Registration registration) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/registrations/{registrationId}");
-        return adapt(request(HttpMethod.PATCH, builder.buildAndExpand(registrationId).toUriString(), registration, Void.class));
+    public Ngsi2Future<Void> updateRegistration(String registrationId, Registration registration) {
+        EndpointTemplate.Uri uri = registrationUri.expand(registrationId);
+        return adapt(request("updateRegistration", HttpMethod.PATCH, uri.toURI(), registration, Void.class));
     }
 
     /**
@@ -382,10 +456,9 @@ public class Ngsi2Client {
      * @param registrationId the registration ID
      * @return
      */
-    public ListenableFuture<Void> deleteRegistration(String registrationId) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/registrations/{registrationId}");
-        return adapt(request(HttpMethod.DELETE, builder.buildAndExpand(registrationId).toUriString(), null, Void.class));
+    public Ngsi2Future<Void> deleteRegistration(String registrationId) {
+        EndpointTemplate.Uri uri = registrationUri.expand(registrationId);
+        return adapt(request("deleteRegistration", HttpMethod.DELETE, uri.toURI(), null, Void.class));
     }
 
     /*
@@ -399,15 +472,24 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a pagined list of Subscriptions
      */
-    public ListenableFuture<Paginated<Subscription>> getSubscriptions(int offset, int limit, boolean count) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/subscriptions");
-        addPaginationParams(builder, offset, limit);
+    public Ngsi2Future<Paginated<Subscription>> getSubscriptions(int offset, int limit, boolean count) {
+        EndpointTemplate.Uri uri = subscriptionsUri.expand();
+        addPaginationParams(uri, offset, limit);
         if (count) {
-            addParam(builder, "options", "count");
+            uri.queryParam("options", "count");
         }
 
-        return adaptPaginated(request(HttpMethod.GET, builder.toUriString(), null, Subscription[].class), offset, limit);
+        return adaptPaginated(request("getSubscriptions", HttpMethod.GET, uri.toURI(), null, Subscription[].class), offset, limit);
+    }
+
+    /**
+     * Retrieve all the Subscriptions, page after page while the stream is consumed
+     * @param pageSize the number of subscriptions requested at once
+     * @param readAhead the number of pages requested in advance, while the current page is consumed
+     * @return the subscriptions, to be closed if not consumed entirely
+     */
+    public Stream<Subscription> streamSubscriptions(int pageSize, int readAhead) {
+        return stream(new PageIterator<>(this::getSubscriptions, pageSize, readAhead));
     }
 
     /**
@@ -415,14 +497,9 @@ public class Ngsi2Client {
      * @param subscription the Subscription to add
      * @return subscription Id
      */
-    public ListenableFuture<String> addSubscription(Subscription subscription) {
-        ListenableFuture<ResponseEntity<Void>> s = request(HttpMethod.POST, UriComponentsBuilder.fromHttpUrl(baseURL).path("v2/subscriptions").toUriString(), subscription, Void.class);
-        return new ListenableFutureAdapter<String, ResponseEntity<Void>>(s) {
-            @Override
-            protected String adapt(ResponseEntity<Void> result) throws ExecutionException {
-                return extractId(result);
-            }
-        };
+    public Ngsi2Future<String> addSubscription(Subscription subscription) {
+        return new Ngsi2Future<>(request("addSubscription", HttpMethod.POST, subscriptionsUri.expand().toURI(), subscription, Void.class),
+                this::extractId);
     }
 
     /**
@@ -430,10 +507,9 @@ public class Ngsi2Client {
      * @param subscriptionId the subscription ID
      * @return the subscription
      */
-    public ListenableFuture<Subscription> getSubscription(String subscriptionId) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/subscriptions/{subscriptionId}");
-        return adapt(request(HttpMethod.GET, builder.buildAndExpand(subscriptionId).toUriString(), null, Subscription.class));
+    public Ngsi2Future<Subscription> getSubscription(String subscriptionId) {
+        EndpointTemplate.Uri uri = subscriptionUri.expand(subscriptionId);
+        return conditionalGet("getSubscription", uri.toURI(), Subscription.class);
     }
 
     /**
@@ -441,10 +517,9 @@ public class Ngsi2Client {
      * @param subscriptionId the subscription ID
      * @return
      */
-    public ListenableFuture<Void> updateSubscription(String subscriptionId, Subscription subscription) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/subscriptions/{subscriptionId}");
-        return adapt(request(HttpMethod.PATCH, builder.buildAndExpand(subscriptionId).toUriString(), subscription, Void.class));
+    public Ngsi2Future<Void> updateSubscription(String subscriptionId, Subscription subscription) {
+        EndpointTemplate.Uri uri = subscriptionUri.expand(subscriptionId);
+        return adapt(request("updateSubscription", HttpMethod.PATCH, uri.toURI(), subscription, Void.class));
     }
 
     /**
@@ -452,10 +527,9 @@ public class Ngsi2Client {
      * @param subscriptionId the subscription ID
      * @return
      */
-    public ListenableFuture<Void> deleteSubscription(String subscriptionId) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/subscriptions/{subscriptionId}");
-        return adapt(request(HttpMethod.DELETE, builder.buildAndExpand(subscriptionId).toUriString(), null, Void.class));
+    public Ngsi2Future<Void> deleteSubscription(String subscriptionId) {
+        EndpointTemplate.Uri uri = subscriptionUri.expand(subscriptionId);
+        return adapt(request("deleteSubscription", HttpMethod.DELETE, uri.toURI(), null, Void.class));
     }
 
     /*
@@ -467,10 +541,14 @@ public class Ngsi2Client {
      * @param bulkUpdateRequest a BulkUpdateRequest with an actionType and a list of entities to update
      * @return Nothing on success
      */
-    public ListenableFuture<Void> bulkUpdate(BulkUpdateRequest bulkUpdateRequest) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/op/update");
-        return adapt(request(HttpMethod.POST, builder.toUriString(), bulkUpdateRequest, Void.class));
+    public Ngsi2Future<Void> bulkUpdate(BulkUpdateRequest bulkUpdateRequest) {
+        EndpointTemplate.Uri uri = bulkUpdateUri.expand();
+        if (bulkUpdateCompression) {
+            HttpHeaders httpHeaders = cloneHttpHeaders();
+            httpHeaders.set("Content-Encoding", CompressingRequestFactory.GZIP);
+            return adapt(request("bulkUpdate", HttpMethod.POST, uri.toURI(), httpHeaders, bulkUpdateRequest, Void.class));
+        }
+        return adapt(request("bulkUpdate", HttpMethod.POST, uri.toURI(), bulkUpdateRequest, Void.class));
     }
 
     /**
@@ -482,15 +560,27 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a paginated list of entities
      */
-    public ListenableFuture<Paginated<Entity>> bulkQuery(BulkQueryRequest bulkQueryRequest, Collection<String> orderBy, int offset, int limit, boolean count) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/op/query");
-        addPaginationParams(builder, offset, limit);
-        addParam(builder, "orderBy", orderBy);
+    public Ngsi2Future<Paginated<Entity>> bulkQuery(BulkQueryRequest bulkQueryRequest, Collection<String> orderBy, int offset, int limit, boolean count) {
+        EndpointTemplate.Uri uri = bulkQueryUri.expand();
+        addPaginationParams(uri, offset, limit);
+        uri.queryParam("orderBy", orderBy);
         if (count) {
-            addParam(builder, "options", "count");
+            uri.queryParam("options", "count");
         }
-        return adaptPaginated(request(HttpMethod.POST, builder.toUriString(), bulkQueryRequest, Entity[].class), offset, limit);
+        return adaptPaginated(request("bulkQuery", HttpMethod.POST, uri.toURI(), bulkQueryRequest, Entity[].class), offset, limit);
+    }
+
+    /**
+     * Query multiple entities, page after page while the stream is consumed
+     * @param bulkQueryRequest defines the list of entities, attributes and scopes to match entities
+     * @param orderBy an optional list of attributes to order the entities, for a stable pagination
+     * @param pageSize the number of entities requested at once
+     * @param readAhead the number of pages requested in advance, while the current page is consumed
+     * @return the entities, to be closed if not consumed entirely
+     */
+    public Stream<Entity> streamBulkQuery(BulkQueryRequest bulkQueryRequest, Collection<String> orderBy, int pageSize, int readAhead) {
+        return stream(new PageIterator<>((offset, limit, count) ->
+                bulkQuery(bulkQueryRequest, orderBy, offset, limit, count), pageSize, readAhead));
     }
 
     /**
@@ -498,8 +588,8 @@ public class Ngsi2Client {
      * @param bulkRegisterRequest defines the list of entities to register
      * @return a list of registration ids
      */
-    public ListenableFuture<String[]> bulkRegister(BulkRegisterRequest bulkRegisterRequest) {
-        return adapt(request(HttpMethod.POST, UriComponentsBuilder.fromHttpUrl(baseURL).path("v2/op/register").toUriString(), bulkRegisterRequest, String[].class));
+    public Ngsi2Future<String[]> bulkRegister(BulkRegisterRequest bulkRegisterRequest) {
+        return adapt(request("bulkRegister", HttpMethod.POST, bulkRegisterUri.expand().toURI(), bulkRegisterRequest, String[].class));
     }
 
     /**
@@ -510,14 +600,124 @@ public class Ngsi2Client {
      * @param count true to return the total number of matching entities
      * @return a paginated list of registration
      */
-    public ListenableFuture<Paginated<Registration>> bulkDiscover(BulkQueryRequest bulkQueryRequest, int offset, int limit, boolean count) {
-        UriComponentsBuilder builder = UriComponentsBuilder.fromHttpUrl(baseURL);
-        builder.path("v2/op/discover");
-        addPaginationParams(builder, offset, limit);
+    public Ngsi2Future<Paginated<Registration>> bulkDiscover(BulkQueryRequest bulkQueryRequest, int offset, int limit, boolean count) {
+        EndpointTemplate.Uri uri = bulkDiscoverUri.expand();
+        addPaginationParams(uri, offset, limit);
         if (count) {
-            addParam(builder, "options", "count");
+            uri.queryParam("options", "count");
+        }
+        return adaptPaginated(request("bulkDiscover", HttpMethod.POST, uri.toURI(), bulkQueryRequest, Registration[].class), offset, limit);
+    }
+
+    /**
+     * Record the requests of this client. The request factory of the AsyncRestTemplate is wrapped to count the
+     * bytes of the request bodies.
+     * @param metrics the metrics, Ngsi2ClientMetrics.NONE to stop recording
+     */
+    public void setMetrics(Ngsi2ClientMetrics metrics) {
+        this.metrics = metrics == null ? Ngsi2ClientMetrics.NONE : metrics;
+        AsyncClientHttpRequestFactory requestFactory = asyncRestTemplate.getAsyncRequestFactory();
+        if (this.metrics != Ngsi2ClientMetrics.NONE) {
+            if (requestFactory instanceof CompressingRequestFactory) {
+                // count the compressed bytes sent
+                AsyncClientHttpRequestFactory transport = ((CompressingRequestFactory) requestFactory).getRequestFactory();
+                if (!(transport instanceof MeteredRequestFactory)) {
+                    asyncRestTemplate.setAsyncRequestFactory(new CompressingRequestFactory(new MeteredRequestFactory(transport)));
+                }
+            } else if (!(requestFactory instanceof MeteredRequestFactory)) {
+                asyncRestTemplate.setAsyncRequestFactory(new MeteredRequestFactory(requestFactory));
+            }
+        }
+    }
+
+    /**
+     * @return the metrics recording the requests of this client
+     */
+    public Ngsi2ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Send the requests and accept the responses in the binary Smile format of Jackson instead of JSON.
+     * Requires com.fasterxml.jackson.dataformat:jackson-dataformat-smile and a server accepting Smile,
+     * such as Ngsi2BaseController given a SmileHttpMessageConverter. JSON responses are still accepted.
+     * @param smile true to use Smile, false to go back to JSON
+     */
+    public void setSmile(boolean smile) {
+        this.smile = smile;
+        if (smile) {
+            if (getSmileHttpMessageConverter() == null) {
+                asyncRestTemplate.getMessageConverters().add(0, new SmileHttpMessageConverter());
+            }
+            httpHeaders.setContentType(SmileHttpMessageConverter.APPLICATION_SMILE);
+            httpHeaders.setAccept(Arrays.asList(SmileHttpMessageConverter.APPLICATION_SMILE, MediaType.APPLICATION_JSON));
+        } else {
+            httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+            httpHeaders.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        }
+        injectNgsi2ErrorHandler();
+    }
+
+    /**
+     * @return true if the requests are sent in the Smile format
+     */
+    public boolean isSmile() {
+        return smile;
+    }
+
+    /**
+     * Accept gzip and deflate compressed responses, decompressed while read. The request factory of the
+     * AsyncRestTemplate is wrapped to decompress them. Servers such as Ngsi2BaseController given a
+     * Ngsi2CompressionFilter compress the large responses.
+     * @param compression true to send Accept-Encoding: gzip, deflate
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+        if (compression) {
+            installCompression();
+            httpHeaders.set("Accept-Encoding", CompressingRequestFactory.GZIP + ", " + CompressingRequestFactory.DEFLATE);
+        } else {
+            httpHeaders.remove("Accept-Encoding");
+        }
+    }
+
+    /**
+     * @return true if compressed responses are accepted
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /**
+     * Compress with gzip the bodies of the bulk updates larger than 1 KB. Requires a server decompressing the
+     * request bodies, such as Ngsi2BaseController given a Ngsi2CompressionFilter.
+     * @param bulkUpdateCompression true to compress the bulk updates
+     */
+    public void setBulkUpdateCompression(boolean bulkUpdateCompression) {
+        this.bulkUpdateCompression = bulkUpdateCompression;
+        if (bulkUpdateCompression) {
+            installCompression();
+        }
+    }
+
+    /**
+     * @return true if the bulk updates are compressed
+     */
+    public boolean isBulkUpdateCompression() {
+        return bulkUpdateCompression;
+    }
+
+    /**
+     * When enabled (disabled by default), getEntity, getEntityType and getSubscription keep the last ETag and body
+     * returned for each URI, and send If-None-Match so that the server answers 304 (not modified) instead of the same
+     * body again. A copy of the kept body is then returned, callers never share an instance.
+     * @param size the number of URIs kept, the least recently used being evicted, 0 to disable
+     */
+    public void setETagCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must be positive or zero: " + size);
         }
-        return adaptPaginated(request(HttpMethod.POST, builder.toUriString(), bulkQueryRequest, Registration[].class), offset, limit);
+        eTagCache = size == 0 ? null : new ETagCache(size);
     }
 
     /**
@@ -543,64 +743,118 @@ public class Ngsi2Client {
         return asyncRestTemplate.exchange(uri, method, requestEntity, responseType);
     }
 
-    private <T> ListenableFuture<T> adapt(ListenableFuture<ResponseEntity<T>> responseEntityListenableFuture) {
-        return new ListenableFutureAdapter<T, ResponseEntity<T>>(responseEntityListenableFuture) {
-            @Override
-            protected T adapt(ResponseEntity<T> result) throws ExecutionException {
-                return result.getBody();
-            }
-        };
+    /**
+     * Make an HTTP request with default headers to an encoded URI
+     */
+    protected <T,U> ListenableFuture<ResponseEntity<T>> request(String operation, HttpMethod method, URI uri, U body, Class<T> responseType) {
+        return request(operation, method, uri, getHttpHeaders(), body, responseType);
     }
 
-    private <T> ListenableFuture<Paginated<T>> adaptPaginated(ListenableFuture<ResponseEntity<T[]>> responseEntityListenableFuture, int offset, int limit) {
-        return new ListenableFutureAdapter<Paginated<T>, ResponseEntity<T[]>>(responseEntityListenableFuture) {
-            @Override
-            protected Paginated<T> adapt(ResponseEntity<T[]> result) throws ExecutionException {
-                return new Paginated<>(Arrays.asList(result.getBody()), offset, limit, extractTotalCount(result));
-            }
-        };
+    /**
+     * Make an HTTP request with custom headers to an encoded URI, recorded by the metrics under the operation name
+     */
+    protected <T,U> ListenableFuture<ResponseEntity<T>> request(String operation, HttpMethod method, URI uri, HttpHeaders httpHeaders, U body, Class<T> responseType) {
+        HttpEntity<U> requestEntity = new HttpEntity<>(body, httpHeaders);
+        Ngsi2ClientMetrics metrics = this.metrics;
+        if (metrics == Ngsi2ClientMetrics.NONE) {
+            return asyncRestTemplate.exchange(uri, method, requestEntity, responseType);
+        }
+        long start = System.nanoTime();
+        metrics.requestStarted(operation);
+        ListenableFuture<ResponseEntity<T>> future;
+        try {
+            future = asyncRestTemplate.exchange(uri, method, requestEntity, responseType);
+        } catch (RuntimeException e) {
+            metrics.requestFailed(operation, System.nanoTime() - start, MeteredRequestFactory.takeRequestBytes(), errorCode(e));
+            throw e;
+        }
+        long requestBytes = MeteredRequestFactory.takeRequestBytes();
+        future.addCallback(
+                response -> metrics.requestSucceeded(operation, System.nanoTime() - start, requestBytes, response.getHeaders().getContentLength()),
+                ex -> metrics.requestFailed(operation, System.nanoTime() - start, requestBytes, errorCode(ex)));
+        return future;
     }
 
-    private void addPaginationParams(UriComponentsBuilder builder, int offset, int limit) {
-        if (offset > 0) {
-            builder.queryParam("offset", offset);
+    /**
+     * GET request sending the ETag of the body kept for the URI, a copy of the kept body being returned on 304 (not modified).
+     * Bodies are kept as JSON trees, read again on each hit.
+     */
+    private <T> Ngsi2Future<T> conditionalGet(String operation, URI uri, Class<T> responseType) {
+        ETagCache eTagCache = this.eTagCache;
+        MappingJackson2HttpMessageConverter converter = getMappingJackson2HttpMessageConverter();
+        if (eTagCache == null || converter == null) {
+            return adapt(request(operation, HttpMethod.GET, uri, null, responseType));
+        }
+        ObjectMapper objectMapper = converter.getObjectMapper();
+        ETagCache.Entry cached = eTagCache.get(uri);
+        HttpHeaders httpHeaders = getHttpHeaders();
+        if (cached != null) {
+            httpHeaders = cloneHttpHeaders();
+            httpHeaders.setIfNoneMatch(cached.getETag());
         }
-        if (limit > 0) {
-            builder.queryParam("limit", limit);
+        ListenableFuture<ResponseEntity<T>> request = request(operation, HttpMethod.GET, uri, httpHeaders, null, responseType);
+        if (cached != null) {
+            // not found anymore or failed
+            request.addCallback(response -> { }, ex -> eTagCache.remove(uri));
         }
+        return new Ngsi2Future<>(request, response -> {
+            if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && cached != null) {
+                try {
+                    return objectMapper.treeToValue(cached.getBody(), responseType);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            String eTag = response.getHeaders().getETag();
+            if (eTag != null && response.getBody() != null) {
+                eTagCache.put(uri, eTag, objectMapper.valueToTree(response.getBody()));
+            } else if (cached != null) {
+                eTagCache.remove(uri);
+            }
+            return response.getBody();
+        });
     }
 
-    private void addParam(UriComponentsBuilder builder, String key, String value) {
-        if (!nullOrEmpty(value)) {
-            builder.queryParam(key, value);
-        }
+    private <T> Ngsi2Future<T> adapt(ListenableFuture<ResponseEntity<T>> responseEntityListenableFuture) {
+        return new Ngsi2Future<>(responseEntityListenableFuture, HttpEntity::getBody);
     }
 
-    private void addParam(UriComponentsBuilder builder, String key, Collection<? extends CharSequence> value) {
-        if (!nullOrEmpty(value)) {
-            builder.queryParam(key, String.join(",", value));
-        }
+    private <T> Ngsi2Future<Paginated<T>> adaptPaginated(ListenableFuture<ResponseEntity<T[]>> responseEntityListenableFuture, int offset, int limit) {
+        return new Ngsi2Future<>(responseEntityListenableFuture,
+                result -> new Paginated<>(Arrays.asList(result.getBody()), offset, limit, extractTotalCount(result)));
     }
 
-    private void addGeoQueryParams(UriComponentsBuilder builder, GeoQuery geoQuery) {
+    private static <T> Stream<T> stream(PageIterator<T> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+
+    private void addPaginationParams(EndpointTemplate.Uri uri, int offset, int limit) {
+        uri.queryParam("offset", offset);
+        uri.queryParam("limit", limit);
+    }
+
+    private void addGeoQueryParams(EndpointTemplate.Uri uri, GeoQuery geoQuery) {
         if (geoQuery != null) {
             StringBuilder georel = new StringBuilder(geoQuery.getRelation().name());
             if (geoQuery.getRelation() == GeoQuery.Relation.near) {
                 georel.append(';').append(geoQuery.getModifier());
                 georel.append(':').append(geoQuery.getDistance());
             }
-            builder.queryParam("georel", georel.toString());
-            builder.queryParam("geometry", geoQuery.getGeometry());
-            builder.queryParam("coords", geoQuery.getCoordinates().stream().map(Coordinate::toString).collect(Collectors.joining(";")));
+            uri.queryParam("georel", georel);
+            uri.queryParam("geometry", geoQuery.getGeometry());
+            uri.queryParam("coords", geoQuery.getCoordinates().stream().map(Coordinate::toString).collect(Collectors.joining(";")));
         }
     }
 
-    private boolean nullOrEmpty(Collection i) {
-        return i == null || i.isEmpty();
-    }
-
-    private boolean nullOrEmpty(String i) {
-        return i == null || i.isEmpty();
+    /**
+     * @return the NGSI error code of an error response, else the simple name of the exception
+     */
+    private static String errorCode(Throwable ex) {
+        if (ex instanceof Ngsi2Exception && ((Ngsi2Exception) ex).getError().getError() != null) {
+            return ((Ngsi2Exception) ex).getError().getError();
+        }
+        return ex.getClass().getSimpleName();
     }
 
     private int extractTotalCount(ResponseEntity responseEntity) {
@@ -621,6 +875,13 @@ public class Ngsi2Client {
         return "";
     }
 
+    private void installCompression() {
+        AsyncClientHttpRequestFactory requestFactory = asyncRestTemplate.getAsyncRequestFactory();
+        if (!(requestFactory instanceof CompressingRequestFactory)) {
+            asyncRestTemplate.setAsyncRequestFactory(new CompressingRequestFactory(requestFactory));
+        }
+    }
+
     /**
      * @return return a clone HttpHeader from default HttpHeader
      */
@@ -639,22 +900,36 @@ public class Ngsi2Client {
     protected void injectNgsi2ErrorHandler() {
         MappingJackson2HttpMessageConverter converter = getMappingJackson2HttpMessageConverter();
         if (converter != null) {
-            this.asyncRestTemplate.setErrorHandler(new Ngsi2ResponseErrorHandler(converter.getObjectMapper()));
+            // the Smile classes are only loaded when Smile is used
+            SmileHttpMessageConverter smileConverter = smile ? getSmileHttpMessageConverter() : null;
+            this.asyncRestTemplate.setErrorHandler(new Ngsi2ResponseErrorHandler(converter.getObjectMapper(),
+                    smileConverter == null ? null : smileConverter.getObjectMapper()));
         }
     }
 
     /**
-     * Inject an ObjectMapper supporting Java8 and JavaTime module by default
+     * Inject an ObjectMapper supporting Java8 and JavaTime module by default,
+     * the names read again and again being shared through the default StringPool
      */
     protected void injectJava8ObjectMapper() {
         MappingJackson2HttpMessageConverter converter = getMappingJackson2HttpMessageConverter();
         if (converter != null) {
             converter.getObjectMapper().registerModule(new Jdk8Module())
                     .registerModule(new JavaTimeModule())
+                    .registerModule(new StringPoolModule())
                     .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
         }
     }
 
+    private SmileHttpMessageConverter getSmileHttpMessageConverter() {
+        for (HttpMessageConverter httpMessageConverter : asyncRestTemplate.getMessageConverters()) {
+            if (httpMessageConverter instanceof SmileHttpMessageConverter) {
+                return (SmileHttpMessageConverter) httpMessageConverter;
+            }
+        }
+        return null;
+    }
+
     private MappingJackson2HttpMessageConverter getMappingJackson2HttpMessageConverter() {
         for(HttpMessageConverter httpMessageConverter : asyncRestTemplate.getMessageConverters()) {
             if (httpMessageConverter instanceof MappingJackson2HttpMessageConverter) {
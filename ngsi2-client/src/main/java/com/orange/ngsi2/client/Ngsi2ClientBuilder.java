@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureAdapter;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a Ngsi2Client on a non-blocking Apache HttpAsyncClient transport: connections are pooled and kept alive
+ * between requests, and all the requests are handled by a few I/O reactor threads.
+ * The defaults are meant for a client talking to a single context broker.
+ *
+ * <pre>
+ * Ngsi2Client client = new Ngsi2ClientBuilder("http://broker:1026/")
+ *         .maxConnectionsPerRoute(200)
+ *         .readTimeout(5, TimeUnit.SECONDS)
+ *         .build();
+ * ...
+ * client.close();
+ * </pre>
+ */
+public class Ngsi2ClientBuilder {
+
+    public final static int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 100;
+
+    public final static int DEFAULT_MAX_CONNECTIONS = 200;
+
+    public final static long DEFAULT_KEEP_ALIVE = TimeUnit.SECONDS.toMillis(60);
+
+    public final static int DEFAULT_CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+
+    public final static int DEFAULT_READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    public final static int DEFAULT_CONNECTION_REQUEST_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    private final String baseURL;
+
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    private long keepAlive = DEFAULT_KEEP_ALIVE;
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    private int connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+
+    private Ngsi2ClientMetrics metrics = Ngsi2ClientMetrics.NONE;
+
+    private boolean smile;
+
+    private boolean compression;
+
+    private boolean bulkUpdateCompression;
+
+    /**
+     * @param baseURL base URL for the NGSIv2 service
+     */
+    public Ngsi2ClientBuilder(String baseURL) {
+        this.baseURL = baseURL;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute the maximum number of connections to a host, 100 by default
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = positive(maxConnectionsPerRoute, "maxConnectionsPerRoute");
+        return this;
+    }
+
+    /**
+     * @param maxConnections the maximum number of connections of the pool, 200 by default
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder maxConnections(int maxConnections) {
+        this.maxConnections = positive(maxConnections, "maxConnections");
+        return this;
+    }
+
+    /**
+     * @param duration how long an idle connection is kept open, 60 seconds by default, 0 to close the connections
+     * after each request. A shorter timeout sent by the server in the Keep-Alive header takes precedence.
+     * @param unit the unit of the duration
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder keepAlive(long duration, TimeUnit unit) {
+        this.keepAlive = unit.toMillis(notNegative(duration, "keepAlive"));
+        return this;
+    }
+
+    /**
+     * @param duration the timeout to establish a connection, 5 seconds by default, 0 for none
+     * @param unit the unit of the duration
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder connectTimeout(long duration, TimeUnit unit) {
+        this.connectTimeout = millis(duration, unit, "connectTimeout");
+        return this;
+    }
+
+    /**
+     * @param duration the maximum inactivity while waiting for a response, 30 seconds by default, 0 for none
+     * @param unit the unit of the duration
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder readTimeout(long duration, TimeUnit unit) {
+        this.readTimeout = millis(duration, unit, "readTimeout");
+        return this;
+    }
+
+    /**
+     * @param duration the timeout to get a connection from the pool when all are in use, 10 seconds by default,
+     * 0 for none
+     * @param unit the unit of the duration
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder connectionRequestTimeout(long duration, TimeUnit unit) {
+        this.connectionRequestTimeout = millis(duration, unit, "connectionRequestTimeout");
+        return this;
+    }
+
+    /**
+     * @param ioThreads the number of I/O reactor threads, the number of processors by default
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder ioThreads(int ioThreads) {
+        this.ioThreads = positive(ioThreads, "ioThreads");
+        return this;
+    }
+
+    /**
+     * @param metrics the metrics recording the requests of the client, none by default
+     * @return this builder
+     */
+    public Ngsi2ClientBuilder metrics(Ngsi2ClientMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @param smile true to send and accept the binary Smile format instead of JSON, false by default
+     * @return this builder
+     * @see Ngsi2Client#setSmile(boolean)
+     */
+    public Ngsi2ClientBuilder smile(boolean smile) {
+        this.smile = smile;
+        return this;
+    }
+
+    /**
+     * @param compression true to accept gzip and deflate compressed responses, false by default
+     * @return this builder
+     * @see Ngsi2Client#setCompression(boolean)
+     */
+    public Ngsi2ClientBuilder compression(boolean compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    /**
+     * @param bulkUpdateCompression true to compress the bodies of the bulk updates with gzip, false by default
+     * @return this builder
+     * @see Ngsi2Client#setBulkUpdateCompression(boolean)
+     */
+    public Ngsi2ClientBuilder bulkUpdateCompression(boolean bulkUpdateCompression) {
+        this.bulkUpdateCompression = bulkUpdateCompression;
+        return this;
+    }
+
+    /**
+     * @return a new client, to be closed when no more used to release its connections and threads
+     */
+    public Ngsi2Client build() {
+        HttpComponentsAsyncClientHttpRequestFactory requestFactory = buildRequestFactory();
+        Ngsi2Client client = new Ngsi2Client(new AsyncRestTemplate(requestFactory), baseURL, requestFactory::destroy);
+        client.setMetrics(metrics);
+        if (smile) {
+            client.setSmile(true);
+        }
+        if (compression) {
+            client.setCompression(true);
+        }
+        if (bulkUpdateCompression) {
+            client.setBulkUpdateCompression(true);
+        }
+        return client;
+    }
+
+    /**
+     * @return the request factory of the transport, for use by another AsyncRestTemplate. It must be destroyed
+     * when no more used.
+     */
+    public HttpComponentsAsyncClientHttpRequestFactory buildRequestFactory() {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout)
+                .build();
+        return new RequestFactory(buildHttpAsyncClient(requestConfig), requestConfig);
+    }
+
+    private CloseableHttpAsyncClient buildHttpAsyncClient(RequestConfig requestConfig) {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(connectTimeout)
+                .setSoTimeout(readTimeout)
+                .setSoKeepAlive(keepAlive > 0)
+                .setTcpNoDelay(true)
+                .build();
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        } catch (IOReactorException e) {
+            throw new UncheckedIOException(e);
+        }
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setMaxTotal(Math.max(maxConnections, maxConnectionsPerRoute));
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig);
+        if (keepAlive > 0) {
+            builder.setKeepAliveStrategy(keepAliveStrategy(keepAlive));
+        } else {
+            builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the timeout of the Keep-Alive response header if any, bounded by max
+     */
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(long max) {
+        return (response, context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration < 0 ? max : Math.min(duration, max);
+        };
+    }
+
+    /**
+     * Sets the request configuration on each request, as the default request configuration of the client
+     * would otherwise be replaced by RequestConfig.DEFAULT.
+     * Cancelling a request also shuts its connection down, so that it is released at once instead of being held
+     * until the response or the read timeout: HttpAsyncClient only marks its future as cancelled.
+     */
+    private static class RequestFactory extends HttpComponentsAsyncClientHttpRequestFactory {
+
+        /** context created by createAsyncRequest, in the calling thread */
+        private static final ThreadLocal<HttpContext> createdContext = new ThreadLocal<>();
+
+        private final RequestConfig requestConfig;
+
+        RequestFactory(CloseableHttpAsyncClient httpAsyncClient, RequestConfig requestConfig) {
+            super(httpAsyncClient);
+            this.requestConfig = requestConfig;
+        }
+
+        @Override
+        public AsyncClientHttpRequest createAsyncRequest(URI uri, HttpMethod httpMethod) throws IOException {
+            try {
+                AsyncClientHttpRequest request = super.createAsyncRequest(uri, httpMethod);
+                return new CancellableRequest(request, createdContext.get());
+            } finally {
+                createdContext.remove();
+            }
+        }
+
+        @Override
+        protected HttpContext createHttpContext(HttpMethod httpMethod, URI uri) {
+            HttpClientContext context = HttpClientContext.create();
+            context.setRequestConfig(requestConfig);
+            createdContext.set(context);
+            return context;
+        }
+    }
+
+    private static class CancellableRequest implements AsyncClientHttpRequest {
+
+        private final AsyncClientHttpRequest request;
+
+        private final HttpContext context;
+
+        CancellableRequest(AsyncClientHttpRequest request, HttpContext context) {
+            this.request = request;
+            this.context = context;
+        }
+
+        @Override
+        public ListenableFuture<ClientHttpResponse> executeAsync() throws IOException {
+            ListenableFuture<ClientHttpResponse> future = request.executeAsync();
+            return new ListenableFutureAdapter<ClientHttpResponse, ClientHttpResponse>(future) {
+                @Override
+                protected ClientHttpResponse adapt(ClientHttpResponse response) {
+                    return response;
+                }
+
+                @Override
+                public boolean cancel(boolean mayInterruptIfRunning) {
+                    boolean cancelled = super.cancel(mayInterruptIfRunning);
+                    if (cancelled) {
+                        shutdownConnection();
+                    }
+                    return cancelled;
+                }
+            };
+        }
+
+        /**
+         * Shut down the connection of the request if already leased, its exchange then failing
+         */
+        private void shutdownConnection() {
+            Object connection = context == null ? null : context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+            if (connection instanceof HttpConnection) {
+                try {
+                    ((HttpConnection) connection).shutdown();
+                } catch (IOException e) {
+                    // closed anyway
+                }
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return request.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+
+    private static int positive(int value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    private static long notNegative(long value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative");
+        }
+        return value;
+    }
+
+    private static int millis(long duration, TimeUnit unit, String name) {
+        return (int) Math.min(Integer.MAX_VALUE, unit.toMillis(notNegative(duration, name)));
+    }
+}
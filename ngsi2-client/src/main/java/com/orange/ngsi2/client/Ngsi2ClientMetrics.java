@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+/**
+ * Instrumentation hook of Ngsi2Client, called for each request with the name of the operation (the name of the
+ * Ngsi2Client method: getEntities, bulkUpdate...).
+ * The methods are called by the threads sending the requests and handling the responses, they must be thread-safe
+ * and fast. All the methods do nothing by default.
+ */
+public interface Ngsi2ClientMetrics {
+
+    /**
+     * Metrics recording nothing, used by default
+     */
+    Ngsi2ClientMetrics NONE = new Ngsi2ClientMetrics() {};
+
+    /**
+     * Called before sending a request
+     * @param operation the name of the operation
+     */
+    default void requestStarted(String operation) {
+    }
+
+    /**
+     * Called when a successful response is received
+     * @param operation the name of the operation
+     * @param durationNanos the duration since the request was started, in nanoseconds
+     * @param requestBytes the size of the request body
+     * @param responseBytes the size of the response body given by its Content-Length header, -1 if unknown
+     */
+    default void requestSucceeded(String operation, long durationNanos, long requestBytes, long responseBytes) {
+    }
+
+    /**
+     * Called when a request fails
+     * @param operation the name of the operation
+     * @param durationNanos the duration since the request was started, in nanoseconds
+     * @param requestBytes the size of the request body
+     * @param error the NGSI error code of an error response (ex: "NotFound"), else the simple name of the exception
+     */
+    default void requestFailed(String operation, long durationNanos, long requestBytes, String error) {
+    }
+}
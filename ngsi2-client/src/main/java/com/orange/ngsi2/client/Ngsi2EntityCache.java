@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.model.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-through cache of the entities retrieved by Ngsi2Client.getEntity, with a time to live by entity type.
+ * Reads do not lock: above a maximum number of entities, the entities not requested since the previous eviction
+ * are evicted first (second chance, approximating LRU).
+ * <p>
+ * An entity retrieved with all its attributes also answers the requests for a subset of its attributes;
+ * otherwise each requested set of attributes is cached separately. Concurrent requests of the same entity and
+ * attributes share a single HTTP request. Failures are not cached.
+ * <p>
+ * The entities can be evicted as soon as they change by subscribing to their changes with a callback URL of the
+ * application: the notifications received on this URL are to be given to onNotification.
+ */
+public class Ngsi2EntityCache implements Closeable {
+
+    private static final Set<String> ALL_ATTRIBUTES = Collections.emptySet();
+
+    private final Ngsi2Client client;
+
+    private final long defaultTtl;
+
+    private final Map<String, Long> ttlByType = new ConcurrentHashMap<>();
+
+    private final int maxEntities;
+
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Held by a single thread evicting entities
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final List<String> subscriptionIds = new CopyOnWriteArrayList<>();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @param client the client retrieving the entities
+     * @param maxEntities the maximum number of cached entities
+     * @param ttl the default time to live of an entity
+     * @param unit the unit of the time to live
+     */
+    public Ngsi2EntityCache(Ngsi2Client client, int maxEntities, long ttl, TimeUnit unit) {
+        if (maxEntities <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("maxEntities must be positive and ttl not negative");
+        }
+        this.client = client;
+        this.maxEntities = maxEntities;
+        this.defaultTtl = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param type an entity type
+     * @param ttl the time to live of the entities of this type, instead of the default one
+     * @param unit the unit of the time to live
+     */
+    public void setTtl(String type, long ttl, TimeUnit unit) {
+        ttlByType.put(type, unit.toNanos(ttl));
+    }
+
+    /**
+     * Get an entity from the cache, or from the server when not cached or expired
+     * @param entityId the entity ID
+     * @param type optional entity type to avoid ambiguity when multiple entities have the same ID, null for empty
+     * @param attrs the list of attributes to retrieve for this entity, null or empty means all attributes
+     * @return the entity, a deep copy which can be modified
+     */
+    public CompletableFuture<Entity> getEntity(String entityId, String type, Collection<String> attrs) {
+        Set<String> attributes = attrs == null || attrs.isEmpty() ? ALL_ATTRIBUTES : new HashSet<>(attrs);
+        Key key = new Key(entityId, type);
+        long now = System.nanoTime();
+        Entry entry = entry(key);
+        Load load = valid(entry.loads.get(ALL_ATTRIBUTES), now);
+        if (load == null) {
+            load = valid(entry.loads.get(attributes), now);
+        }
+        if (load == null) {
+            Load created = new Load(now + ttl(type));
+            load = entry.loads.compute(attributes, (k, current) -> valid(current, now) == null ? created : current);
+            if (load == created) {
+                load(key, entry, attributes, load);
+            }
+        }
+        return load.future.thenApply(entity -> copy(entity, attributes));
+    }
+
+    /**
+     * Evict an entity
+     * @param entityId the entity ID
+     * @param type the entity type, null to evict the entities of all types with this ID
+     */
+    public void invalidate(String entityId, String type) {
+        if (type == null) {
+            entries.keySet().removeIf(key -> key.id.equals(entityId));
+        } else {
+            entries.remove(new Key(entityId, type));
+            entries.remove(new Key(entityId, null));
+        }
+    }
+
+    /**
+     * Evict all the entities
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Subscribe to the changes of entities, so that they are evicted as soon as they change
+     * @param entities the entities to watch
+     * @param callback the URL of the application receiving the notifications, which are to be given to onNotification
+     * @return the subscription ID, the subscription is deleted by close
+     */
+    public CompletableFuture<String> subscribe(List<SubjectEntity> entities, URL callback) {
+        Notification notification = new Notification(Collections.emptyList(), callback);
+        notification.setAttrsFormat(Optional.of(Notification.Format.keyValues));
+        Subscription subscription = new Subscription(null, new SubjectSubscription(entities, new Condition()), notification,
+                null, Subscription.Status.active);
+        return client.addSubscription(subscription).thenApply(subscriptionId -> {
+            subscriptionIds.add(subscriptionId);
+            return subscriptionId;
+        });
+    }
+
+    /**
+     * Evict the entities of a notification
+     * @param body the body of the notification: {"subscriptionId": "...", "data": [entities]}
+     * @throws IOException if the body is not valid JSON
+     */
+    public void onNotification(byte[] body) throws IOException {
+        for (JsonNode entity : objectMapper.readTree(body).path("data")) {
+            JsonNode id = entity.get("id");
+            if (id != null && id.isTextual()) {
+                JsonNode type = entity.get("type");
+                invalidate(id.textValue(), type != null && type.isTextual() ? type.textValue() : null);
+            }
+        }
+    }
+
+    /**
+     * Delete the subscriptions and evict all the entities
+     */
+    @Override
+    public void close() {
+        subscriptionIds.forEach(client::deleteSubscription);
+        subscriptionIds.clear();
+        invalidateAll();
+    }
+
+    /**
+     * @return the entry of the entity, marked as used, or added
+     */
+    private Entry entry(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (!entry.used) {
+                entry.used = true;
+            }
+            return entry;
+        }
+        entry = new Entry();
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            return existing;
+        }
+        if (entries.size() > maxEntities) {
+            evict(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Remove entities down to the maximum number, those requested since the previous pass being spared once
+     * @param added the entity just added, kept
+     */
+    private void evict(Key added) {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int pass = 0; pass < 2 && entries.size() > maxEntities; pass++) {
+                Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+                while (iterator.hasNext() && entries.size() > maxEntities) {
+                    Map.Entry<Key, Entry> next = iterator.next();
+                    if (next.getKey().equals(added)) {
+                        continue;
+                    }
+                    if (next.getValue().used) {
+                        next.getValue().used = false;
+                    } else {
+                        iterator.remove();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private void load(Key key, Entry entry, Set<String> attributes, Load load) {
+        CompletableFuture<Entity> request;
+        try {
+            request = client.getEntity(key.id, key.type, attributes.isEmpty() ? null : attributes);
+        } catch (RuntimeException e) {
+            request = new CompletableFuture<>();
+            request.completeExceptionally(e);
+        }
+        request.whenComplete((entity, failure) -> {
+            if (failure != null) {
+                entry.loads.remove(attributes, load);
+                load.future.completeExceptionally(failure);
+            } else {
+                load.future.complete(entity);
+            }
+        });
+    }
+
+    private long ttl(String type) {
+        Long ttl = type == null ? null : ttlByType.get(type);
+        return ttl == null ? defaultTtl : ttl;
+    }
+
+    private static Load valid(Load load, long now) {
+        return load != null && now - load.expires < 0 ? load : null;
+    }
+
+    /**
+     * @return a deep copy of the entity with the requested attributes, sharing nothing mutable with the cached one
+     */
+    private static Entity copy(Entity entity, Set<String> attributes) {
+        Entity copy = new Entity(entity.getId(), entity.getType());
+        if (entity.getAttributes() != null) {
+            Map<String, Attribute> copied = new LinkedHashMap<>();
+            entity.getAttributes().forEach((name, attribute) -> {
+                if (attributes.isEmpty() || attributes.contains(name)) {
+                    copied.put(name, attribute == null ? null : copy(attribute));
+                }
+            });
+            copy.setAttributes(copied);
+        }
+        return copy;
+    }
+
+    private static Attribute copy(Attribute attribute) {
+        Attribute copy = new Attribute(copyValue(attribute.getValue()));
+        copy.setType(attribute.getType());
+        if (!attribute.getMetadata().isEmpty()) {
+            Map<String, Metadata> metadata = new LinkedHashMap<>();
+            attribute.getMetadata().forEach((name, value) ->
+                    metadata.put(name, value == null ? null : new Metadata(value.getType(), copyValue(value.getValue()))));
+            copy.setMetadata(metadata);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of the structured values (JSON objects and arrays), other values being immutable
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((key, item) -> copy.put(key, copyValue(item)));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            ((List<?>) value).forEach(item -> copy.add(copyValue(item)));
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * The loads of an entity, by requested attributes
+     */
+    private static final class Entry {
+
+        final Map<Set<String>, Load> loads = new ConcurrentHashMap<>(2);
+
+        volatile boolean used;
+    }
+
+    private static final class Load {
+
+        final CompletableFuture<Entity> future = new CompletableFuture<>();
+
+        final long expires;
+
+        Load(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    private static final class Key {
+
+        final String id;
+
+        final String type;
+
+        Key(String id, String type) {
+            this.id = id;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return id.equals(key.id) && Objects.equals(type, key.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + Objects.hashCode(type);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.springframework.util.concurrent.FailureCallback;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SuccessCallback;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Result of a Ngsi2Client request, both a CompletableFuture to compose requests (thenCombine, allOf...)
+ * and a Spring ListenableFuture. It is completed by the callback of the HTTP request, with the response adapted
+ * once, so that there is no intermediate future between the request and the caller.
+ * <p>
+ * As for the ListenableFuture previously returned by the client, get() throws the runtime exceptions of the request
+ * (like Ngsi2Exception) as is, other failures are wrapped in an ExecutionException.
+ */
+public class Ngsi2Future<T> extends CompletableFuture<T> implements ListenableFuture<T> {
+
+    private final ListenableFuture<?> request;
+
+    /**
+     * @param request the future of the HTTP request
+     * @param adapter the adapter of the result of the request
+     */
+    <S> Ngsi2Future(ListenableFuture<S> request, Function<? super S, ? extends T> adapter) {
+        this.request = request;
+        request.addCallback(result -> {
+            T adapted;
+            try {
+                adapted = adapter.apply(result);
+            } catch (Throwable ex) {
+                completeExceptionally(ex);
+                return;
+            }
+            complete(adapted);
+        }, this::completeExceptionally);
+    }
+
+    /**
+     * @param future a ListenableFuture
+     * @return a Ngsi2Future completed with the future
+     */
+    public static <T> Ngsi2Future<T> of(ListenableFuture<T> future) {
+        return new Ngsi2Future<>(future, Function.identity());
+    }
+
+    @Override
+    public void addCallback(ListenableFutureCallback<? super T> callback) {
+        addCallback(callback, callback);
+    }
+
+    @Override
+    public void addCallback(SuccessCallback<? super T> successCallback, FailureCallback failureCallback) {
+        whenComplete((result, ex) -> {
+            if (ex == null) {
+                successCallback.onSuccess(result);
+            } else {
+                failureCallback.onFailure(ex);
+            }
+        });
+    }
+
+    /**
+     * Cancel the HTTP request too
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        request.cancel(mayInterruptIfRunning);
+        return super.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        try {
+            return super.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return super.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static ExecutionException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        }
+        return e;
+    }
+}
@@ -9,15 +9,25 @@ import org.springframework.web.client.ResponseErrorHandler;
 import java.io.IOException;
 
 /**
- * Error responses should contain an Error json structure.
+ * Error responses should contain an Error json structure, or an Error Smile structure when Smile is accepted.
  * Handle all errors by throwing an Ngsi2Exception containing the error.
  */
 class Ngsi2ResponseErrorHandler implements ResponseErrorHandler {
 
     private ObjectMapper objectMapper;
 
+    private ObjectMapper smileObjectMapper;
+
     Ngsi2ResponseErrorHandler(ObjectMapper objectMapper) {
+        this(objectMapper, null);
+    }
+
+    /**
+     * @param smileObjectMapper the ObjectMapper reading Smile responses, null if Smile is not accepted
+     */
+    Ngsi2ResponseErrorHandler(ObjectMapper objectMapper, ObjectMapper smileObjectMapper) {
         this.objectMapper = objectMapper;
+        this.smileObjectMapper = smileObjectMapper;
     }
 
     @Override
@@ -29,7 +39,11 @@ class Ngsi2ResponseErrorHandler implements ResponseErrorHandler {
     public void handleError(ClientHttpResponse response) throws IOException {
         Ngsi2Exception ex;
         try {
-            ex = Ngsi2Exception.fromError(response.getStatusCode().value(), objectMapper.readValue(response.getBody(), Error.class));
+            ObjectMapper mapper = objectMapper;
+            if (smileObjectMapper != null && SmileHttpMessageConverter.APPLICATION_SMILE.includes(response.getHeaders().getContentType())) {
+                mapper = smileObjectMapper;
+            }
+            ex = Ngsi2Exception.fromError(response.getStatusCode().value(), mapper.readValue(response.getBody(), Error.class));
         } catch (Exception e) {
             ex = new Ngsi2Exception(response.getStatusCode().toString(), response.getStatusText(), null);
         }
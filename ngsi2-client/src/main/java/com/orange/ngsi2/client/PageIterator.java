@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.model.Paginated;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Iterates over the items of all the pages of a paginated request, requesting the next pages while the current one
+ * is consumed. Offsets advance by the number of items actually received: a server returning fewer items than the page
+ * size (capping the limit) is followed, the pages requested in advance being realigned.
+ * The total count of the first page, when returned by the server, ends the iteration; otherwise iteration stops at
+ * an empty page, or at a page shorter than the previous ones.
+ */
+final class PageIterator<T> implements Iterator<T>, AutoCloseable {
+
+    /**
+     * A paginated request
+     */
+    @FunctionalInterface
+    interface PageRequest<T> {
+        ListenableFuture<Paginated<T>> request(int offset, int limit, boolean count);
+    }
+
+    private final PageRequest<T> pageRequest;
+
+    private final int pageSize;
+
+    private final int readAhead;
+
+    private final Deque<Page<T>> pages = new ArrayDeque<>();
+
+    private Iterator<T> current = Collections.emptyIterator();
+
+    private int nextOffset;
+
+    /**
+     * The number of items expected in a page, the page size until the server returns less
+     */
+    private int step;
+
+    /**
+     * True once a page of step items has been received
+     */
+    private boolean stepReceived;
+
+    /**
+     * The total count of items, -1 until known
+     */
+    private int total = -1;
+
+    private boolean last;
+
+    /**
+     * @param pageRequest the request of a page
+     * @param pageSize the number of items of a page
+     * @param readAhead the number of pages requested in advance, 0 to request a page only when the previous one
+     * is consumed
+     */
+    PageIterator(PageRequest<T> pageRequest, int pageSize, int readAhead) {
+        if (pageSize <= 0 || readAhead < 0) {
+            throw new IllegalArgumentException("pageSize must be positive and readAhead not negative");
+        }
+        this.pageRequest = pageRequest;
+        this.pageSize = pageSize;
+        this.readAhead = readAhead;
+        this.step = pageSize;
+        requestPage(true);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (pages.isEmpty()) {
+                if (!morePages()) {
+                    return false;
+                }
+                requestPage(false);
+            }
+            Page<T> page = pages.poll();
+            Paginated<T> paginated = get(page.future);
+            List<T> items = paginated.getItems();
+            if (total < 0 && paginated.getTotal() > 0) {
+                total = paginated.getTotal();
+            }
+            int end = page.offset + items.size();
+            if (items.isEmpty() || (total >= 0 ? end >= total : items.size() < step && stepReceived)) {
+                close();
+            } else if (items.size() < step) {
+                // the server returns less than requested, the next pages start after the items received
+                step = items.size();
+                cancelPages();
+                nextOffset = end;
+            } else {
+                stepReceived = true;
+            }
+            current = items.iterator();
+            while (pages.size() < readAhead && morePages()) {
+                requestPage(false);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    /**
+     * Cancel the pages requested in advance
+     */
+    @Override
+    public void close() {
+        last = true;
+        cancelPages();
+    }
+
+    private void cancelPages() {
+        pages.forEach(page -> page.future.cancel(true));
+        pages.clear();
+    }
+
+    private boolean morePages() {
+        return !last && (total < 0 || nextOffset < total);
+    }
+
+    private void requestPage(boolean count) {
+        pages.add(new Page<>(nextOffset, pageRequest.request(nextOffset, pageSize, count)));
+        nextOffset += step;
+    }
+
+    private Paginated<T> get(ListenableFuture<Paginated<T>> page) {
+        try {
+            return page.get();
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A page requested at an offset
+     */
+    private static final class Page<T> {
+
+        final int offset;
+
+        final ListenableFuture<Paginated<T>> future;
+
+        Page(int offset, ListenableFuture<Paginated<T>> future) {
+            this.offset = offset;
+            this.future = future;
+        }
+    }
+}
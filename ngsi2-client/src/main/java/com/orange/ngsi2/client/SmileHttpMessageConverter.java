@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.orange.ngsi2.model.StringPoolModule;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Reads and writes the binary Smile format of Jackson (application/x-jackson-smile),
+ * which is smaller and faster to parse than JSON for the communication between services.
+ * Requires com.fasterxml.jackson.dataformat:jackson-dataformat-smile.
+ */
+public class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+    /**
+     * Converter with an ObjectMapper configured as the one of Ngsi2Client
+     */
+    public SmileHttpMessageConverter() {
+        this(new ObjectMapper(new SmileFactory()).registerModule(new Jdk8Module())
+                .registerModule(new JavaTimeModule())
+                .registerModule(new StringPoolModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS));
+    }
+
+    /**
+     * @param objectMapper an ObjectMapper created with a SmileFactory
+     */
+    public SmileHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper, APPLICATION_SMILE);
+        Assert.isInstanceOf(SmileFactory.class, objectMapper.getFactory(), "SmileFactory required");
+    }
+
+    @Override
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        Assert.isInstanceOf(SmileFactory.class, objectMapper.getFactory(), "SmileFactory required");
+        super.setObjectMapper(objectMapper);
+    }
+}
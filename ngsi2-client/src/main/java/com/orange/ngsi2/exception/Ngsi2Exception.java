@@ -26,6 +26,7 @@ public class Ngsi2Exception extends RuntimeException {
         switch (statusCode) {
             case 409: return new ConflictingEntitiesException(error);
             case 400: return new InvalidatedSyntaxException(error);
+            case 404: return new NotFoundException(error);
             default: return new Ngsi2Exception(error);
         }
     }
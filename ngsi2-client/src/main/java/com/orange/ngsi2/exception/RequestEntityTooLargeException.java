@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.exception;
+
+/**
+ * 413 Request entity too large
+ */
+public class RequestEntityTooLargeException extends Ngsi2Exception {
+
+    private final static String message = "The incoming request is too large: %d items, at most %d are accepted.";
+
+    private final static String sizeMessage = "The incoming request is too large: at most %d bytes are accepted.";
+
+    public RequestEntityTooLargeException(int items, int maxItems) {
+        super("413", String.format(message, items, maxItems), null);
+    }
+
+    public RequestEntityTooLargeException(long maxBytes) {
+        super("413", String.format(sizeMessage, maxBytes), null);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Syntax restrictions of the NGSIv2 fields (ids, types, attribute and metadata names and types):
+ * at most 256 printable ASCII characters, excluding whitespace, '#', '&', '/' and '?'.
+ * Used by the server to validate the requests, and usable by clients to check requests before sending them.
+ */
+public final class FieldValidator {
+
+    /**
+     * Maximum length of a field
+     */
+    public static final int MAX_LENGTH = 256;
+
+    /**
+     * Allowed characters from 0 to 63, one bit per character
+     */
+    private static final long LOW;
+
+    /**
+     * Allowed characters from 64 to 127, one bit per character
+     */
+    private static final long HIGH;
+
+    static {
+        long low = 0;
+        long high = 0;
+        for (char c = 0x21; c <= 0x7E; c++) {
+            if (c == '#' || c == '&' || c == '/' || c == '?') {
+                continue;
+            }
+            if (c < 64) {
+                low |= 1L << c;
+            } else {
+                high |= 1L << (c - 64);
+            }
+        }
+        LOW = low;
+        HIGH = high;
+    }
+
+    private FieldValidator() {
+    }
+
+    /**
+     * @param c a character
+     * @return true if the character is allowed in a field
+     */
+    public static boolean isAllowed(char c) {
+        if (c < 64) {
+            return (LOW & (1L << c)) != 0;
+        }
+        return c < 128 && (HIGH & (1L << (c - 64))) != 0;
+    }
+
+    /**
+     * @param field a field
+     * @return true if the field has a valid syntax
+     */
+    public static boolean isValid(CharSequence field) {
+        int length = field.length();
+        if (length > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!isAllowed(field.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param field a field
+     * @throws InvalidatedSyntaxException if the field has an invalid syntax
+     */
+    public static void validate(String field) throws InvalidatedSyntaxException {
+        if (!isValid(field)) {
+            throw new InvalidatedSyntaxException(field);
+        }
+    }
+
+    /**
+     * @param fields fields, ignored if null
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Collection<String> fields) throws InvalidatedSyntaxException {
+        if (fields != null) {
+            for (String field : fields) {
+                validate(field);
+            }
+        }
+    }
+
+    /**
+     * Validate the id, type, attribute names and types and metadata names and types of an entity
+     * @param entity an entity
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Entity entity) throws InvalidatedSyntaxException {
+        validateOptional(entity.getId());
+        validateOptional(entity.getType());
+        validate(entity.getAttributes());
+    }
+
+    /**
+     * Validate the names, types and metadata of attributes
+     * @param attributes attributes, ignored if null
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Map<String, Attribute> attributes) throws InvalidatedSyntaxException {
+        if (attributes != null) {
+            for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
+                validate(entry.getKey());
+                validate(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Validate the type and metadata names and types of an attribute
+     * @param attribute an attribute
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Attribute attribute) throws InvalidatedSyntaxException {
+        if (attribute.getType() != null && attribute.getType().isPresent()) {
+            validate(attribute.getType().get());
+        }
+        validateMetadata(attribute.getMetadata());
+    }
+
+    /**
+     * Validate the subject entities and attributes and the metadata of a registration
+     * @param registration a registration
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Registration registration) throws InvalidatedSyntaxException {
+        SubjectRegistration subject = registration.getSubject();
+        if (subject != null) {
+            validateSubjectEntities(subject.getEntities());
+            validate(subject.getAttributes());
+        }
+        validateMetadata(registration.getMetadata());
+    }
+
+    /**
+     * Validate the subject entities, condition attributes and notified attributes of a subscription
+     * @param subscription a subscription
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(Subscription subscription) throws InvalidatedSyntaxException {
+        SubjectSubscription subject = subscription.getSubject();
+        if (subject != null) {
+            validateSubjectEntities(subject.getEntities());
+            if (subject.getCondition() != null) {
+                validate(subject.getCondition().getAttributes());
+            }
+        }
+        if (subscription.getNotification() != null) {
+            validate(subscription.getNotification().getAttributes());
+        }
+    }
+
+    /**
+     * Validate the entities, attributes and scope types of a bulk query
+     * @param bulkQueryRequest a bulk query
+     * @throws InvalidatedSyntaxException if one of the fields has an invalid syntax
+     */
+    public static void validate(BulkQueryRequest bulkQueryRequest) throws InvalidatedSyntaxException {
+        validateSubjectEntities(bulkQueryRequest.getEntities());
+        validate(bulkQueryRequest.getAttributes());
+        if (bulkQueryRequest.getScopes() != null) {
+            for (Scope scope : bulkQueryRequest.getScopes()) {
+                validateOptional(scope.getType());
+            }
+        }
+    }
+
+    private static void validateOptional(String field) {
+        if (field != null) {
+            validate(field);
+        }
+    }
+
+    private static void validateMetadata(Map<String, Metadata> metadata) {
+        if (metadata != null) {
+            for (Map.Entry<String, Metadata> entry : metadata.entrySet()) {
+                validate(entry.getKey());
+                validateOptional(entry.getValue().getType());
+            }
+        }
+    }
+
+    private static void validateSubjectEntities(List<SubjectEntity> subjectEntities) {
+        if (subjectEntities != null) {
+            for (SubjectEntity subjectEntity : subjectEntities) {
+                if (subjectEntity.getId() != null && subjectEntity.getId().isPresent()) {
+                    validate(subjectEntity.getId().get());
+                }
+                if (subjectEntity.getType() != null && subjectEntity.getType().isPresent()) {
+                    validate(subjectEntity.getType().get());
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,8 @@ package com.orange.ngsi2.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
 
 import java.net.URL;
 import java.time.Instant;
@@ -26,6 +28,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Notification model
@@ -39,6 +42,31 @@ public class Notification {
         normalized, keyValues, values;
     }
 
+    /**
+     * Immutable snapshot of the notification counters
+     */
+    public static final class Counters {
+
+        static final Counters NONE = new Counters(0, null);
+
+        private final long timesSent;
+
+        private final Instant lastNotification;
+
+        public Counters(long timesSent, Instant lastNotification) {
+            this.timesSent = timesSent;
+            this.lastNotification = lastNotification;
+        }
+
+        public long getTimesSent() {
+            return timesSent;
+        }
+
+        public Instant getLastNotification() {
+            return lastNotification;
+        }
+    }
+
     List<String> attributes;
 
     URL callback;
@@ -55,9 +83,10 @@ public class Notification {
     @JsonInclude(JsonInclude.Include.NON_ABSENT)
     Optional<Long> throttling;
 
-    long timesSent;
-
-    Instant lastNotification;
+    /**
+     * timesSent and lastNotification, replaced at once on each notification
+     */
+    private final AtomicReference<Counters> counters = new AtomicReference<>(Counters.NONE);
 
     public Notification() {
     }
@@ -91,20 +120,39 @@ public class Notification {
         this.throttling = throttling;
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public long getTimesSent() {
-        return timesSent;
+        return counters.get().getTimesSent();
     }
 
     public void setTimesSent(long timesSent) {
-        this.timesSent = timesSent;
+        counters.updateAndGet(current -> new Counters(timesSent, current.getLastNotification()));
     }
 
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     public Instant getLastNotification() {
-        return lastNotification;
+        return counters.get().getLastNotification();
     }
 
     public void setLastNotification(Instant lastNotification) {
-        this.lastNotification = lastNotification;
+        counters.updateAndGet(current -> new Counters(current.getTimesSent(), lastNotification));
+    }
+
+    /**
+     * @return timesSent and lastNotification read at once, serialized in place of the separate getters
+     */
+    @JsonUnwrapped
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    public Counters getCounters() {
+        return counters.get();
+    }
+
+    /**
+     * Count a notification sent, updating timesSent and lastNotification at once
+     * @param now the time of the notification
+     */
+    public void notified(Instant now) {
+        counters.updateAndGet(current -> new Counters(current.getTimesSent() + 1, now));
     }
 
     public Optional<Map<String, String>> getHeaders() {
@@ -1,5 +1,8 @@
 package com.orange.ngsi2.model;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -9,6 +12,11 @@ public class Paginated<T> {
 
     private List<T> items;
 
+    /**
+     * Defined only for a streamed Paginated, until the items are consumed
+     */
+    private Iterator<T> iterator;
+
     private int offset;
 
     private int limit;
@@ -22,10 +30,54 @@ public class Paginated<T> {
         this.total = count;
     }
 
+    /**
+     * Defines a streamed Paginated: the items are produced by the iterator while they are consumed
+     * (typically while being written to the response), so that they do not need to be all in memory at once.
+     * @param iterator the items, can only be consumed once
+     * @param offset the offset
+     * @param limit the limit
+     * @param count the total number of items
+     */
+    public Paginated(Iterator<T> iterator, int offset, int limit, int count) {
+        this.iterator = iterator;
+        this.offset = offset;
+        this.limit = limit;
+        this.total = count;
+    }
+
+    /**
+     * @return the list of items, consuming the iterator of a streamed Paginated
+     */
     public List<T> getItems() {
+        if (items == null && iterator != null) {
+            items = new ArrayList<>();
+            iterator.forEachRemaining(items::add);
+            iterator = null;
+        }
         return items;
     }
 
+    /**
+     * @return an iterator over the items. For a streamed Paginated, it can only be called once: the items are
+     * then no longer available.
+     */
+    public Iterator<T> iterator() {
+        if (iterator != null) {
+            Iterator<T> streamed = iterator;
+            iterator = null;
+            items = Collections.emptyList();
+            return streamed;
+        }
+        return getItems().iterator();
+    }
+
+    /**
+     * @return true if the items are produced by an iterator which has not been consumed yet
+     */
+    public boolean isStreamed() {
+        return iterator != null;
+    }
+
     public int getOffset() {
         return offset;
     }
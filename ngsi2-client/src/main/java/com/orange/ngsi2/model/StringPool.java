@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool of canonical strings, used to share a single instance of the entity types, attribute names and types
+ * and metadata names read again and again.
+ *
+ * The pool is a fixed size table where each string can be in one of two slots: a string replaces an older one when both
+ * are taken, so that the pool never grows. Lookups and insertions are lock free, two threads adding the same string at
+ * the same time may both keep their own instance. Strings longer than 128 characters are not pooled.
+ */
+public final class StringPool {
+
+    private static final StringPool DEFAULT = new StringPool(8192);
+
+    private static final int MAX_LENGTH = 128;
+
+    private final AtomicReferenceArray<String> slots;
+
+    private final int mask;
+
+    /**
+     * @param capacity the number of strings kept by the pool, rounded up to a power of two
+     */
+    public StringPool(int capacity) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * @return the pool shared by the client, the server and the in-memory store
+     */
+    public static StringPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param string a string, may be null
+     * @return the pooled instance equal to the string, or the string itself which is added to the pool
+     */
+    public String canonicalize(String string) {
+        if (string == null || string.length() > MAX_LENGTH) {
+            return string;
+        }
+        int index = index(string.hashCode());
+        String first = slots.get(index);
+        if (string.equals(first)) {
+            return first;
+        }
+        String second = slots.get(index ^ 1);
+        if (string.equals(second)) {
+            return second;
+        }
+        add(index, first, second, string);
+        return string;
+    }
+
+    /**
+     * Canonicalize a string given by its characters, without creating the string if it is in the pool
+     * @param chars a buffer of characters
+     * @param offset the offset of the first character in the buffer
+     * @param length the number of characters
+     * @return the pooled instance equal to the characters, or a new string which is added to the pool
+     */
+    public String canonicalize(char[] chars, int offset, int length) {
+        if (length > MAX_LENGTH) {
+            return new String(chars, offset, length);
+        }
+        // same as String.hashCode()
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int index = index(hash);
+        String first = slots.get(index);
+        if (matches(first, chars, offset, length)) {
+            return first;
+        }
+        String second = slots.get(index ^ 1);
+        if (matches(second, chars, offset, length)) {
+            return second;
+        }
+        String string = new String(chars, offset, length);
+        add(index, first, second, string);
+        return string;
+    }
+
+    private int index(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Take the first free slot, or replace the first string when both are taken
+     */
+    private void add(int index, String first, String second, String string) {
+        if (first != null && second == null) {
+            slots.lazySet(index ^ 1, string);
+        } else {
+            slots.lazySet(index, string);
+        }
+    }
+
+    private static boolean matches(String string, char[] chars, int offset, int length) {
+        if (string == null || string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
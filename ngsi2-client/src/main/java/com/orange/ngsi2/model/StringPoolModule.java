@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerBuilder;
+import com.fasterxml.jackson.databind.deser.BeanDeserializerModifier;
+import com.fasterxml.jackson.databind.deser.SettableAnyProperty;
+import com.fasterxml.jackson.databind.deser.SettableBeanProperty;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Jackson module canonicalizing through a StringPool the names repeated in NGSI documents:
+ * the "type" of the model classes (entities, attributes, metadata, entity types...),
+ * the attribute names of entities and the keys of maps of strings (metadata names, attribute names of entity types).
+ */
+public class StringPoolModule extends SimpleModule {
+
+    private final StringPool pool;
+
+    /**
+     * Module using the default pool
+     */
+    public StringPoolModule() {
+        this(StringPool.getDefault());
+    }
+
+    /**
+     * @param pool the pool of strings
+     */
+    public StringPoolModule(StringPool pool) {
+        super("StringPoolModule", Version.unknownVersion());
+        this.pool = pool;
+        addKeyDeserializer(String.class, new KeyDeserializer() {
+            @Override
+            public Object deserializeKey(String key, DeserializationContext ctxt) throws IOException {
+                return pool.canonicalize(key);
+            }
+        });
+        setDeserializerModifier(new Modifier());
+    }
+
+    /**
+     * @return the pool of strings
+     */
+    public StringPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Replaces the deserializer of the "type" properties and the any setter of the model classes
+     */
+    private class Modifier extends BeanDeserializerModifier {
+
+        @Override
+        public BeanDeserializerBuilder updateBuilder(DeserializationConfig config, BeanDescription beanDesc, BeanDeserializerBuilder builder) {
+            if (beanDesc.getBeanClass().getPackage() != StringPoolModule.class.getPackage()) {
+                return builder;
+            }
+            List<SettableBeanProperty> types = new ArrayList<>();
+            for (Iterator<SettableBeanProperty> properties = builder.getProperties(); properties.hasNext(); ) {
+                SettableBeanProperty property = properties.next();
+                if (property.getName().equals("type")) {
+                    types.add(property);
+                }
+            }
+            for (SettableBeanProperty property : types) {
+                Class<?> rawClass = property.getType().getRawClass();
+                if (rawClass == String.class) {
+                    builder.addOrReplaceProperty(property.withValueDeserializer(new PooledStringDeserializer()), true);
+                } else if (rawClass == Optional.class && property.getType().containedType(0) != null
+                        && property.getType().containedType(0).getRawClass() == String.class) {
+                    builder.addOrReplaceProperty(property.withValueDeserializer(new PooledOptionalDeserializer()), true);
+                }
+            }
+            SettableAnyProperty anySetter = builder.getAnySetter();
+            if (anySetter != null) {
+                // the builder does not replace an any setter
+                builder.setAnySetter(null);
+                builder.setAnySetter(new PooledAnyProperty(anySetter));
+            }
+            return builder;
+        }
+    }
+
+    private class PooledStringDeserializer extends StdDeserializer<String> {
+
+        PooledStringDeserializer() {
+            super(String.class);
+        }
+
+        @Override
+        public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (p.getCurrentToken() == JsonToken.VALUE_STRING) {
+                return pool.canonicalize(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            }
+            return pool.canonicalize(StringDeserializer.instance.deserialize(p, ctxt));
+        }
+    }
+
+    private class PooledOptionalDeserializer extends StdDeserializer<Optional<String>> {
+
+        private final PooledStringDeserializer deserializer = new PooledStringDeserializer();
+
+        PooledOptionalDeserializer() {
+            super(Optional.class);
+        }
+
+        @Override
+        public Optional<String> deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            return Optional.ofNullable(deserializer.deserialize(p, ctxt));
+        }
+
+        @Override
+        public Optional<String> getNullValue(DeserializationContext ctxt) {
+            return Optional.empty();
+        }
+    }
+
+    private class PooledAnyProperty extends SettableAnyProperty {
+
+        PooledAnyProperty(SettableAnyProperty property) {
+            super(property);
+        }
+
+        @Override
+        public SettableAnyProperty withValueDeserializer(JsonDeserializer<Object> deserializer) {
+            return new PooledAnyProperty(super.withValueDeserializer(deserializer));
+        }
+
+        @Override
+        public void set(Object instance, String propName, Object value) throws IOException {
+            super.set(instance, pool.canonicalize(propName), value);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.junit.Test;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriTemplate;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for EndpointTemplate
+ */
+public class EndpointTemplateTest {
+
+    private static final String[] VALUES = { "Room1", "DC_S1-D41", "a b", "été", "日本", "a/b", "a:b@c", "!$'()*+,;=",
+            "a&b", "a?b", "a%20b", "-._~", "\"<>\\^`|" };
+
+    @Test
+    public void checkLiteralUris() {
+        assertEquals(URI.create("http://localhost:8080/v2/entities"),
+                new EndpointTemplate("http://localhost:8080/", "v2/entities").expand().toURI());
+        assertEquals(URI.create("http://localhost:8080/ngsi/v2/op/update"),
+                new EndpointTemplate("http://localhost:8080/ngsi/", "v2/op/update").expand().toURI());
+    }
+
+    @Test
+    public void checkPathVariables() {
+        EndpointTemplate template = new EndpointTemplate("http://localhost:8080/", "v2/entities/{entityId}/attrs/{attributeName}/value");
+        for (String value : VALUES) {
+            URI uri = template.expand(value, value).toURI();
+            if (value.contains("?")) {
+                // taken as the start of the query by the former URI building
+                assertEquals("/v2/entities/a%3Fb/attrs/a%3Fb/value", uri.getRawPath());
+            } else {
+                assertEquals(value, springUri("v2/entities/{entityId}/attrs/{attributeName}/value", value, value), uri);
+            }
+        }
+    }
+
+    @Test
+    public void checkQueryParams() {
+        EndpointTemplate template = new EndpointTemplate("http://localhost:8080/", "v2/entities/{entityId}");
+        for (String value : VALUES) {
+            URI expected = new UriTemplate(UriComponentsBuilder.fromHttpUrl("http://localhost:8080/")
+                    .path("v2/entities/{entityId}")
+                    .queryParam("type", value)
+                    .queryParam("attrs", String.join(",", value, "temperature"))
+                    .queryParam("limit", 20)
+                    .buildAndExpand("Room1").toUriString()).expand();
+            URI uri = template.expand("Room1")
+                    .queryParam("type", value)
+                    .queryParam("attrs", Arrays.asList(value, "temperature"))
+                    .queryParam("limit", 20)
+                    .toURI();
+            if (value.contains("&")) {
+                // split into two parameters by the former URI building
+                assertEquals("type=a%26b&attrs=a%26b,temperature&limit=20", uri.getRawQuery());
+            } else {
+                assertEquals(value, expected, uri);
+            }
+        }
+    }
+
+    @Test
+    public void checkQueryParamsWithoutVariables() {
+        EndpointTemplate template = new EndpointTemplate("http://localhost:8080/", "v2/entities");
+        for (String value : VALUES) {
+            URI expected = new UriTemplate(UriComponentsBuilder.fromHttpUrl("http://localhost:8080/")
+                    .path("v2/entities")
+                    .queryParam("type", value)
+                    .queryParam("offset", 10)
+                    .toUriString()).expand();
+            URI uri = template.expand()
+                    .queryParam("type", value)
+                    .queryParam("offset", 10)
+                    .toURI();
+            assertEquals(value, expected, uri);
+        }
+    }
+
+    @Test
+    public void checkSimpleQuery() {
+        URI uri = new EndpointTemplate("http://localhost:8080/", "v2/entities/{entityId}").expand("Room1")
+                .queryParam("query", "temperature==20;humidity>=40")
+                .toURI();
+        assertEquals("http://localhost:8080/v2/entities/Room1?query=temperature%3D%3D20;humidity%3E%3D40", uri.toString());
+        assertEquals("temperature==20;humidity>=40", uri.getQuery().substring("query=".length()));
+    }
+
+    @Test
+    public void checkEmptyParamsSkipped() {
+        URI uri = new EndpointTemplate("http://localhost:8080/", "v2/types").expand()
+                .queryParam("type", (String) null)
+                .queryParam("attrs", "")
+                .queryParam("id", Collections.<String>emptyList())
+                .queryParam("offset", 0)
+                .queryParam("limit", 10)
+                .toURI();
+        assertEquals("http://localhost:8080/v2/types?limit=10", uri.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkMissingValue() {
+        new EndpointTemplate("http://localhost:8080/", "v2/entities/{entityId}").expand();
+    }
+
+    private static URI springUri(String path, Object... values) {
+        String uri = UriComponentsBuilder.fromHttpUrl("http://localhost:8080/").path(path).buildAndExpand(values).toUriString();
+        return new UriTemplate(uri).expand();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for HdrHistogramClientMetrics
+ */
+public class HdrHistogramClientMetricsTest {
+
+    private final HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+
+    @Test
+    public void checkLatencies() {
+        for (int i = 1; i <= 100; i++) {
+            metrics.requestStarted("getEntity");
+            metrics.requestSucceeded("getEntity", TimeUnit.MILLISECONDS.toNanos(i), 0, 100);
+        }
+        HdrHistogramClientMetrics.Operation operation = metrics.getOperation("getEntity");
+        assertEquals(100, operation.getLatency().getTotalCount());
+        assertEquals(50000, operation.getLatency().getValueAtPercentile(50), 50);
+        assertEquals(99000, operation.getLatency().getValueAtPercentile(99), 99);
+        assertEquals(10000, operation.getResponseBytes());
+    }
+
+    @Test
+    public void checkInFlight() {
+        metrics.requestStarted("getEntity");
+        metrics.requestStarted("getEntity");
+        metrics.requestStarted("bulkUpdate");
+        assertEquals(2, metrics.getOperation("getEntity").getInFlight());
+        assertEquals(3, metrics.getInFlight());
+        metrics.requestSucceeded("getEntity", 1000, 0, -1);
+        metrics.requestFailed("bulkUpdate", 1000, 200, "BadRequest");
+        assertEquals(1, metrics.getInFlight());
+        assertEquals(0, metrics.getOperation("getEntity").getResponseBytes());
+    }
+
+    @Test
+    public void checkErrors() {
+        for (String error : Arrays.asList("NotFound", "NotFound", "BadRequest")) {
+            metrics.requestStarted("getEntity");
+            metrics.requestFailed("getEntity", 1000, 0, error);
+        }
+        HdrHistogramClientMetrics.Operation operation = metrics.getOperation("getEntity");
+        assertEquals(2L, (long) operation.getErrors().get("NotFound"));
+        assertEquals(1L, (long) operation.getErrors().get("BadRequest"));
+        assertEquals(3, operation.getLatency().getTotalCount());
+    }
+
+    @Test
+    public void checkReset() {
+        metrics.requestStarted("getEntity");
+        metrics.requestStarted("bulkUpdate");
+        metrics.requestFailed("bulkUpdate", 1000, 200, "BadRequest");
+        metrics.reset();
+        assertEquals(new HashSet<>(Arrays.asList("bulkUpdate", "getEntity")), metrics.getOperations().keySet());
+        assertEquals(0, metrics.getOperation("bulkUpdate").getLatency().getTotalCount());
+        assertEquals(0, metrics.getOperation("bulkUpdate").getRequestBytes());
+        assertEquals(Collections.emptyMap(), metrics.getOperation("bulkUpdate").getErrors());
+        assertEquals(1, metrics.getOperation("getEntity").getInFlight());
+        assertNull(metrics.getOperation("getV2"));
+    }
+
+    @Test
+    public void checkReportSortedByTailLatency() {
+        metrics.requestStarted("getEntity");
+        metrics.requestSucceeded("getEntity", TimeUnit.MILLISECONDS.toNanos(2), 0, 100);
+        metrics.requestStarted("bulkUpdate");
+        metrics.requestSucceeded("bulkUpdate", TimeUnit.MILLISECONDS.toNanos(30), 1000, -1);
+        String[] lines = metrics.report().split("\\R");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("bulkUpdate"));
+        assertTrue(lines[2].startsWith("getEntity"));
+    }
+
+    @Test
+    public void checkReportWhileRecording() throws Exception {
+        Thread recorder = new Thread(() -> {
+            for (int i = 0; i < 200000; i++) {
+                String operation = "operation" + (i % 50);
+                metrics.requestStarted(operation);
+                metrics.requestSucceeded(operation, TimeUnit.MICROSECONDS.toNanos(i % 10000), 0, 100);
+            }
+        });
+        recorder.start();
+        while (recorder.isAlive()) {
+            metrics.report();
+        }
+        recorder.join();
+        assertEquals(51, metrics.report().split("\\R").length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidPrecision() {
+        new HdrHistogramClientMetrics(6);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.BulkUpdateRequest;
+import com.orange.ngsi2.model.Entity;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+/**
+ * Tests for Ngsi2BatchingClient
+ */
+public class Ngsi2BatchingClientTest {
+
+    private final static String baseURL = "http://localhost:8080";
+
+    private final MockRestServiceServer mockServer;
+
+    private final Ngsi2Client ngsiClient;
+
+    private Ngsi2BatchingClient batchingClient;
+
+    public Ngsi2BatchingClientTest() {
+        AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate();
+        ngsiClient = new Ngsi2Client(asyncRestTemplate, baseURL);
+        mockServer = MockRestServiceServer.createServer(asyncRestTemplate);
+    }
+
+    @After
+    public void close() {
+        if (batchingClient != null) {
+            batchingClient.close();
+        }
+    }
+
+    @Test
+    public void checkUpdatesAreMerged() throws Exception {
+        batchingClient = new Ngsi2BatchingClient(ngsiClient, 100, 1, TimeUnit.HOURS);
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.actionType").value("APPEND"))
+                .andExpect(jsonPath("$.entities[2]").doesNotExist())
+                .andExpect(jsonPath("$.entities[0].id").value("room1"))
+                .andExpect(jsonPath("$.entities[0].type").value("Room"))
+                .andExpect(jsonPath("$.entities[0].temp.value").value(23))
+                .andExpect(jsonPath("$.entities[0].humidity.value").value(40))
+                .andExpect(jsonPath("$.entities[1].id").value("room2"))
+                .andRespond(withNoContent());
+
+        ListenableFuture<Void> first = batchingClient.updateEntity("room1", "Room", attributes("temp", 22), false);
+        ListenableFuture<Void> second = batchingClient.updateEntity("room2", "Room", attributes("temp", 18), false);
+        ListenableFuture<Void> third = batchingClient.updateEntity("room1", "Room", attributes("temp", 23), false);
+        ListenableFuture<Void> fourth = batchingClient.updateEntity("room1", "Room", attributes("humidity", 40), false);
+        assertFalse(first.isDone());
+
+        batchingClient.flush();
+        first.get();
+        second.get();
+        third.get();
+        fourth.get();
+        mockServer.verify();
+    }
+
+    @Test
+    public void checkSentWhenFull() throws Exception {
+        batchingClient = new Ngsi2BatchingClient(ngsiClient, 2, 1, TimeUnit.HOURS);
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(jsonPath("$.actionType").value("APPEND"))
+                .andExpect(jsonPath("$.entities[2]").doesNotExist())
+                .andRespond(withNoContent());
+
+        ListenableFuture<Void> first = batchingClient.addEntity(new Entity("room1", "Room", attributes("temp", 22)));
+        ListenableFuture<Void> second = batchingClient.addEntity(new Entity("room2", "Room", attributes("temp", 18)));
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        mockServer.verify();
+    }
+
+    @Test
+    public void checkSentAfterDelay() throws Exception {
+        batchingClient = new Ngsi2BatchingClient(ngsiClient, 100, 20, TimeUnit.MILLISECONDS);
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(jsonPath("$.actionType").value("DELETE"))
+                .andExpect(jsonPath("$.entities[0].id").value("room1"))
+                .andRespond(withNoContent());
+
+        batchingClient.deleteEntity("room1", null).get(5, TimeUnit.SECONDS);
+        mockServer.verify();
+    }
+
+    @Test
+    public void checkActionChangeSendsPendingBatch() throws Exception {
+        batchingClient = new Ngsi2BatchingClient(ngsiClient, 100, 1, TimeUnit.HOURS);
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(jsonPath("$.actionType").value("APPEND_STRICT"))
+                .andRespond(withNoContent());
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(jsonPath("$.actionType").value("DELETE"))
+                .andRespond(withNoContent());
+
+        ListenableFuture<Void> append = batchingClient.updateEntity("room1", "Room", attributes("temp", 22), true);
+        ListenableFuture<Void> delete = batchingClient.deleteEntity("room1", "Room");
+        append.get(1, TimeUnit.SECONDS);
+        assertFalse(delete.isDone());
+        batchingClient.flush();
+        delete.get();
+        mockServer.verify();
+    }
+
+    @Test
+    public void checkOneBatchInFlight() throws Exception {
+        List<BulkUpdateRequest> requests = new ArrayList<>();
+        List<SettableListenableFuture<Void>> responses = new ArrayList<>();
+        Ngsi2Client slowClient = new Ngsi2Client(new AsyncRestTemplate(), baseURL) {
+            @Override
+            public Ngsi2Future<Void> bulkUpdate(BulkUpdateRequest bulkUpdateRequest) {
+                SettableListenableFuture<Void> response = new SettableListenableFuture<>();
+                requests.add(bulkUpdateRequest);
+                responses.add(response);
+                return Ngsi2Future.of(response);
+            }
+        };
+        batchingClient = new Ngsi2BatchingClient(slowClient, 1, 1, TimeUnit.HOURS);
+
+        ListenableFuture<Void> update = batchingClient.updateEntity("room1", "Room", attributes("temp", 22), false);
+        ListenableFuture<Void> delete = batchingClient.deleteEntity("room1", "Room");
+        // the deletion waits for the completion of the update
+        assertEquals(1, requests.size());
+        assertEquals(BulkUpdateRequest.Action.APPEND, requests.get(0).getActionType());
+
+        responses.get(0).set(null);
+        assertTrue(update.isDone());
+        assertEquals(2, requests.size());
+        assertEquals(BulkUpdateRequest.Action.DELETE, requests.get(1).getActionType());
+        assertFalse(delete.isDone());
+
+        responses.get(1).set(null);
+        delete.get();
+    }
+
+    @Test
+    public void checkFailureFailsAllCalls() throws Exception {
+        batchingClient = new Ngsi2BatchingClient(ngsiClient, 100, 1, TimeUnit.HOURS);
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andRespond(withServerError());
+
+        ListenableFuture<Void> first = batchingClient.updateEntity("room1", "Room", attributes("temp", 22), false);
+        ListenableFuture<Void> second = batchingClient.updateEntity("room2", "Room", attributes("temp", 18), false);
+        batchingClient.flush();
+        assertFailed(first);
+        assertFailed(second);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidMaxEntities() {
+        new Ngsi2BatchingClient(ngsiClient, 0, 1, TimeUnit.SECONDS);
+    }
+
+    private static void assertFailed(ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+
+    private static Map<String, Attribute> attributes(String name, Object value) {
+        Map<String, Attribute> attributes = new LinkedHashMap<>();
+        attributes.put(name, new Attribute(value));
+        return attributes;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Ngsi2ClientBuilder, against a local HTTP server
+ */
+public class Ngsi2ClientBuilderTest {
+
+    private HttpServer server;
+
+    private String baseURL;
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v2", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            if (exchange.getRequestURI().getQuery() != null) {
+                // slow response for the timeout test, timeouts are checked every second by the I/O reactor
+                try {
+                    Thread.sleep(3000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = "{\"entities_url\":\"/v2/entities\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+        baseURL = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void checkConnectionsAreReused() throws Exception {
+        try (Ngsi2Client client = new Ngsi2ClientBuilder(baseURL).maxConnectionsPerRoute(1).build()) {
+            for (int i = 0; i < 10; i++) {
+                Map<String, String> services = client.getV2().get();
+                assertEquals("/v2/entities", services.get("entities_url"));
+            }
+        }
+        assertEquals(1, clientPorts.size());
+    }
+
+    @Test
+    public void checkConnectionsArePooled() throws Exception {
+        try (Ngsi2Client client = new Ngsi2ClientBuilder(baseURL).maxConnectionsPerRoute(2).ioThreads(1).build()) {
+            List<Future<Map<String, String>>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(client.getV2());
+            }
+            for (Future<Map<String, String>> future : futures) {
+                assertEquals("/v2/entities", future.get().get("entities_url"));
+            }
+        }
+        assertTrue(clientPorts.size() <= 2);
+    }
+
+    @Test
+    public void checkNoKeepAlive() throws Exception {
+        try (Ngsi2Client client = new Ngsi2ClientBuilder(baseURL).keepAlive(0, TimeUnit.SECONDS).build()) {
+            for (int i = 0; i < 3; i++) {
+                client.getV2().get();
+            }
+        }
+        assertEquals(3, clientPorts.size());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void checkReadTimeout() throws Exception {
+        try (Ngsi2Client client = new Ngsi2ClientBuilder(baseURL).readTimeout(100, TimeUnit.MILLISECONDS).build()) {
+            client.request(HttpMethod.GET, baseURL + "v2?slow", null, String.class).get();
+        }
+    }
+
+    @Test
+    public void checkCancelReleasesConnection() throws Exception {
+        try (Ngsi2Client client = new Ngsi2ClientBuilder(baseURL).maxConnectionsPerRoute(1).build()) {
+            Future<?> slow = client.request(HttpMethod.GET, baseURL + "v2?slow", null, String.class);
+            // once the request is sent on the only connection
+            Thread.sleep(200);
+            assertTrue(slow.cancel(true));
+            Map<String, String> services = client.getV2().get(1, TimeUnit.SECONDS);
+            assertEquals("/v2/entities", services.get("entities_url"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidMaxConnections() {
+        new Ngsi2ClientBuilder(baseURL).maxConnectionsPerRoute(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidTimeout() {
+        new Ngsi2ClientBuilder(baseURL).readTimeout(-1, TimeUnit.SECONDS);
+    }
+}
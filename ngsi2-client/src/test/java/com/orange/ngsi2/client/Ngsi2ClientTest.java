@@ -17,6 +17,8 @@
 
 package com.orange.ngsi2.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.orange.ngsi2.Utils;
 import com.orange.ngsi2.exception.Ngsi2Exception;
 import com.orange.ngsi2.model.*;
@@ -25,14 +27,25 @@ import org.junit.*;
 import org.junit.rules.ExpectedException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.client.MockClientHttpRequest;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.AsyncRestTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
@@ -150,6 +163,30 @@ public class Ngsi2ClientTest {
         assertEquals(12, entities.getTotal());
     }
 
+    @Test
+    public void testStreamEntities() throws Exception {
+
+        HttpHeaders responseHeader = new HttpHeaders();
+        responseHeader.add("X-Total-Count", "6");
+
+        mockServer.expect(requestTo(baseURL + "/v2/entities?type=Room&limit=3&options=count"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Utils.loadResource("json/getEntitiesResponse.json"), MediaType.APPLICATION_JSON)
+                        .headers(responseHeader));
+        mockServer.expect(requestTo(baseURL + "/v2/entities?type=Room&offset=3&limit=3"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(Utils.loadResource("json/getEntitiesResponse.json"), MediaType.APPLICATION_JSON));
+
+        List<Entity> entities;
+        try (Stream<Entity> stream = ngsiClient.streamEntities(null, null, Collections.singletonList("Room"), null, null, null, null, 3, 1)) {
+            entities = stream.collect(Collectors.toList());
+        }
+        assertEquals(6, entities.size());
+        assertEquals("DC_S1-D41", entities.get(0).getId());
+        assertEquals("DC_S1-D41", entities.get(3).getId());
+        mockServer.verify();
+    }
+
     @Test
     public void testGetEntities_AllParams() throws Exception {
 
@@ -654,6 +691,221 @@ public class Ngsi2ClientTest {
         ngsiClient.bulkUpdate(request).get();
     }
 
+    @Test
+    public void testMetrics() throws Exception {
+        HdrHistogramClientMetrics metrics = new HdrHistogramClientMetrics();
+        ngsiClient.setMetrics(metrics);
+
+        HttpHeaders responseHeader = new HttpHeaders();
+        responseHeader.setContentLength(42);
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(method(HttpMethod.POST))
+                .andRespond(withNoContent().headers(responseHeader));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withBadRequest().body(Utils.loadResource("json/error400Response.json")));
+
+        Entity e = new Entity("room1", "Room");
+        e.setAttributes(Collections.singletonMap("temp", new Attribute(22)));
+        ngsiClient.bulkUpdate(new BulkUpdateRequest(BulkUpdateRequest.Action.APPEND, Collections.singletonList(e))).get();
+        try {
+            ngsiClient.getEntity("room1", null, null).get();
+            fail("expected Ngsi2Exception");
+        } catch (Ngsi2Exception ex) {
+            // expected
+        }
+
+        HdrHistogramClientMetrics.Operation bulkUpdate = metrics.getOperation("bulkUpdate");
+        assertEquals(1, bulkUpdate.getLatency().getTotalCount());
+        assertTrue(bulkUpdate.getRequestBytes() > 0);
+        assertEquals(42, bulkUpdate.getResponseBytes());
+        assertEquals(0, bulkUpdate.getInFlight());
+        assertTrue(bulkUpdate.getErrors().isEmpty());
+
+        HdrHistogramClientMetrics.Operation getEntity = metrics.getOperation("getEntity");
+        assertEquals(1, getEntity.getLatency().getTotalCount());
+        assertEquals(0, getEntity.getRequestBytes());
+        assertEquals(Collections.singletonMap("400", 1L), getEntity.getErrors());
+        assertEquals(0, metrics.getInFlight());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testSmile() throws Exception {
+        ngsiClient.setSmile(true);
+        assertTrue(ngsiClient.isSmile());
+        ObjectMapper smileObjectMapper = new SmileHttpMessageConverter().getObjectMapper();
+
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1?type=Room"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Content-Type", SmileHttpMessageConverter.APPLICATION_SMILE_VALUE))
+                .andExpect(request -> assertEquals(35.6, smileObjectMapper.readTree(((MockClientHttpRequest) request).getBodyAsBytes())
+                        .path("temperature").path("value").asDouble(), 0))
+                .andRespond(withNoContent());
+        Entity room = new Entity("room1", "Room");
+        room.setAttributes(Collections.singletonMap("temperature", new Attribute(22.5)));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header(HttpHeaders.ACCEPT, SmileHttpMessageConverter.APPLICATION_SMILE_VALUE + ", " + MediaType.APPLICATION_JSON_VALUE))
+                .andRespond(withSuccess(smileObjectMapper.writeValueAsBytes(room), SmileHttpMessageConverter.APPLICATION_SMILE));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room2"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withBadRequest().contentType(SmileHttpMessageConverter.APPLICATION_SMILE)
+                        .body(smileObjectMapper.writeValueAsBytes(new ObjectMapper().readTree(Utils.loadResource("json/error400Response.json")))));
+
+        ngsiClient.updateEntity("room1", "Room", Collections.singletonMap("temperature", new Attribute(35.6)), false).get();
+        Entity entity = ngsiClient.getEntity("room1", null, null).get();
+        assertEquals("Room", entity.getType());
+        assertEquals(22.5, entity.getAttributes().get("temperature").getValue());
+        try {
+            ngsiClient.getEntity("room2", null, null).get();
+            fail("expected Ngsi2Exception");
+        } catch (Ngsi2Exception ex) {
+            assertEquals(Optional.of("Bad Request"), ex.getError().getDescription());
+        }
+        mockServer.verify();
+
+        ngsiClient.setSmile(false);
+        assertEquals(MediaType.APPLICATION_JSON, ngsiClient.getHttpHeaders().getContentType());
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        ngsiClient.setETagCacheSize(10);
+        String first = "{\"id\":\"room1\",\"type\":\"Room\",\"temperature\":{\"value\":22.5,\"type\":\"Number\",\"metadata\":{}}}";
+        String second = "{\"id\":\"room1\",\"type\":\"Room\",\"temperature\":{\"value\":23.5,\"type\":\"Number\",\"metadata\":{}}}";
+        HttpHeaders firstETag = new HttpHeaders();
+        firstETag.setETag("W/\"1\"");
+        HttpHeaders secondETag = new HttpHeaders();
+        secondETag.setETag("W/\"2\"");
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(request -> assertFalse(request.getHeaders().containsKey("If-None-Match")))
+                .andRespond(withSuccess(first, MediaType.APPLICATION_JSON).headers(firstETag));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(header("If-None-Match", "W/\"1\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED).headers(firstETag));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(header("If-None-Match", "W/\"1\""))
+                .andRespond(withSuccess(second, MediaType.APPLICATION_JSON).headers(secondETag));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1"))
+                .andExpect(header("If-None-Match", "W/\"2\""))
+                .andRespond(withStatus(HttpStatus.NOT_MODIFIED).headers(secondETag));
+
+        Entity entity = ngsiClient.getEntity("room1", null, null).get();
+        assertEquals(22.5, entity.getAttributes().get("temperature").getValue());
+        // modifying the returned entity does not change the kept one
+        entity.getAttributes().get("temperature").setValue(0);
+        Entity notModified = ngsiClient.getEntity("room1", null, null).get();
+        assertNotSame(entity, notModified);
+        assertEquals(22.5, notModified.getAttributes().get("temperature").getValue());
+        Entity changed = ngsiClient.getEntity("room1", null, null).get();
+        assertEquals(23.5, changed.getAttributes().get("temperature").getValue());
+        notModified = ngsiClient.getEntity("room1", null, null).get();
+        assertNotSame(changed, notModified);
+        assertEquals(23.5, notModified.getAttributes().get("temperature").getValue());
+        mockServer.verify();
+    }
+
+    @Test
+    public void testConditionalGetDisabled() throws Exception {
+        // disabled by default
+        HttpHeaders eTag = new HttpHeaders();
+        eTag.setETag("W/\"1\"");
+        for (int i = 0; i < 2; i++) {
+            mockServer.expect(requestTo(baseURL + "/v2/types/Room"))
+                    .andExpect(request -> assertFalse(request.getHeaders().containsKey("If-None-Match")))
+                    .andRespond(withSuccess(Utils.loadResource("json/getEntityTypeResponse.json"), MediaType.APPLICATION_JSON).headers(eTag));
+        }
+        ngsiClient.getEntityType("Room").get();
+        ngsiClient.getEntityType("Room").get();
+        mockServer.verify();
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        ngsiClient.setCompression(true);
+        assertTrue(ngsiClient.isCompression());
+
+        byte[] json = Utils.loadResource("json/getEntitiesResponse.json").getBytes(StandardCharsets.UTF_8);
+        HttpHeaders gzipHeaders = new HttpHeaders();
+        gzipHeaders.set("Content-Encoding", "gzip");
+        mockServer.expect(requestTo(baseURL + "/v2/entities"))
+                .andExpect(method(HttpMethod.GET))
+                .andExpect(header("Accept-Encoding", "gzip, deflate"))
+                .andRespond(withSuccess(gzip(json), MediaType.APPLICATION_JSON).headers(gzipHeaders));
+        HttpHeaders deflateHeaders = new HttpHeaders();
+        deflateHeaders.set("Content-Encoding", "deflate");
+        mockServer.expect(requestTo(baseURL + "/v2/entities"))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(deflate(json), MediaType.APPLICATION_JSON).headers(deflateHeaders));
+        mockServer.expect(requestTo(baseURL + "/v2/entities/room1/attrs/temperature"))
+                .andExpect(method(HttpMethod.DELETE))
+                .andRespond(withNoContent().headers(gzipHeaders));
+
+        for (int i = 0; i < 2; i++) {
+            Paginated<Entity> entities = ngsiClient.getEntities(null, null, null, null, 0, 0, false).get();
+            assertEquals(3, entities.getItems().size());
+            assertEquals("DC_S1-D41", entities.getItems().get(0).getId());
+            assertEquals(35.6, entities.getItems().get(0).getAttributes().get("temperature").getValue());
+        }
+        ngsiClient.deleteAttribute("room1", null, "temperature").get();
+        mockServer.verify();
+
+        ngsiClient.setCompression(false);
+        assertNull(ngsiClient.getHttpHeaders().getFirst("Accept-Encoding"));
+    }
+
+    @Test
+    public void testBulkUpdateCompression() throws Exception {
+        ngsiClient.setBulkUpdateCompression(true);
+        assertTrue(ngsiClient.isBulkUpdateCompression());
+
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Content-Encoding", "gzip"))
+                .andExpect(request -> {
+                    byte[] body = ((MockClientHttpRequest) request).getBodyAsBytes();
+                    JsonNode json = new ObjectMapper().readTree(new GZIPInputStream(new ByteArrayInputStream(body)));
+                    assertEquals("APPEND", json.path("actionType").asText());
+                    assertEquals(100, json.path("entities").size());
+                    assertEquals("room99", json.path("entities").path(99).path("id").asText());
+                })
+                .andRespond(withNoContent());
+        // small bodies are not compressed
+        mockServer.expect(requestTo(baseURL + "/v2/op/update"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(request -> assertFalse(request.getHeaders().containsKey("Content-Encoding")))
+                .andExpect(jsonPath("$.entities[0].id").value("room0"))
+                .andRespond(withNoContent());
+
+        List<Entity> entities = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Entity e = new Entity("room" + i, "Room");
+            e.setAttributes(Collections.singletonMap("temperature", new Attribute(20 + i)));
+            entities.add(e);
+        }
+        ngsiClient.bulkUpdate(new BulkUpdateRequest(BulkUpdateRequest.Action.APPEND, entities)).get();
+        ngsiClient.bulkUpdate(new BulkUpdateRequest(BulkUpdateRequest.Action.APPEND, entities.subList(0, 1))).get();
+        mockServer.verify();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out)) {
+            deflate.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
     @Test
     public void testBulkUpdate_AppendStrict() throws Exception {
 
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.exception.Ngsi2Exception;
+import com.orange.ngsi2.model.*;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for Ngsi2EntityCache
+ */
+public class Ngsi2EntityCacheTest {
+
+    private final Ngsi2Client client = mock(Ngsi2Client.class);
+
+    @Test
+    public void checkEntityIsCached() throws Exception {
+        answer("room1", "Room", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        Entity first = cache.getEntity("room1", "Room", null).get();
+        Entity second = cache.getEntity("room1", "Room", null).get();
+        assertEquals("room1", second.getId());
+        assertEquals(2, second.getAttributes().size());
+        assertNotSame(first, second);
+        verify(client, times(1)).getEntity("room1", "Room", null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void checkAttributesAreCopied() throws Exception {
+        when(client.getEntity("room1", "Room", null)).thenAnswer(invocation -> {
+            Entity entity = entity("room1", "Room");
+            Attribute position = new Attribute(new ArrayList<>(Arrays.asList(1, 2)));
+            position.addMetadata("accuracy", new Metadata("Number", 5));
+            entity.getAttributes().put("position", position);
+            SettableListenableFuture<Entity> response = new SettableListenableFuture<>();
+            response.set(entity);
+            return Ngsi2Future.of(response);
+        });
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        Entity first = cache.getEntity("room1", "Room", null).get();
+        first.getAttributes().get("temperature").setValue(0);
+        ((List<Object>) first.getAttributes().get("position").getValue()).add(3);
+        first.getAttributes().get("position").getMetadata().get("accuracy").setValue(0);
+        Entity second = cache.getEntity("room1", "Room", null).get();
+        assertEquals(23.5, second.getAttributes().get("temperature").getValue());
+        assertEquals(Arrays.asList(1, 2), second.getAttributes().get("position").getValue());
+        assertEquals(5, second.getAttributes().get("position").getMetadata().get("accuracy").getValue());
+        verify(client, times(1)).getEntity("room1", "Room", null);
+    }
+
+    @Test
+    public void checkSubsetFromAllAttributes() throws Exception {
+        answer("room1", "Room", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        cache.getEntity("room1", "Room", null).get();
+        Entity entity = cache.getEntity("room1", "Room", Collections.singletonList("temperature")).get();
+        assertEquals(Collections.singleton("temperature"), entity.getAttributes().keySet());
+        verify(client, times(1)).getEntity(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void checkSubsetsAreCachedSeparately() throws Exception {
+        Set<String> temperature = Collections.singleton("temperature");
+        answer("room1", "Room", temperature);
+        answer("room1", "Room", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        Entity entity = cache.getEntity("room1", "Room", temperature).get();
+        assertEquals(temperature, entity.getAttributes().keySet());
+        entity = cache.getEntity("room1", "Room", null).get();
+        assertEquals(2, entity.getAttributes().size());
+        verify(client, times(1)).getEntity("room1", "Room", temperature);
+        verify(client, times(1)).getEntity("room1", "Room", null);
+    }
+
+    @Test
+    public void checkConcurrentMissesAreCoalesced() throws Exception {
+        SettableListenableFuture<Entity> response = new SettableListenableFuture<>();
+        when(client.getEntity("room1", "Room", null)).thenReturn(Ngsi2Future.of(response));
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        CompletableFuture<Entity> first = cache.getEntity("room1", "Room", null);
+        CompletableFuture<Entity> second = cache.getEntity("room1", "Room", null);
+        assertFalse(first.isDone());
+        response.set(entity("room1", "Room"));
+        assertEquals("room1", first.get().getId());
+        assertEquals("room1", second.get().getId());
+        verify(client, times(1)).getEntity("room1", "Room", null);
+    }
+
+    @Test
+    public void checkTtlByType() throws Exception {
+        answer("room1", "Room", null);
+        answer("car1", "Car", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+        cache.setTtl("Car", 0, TimeUnit.SECONDS);
+
+        cache.getEntity("room1", "Room", null).get();
+        cache.getEntity("room1", "Room", null).get();
+        cache.getEntity("car1", "Car", null).get();
+        cache.getEntity("car1", "Car", null).get();
+        verify(client, times(1)).getEntity("room1", "Room", null);
+        verify(client, times(2)).getEntity("car1", "Car", null);
+    }
+
+    @Test
+    public void checkLeastRecentlyUsedIsEvicted() throws Exception {
+        answer("room1", "Room", null);
+        answer("room2", "Room", null);
+        answer("room3", "Room", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 2, 1, TimeUnit.HOURS);
+
+        cache.getEntity("room1", "Room", null).get();
+        cache.getEntity("room2", "Room", null).get();
+        cache.getEntity("room1", "Room", null).get();
+        cache.getEntity("room3", "Room", null).get();
+        cache.getEntity("room1", "Room", null).get();
+        cache.getEntity("room2", "Room", null).get();
+        verify(client, times(1)).getEntity("room1", "Room", null);
+        verify(client, times(2)).getEntity("room2", "Room", null);
+    }
+
+    @Test
+    public void checkFailureIsNotCached() throws Exception {
+        SettableListenableFuture<Entity> failure = new SettableListenableFuture<>();
+        failure.setException(new Ngsi2Exception("404", "Not Found", null));
+        when(client.getEntity("room1", "Room", null)).thenReturn(Ngsi2Future.of(failure));
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getEntity("room1", "Room", null).get();
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof Ngsi2Exception);
+            }
+        }
+        verify(client, times(2)).getEntity("room1", "Room", null);
+    }
+
+    @Test
+    public void checkNotificationInvalidates() throws Exception {
+        SettableListenableFuture<String> subscriptionId = new SettableListenableFuture<>();
+        subscriptionId.set("sub1");
+        when(client.addSubscription(any())).thenReturn(Ngsi2Future.of(subscriptionId));
+        answer("room1", "Room", null);
+        Ngsi2EntityCache cache = new Ngsi2EntityCache(client, 10, 1, TimeUnit.HOURS);
+
+        SubjectEntity rooms = new SubjectEntity();
+        rooms.setType(Optional.of("Room"));
+        assertEquals("sub1", cache.subscribe(Collections.singletonList(rooms), new URL("http://localhost:8081/notify")).get());
+        ArgumentCaptor<Subscription> subscription = ArgumentCaptor.forClass(Subscription.class);
+        verify(client).addSubscription(subscription.capture());
+        assertEquals("http://localhost:8081/notify", subscription.getValue().getNotification().getCallback().toString());
+
+        cache.getEntity("room1", "Room", null).get();
+        cache.onNotification("{\"subscriptionId\":\"sub1\",\"data\":[{\"id\":\"room1\",\"type\":\"Room\",\"temperature\":24}]}"
+                .getBytes(StandardCharsets.UTF_8));
+        cache.getEntity("room1", "Room", null).get();
+        verify(client, times(2)).getEntity("room1", "Room", null);
+
+        cache.close();
+        verify(client).deleteSubscription("sub1");
+    }
+
+    private void answer(String id, String type, Collection<String> attrs) {
+        when(client.getEntity(id, type, attrs)).thenAnswer(invocation -> {
+            SettableListenableFuture<Entity> response = new SettableListenableFuture<>();
+            Entity entity = entity(id, type);
+            if (attrs != null) {
+                entity.getAttributes().keySet().retainAll(attrs);
+            }
+            response.set(entity);
+            return Ngsi2Future.of(response);
+        });
+    }
+
+    private static Entity entity(String id, String type) {
+        Entity entity = new Entity(id, type);
+        entity.setAttributes("temperature", new Attribute(23.5));
+        entity.setAttributes("pressure", new Attribute(720));
+        return entity;
+    }
+}
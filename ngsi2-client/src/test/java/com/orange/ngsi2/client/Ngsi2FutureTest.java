@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.exception.Ngsi2Exception;
+import org.junit.Test;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Ngsi2Future
+ */
+public class Ngsi2FutureTest {
+
+    @Test
+    public void checkAdaptedResult() throws Exception {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        Ngsi2Future<Integer> future = new Ngsi2Future<>(request, String::length);
+        assertFalse(future.isDone());
+        request.set("room1");
+        assertEquals(5, (int) future.get());
+    }
+
+    @Test
+    public void checkComposition() throws Exception {
+        SettableListenableFuture<String> first = new SettableListenableFuture<>();
+        SettableListenableFuture<String> second = new SettableListenableFuture<>();
+        CompletableFuture<Integer> sum = new Ngsi2Future<>(first, String::length)
+                .thenCombine(new Ngsi2Future<>(second, String::length), Integer::sum);
+        first.set("room1");
+        second.set("room10");
+        assertEquals(11, (int) sum.get());
+    }
+
+    @Test
+    public void checkCallbacks() throws Exception {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        Ngsi2Future<String> future = new Ngsi2Future<>(request, s -> s);
+        AtomicReference<String> result = new AtomicReference<>();
+        future.addCallback(result::set, ex -> fail());
+        request.set("room1");
+        assertEquals("room1", result.get());
+
+        SettableListenableFuture<String> failing = new SettableListenableFuture<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        new Ngsi2Future<>(failing, s -> s).addCallback(s -> fail(), error::set);
+        Ngsi2Exception exception = new Ngsi2Exception("404", "Not Found", null);
+        failing.setException(exception);
+        assertSame(exception, error.get());
+    }
+
+    @Test(expected = Ngsi2Exception.class)
+    public void checkGetThrowsRuntimeException() throws Exception {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        request.setException(new Ngsi2Exception("404", "Not Found", null));
+        new Ngsi2Future<>(request, s -> s).get();
+    }
+
+    @Test
+    public void checkGetWrapsCheckedException() throws Exception {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        request.setException(new IOException("connection refused"));
+        try {
+            new Ngsi2Future<>(request, s -> s).get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void checkAdapterFailure() throws Exception {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        Ngsi2Future<Integer> future = new Ngsi2Future<>(request, Integer::parseInt);
+        request.set("room1");
+        try {
+            future.join();
+            fail("CompletionException expected");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void checkCancelRequest() {
+        SettableListenableFuture<String> request = new SettableListenableFuture<>();
+        Ngsi2Future<String> future = new Ngsi2Future<>(request, s -> s);
+        assertTrue(future.cancel(true));
+        assertTrue(request.isCancelled());
+        assertTrue(future.isCancelled());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.client;
+
+import com.orange.ngsi2.exception.Ngsi2Exception;
+import com.orange.ngsi2.model.Paginated;
+import org.junit.Test;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PageIterator
+ */
+public class PageIteratorTest {
+
+    private final List<Integer> offsets = new ArrayList<>();
+
+    private final List<SettableListenableFuture<Paginated<Integer>>> futures = new ArrayList<>();
+
+    @Test
+    public void checkAllItemsWithTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(25, true), 10, 1));
+        assertEquals(range(25), items);
+        assertEquals(Arrays.asList(0, 10, 20), offsets);
+    }
+
+    @Test
+    public void checkAllItemsWithoutTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(25, false), 10, 1));
+        assertEquals(range(25), items);
+        assertEquals(Arrays.asList(0, 10, 20), offsets);
+    }
+
+    @Test
+    public void checkStopOnEmptyPageWithoutTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(20, false), 10, 0));
+        assertEquals(range(20), items);
+        assertEquals(Arrays.asList(0, 10, 20), offsets);
+    }
+
+    @Test
+    public void checkServerLimitWithTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(25, true, 4), 10, 2));
+        assertEquals(range(25), items);
+        assertEquals(Arrays.asList(0, 4, 8, 12, 16, 20, 24), offsets);
+    }
+
+    @Test
+    public void checkServerLimitWithoutTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(25, false, 4), 10, 0));
+        assertEquals(range(25), items);
+        assertEquals(Arrays.asList(0, 4, 8, 12, 16, 20, 24), offsets);
+    }
+
+    @Test
+    public void checkPagesRequestedInAdvanceAreRealigned() {
+        // the server returns fewer items from offset 10
+        PageIterator<Integer> iterator = new PageIterator<>((offset, limit, count) -> {
+            offsets.add(offset);
+            List<Integer> items = range(30).subList(offset, Math.min(offset + (offset < 10 ? limit : 5), 30));
+            SettableListenableFuture<Paginated<Integer>> future = new SettableListenableFuture<>();
+            future.set(new Paginated<>(items, offset, limit, count ? 30 : 0));
+            futures.add(future);
+            return future;
+        }, 10, 2);
+        assertEquals(range(30), consume(iterator));
+        assertEquals(Arrays.asList(0, 10, 20, 15, 20, 25), offsets);
+    }
+
+    @Test
+    public void checkShortFirstPageWithoutTotalCount() {
+        List<Integer> items = consume(new PageIterator<>(pages(5, false), 10, 0));
+        assertEquals(range(5), items);
+        assertEquals(Arrays.asList(0, 5), offsets);
+    }
+
+    @Test
+    public void checkNoItems() {
+        assertFalse(new PageIterator<>(pages(0, true), 10, 2).hasNext());
+        assertEquals(Collections.singletonList(0), offsets);
+    }
+
+    @Test
+    public void checkReadAhead() {
+        PageIterator<Integer> iterator = new PageIterator<>(pages(100, true), 10, 3);
+        assertEquals(Collections.singletonList(0), offsets);
+        assertEquals(0, (int) iterator.next());
+        assertEquals(Arrays.asList(0, 10, 20, 30), offsets);
+    }
+
+    @Test
+    public void checkNoReadAhead() {
+        PageIterator<Integer> iterator = new PageIterator<>(pages(100, true), 10, 0);
+        for (int i = 0; i < 10; i++) {
+            iterator.next();
+        }
+        assertEquals(Collections.singletonList(0), offsets);
+        iterator.next();
+        assertEquals(Arrays.asList(0, 10), offsets);
+    }
+
+    @Test
+    public void checkCloseCancelsPages() {
+        PageIterator<Integer> iterator = new PageIterator<>((offset, limit, count) -> {
+            offsets.add(offset);
+            SettableListenableFuture<Paginated<Integer>> future = new SettableListenableFuture<>();
+            if (offset == 0) {
+                future.set(new Paginated<>(range(10), offset, limit, 100));
+            }
+            futures.add(future);
+            return future;
+        }, 10, 2);
+        iterator.next();
+        iterator.close();
+        assertTrue(futures.get(1).isCancelled());
+        assertTrue(futures.get(2).isCancelled());
+        while (iterator.hasNext()) {
+            iterator.next();
+        }
+        assertEquals(3, offsets.size());
+    }
+
+    @Test(expected = Ngsi2Exception.class)
+    public void checkErrorIsThrown() {
+        PageIterator<Integer> iterator = new PageIterator<>((offset, limit, count) -> {
+            SettableListenableFuture<Paginated<Integer>> future = new SettableListenableFuture<>();
+            future.setException(new Ngsi2Exception("500", "Internal Server Error", null));
+            return future;
+        }, 10, 2);
+        iterator.hasNext();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void checkInvalidPageSize() {
+        new PageIterator<>(pages(10, true), 0, 1);
+    }
+
+    /**
+     * @return pages of the integers from 0 to size - 1
+     */
+    private PageIterator.PageRequest<Integer> pages(int size, boolean withTotal) {
+        return pages(size, withTotal, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return pages of the integers from 0 to size - 1, of at most maxLimit items
+     */
+    private PageIterator.PageRequest<Integer> pages(int size, boolean withTotal, int maxLimit) {
+        return (offset, limit, count) -> {
+            offsets.add(offset);
+            List<Integer> items = range(size).subList(Math.min(offset, size), Math.min(offset + Math.min(limit, maxLimit), size));
+            SettableListenableFuture<Paginated<Integer>> future = new SettableListenableFuture<>();
+            future.set(new Paginated<>(items, offset, limit, count && withTotal ? size : 0));
+            return future;
+        };
+    }
+
+    private static List<Integer> range(int size) {
+        return IntStream.range(0, size).boxed().collect(Collectors.toList());
+    }
+
+    private static List<Integer> consume(PageIterator<Integer> iterator) {
+        List<Integer> items = new ArrayList<>();
+        iterator.forEachRemaining(items::add);
+        return items;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.exception;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for NotFoundException
+ */
+public class NotFoundExceptionTest {
+
+    @Test
+    public void checkProperties() {
+        NotFoundException exception = new NotFoundException("entity Bcn-Welt");
+        assertEquals("error: 404 | description: The requested entity Bcn-Welt has not been found. Check type and id | affectedItems: []", exception.getMessage());
+    }
+}
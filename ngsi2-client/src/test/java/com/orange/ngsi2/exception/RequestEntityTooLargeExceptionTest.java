@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.exception;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the RequestEntityTooLargeException
+ */
+public class RequestEntityTooLargeExceptionTest {
+
+    @Test
+    public void checkProperties() {
+        RequestEntityTooLargeException exception = new RequestEntityTooLargeException(10001, 10000);
+        assertEquals("error: 413 | description: The incoming request is too large: 10001 items, at most 10000 are accepted. | affectedItems: []", exception.getMessage());
+        exception = new RequestEntityTooLargeException(1024);
+        assertEquals("error: 413 | description: The incoming request is too large: at most 1024 bytes are accepted. | affectedItems: []", exception.getMessage());
+    }
+}
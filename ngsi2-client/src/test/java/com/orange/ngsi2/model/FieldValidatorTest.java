@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the FieldValidator
+ */
+public class FieldValidatorTest {
+
+    @Test
+    public void testSameCharactersAsPattern() {
+        Pattern pattern = Pattern.compile("[\\x21\\x22\\x24\\x25\\x27-\\x2E\\x30-\\x3E\\x40-\\x7E]*");
+        for (char c = 0; c < 512; c++) {
+            String field = String.valueOf(c);
+            assertEquals(field, pattern.matcher(field).matches(), FieldValidator.isValid(field));
+        }
+    }
+
+    @Test
+    public void testValid() {
+        assertTrue(FieldValidator.isValid(""));
+        assertTrue(FieldValidator.isValid("Room1"));
+        assertTrue(FieldValidator.isValid("urn:ngsi:Room_1-a.b@c=d"));
+        assertFalse(FieldValidator.isValid("Room 1"));
+        assertFalse(FieldValidator.isValid("Room#1"));
+        assertFalse(FieldValidator.isValid("Room/1"));
+        assertFalse(FieldValidator.isValid("Room?1"));
+        assertFalse(FieldValidator.isValid("Room&1"));
+        assertFalse(FieldValidator.isValid("Pi\u00e8ce"));
+    }
+
+    @Test
+    public void testMaxLength() {
+        char[] field = new char[FieldValidator.MAX_LENGTH + 1];
+        Arrays.fill(field, 'a');
+        assertFalse(FieldValidator.isValid(new String(field)));
+        assertTrue(FieldValidator.isValid(new String(field, 0, FieldValidator.MAX_LENGTH)));
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testValidateEntityAttributeName() {
+        FieldValidator.validate(new Entity("Room1", "Room", Collections.singletonMap("temp erature", new Attribute(23))));
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testValidateMetadataType() {
+        Attribute attribute = new Attribute(23);
+        attribute.setMetadata(Collections.singletonMap("unit", new Metadata("unit/code", "CEL")));
+        FieldValidator.validate(new Entity("Room1", "Room", Collections.singletonMap("temperature", attribute)));
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testValidateSubscription() {
+        SubjectEntity subjectEntity = new SubjectEntity(Optional.of("Room1"));
+        subjectEntity.setType(Optional.of("Room#"));
+        Subscription subscription = new Subscription();
+        subscription.setSubject(new SubjectSubscription(Collections.singletonList(subjectEntity), new Condition()));
+        FieldValidator.validate(subscription);
+    }
+
+    @Test
+    public void testValidateRegistration() {
+        Registration registration = new Registration();
+        registration.setSubject(new SubjectRegistration(Collections.singletonList(new SubjectEntity(Optional.of("Room1"))), Arrays.asList("temperature", "humidity")));
+        FieldValidator.validate(registration);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.orange.ngsi2.model;
+
+import com.orange.ngsi2.Utils;
+import org.junit.Test;
+
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests for the Notification
+ */
+public class NotificationTest {
+
+    @Test
+    public void checkConcurrentNotified() throws Exception {
+        Notification notification = new Notification(Collections.emptyList(), new URL("http://localhost:1234"));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    notification.notified(Instant.ofEpochMilli(i));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Notification.Counters counters = notification.getCounters();
+        assertEquals(40000, counters.getTimesSent());
+        assertEquals(Instant.ofEpochMilli(9999), counters.getLastNotification());
+    }
+
+    @Test
+    public void checkCountersSerialization() throws Exception {
+        Notification notification = new Notification(Collections.emptyList(), new URL("http://localhost:1234"));
+        notification.notified(Instant.parse("2015-10-05T16:00:00.100Z"));
+        String json = Utils.objectMapper.writeValueAsString(notification);
+        assertEquals("{\"attributes\":[],\"callback\":\"http://localhost:1234\",\"timesSent\":1,\"lastNotification\":\"2015-10-05T16:00:00.100Z\"}", json);
+        assertFalse(json.contains("counters"));
+
+        Notification read = Utils.objectMapper.readValue(json, Notification.class);
+        assertEquals(1, read.getTimesSent());
+        assertEquals(Instant.parse("2015-10-05T16:00:00.100Z"), read.getLastNotification());
+    }
+}
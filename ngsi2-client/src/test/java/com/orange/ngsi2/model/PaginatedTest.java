@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Paginated
+ */
+public class PaginatedTest {
+
+    @Test
+    public void testList() {
+        Paginated<String> paginated = new Paginated<>(Arrays.asList("a", "b"), 0, 10, 2);
+        assertFalse(paginated.isStreamed());
+        assertEquals(Arrays.asList("a", "b"), paginated.getItems());
+        assertEquals("a", paginated.iterator().next());
+        assertEquals(2, paginated.getItems().size());
+    }
+
+    @Test
+    public void testStreamedItems() {
+        Paginated<String> paginated = new Paginated<>(Arrays.asList("a", "b").iterator(), 0, 10, 2);
+        assertTrue(paginated.isStreamed());
+        assertEquals(Arrays.asList("a", "b"), paginated.getItems());
+        assertFalse(paginated.isStreamed());
+        assertEquals(Arrays.asList("a", "b"), paginated.getItems());
+        assertEquals(2, paginated.getTotal());
+    }
+
+    @Test
+    public void testStreamedIterator() {
+        Paginated<String> paginated = new Paginated<>(Arrays.asList("a", "b").iterator(), 0, 10, 2);
+        Iterator<String> iterator = paginated.iterator();
+        assertFalse(paginated.isStreamed());
+        assertEquals("a", iterator.next());
+        assertEquals("b", iterator.next());
+        assertEquals(Collections.emptyList(), paginated.getItems());
+    }
+}
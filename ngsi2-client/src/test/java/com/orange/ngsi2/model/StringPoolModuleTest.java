@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the StringPoolModule
+ */
+public class StringPoolModuleTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new Jdk8Module()).registerModule(new StringPoolModule(new StringPool(1024)));
+
+    private final String json = "{\"id\":\"Bcn-Welt\",\"type\":\"Room\",\"temperature\":{\"value\":21.7,\"type\":\"Number\","
+            + "\"metadata\":{\"unit\":{\"value\":\"celsius\",\"type\":\"Text\"}}},\"humidity\":{\"value\":60}}";
+
+    @Test
+    public void sharedNamesTest() throws IOException {
+        Entity first = objectMapper.readValue(json, Entity.class);
+        Entity second = objectMapper.readValue(json, Entity.class);
+
+        assertEquals("Room", first.getType());
+        assertSame(first.getType(), second.getType());
+        assertSame(name(first.getAttributes().keySet(), "temperature"), name(second.getAttributes().keySet(), "temperature"));
+        Attribute firstTemperature = first.getAttributes().get("temperature");
+        Attribute secondTemperature = second.getAttributes().get("temperature");
+        assertEquals(Optional.of("Number"), firstTemperature.getType());
+        assertSame(firstTemperature.getType().get(), secondTemperature.getType().get());
+        assertSame(name(firstTemperature.getMetadata().keySet(), "unit"), name(secondTemperature.getMetadata().keySet(), "unit"));
+        assertSame(firstTemperature.getMetadata().get("unit").getType(), secondTemperature.getMetadata().get("unit").getType());
+        // values are not pooled
+        assertNotSame(firstTemperature.getMetadata().get("unit").getValue(), secondTemperature.getMetadata().get("unit").getValue());
+    }
+
+    @Test
+    public void unchangedModelTest() throws IOException {
+        Entity entity = objectMapper.readValue(json, Entity.class);
+
+        assertEquals("Bcn-Welt", entity.getId());
+        assertEquals(21.7, entity.getAttributes().get("temperature").getValue());
+        assertEquals("celsius", entity.getAttributes().get("temperature").getMetadata().get("unit").getValue());
+        assertNull(entity.getAttributes().get("humidity").getType());
+        assertEquals(Optional.empty(), objectMapper.readValue("{\"value\":1,\"type\":null}", Attribute.class).getType());
+    }
+
+    @Test
+    public void entityTypesTest() throws IOException {
+        String types = "[{\"type\":\"Room\",\"attrs\":{\"temperature\":{\"type\":\"Number\"}},\"count\":2}]";
+        List<EntityType> first = objectMapper.readValue(types, new TypeReference<List<EntityType>>() {});
+        List<EntityType> second = objectMapper.readValue(types, new TypeReference<List<EntityType>>() {});
+
+        assertSame(first.get(0).getType(), second.get(0).getType());
+        assertSame(first.get(0).getAttrs().get("temperature").getType(), second.get(0).getAttrs().get("temperature").getType());
+    }
+
+    private static String name(Set<String> names, String name) {
+        for (String candidate : names) {
+            if (candidate.equals(name)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
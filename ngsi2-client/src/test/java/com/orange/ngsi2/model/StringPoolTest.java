@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the StringPool
+ */
+public class StringPoolTest {
+
+    @Test
+    public void canonicalizeTest() {
+        StringPool pool = new StringPool(16);
+        String room = new String("Room");
+        assertSame(room, pool.canonicalize(room));
+        assertSame(room, pool.canonicalize(new String("Room")));
+        assertSame(room, pool.canonicalize("a Room".toCharArray(), 2, 4));
+        assertNull(pool.canonicalize(null));
+    }
+
+    @Test
+    public void canonicalizeCharsTest() {
+        StringPool pool = new StringPool(16);
+        String temperature = pool.canonicalize("{temperature}".toCharArray(), 1, 11);
+        assertEquals("temperature", temperature);
+        assertSame(temperature, pool.canonicalize("temperature"));
+        assertSame(temperature, pool.canonicalize("temperature".toCharArray(), 0, 11));
+    }
+
+    @Test
+    public void longStringsNotPooledTest() {
+        StringPool pool = new StringPool(16);
+        String longString = new String(new char[200]).replace('\0', 'a');
+        pool.canonicalize(longString);
+        assertNotSame(longString, pool.canonicalize(new String(longString)));
+    }
+
+    @Test
+    public void boundedTest() {
+        StringPool pool = new StringPool(16);
+        String first = new String("attribute0");
+        pool.canonicalize(first);
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("attribute" + i, pool.canonicalize("attribute" + i));
+        }
+        // replaced by another string
+        assertNotSame(first, pool.canonicalize(new String("attribute0")));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.model.GeoQuery;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent spatial index of shapes, on a regular grid of latitudes and longitudes.
+ *
+ * Each shape is referenced by all the cells covered by its bounding box, shapes covering too many cells
+ * are kept aside and always considered as candidates. A query only visits the cells covered by the bounds of the
+ * GeoPredicate (or the occupied cells when they are fewer), then tests each candidate exactly.
+ * Relations that cannot be bounded (disjoint, near with minDistance) scan all the shapes.
+ *
+ * @param <K> the type of the keys identifying the shapes
+ */
+public class GeoIndex<K> {
+
+    /** Default size of a cell in degrees, about 1.1 km of latitude */
+    public static final double DEFAULT_CELL_SIZE = 0.01;
+
+    /** Maximum number of cells referencing the same shape */
+    static final int MAX_CELLS = 1024;
+
+    private final double cellSize;
+
+    private final ConcurrentMap<K, Shape> shapes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, Set<K>> cells = new ConcurrentHashMap<>();
+
+    private final Set<K> large = ConcurrentHashMap.newKeySet();
+
+    public GeoIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize the size of a cell in degrees
+     */
+    public GeoIndex(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cellSize must be positive");
+        }
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Add, replace or remove the shape of a key
+     * @param key the key
+     * @param shape the new shape, null to remove the key
+     */
+    public void put(K key, Shape shape) {
+        if (shape == null) {
+            remove(key);
+            return;
+        }
+        shapes.compute(key, (k, previous) -> {
+            if (previous != null) {
+                unindex(k, previous);
+            }
+            index(k, shape);
+            return shape;
+        });
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the removed shape, or null if none
+     */
+    public Shape remove(K key) {
+        Shape[] removed = new Shape[1];
+        shapes.computeIfPresent(key, (k, previous) -> {
+            unindex(k, previous);
+            removed[0] = previous;
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * @return the shape of a key, or null if none
+     */
+    public Shape get(K key) {
+        return shapes.get(key);
+    }
+
+    /**
+     * @return the number of shapes in the index
+     */
+    public int size() {
+        return shapes.size();
+    }
+
+    /**
+     * @param geoQuery the query
+     * @return the keys of the shapes matching the query
+     * @throws com.orange.ngsi2.exception.BadRequestException if the query is invalid
+     */
+    public Set<K> query(GeoQuery geoQuery) {
+        return query(GeoPredicate.of(geoQuery));
+    }
+
+    /**
+     * @param predicate the compiled query
+     * @return the keys of the shapes matching the query
+     */
+    public Set<K> query(GeoPredicate predicate) {
+        Set<K> result = new HashSet<>();
+        Shape bounds = predicate.getBounds();
+        if (bounds == null) {
+            shapes.forEach((key, shape) -> {
+                if (predicate.test(shape)) {
+                    result.add(key);
+                }
+            });
+            return result;
+        }
+
+        int minRow = row(bounds.getMinLatitude()), maxRow = row(bounds.getMaxLatitude());
+        int minColumn = column(bounds.getMinLongitude()), maxColumn = column(bounds.getMaxLongitude());
+        long covered = (long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1);
+        Set<K> visited = new HashSet<>();
+        if (covered <= cells.size()) {
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int column = minColumn; column <= maxColumn; column++) {
+                    Set<K> keys = cells.get(cell(row, column));
+                    if (keys != null) {
+                        test(keys, predicate, bounds, visited, result);
+                    }
+                }
+            }
+        } else {
+            cells.forEach((cell, keys) -> {
+                int row = (int) (cell >> 32), column = (int) (long) cell;
+                if (row >= minRow && row <= maxRow && column >= minColumn && column <= maxColumn) {
+                    test(keys, predicate, bounds, visited, result);
+                }
+            });
+        }
+        test(large, predicate, bounds, visited, result);
+        return result;
+    }
+
+    /**
+     * Remove all the shapes
+     */
+    public void clear() {
+        shapes.keySet().forEach(this::remove);
+    }
+
+    private void test(Set<K> keys, GeoPredicate predicate, Shape bounds, Set<K> visited, Set<K> result) {
+        for (K key : keys) {
+            // a shape spanning several cells is seen once per cell
+            if (!visited.add(key)) {
+                continue;
+            }
+            Shape shape = shapes.get(key);
+            if (shape != null && shape.boundsIntersect(bounds) && predicate.test(shape)) {
+                result.add(key);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the entry of the key in the shapes map
+     */
+    private void index(K key, Shape shape) {
+        int minRow = row(shape.getMinLatitude()), maxRow = row(shape.getMaxLatitude());
+        int minColumn = column(shape.getMinLongitude()), maxColumn = column(shape.getMaxLongitude());
+        if ((long) (maxRow - minRow + 1) * (maxColumn - minColumn + 1) > MAX_CELLS) {
+            large.add(key);
+            return;
+        }
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                cells.compute(cell(row, column), (c, keys) -> {
+                    if (keys == null) {
+                        keys = ConcurrentHashMap.newKeySet();
+                    }
+                    keys.add(key);
+                    return keys;
+                });
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the entry of the key in the shapes map
+     */
+    private void unindex(K key, Shape shape) {
+        if (large.remove(key)) {
+            return;
+        }
+        int minRow = row(shape.getMinLatitude()), maxRow = row(shape.getMaxLatitude());
+        int minColumn = column(shape.getMinLongitude()), maxColumn = column(shape.getMaxLongitude());
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int column = minColumn; column <= maxColumn; column++) {
+                cells.computeIfPresent(cell(row, column), (c, keys) -> {
+                    keys.remove(key);
+                    return keys.isEmpty() ? null : keys;
+                });
+            }
+        }
+    }
+
+    private int row(double latitude) {
+        return (int) Math.floor(latitude / cellSize);
+    }
+
+    private int column(double longitude) {
+        return (int) Math.floor(longitude / cellSize);
+    }
+
+    private static long cell(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
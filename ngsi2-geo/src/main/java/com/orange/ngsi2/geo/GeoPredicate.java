@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.model.GeoQuery;
+
+/**
+ * A GeoQuery compiled against its reference shape, tested on the shapes of the entities
+ */
+public final class GeoPredicate {
+
+    private final GeoQuery.Relation relation;
+
+    private final Shape shape;
+
+    private final GeoQuery.Modifier modifier;
+
+    private final double distance;
+
+    private final Shape bounds;
+
+    private GeoPredicate(GeoQuery.Relation relation, Shape shape, GeoQuery.Modifier modifier, double distance) {
+        this.relation = relation;
+        this.shape = shape;
+        this.modifier = modifier;
+        this.distance = distance;
+        this.bounds = computeBounds();
+    }
+
+    /**
+     * @param geoQuery the query
+     * @return the compiled query
+     * @throws BadRequestException if the geometry is invalid, or a near relation lacks a point or a distance
+     */
+    public static GeoPredicate of(GeoQuery geoQuery) {
+        Shape shape = Shape.of(geoQuery.getGeometry(), geoQuery.getCoordinates());
+        if (geoQuery.getRelation() == GeoQuery.Relation.near) {
+            if (geoQuery.getGeometry() != GeoQuery.Geometry.point) {
+                throw new BadRequestException("georel near requires a point geometry");
+            }
+            if (geoQuery.getModifier() == null || geoQuery.getDistance() < 0) {
+                throw new BadRequestException("georel near requires a maxDistance or minDistance modifier");
+            }
+        }
+        return new GeoPredicate(geoQuery.getRelation(), shape, geoQuery.getModifier(), geoQuery.getDistance());
+    }
+
+    /**
+     * @param candidate the shape of an entity
+     * @return true if the shape is in the relation
+     */
+    public boolean test(Shape candidate) {
+        switch (relation) {
+            case near:
+                double d = candidate.distance(shape.getMinLatitude(), shape.getMinLongitude());
+                return modifier == GeoQuery.Modifier.maxDistance ? d <= distance : d >= distance;
+            case coveredBy:
+                return candidate.coveredBy(shape);
+            case intersects:
+                return candidate.intersects(shape);
+            case equals:
+                return candidate.sameAs(shape);
+            default:
+                return !candidate.intersects(shape);
+        }
+    }
+
+    /**
+     * @return a box containing all the shapes that can match, or null if any shape can match (disjoint, minDistance)
+     */
+    public Shape getBounds() {
+        return bounds;
+    }
+
+    public GeoQuery.Relation getRelation() {
+        return relation;
+    }
+
+    public Shape getShape() {
+        return shape;
+    }
+
+    private Shape computeBounds() {
+        if (relation == GeoQuery.Relation.disjoint) {
+            return null;
+        }
+        if (relation == GeoQuery.Relation.near) {
+            if (modifier != GeoQuery.Modifier.maxDistance) {
+                return null;
+            }
+            double latitude = shape.getMinLatitude(), longitude = shape.getMinLongitude();
+            double dLat = distance / Shape.METERS_PER_DEGREE;
+            // widest longitude offset of a spherical cap
+            double sin = Math.sin(Math.min(Math.PI / 2, distance / Shape.EARTH_RADIUS));
+            double cos = Math.cos(Math.toRadians(latitude));
+            double dLon = sin >= cos ? 180 : Math.toDegrees(Math.asin(sin / cos));
+            return Shape.box(Math.max(-90, latitude - dLat), Math.max(-180, longitude - dLon),
+                    Math.min(90, latitude + dLat), Math.min(180, longitude + dLon));
+        }
+        return Shape.box(shape.getMinLatitude(), shape.getMinLongitude(), shape.getMaxLatitude(), shape.getMaxLongitude());
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Coordinate;
+import com.orange.ngsi2.model.GeoQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable point, line, polygon or box on WGS84 coordinates.
+ *
+ * Topological relations (intersects, coveredBy, equals) are computed on the plane of latitudes and longitudes,
+ * distances are computed in meters on the sphere. Geometries crossing the antimeridian are not supported.
+ */
+public final class Shape {
+
+    /** Mean radius of the Earth in meters */
+    public static final double EARTH_RADIUS = 6371000;
+
+    static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private final GeoQuery.Geometry geometry;
+
+    private final double[] latitudes;
+
+    private final double[] longitudes;
+
+    private final double minLatitude;
+
+    private final double maxLatitude;
+
+    private final double minLongitude;
+
+    private final double maxLongitude;
+
+    private Shape(GeoQuery.Geometry geometry, double[] latitudes, double[] longitudes) {
+        this.geometry = geometry;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < latitudes.length; i++) {
+            minLat = Math.min(minLat, latitudes[i]);
+            maxLat = Math.max(maxLat, latitudes[i]);
+            minLon = Math.min(minLon, longitudes[i]);
+            maxLon = Math.max(maxLon, longitudes[i]);
+        }
+        this.minLatitude = minLat;
+        this.maxLatitude = maxLat;
+        this.minLongitude = minLon;
+        this.maxLongitude = maxLon;
+    }
+
+    /**
+     * @param latitude the latitude
+     * @param longitude the longitude
+     * @return a point
+     */
+    public static Shape point(double latitude, double longitude) {
+        return new Shape(GeoQuery.Geometry.point, new double[] {latitude}, new double[] {longitude});
+    }
+
+    /**
+     * @return a box given two opposite corners
+     */
+    public static Shape box(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double minLat = Math.min(latitude1, latitude2), maxLat = Math.max(latitude1, latitude2);
+        double minLon = Math.min(longitude1, longitude2), maxLon = Math.max(longitude1, longitude2);
+        return new Shape(GeoQuery.Geometry.box, new double[] {minLat, minLat, maxLat, maxLat},
+                new double[] {minLon, maxLon, maxLon, minLon});
+    }
+
+    /**
+     * Build a shape from the geometry and coords parameters of a query
+     * @param geometry the kind of geometry
+     * @param coordinates the coordinates: one for a point, two corners for a box, at least two for a line,
+     *                    at least three for a polygon (the closing coordinate is optional)
+     * @return the shape
+     * @throws BadRequestException if the coordinates do not define a valid geometry
+     */
+    public static Shape of(GeoQuery.Geometry geometry, List<Coordinate> coordinates) {
+        int size = coordinates == null ? 0 : coordinates.size();
+        if (geometry == GeoQuery.Geometry.polygon && size > 1 && coordinates.get(0).getLatitude() == coordinates.get(size - 1).getLatitude()
+                && coordinates.get(0).getLongitude() == coordinates.get(size - 1).getLongitude()) {
+            size--;
+        }
+        switch (geometry) {
+            case point:
+                check(size == 1, "a point needs exactly one coordinate");
+                return point(coordinates.get(0).getLatitude(), coordinates.get(0).getLongitude());
+            case box:
+                check(size == 2, "a box needs exactly two coordinates");
+                return box(coordinates.get(0).getLatitude(), coordinates.get(0).getLongitude(),
+                        coordinates.get(1).getLatitude(), coordinates.get(1).getLongitude());
+            case line:
+                check(size >= 2, "a line needs at least two coordinates");
+                break;
+            default:
+                check(size >= 3, "a polygon needs at least three distinct coordinates");
+        }
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            latitudes[i] = coordinates.get(i).getLatitude();
+            longitudes[i] = coordinates.get(i).getLongitude();
+        }
+        return new Shape(geometry, latitudes, longitudes);
+    }
+
+    /**
+     * Build a shape from the value of a location attribute.
+     * Supported attribute types are geo:point ("lat, lon"), geo:line, geo:box, geo:polygon (arrays of "lat, lon")
+     * and geo:json (Point, LineString and Polygon without holes).
+     * @param attribute the attribute
+     * @return the shape, or null if the attribute is not a location or a location of an unsupported type
+     * (other geo:* types, other geo:json geometries such as MultiPoint or MultiPolygon)
+     * @throws BadRequestException if the value of a supported location attribute is invalid
+     */
+    public static Shape fromAttribute(Attribute attribute) {
+        String type = attribute.getType() == null ? null : attribute.getType().orElse(null);
+        if (type == null || !type.startsWith("geo:")) {
+            return null;
+        }
+        Object value = attribute.getValue();
+        switch (type) {
+            case "geo:point":
+                return of(GeoQuery.Geometry.point, parseCoordinates(value, true));
+            case "geo:line":
+                return of(GeoQuery.Geometry.line, parseCoordinates(value, false));
+            case "geo:box":
+                return of(GeoQuery.Geometry.box, parseCoordinates(value, false));
+            case "geo:polygon":
+                return of(GeoQuery.Geometry.polygon, parseCoordinates(value, false));
+            case "geo:json":
+                return parseGeoJson(value);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if this shape intersects the other one (sharing at least one point)
+     */
+    public boolean intersects(Shape other) {
+        if (!boundsIntersect(other)) {
+            return false;
+        }
+        for (int i = 0; i < segments(); i++) {
+            for (int j = 0; j < other.segments(); j++) {
+                if (segmentsIntersect(i, other, j, false)) {
+                    return true;
+                }
+            }
+        }
+        return (other.isArea() && other.contains(latitudes[0], longitudes[0]))
+                || (isArea() && contains(other.latitudes[0], other.longitudes[0]));
+    }
+
+    /**
+     * @return true if every point of this shape is a point of the other one
+     */
+    public boolean coveredBy(Shape other) {
+        if (minLatitude < other.minLatitude || maxLatitude > other.maxLatitude
+                || minLongitude < other.minLongitude || maxLongitude > other.maxLongitude) {
+            return false;
+        }
+        for (int i = 0; i < latitudes.length; i++) {
+            if (other.isArea() ? !other.contains(latitudes[i], longitudes[i]) : !other.onBoundary(latitudes[i], longitudes[i])) {
+                return false;
+            }
+        }
+        if (other.isArea()) {
+            // no edge may leave the other area between two covered vertices
+            for (int i = 0; i < segments(); i++) {
+                for (int j = 0; j < other.segments(); j++) {
+                    if (segmentsIntersect(i, other, j, true)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if both shapes have the same dimension and the same vertices (whatever the starting vertex
+     * and the orientation of a polygon or line)
+     */
+    public boolean sameAs(Shape other) {
+        if (isArea() != other.isArea() || latitudes.length != other.latitudes.length) {
+            return false;
+        }
+        int n = latitudes.length;
+        for (int start = 0; start < (isArea() ? n : 1); start++) {
+            boolean forward = true, backward = true;
+            for (int i = 0; i < n && (forward || backward); i++) {
+                int j = isArea() ? (start + i) % n : i;
+                int k = isArea() ? (start - i + n) % n : n - 1 - i;
+                forward &= latitudes[i] == other.latitudes[j] && longitudes[i] == other.longitudes[j];
+                backward &= latitudes[i] == other.latitudes[k] && longitudes[i] == other.longitudes[k];
+            }
+            if (forward || backward) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the distance in meters between the point and the closest point of this shape, 0 if the point is in this area
+     */
+    public double distance(double latitude, double longitude) {
+        if (latitudes.length == 1) {
+            return haversine(latitude, longitude, latitudes[0], longitudes[0]);
+        }
+        if (isArea() && contains(latitude, longitude)) {
+            return 0;
+        }
+        // local equirectangular projection centered on the point, accurate enough at the scale of a city
+        double scale = Math.cos(Math.toRadians(latitude));
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % latitudes.length;
+            double x1 = (longitudes[i] - longitude) * scale, y1 = latitudes[i] - latitude;
+            double x2 = (longitudes[j] - longitude) * scale, y2 = latitudes[j] - latitude;
+            double dx = x2 - x1, dy = y2 - y1;
+            double length = dx * dx + dy * dy;
+            double t = length == 0 ? 0 : Math.max(0, Math.min(1, -(x1 * dx + y1 * dy) / length));
+            double x = x1 + t * dx, y = y1 + t * dy;
+            min = Math.min(min, x * x + y * y);
+        }
+        return Math.sqrt(min) * METERS_PER_DEGREE;
+    }
+
+    /**
+     * @return the great-circle distance in meters between two points
+     */
+    public static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLat = Math.toRadians(latitude2 - latitude1);
+        double dLon = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    public GeoQuery.Geometry getGeometry() {
+        return geometry;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    /**
+     * @return true if the bounding boxes of both shapes intersect
+     */
+    public boolean boundsIntersect(Shape other) {
+        return minLatitude <= other.maxLatitude && other.minLatitude <= maxLatitude
+                && minLongitude <= other.maxLongitude && other.minLongitude <= maxLongitude;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(geometry.name()).append('[');
+        for (int i = 0; i < latitudes.length; i++) {
+            sb.append(i == 0 ? "" : ";").append(latitudes[i]).append(',').append(longitudes[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    /*
+     * Planar geometry helpers
+     */
+
+    private boolean isArea() {
+        return geometry == GeoQuery.Geometry.polygon || geometry == GeoQuery.Geometry.box;
+    }
+
+    /**
+     * @return the number of segments: one (degenerated) for a point, n-1 for a line, n for a closed ring
+     */
+    private int segments() {
+        return isArea() ? latitudes.length : Math.max(1, latitudes.length - 1);
+    }
+
+    /**
+     * @return true if the point is inside the area or on its boundary
+     */
+    private boolean contains(double latitude, double longitude) {
+        if (onBoundary(latitude, longitude)) {
+            return true;
+        }
+        boolean inside = false;
+        int n = latitudes.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            if ((latitudes[i] > latitude) != (latitudes[j] > latitude)
+                    && longitude < (longitudes[j] - longitudes[i]) * (latitude - latitudes[i]) / (latitudes[j] - latitudes[i]) + longitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return true if the point is on one of the segments of this shape
+     */
+    private boolean onBoundary(double latitude, double longitude) {
+        for (int i = 0; i < segments(); i++) {
+            int j = (i + 1) % latitudes.length;
+            if (orientation(longitudes[i], latitudes[i], longitudes[j], latitudes[j], longitude, latitude) == 0
+                    && between(longitudes[i], latitudes[i], longitudes[j], latitudes[j], longitude, latitude)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param strict only report a proper crossing (not a touching or overlapping)
+     */
+    private boolean segmentsIntersect(int i, Shape other, int j, boolean strict) {
+        int i2 = (i + 1) % latitudes.length, j2 = (j + 1) % other.latitudes.length;
+        double ax = longitudes[i], ay = latitudes[i], bx = longitudes[i2], by = latitudes[i2];
+        double cx = other.longitudes[j], cy = other.latitudes[j], dx = other.longitudes[j2], dy = other.latitudes[j2];
+        int o1 = orientation(ax, ay, bx, by, cx, cy);
+        int o2 = orientation(ax, ay, bx, by, dx, dy);
+        int o3 = orientation(cx, cy, dx, dy, ax, ay);
+        int o4 = orientation(cx, cy, dx, dy, bx, by);
+        if (strict) {
+            return o1 * o2 < 0 && o3 * o4 < 0;
+        }
+        if (o1 != o2 && o3 != o4) {
+            return true;
+        }
+        return (o1 == 0 && between(ax, ay, bx, by, cx, cy)) || (o2 == 0 && between(ax, ay, bx, by, dx, dy))
+                || (o3 == 0 && between(cx, cy, dx, dy, ax, ay)) || (o4 == 0 && between(cx, cy, dx, dy, bx, by));
+    }
+
+    private static int orientation(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (int) Math.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax));
+    }
+
+    /**
+     * @return true if c, known to be collinear with a and b, lies between them
+     */
+    private static boolean between(double ax, double ay, double bx, double by, double cx, double cy) {
+        return Math.min(ax, bx) <= cx && cx <= Math.max(ax, bx) && Math.min(ay, by) <= cy && cy <= Math.max(ay, by);
+    }
+
+    /*
+     * Attribute value parsing
+     */
+
+    private static List<Coordinate> parseCoordinates(Object value, boolean single) {
+        List<Coordinate> coordinates = new ArrayList<>();
+        if (single) {
+            coordinates.add(parseCoordinate(value));
+        } else if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                coordinates.add(parseCoordinate(item));
+            }
+        } else {
+            throw new BadRequestException("a location must be an array of coordinates");
+        }
+        return coordinates;
+    }
+
+    private static Coordinate parseCoordinate(Object value) {
+        if (value instanceof String) {
+            String[] fields = ((String) value).split(",");
+            if (fields.length == 2) {
+                try {
+                    return coordinate(Double.parseDouble(fields[0].trim()), Double.parseDouble(fields[1].trim()));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        throw new BadRequestException("invalid coordinate " + value);
+    }
+
+    private static Shape parseGeoJson(Object value) {
+        if (value instanceof Map) {
+            Map<?, ?> geoJson = (Map<?, ?>) value;
+            Object coordinates = geoJson.get("coordinates");
+            Object type = geoJson.get("type");
+            if ("Point".equals(type)) {
+                return of(GeoQuery.Geometry.point, parsePositions(Collections.singletonList(coordinates)));
+            } else if ("LineString".equals(type)) {
+                return of(GeoQuery.Geometry.line, parsePositions(coordinates));
+            } else if ("Polygon".equals(type)) {
+                if (!(coordinates instanceof List) || ((List<?>) coordinates).isEmpty()) {
+                    throw new BadRequestException("invalid geo:json coordinates");
+                }
+                // only the exterior ring is considered
+                return of(GeoQuery.Geometry.polygon, parsePositions(((List<?>) coordinates).get(0)));
+            } else if (type instanceof String) {
+                // other geometries are not indexed
+                return null;
+            }
+        }
+        throw new BadRequestException("invalid geo:json value, must be a GeoJSON geometry");
+    }
+
+    /**
+     * GeoJSON positions are [longitude, latitude]
+     */
+    private static List<Coordinate> parsePositions(Object value) {
+        if (!(value instanceof List)) {
+            throw new BadRequestException("invalid geo:json coordinates");
+        }
+        List<Coordinate> coordinates = new ArrayList<>();
+        for (Object position : (List<?>) value) {
+            if (!(position instanceof List) || ((List<?>) position).size() < 2
+                    || !(((List<?>) position).get(0) instanceof Number) || !(((List<?>) position).get(1) instanceof Number)) {
+                throw new BadRequestException("invalid geo:json position " + position);
+            }
+            List<?> p = (List<?>) position;
+            coordinates.add(coordinate(((Number) p.get(1)).doubleValue(), ((Number) p.get(0)).doubleValue()));
+        }
+        return coordinates;
+    }
+
+    private static Coordinate coordinate(double latitude, double longitude) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new BadRequestException("coordinate out of range " + latitude + "," + longitude);
+        }
+        return new Coordinate(latitude, longitude);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new BadRequestException(message);
+        }
+    }
+}
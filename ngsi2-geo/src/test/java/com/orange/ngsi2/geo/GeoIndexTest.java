@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.model.GeoQuery;
+import org.junit.Test;
+
+import java.util.*;
+
+import static com.orange.ngsi2.geo.ShapeTest.coordinates;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for GeoIndex
+ */
+public class GeoIndexTest {
+
+    @Test
+    public void testPutAndRemove() {
+        GeoIndex<String> index = new GeoIndex<>();
+        index.put("a", Shape.point(45, 5));
+        index.put("a", Shape.point(46, 6));
+        index.put("b", Shape.point(45, 5));
+        assertEquals(2, index.size());
+        assertEquals(Collections.singleton("b"), index.query(near(45, 5, 100)));
+        assertNotNull(index.remove("b"));
+        index.put("a", null);
+        assertEquals(0, index.size());
+        assertTrue(index.query(near(46, 6, 100)).isEmpty());
+    }
+
+    @Test
+    public void testLargeShapes() {
+        GeoIndex<String> index = new GeoIndex<>(0.01);
+        index.put("france", Shape.box(42, -5, 51, 8));
+        index.put("grenoble", Shape.point(45.188, 5.724));
+        assertEquals(new HashSet<>(Arrays.asList("france", "grenoble")), index.query(near(45.19, 5.72, 1000)));
+        assertEquals(Collections.singleton("france"), index.query(new GeoQuery(GeoQuery.Relation.intersects, GeoQuery.Geometry.point, coordinates(48.85, 2.35))));
+        index.remove("france");
+        assertEquals(Collections.singleton("grenoble"), index.query(near(45.19, 5.72, 1000)));
+    }
+
+    /**
+     * Compare the index with a linear scan on random shapes
+     */
+    @Test
+    public void testSameResultsAsScan() {
+        Random random = new Random(42);
+        GeoIndex<Integer> index = new GeoIndex<>(0.005);
+        Map<Integer, Shape> shapes = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            double lat = 45 + random.nextDouble() * 0.2, lon = 5 + random.nextDouble() * 0.2;
+            Shape shape = i % 10 == 0 ? Shape.box(lat, lon, lat + random.nextDouble() * 0.05, lon + random.nextDouble() * 0.05)
+                    : Shape.point(lat, lon);
+            shapes.put(i, shape);
+            index.put(i, shape);
+        }
+        List<GeoQuery> queries = Arrays.asList(
+                near(45.1, 5.1, 500),
+                near(45.1, 5.1, 50000),
+                new GeoQuery(GeoQuery.Modifier.minDistance, 5000, GeoQuery.Geometry.point, coordinates(45.1, 5.1)),
+                new GeoQuery(GeoQuery.Relation.coveredBy, GeoQuery.Geometry.polygon, coordinates(45, 5, 45.1, 5.15, 45.05, 5.05)),
+                new GeoQuery(GeoQuery.Relation.intersects, GeoQuery.Geometry.line, coordinates(45, 5, 45.2, 5.2)),
+                new GeoQuery(GeoQuery.Relation.disjoint, GeoQuery.Geometry.box, coordinates(45.05, 5.05, 45.15, 5.15)));
+        for (GeoQuery query : queries) {
+            GeoPredicate predicate = GeoPredicate.of(query);
+            Set<Integer> expected = new HashSet<>();
+            shapes.forEach((key, shape) -> {
+                if (predicate.test(shape)) {
+                    expected.add(key);
+                }
+            });
+            assertEquals(expected, index.query(predicate));
+        }
+    }
+
+    private static GeoQuery near(double latitude, double longitude, float maxDistance) {
+        return new GeoQuery(GeoQuery.Modifier.maxDistance, maxDistance, GeoQuery.Geometry.point, coordinates(latitude, longitude));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.model.GeoQuery;
+import org.junit.Test;
+
+import static com.orange.ngsi2.geo.ShapeTest.coordinates;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for GeoPredicate
+ */
+public class GeoPredicateTest {
+
+    @Test
+    public void testNear() {
+        GeoPredicate max = GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.maxDistance, 1000, GeoQuery.Geometry.point, coordinates(45, 5)));
+        assertTrue(max.test(Shape.point(45.005, 5.005)));
+        assertFalse(max.test(Shape.point(45.01, 5)));
+        GeoPredicate min = GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.minDistance, 1000, GeoQuery.Geometry.point, coordinates(45, 5)));
+        assertFalse(min.test(Shape.point(45.005, 5.005)));
+        assertTrue(min.test(Shape.point(45.01, 5)));
+        assertNull(min.getBounds());
+    }
+
+    @Test
+    public void testNearBounds() {
+        GeoPredicate max = GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.maxDistance, 1000, GeoQuery.Geometry.point, coordinates(60, 5)));
+        Shape bounds = max.getBounds();
+        // every point at 1000 m is in the bounds
+        for (int bearing = 0; bearing < 360; bearing += 15) {
+            double b = Math.toRadians(bearing), d = 999.0 / Shape.EARTH_RADIUS, lat = Math.toRadians(60);
+            double lat2 = Math.asin(Math.sin(lat) * Math.cos(d) + Math.cos(lat) * Math.sin(d) * Math.cos(b));
+            double lon2 = Math.toRadians(5) + Math.atan2(Math.sin(b) * Math.sin(d) * Math.cos(lat), Math.cos(d) - Math.sin(lat) * Math.sin(lat2));
+            assertTrue(max.test(Shape.point(Math.toDegrees(lat2), Math.toDegrees(lon2))));
+            assertTrue(Shape.point(Math.toDegrees(lat2), Math.toDegrees(lon2)).boundsIntersect(bounds));
+        }
+    }
+
+    @Test
+    public void testRelations() {
+        GeoPredicate coveredBy = GeoPredicate.of(new GeoQuery(GeoQuery.Relation.coveredBy, GeoQuery.Geometry.box, coordinates(0, 0, 10, 10)));
+        assertTrue(coveredBy.test(Shape.point(5, 5)));
+        assertFalse(coveredBy.test(ShapeTest.line(5, 5, 15, 15)));
+        GeoPredicate intersects = GeoPredicate.of(new GeoQuery(GeoQuery.Relation.intersects, GeoQuery.Geometry.box, coordinates(0, 0, 10, 10)));
+        assertTrue(intersects.test(ShapeTest.line(5, 5, 15, 15)));
+        GeoPredicate disjoint = GeoPredicate.of(new GeoQuery(GeoQuery.Relation.disjoint, GeoQuery.Geometry.box, coordinates(0, 0, 10, 10)));
+        assertFalse(disjoint.test(ShapeTest.line(5, 5, 15, 15)));
+        assertTrue(disjoint.test(Shape.point(11, 11)));
+        assertNull(disjoint.getBounds());
+        GeoPredicate equals = GeoPredicate.of(new GeoQuery(GeoQuery.Relation.equals, GeoQuery.Geometry.point, coordinates(1, 2)));
+        assertTrue(equals.test(Shape.point(1, 2)));
+        assertFalse(equals.test(Shape.point(2, 1)));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testNearWithoutPoint() {
+        GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.maxDistance, 1000, GeoQuery.Geometry.box, coordinates(0, 0, 1, 1)));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testNearWithoutModifier() {
+        GeoPredicate.of(new GeoQuery(GeoQuery.Relation.near, GeoQuery.Geometry.point, coordinates(0, 0)));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.geo;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Coordinate;
+import com.orange.ngsi2.model.GeoQuery;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Shape
+ */
+public class ShapeTest {
+
+    private static final Shape square = Shape.of(GeoQuery.Geometry.polygon, coordinates(0, 0, 0, 10, 10, 10, 10, 0, 0, 0));
+
+    /* L shaped polygon, the upper right quarter is outside */
+    private static final Shape concave = Shape.of(GeoQuery.Geometry.polygon, coordinates(0, 0, 0, 10, 5, 10, 5, 5, 10, 5, 10, 0));
+
+    @Test
+    public void testPoint() {
+        Shape point = Shape.fromAttribute(attribute("geo:point", "40.418889, -3.691944"));
+        assertEquals(GeoQuery.Geometry.point, point.getGeometry());
+        assertEquals(40.418889, point.getMinLatitude(), 0);
+        assertEquals(-3.691944, point.getMaxLongitude(), 0);
+        assertTrue(point.sameAs(Shape.point(40.418889, -3.691944)));
+        assertFalse(point.sameAs(Shape.point(40.418889, -3.69)));
+    }
+
+    @Test
+    public void testNotALocation() {
+        assertNull(Shape.fromAttribute(attribute("number", 12)));
+        assertNull(Shape.fromAttribute(new Attribute("40.418889, -3.691944")));
+    }
+
+    @Test
+    public void testGeoJson() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("type", "Polygon");
+        value.put("coordinates", Collections.singletonList(Arrays.asList(Arrays.asList(0, 0), Arrays.asList(10, 0),
+                Arrays.asList(10, 10), Arrays.asList(0, 10), Arrays.asList(0, 0))));
+        Shape polygon = Shape.fromAttribute(attribute("geo:json", value));
+        assertTrue(polygon.sameAs(square));
+
+        value.put("type", "Point");
+        value.put("coordinates", Arrays.asList(-3.691944, 40.418889));
+        assertEquals(40.418889, Shape.fromAttribute(attribute("geo:json", value)).getMinLatitude(), 0);
+    }
+
+    @Test
+    public void testUnsupportedLocations() {
+        Map<String, Object> value = new HashMap<>();
+        value.put("type", "MultiPoint");
+        value.put("coordinates", Arrays.asList(Arrays.asList(0, 0), Arrays.asList(10, 10)));
+        assertNull(Shape.fromAttribute(attribute("geo:json", value)));
+        assertNull(Shape.fromAttribute(attribute("geo:foo", "somewhere")));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testInvalidGeoJson() {
+        Shape.fromAttribute(attribute("geo:json", "40.418889, -3.691944"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testInvalidPoint() {
+        Shape.fromAttribute(attribute("geo:point", "40.418889"));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testInvalidPolygon() {
+        Shape.of(GeoQuery.Geometry.polygon, coordinates(0, 0, 1, 1, 0, 0));
+    }
+
+    @Test(expected = BadRequestException.class)
+    public void testOutOfRange() {
+        Shape.fromAttribute(attribute("geo:line", Arrays.asList("0, 0", "91, 0")));
+    }
+
+    @Test
+    public void testIntersects() {
+        assertTrue(Shape.point(5, 5).intersects(square));
+        assertTrue(Shape.point(0, 5).intersects(square));
+        assertFalse(Shape.point(7, 7).intersects(concave));
+        assertTrue(line(-5, 5, 15, 5).intersects(square));
+        assertTrue(square.intersects(line(-5, 5, 15, 5)));
+        assertFalse(line(7, 7, 9, 9).intersects(concave));
+        assertTrue(line(7, 7, 9, 9).intersects(square));
+        assertTrue(Shape.box(-1, -1, 1, 1).intersects(concave));
+        assertFalse(Shape.box(6, 6, 9, 9).intersects(concave));
+        assertTrue(Shape.box(1, 1, 2, 2).intersects(square));
+    }
+
+    @Test
+    public void testCoveredBy() {
+        assertTrue(Shape.point(5, 5).coveredBy(square));
+        assertTrue(Shape.point(10, 10).coveredBy(square));
+        assertFalse(Shape.point(7, 7).coveredBy(concave));
+        assertTrue(line(1, 1, 9, 9).coveredBy(square));
+        // both ends in the L, crossing the notch
+        assertFalse(line(4, 8, 8, 4).coveredBy(concave));
+        assertTrue(Shape.box(1, 1, 4, 9).coveredBy(concave));
+        assertFalse(square.coveredBy(concave));
+        assertTrue(Shape.point(5, 5).coveredBy(line(0, 0, 10, 10)));
+        assertFalse(Shape.point(5, 6).coveredBy(line(0, 0, 10, 10)));
+    }
+
+    @Test
+    public void testSameAs() {
+        assertTrue(square.sameAs(Shape.of(GeoQuery.Geometry.polygon, coordinates(10, 10, 0, 10, 0, 0, 10, 0))));
+        assertTrue(square.sameAs(Shape.box(0, 0, 10, 10)));
+        assertFalse(square.sameAs(concave));
+        assertTrue(line(0, 0, 1, 1).sameAs(line(1, 1, 0, 0)));
+        assertFalse(line(0, 0, 1, 1).sameAs(Shape.point(0, 0)));
+    }
+
+    @Test
+    public void testDistance() {
+        // Madrid Puerta del Sol to Plaza Mayor, about 340 m
+        double d = Shape.point(40.416775, -3.703790).distance(40.415363, -3.707398);
+        assertEquals(340, d, 20);
+        assertEquals(0, square.distance(5, 5), 0);
+        assertEquals(Shape.METERS_PER_DEGREE, square.distance(11, 5), 1);
+        assertEquals(Shape.METERS_PER_DEGREE, line(0, 0, 0, 10).distance(1, 5), 1);
+        assertEquals(Shape.haversine(0, 0, 0, 1), Shape.METERS_PER_DEGREE, 1);
+    }
+
+    static List<Coordinate> coordinates(double... values) {
+        List<Coordinate> coordinates = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 2) {
+            coordinates.add(new Coordinate(values[i], values[i + 1]));
+        }
+        return coordinates;
+    }
+
+    static Shape line(double... values) {
+        return Shape.of(GeoQuery.Geometry.line, coordinates(values));
+    }
+
+    static Attribute attribute(String type, Object value) {
+        Attribute attribute = new Attribute(value);
+        attribute.setType(Optional.of(type));
+        return attribute;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.orange.ngsi2.model.Attribute;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Deserializes an attribute from its value only, as in the keyValues representation.
+ * The type of the attribute is inferred from the JSON token of the value:
+ * Text, Number, Boolean, StructuredValue (objects and arrays) or None (null).
+ */
+public class AttributeKeyValuesDeserializer extends StdDeserializer<Attribute> {
+
+    public AttributeKeyValuesDeserializer() {
+        super(Attribute.class);
+    }
+
+    @Override
+    public Attribute deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        return read(p, ctxt);
+    }
+
+    @Override
+    public Attribute getNullValue(DeserializationContext ctxt) {
+        return attribute(null, "None");
+    }
+
+    /**
+     * @param p a parser on the first token of the value
+     * @return the attribute holding the value, with the inferred type
+     */
+    static Attribute read(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        switch (token) {
+            case VALUE_STRING:
+                return attribute(p.getText(), "Text");
+            case VALUE_NUMBER_INT:
+                return attribute(p.getNumberValue(), "Number");
+            case VALUE_NUMBER_FLOAT:
+                return attribute(p.getDoubleValue(), "Number");
+            case VALUE_TRUE:
+                return attribute(Boolean.TRUE, "Boolean");
+            case VALUE_FALSE:
+                return attribute(Boolean.FALSE, "Boolean");
+            case VALUE_NULL:
+                return attribute(null, "None");
+            case START_OBJECT:
+            case START_ARRAY:
+                return attribute(ctxt.readValue(p, Object.class), "StructuredValue");
+            default:
+                throw ctxt.mappingException(Attribute.class, token);
+        }
+    }
+
+    private static Attribute attribute(Object value, String type) {
+        Attribute attribute = new Attribute(value);
+        attribute.setType(Optional.of(type));
+        return attribute;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.orange.ngsi2.exception.RequestEntityTooLargeException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Validates the items of bulk requests (entities of /op/update, registrations of /op/register).
+ * Above a threshold, the items are validated in parallel on a ForkJoinPool (the common pool by default).
+ * Validation stops at the first invalid item, and the exception thrown is the one of the first invalid item
+ * in the request, as for a sequential validation.
+ */
+public class BulkValidator {
+
+    /**
+     * Default number of items from which the validation is parallel
+     */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /**
+     * Default maximum number of items of a bulk request
+     */
+    public static final int DEFAULT_MAX_ITEMS = 10000;
+
+    /**
+     * Minimum number of items validated by a task
+     */
+    private static final int MIN_CHUNK = 64;
+
+    private volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    private volatile int threshold = DEFAULT_THRESHOLD;
+
+    private volatile int maxItems = DEFAULT_MAX_ITEMS;
+
+    /**
+     * @param pool the pool validating large requests
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param threshold the number of items from which the validation is parallel, 0 to always validate sequentially
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param maxItems the maximum number of items of a bulk request, 0 for no limit
+     */
+    public void setMaxItems(int maxItems) {
+        this.maxItems = maxItems;
+    }
+
+    public int getMaxItems() {
+        return maxItems;
+    }
+
+    /**
+     * @param items the items of a bulk request, ignored if null
+     * @param validator validates an item, throwing an exception if it is invalid
+     * @throws RequestEntityTooLargeException if there are more than maxItems items
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void validate(Collection<T> items, Consumer<? super T> validator) {
+        if (items == null) {
+            return;
+        }
+        int size = items.size();
+        int max = maxItems;
+        if (max > 0 && size > max) {
+            throw new RequestEntityTooLargeException(size, max);
+        }
+        int parallelThreshold = threshold;
+        if (parallelThreshold <= 0 || size < parallelThreshold) {
+            items.forEach(validator);
+            return;
+        }
+        List<T> list = items instanceof RandomAccess ? (List<T>) items : new ArrayList<>(items);
+        ForkJoinPool forkJoinPool = pool;
+        int chunk = Math.max(MIN_CHUNK, size / (forkJoinPool.getParallelism() * 4));
+        Failure failure = new Failure();
+        forkJoinPool.invoke(new ValidationTask<>(list, validator, failure, 0, size, chunk));
+        if (failure.exception != null) {
+            throw failure.exception;
+        }
+    }
+
+    /**
+     * First invalid item found
+     */
+    private static final class Failure {
+
+        volatile int index = Integer.MAX_VALUE;
+
+        RuntimeException exception;
+
+        synchronized void record(int index, RuntimeException exception) {
+            if (index < this.index) {
+                this.exception = exception;
+                this.index = index;
+            }
+        }
+    }
+
+    private static final class ValidationTask<T> extends RecursiveAction {
+
+        private final List<T> items;
+
+        private final Consumer<? super T> validator;
+
+        private final Failure failure;
+
+        private final int from;
+
+        private final int to;
+
+        private final int chunk;
+
+        ValidationTask(List<T> items, Consumer<? super T> validator, Failure failure, int from, int to, int chunk) {
+            this.items = items;
+            this.validator = validator;
+            this.failure = failure;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunk) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ValidationTask<>(items, validator, failure, from, middle, chunk),
+                        new ValidationTask<>(items, validator, failure, middle, to, chunk));
+                return;
+            }
+            // items after an invalid one do not need to be validated
+            for (int i = from; i < to && i < failure.index; i++) {
+                try {
+                    validator.accept(items.get(i));
+                } catch (RuntimeException e) {
+                    failure.record(i, e);
+                    return;
+                }
+            }
+        }
+    }
+}
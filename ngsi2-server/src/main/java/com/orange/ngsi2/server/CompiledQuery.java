@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+
+import java.util.*;
+
+/**
+ * A Simple Query Language expression parsed once by the QueryParser and evaluated on entities.
+ * The evaluation does not allocate, instances are immutable and can be shared between threads.
+ */
+public final class CompiledQuery {
+
+    private final String query;
+
+    private final Statement[] statements;
+
+    private final List<String> requiredAttributes;
+
+    CompiledQuery(String query, List<Statement> statements) {
+        this.query = query;
+        this.statements = statements.toArray(new Statement[statements.size()]);
+        List<String> required = new ArrayList<>();
+        for (Statement statement : statements) {
+            if (statement.requiresAttribute() && !required.contains(statement.attribute)) {
+                required.add(statement.attribute);
+            }
+        }
+        this.requiredAttributes = Collections.unmodifiableList(required);
+    }
+
+    /**
+     * @param entity the entity to test
+     * @return true if the entity matches all the statements of the query
+     */
+    public boolean matches(Entity entity) {
+        Map<String, Attribute> attributes = entity.getAttributes();
+        return matches(attributes == null ? Collections.emptyMap() : attributes);
+    }
+
+    /**
+     * @param attributes the attributes of an entity
+     * @return true if the attributes match all the statements of the query
+     */
+    public boolean matches(Map<String, Attribute> attributes) {
+        for (Statement statement : statements) {
+            Attribute attribute = attributes.get(statement.attribute);
+            if (!statement.test(attribute != null, attribute == null ? null : attribute.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the attributes an entity must have to match the query, useful to select candidates from an index
+     */
+    public List<String> getRequiredAttributes() {
+        return requiredAttributes;
+    }
+
+    /**
+     * @return the original query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+
+    /*
+     * Predicate tree
+     */
+
+    /**
+     * A single statement of the query, applied to the value of one attribute
+     */
+    static abstract class Statement {
+
+        final String attribute;
+
+        Statement(String attribute) {
+            this.attribute = attribute;
+        }
+
+        /**
+         * @return true if the statement can only match an entity having the attribute
+         */
+        boolean requiresAttribute() {
+            return true;
+        }
+
+        /**
+         * @param present true if the entity has the attribute
+         * @param value the value of the attribute, null if not present
+         * @return true if the statement matches
+         */
+        abstract boolean test(boolean present, Object value);
+    }
+
+    /**
+     * attr: the attribute exists
+     */
+    static final class Exists extends Statement {
+
+        Exists(String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            return present;
+        }
+    }
+
+    /**
+     * !attr: the attribute does not exist
+     */
+    static final class NotExists extends Statement {
+
+        NotExists(String attribute) {
+            super(attribute);
+        }
+
+        @Override
+        boolean requiresAttribute() {
+            return false;
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            return !present;
+        }
+    }
+
+    /**
+     * attr!=...: the attribute exists and does not match the inner statement
+     */
+    static final class Not extends Statement {
+
+        private final Statement statement;
+
+        Not(Statement statement) {
+            super(statement.attribute);
+            this.statement = statement;
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            return present && !statement.test(true, value);
+        }
+    }
+
+    /**
+     * attr==v1,v2,...: the value is equal to one of the operands
+     */
+    static final class In extends Statement {
+
+        private final Operand[] operands;
+
+        In(String attribute, Operand[] operands) {
+            super(attribute);
+            this.operands = operands;
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            if (!present) {
+                return false;
+            }
+            for (Operand operand : operands) {
+                if (operand.equalTo(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * attr==min..max: the value is in the inclusive range
+     */
+    static final class Range extends Statement {
+
+        private final Operand min;
+
+        private final Operand max;
+
+        Range(String attribute, Operand min, Operand max) {
+            super(attribute);
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            if (!present) {
+                return false;
+            }
+            int lower = min.compareTo(value);
+            if (lower == Operand.INCOMPARABLE || lower > 0) {
+                return false;
+            }
+            int upper = max.compareTo(value);
+            return upper != Operand.INCOMPARABLE && upper >= 0;
+        }
+    }
+
+    /**
+     * attr&lt;v, attr&lt;=v, attr&gt;v, attr&gt;=v
+     */
+    static final class Compare extends Statement {
+
+        enum Operator {
+            LT, LE, GT, GE
+        }
+
+        private final Operator operator;
+
+        private final Operand operand;
+
+        Compare(String attribute, Operator operator, Operand operand) {
+            super(attribute);
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(boolean present, Object value) {
+            if (!present) {
+                return false;
+            }
+            // compareTo returns the order of the operand relative to the value
+            int result = operand.compareTo(value);
+            if (result == Operand.INCOMPARABLE) {
+                return false;
+            }
+            switch (operator) {
+                case LT: return result > 0;
+                case LE: return result >= 0;
+                case GT: return result < 0;
+                default: return result <= 0;
+            }
+        }
+    }
+
+    /**
+     * A literal of the query: a number, a boolean or a string
+     */
+    static final class Operand {
+
+        static final int INCOMPARABLE = Integer.MIN_VALUE;
+
+        private final boolean isNumber;
+
+        private final double number;
+
+        private final Boolean bool;
+
+        private final String string;
+
+        private Operand(boolean isNumber, double number, Boolean bool, String string) {
+            this.isNumber = isNumber;
+            this.number = number;
+            this.bool = bool;
+            this.string = string;
+        }
+
+        static Operand number(double number) {
+            return new Operand(true, number, null, null);
+        }
+
+        static Operand bool(boolean bool) {
+            return new Operand(false, 0, bool, null);
+        }
+
+        static Operand string(String string) {
+            return new Operand(false, 0, null, string);
+        }
+
+        boolean equalTo(Object value) {
+            if (isNumber) {
+                return value instanceof Number && ((Number) value).doubleValue() == number;
+            } else if (bool != null) {
+                return bool.equals(value);
+            }
+            return string.equals(value);
+        }
+
+        /**
+         * @return the comparison of this operand with the value, or INCOMPARABLE if the value is not of the same kind
+         */
+        int compareTo(Object value) {
+            if (isNumber) {
+                return value instanceof Number ? Double.compare(number, ((Number) value).doubleValue()) : INCOMPARABLE;
+            } else if (string != null && value instanceof String) {
+                return Integer.signum(string.compareTo((String) value));
+            }
+            return INCOMPARABLE;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * Bounded pool of Deflater, avoiding the allocation of the native zlib state of each compressed response.
+ * Deflaters returned when the pool is full are ended.
+ */
+final class DeflaterPool {
+
+    private final int level;
+
+    private final boolean nowrap;
+
+    private final BlockingQueue<Deflater> deflaters;
+
+    /**
+     * @param level the compression level
+     * @param nowrap true for raw deflate data (gzip), false for the zlib format (deflate)
+     * @param capacity the maximum number of idle deflaters kept
+     */
+    DeflaterPool(int level, boolean nowrap, int capacity) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.deflaters = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * @return an idle deflater, or a new one if none
+     */
+    Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        return deflater != null ? deflater : new Deflater(level, nowrap);
+    }
+
+    /**
+     * Reset the deflater and keep it for another response
+     * @param deflater a deflater given by acquire()
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return the number of idle deflaters
+     */
+    int size() {
+        return deflaters.size();
+    }
+
+    /**
+     * End all the idle deflaters
+     */
+    void clear() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.StringPool;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Deserializes an entity in the keyValues representation: {"id": "Room1", "type": "Room", "temperature": 23}.
+ * Attributes are built while reading the tokens, their type inferred as by the AttributeKeyValuesDeserializer.
+ * The type and the attribute names are shared through the default StringPool.
+ */
+public class EntityKeyValuesDeserializer extends StdDeserializer<Entity> {
+
+    private final StringPool pool = StringPool.getDefault();
+
+    public EntityKeyValuesDeserializer() {
+        super(Entity.class);
+    }
+
+    @Override
+    public Entity deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = p.nextToken();
+        } else if (token != JsonToken.FIELD_NAME) {
+            throw ctxt.mappingException(Entity.class, token);
+        }
+        Entity entity = new Entity();
+        entity.setAttributes(new HashMap<>());
+        for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+            String name = pool.canonicalize(p.getCurrentName());
+            p.nextToken();
+            if (name.equals("id")) {
+                entity.setId(p.getValueAsString());
+            } else if (name.equals("type")) {
+                entity.setType(pool.canonicalize(p.getValueAsString()));
+            } else {
+                entity.getAttributes().put(name, AttributeKeyValuesDeserializer.read(p, ctxt));
+            }
+        }
+        return entity;
+    }
+}
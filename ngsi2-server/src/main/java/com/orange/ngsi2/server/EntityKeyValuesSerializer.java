@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes an entity in the keyValues representation: {"id": "Room1", "type": "Room", "temperature": 23}.
+ * Values are written straight from the attributes of the entity.
+ */
+public class EntityKeyValuesSerializer extends StdSerializer<Entity> {
+
+    private final List<String> attributes;
+
+    public EntityKeyValuesSerializer() {
+        this(null);
+    }
+
+    /**
+     * @param attributes the attributes to write in this order, all the attributes of the entity if null or empty
+     */
+    public EntityKeyValuesSerializer(List<String> attributes) {
+        super(Entity.class);
+        this.attributes = attributes == null || attributes.isEmpty() ? null : attributes;
+    }
+
+    @Override
+    public void serialize(Entity entity, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", entity.getId());
+        if (entity.getType() != null) {
+            gen.writeStringField("type", entity.getType());
+        }
+        Map<String, Attribute> all = entity.getAttributes();
+        if (all != null) {
+            if (attributes == null) {
+                for (Map.Entry<String, Attribute> entry : all.entrySet()) {
+                    gen.writeFieldName(entry.getKey());
+                    provider.defaultSerializeValue(entry.getValue().getValue(), gen);
+                }
+            } else {
+                for (String name : attributes) {
+                    Attribute attribute = all.get(name);
+                    if (attribute != null) {
+                        gen.writeFieldName(name);
+                        provider.defaultSerializeValue(attribute.getValue(), gen);
+                    }
+                }
+            }
+        }
+        gen.writeEndObject();
+    }
+}
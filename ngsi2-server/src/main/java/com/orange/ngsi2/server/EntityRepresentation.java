@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.orange.ngsi2.model.Entity;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Representations of the entities in responses, selected by the options parameter
+ */
+public enum EntityRepresentation {
+
+    /**
+     * Attributes with their value, type and metadata
+     */
+    normalized,
+
+    /**
+     * Id, type and value of each attribute: {"id": "Room1", "type": "Room", "temperature": 23}
+     */
+    keyValues,
+
+    /**
+     * Array of the values of the attributes: [23, 720]
+     */
+    values,
+
+    /**
+     * Array of the values of the attributes without repeated values
+     */
+    unique;
+
+    /**
+     * @param options the options of the request, null for none
+     * @return the representation requested, unique and values taking precedence over keyValues
+     */
+    public static EntityRepresentation fromOptions(Collection<String> options) {
+        if (options == null) {
+            return normalized;
+        }
+        if (options.contains("unique")) {
+            return unique;
+        }
+        if (options.contains("values")) {
+            return values;
+        }
+        if (options.contains("keyValues")) {
+            return keyValues;
+        }
+        return normalized;
+    }
+
+    /**
+     * @param attributes the attributes to render in this order, all the attributes of the entity if null or empty
+     * @return the serializer of entities in this representation, null for the normalized one (default serialization)
+     */
+    public JsonSerializer<Entity> serializer(List<String> attributes) {
+        switch (this) {
+            case keyValues:
+                return new EntityKeyValuesSerializer(attributes);
+            case values:
+                return new EntityValuesSerializer(attributes, false);
+            case unique:
+                return new EntityValuesSerializer(attributes, true);
+            default:
+                return null;
+        }
+    }
+}
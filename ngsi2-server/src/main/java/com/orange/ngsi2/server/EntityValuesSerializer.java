@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Serializes an entity in the values representation, the array of the values of its attributes: [23, 720].
+ * In the unique representation, a value equal to a previous value of the entity is skipped.
+ */
+public class EntityValuesSerializer extends StdSerializer<Entity> {
+
+    private final List<String> attributes;
+
+    private final boolean unique;
+
+    public EntityValuesSerializer() {
+        this(null, false);
+    }
+
+    /**
+     * @param attributes the attributes to write in this order, all the attributes of the entity if null or empty
+     * @param unique true to skip repeated values
+     */
+    public EntityValuesSerializer(List<String> attributes, boolean unique) {
+        super(Entity.class);
+        this.attributes = attributes == null || attributes.isEmpty() ? null : attributes;
+        this.unique = unique;
+    }
+
+    @Override
+    public void serialize(Entity entity, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartArray();
+        Map<String, Attribute> all = entity.getAttributes();
+        if (all != null) {
+            // values already written, compared by equals (deep for the maps and lists of structured values)
+            Set<Object> written = unique ? new HashSet<>() : null;
+            if (attributes == null) {
+                for (Attribute attribute : all.values()) {
+                    write(attribute.getValue(), written, gen, provider);
+                }
+            } else {
+                for (String name : attributes) {
+                    Attribute attribute = all.get(name);
+                    if (attribute != null) {
+                        write(attribute.getValue(), written, gen, provider);
+                    }
+                }
+            }
+        }
+        gen.writeEndArray();
+    }
+
+    private static void write(Object value, Set<Object> written, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        if (written == null || written.add(value)) {
+            provider.defaultSerializeValue(value, gen);
+        }
+    }
+}
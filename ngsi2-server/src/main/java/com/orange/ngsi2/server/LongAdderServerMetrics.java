@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ngsi2ServerMetrics recording in striped counters (LongAdder), cheap enough to stay enabled in production:
+ * a histogram of the duration of each phase of each endpoint, a histogram of the result sizes of each endpoint
+ * and the number of exceptions of each handler.
+ * The histograms have a bucket per power of two, their percentiles are upper bounds within a factor of two.
+ *
+ * <pre>
+ * &#64;Bean
+ * public Ngsi2ServerMetrics ngsi2ServerMetrics() {
+ *     return new LongAdderServerMetrics();
+ * }
+ * </pre>
+ */
+public class LongAdderServerMetrics implements Ngsi2ServerMetrics {
+
+    private final ConcurrentMap<String, EnumMap<Phase, Histogram>> phases = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Histogram> resultSizes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordPhase(String endpoint, Phase phase, long durationNanos) {
+        EnumMap<Phase, Histogram> histograms = phases.get(endpoint);
+        if (histograms == null) {
+            histograms = phases.computeIfAbsent(endpoint, e -> {
+                EnumMap<Phase, Histogram> map = new EnumMap<>(Phase.class);
+                for (Phase p : Phase.values()) {
+                    map.put(p, new Histogram());
+                }
+                return map;
+            });
+        }
+        histograms.get(phase).record(durationNanos);
+    }
+
+    @Override
+    public void recordException(String handler) {
+        LongAdder count = exceptions.get(handler);
+        if (count == null) {
+            count = exceptions.computeIfAbsent(handler, h -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    @Override
+    public void recordResultSize(String endpoint, int size) {
+        Histogram histogram = resultSizes.get(endpoint);
+        if (histogram == null) {
+            histogram = resultSizes.computeIfAbsent(endpoint, e -> new Histogram());
+        }
+        histogram.record(size);
+    }
+
+    /**
+     * @return the names of the endpoints which handled requests
+     */
+    public Set<String> getEndpoints() {
+        return new TreeSet<>(phases.keySet());
+    }
+
+    /**
+     * @param endpoint the name of the endpoint method
+     * @param phase the phase
+     * @return the histogram of the durations of the phase in nanoseconds, empty if none recorded
+     */
+    public Histogram getPhase(String endpoint, Phase phase) {
+        EnumMap<Phase, Histogram> histograms = phases.get(endpoint);
+        return histograms == null ? new Histogram() : histograms.get(phase);
+    }
+
+    /**
+     * @param endpoint the name of the endpoint method
+     * @return the histogram of the number of items returned by the endpoint, empty if none recorded
+     */
+    public Histogram getResultSize(String endpoint) {
+        return resultSizes.getOrDefault(endpoint, new Histogram());
+    }
+
+    /**
+     * @return the number of exceptions by handler
+     */
+    public Map<String, Long> getExceptions() {
+        Map<String, Long> counts = new TreeMap<>();
+        exceptions.forEach((handler, count) -> counts.put(handler, count.sum()));
+        return counts;
+    }
+
+    /**
+     * Clear all the metrics
+     */
+    public void reset() {
+        phases.clear();
+        resultSizes.clear();
+        exceptions.clear();
+    }
+
+    /**
+     * @return a table of the mean and 99th percentile of each phase of each endpoint in microseconds, followed by the
+     * exception counts
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-44s %8s", "endpoint", "count"));
+        for (Phase phase : Phase.values()) {
+            report.append(String.format(" %10s %10s", phase.name().toLowerCase() + ".avg", "p99"));
+        }
+        report.append(String.format("%n"));
+        for (String endpoint : getEndpoints()) {
+            EnumMap<Phase, Histogram> histograms = phases.get(endpoint);
+            long count = 0;
+            for (Histogram histogram : histograms.values()) {
+                count = Math.max(count, histogram.getCount());
+            }
+            report.append(String.format("%-44s %8d", endpoint, count));
+            for (Phase phase : Phase.values()) {
+                Histogram histogram = histograms.get(phase);
+                report.append(String.format(" %10.1f %10.1f", histogram.getMean() / 1000, histogram.getValueAtPercentile(99) / 1000.0));
+            }
+            report.append(String.format("%n"));
+        }
+        getExceptions().forEach((handler, count) -> report.append(String.format("%-44s %8d%n", handler, count)));
+        return report.toString();
+    }
+
+    /**
+     * Histogram of positive values with a bucket per power of two
+     */
+    public static class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[64];
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long value) {
+            value = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return the mean of the recorded values, 0 if none
+         */
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        /**
+         * @return the maximum recorded value
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound of the value at the percentile, not above the maximum
+         */
+        public long getValueAtPercentile(double percentile) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+                }
+            }
+            return getMax();
+        }
+    }
+}
@@ -17,7 +17,11 @@
 
 package com.orange.ngsi2.server;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.orange.ngsi2.client.SmileHttpMessageConverter;
 import com.orange.ngsi2.exception.*;
 import com.orange.ngsi2.exception.UnsupportedOperationException;
 import com.orange.ngsi2.model.*;
@@ -28,11 +32,15 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.util.ClassUtils;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -43,15 +51,35 @@ public abstract class Ngsi2BaseController {
 
     private static Logger logger = LoggerFactory.getLogger(Ngsi2BaseController.class);
 
-    /* Field allowed characters are the ones in the plain ASCII set except the following ones: control characters,
-       whitespace, &, ?, / and #.
-     */
-    //private static Pattern fieldPattern = Pattern.compile("[a-zA-Z0-9_-]*");
-    private static Pattern fieldPattern = Pattern.compile("[\\x21\\x22\\x24\\x25\\x27-\\x2E\\x30-\\x3E\\x40-\\x7E]*");
+    private static final TypeReference<Entity> ENTITY = new TypeReference<Entity>() {};
+
+    private static final TypeReference<HashMap<String, Attribute>> ATTRIBUTES = new TypeReference<HashMap<String, Attribute>>() {};
+
+    private static final TypeReference<BulkUpdateRequest> BULK_UPDATE = new TypeReference<BulkUpdateRequest>() {};
+
+    /** the binary Smile format of Jackson, see SmileHttpMessageConverter */
+    private static final String SMILE_VALUE = SmileHttpMessageConverter.APPLICATION_SMILE_VALUE;
+
+    private static final boolean smilePresent = ClassUtils.isPresent("com.fasterxml.jackson.dataformat.smile.SmileFactory",
+            Ngsi2BaseController.class.getClassLoader());
+
+    /** first bytes of a Smile document */
+    private static final byte[] SMILE_HEADER = {':', ')', '\n'};
 
-    @Autowired
     private ObjectMapper objectMapper;
 
+    private final QueryParser queryParser = new QueryParser();
+
+    private final BulkValidator bulkValidator = new BulkValidator();
+
+    private volatile ObjectMapper keyValuesObjectMapper;
+
+    private volatile ObjectMapper smileObjectMapper;
+
+    private volatile ObjectMapper keyValuesSmileObjectMapper;
+
+    private Ngsi2ServerMetrics metrics = Ngsi2ServerMetrics.NONE;
+
     /**
      * Endpoint get /v2
      * @return the list of supported operations under /v2 and http status 200 (ok)
@@ -60,7 +88,10 @@ public abstract class Ngsi2BaseController {
     @RequestMapping(method = RequestMethod.GET,
             value = {"/"})
     final public ResponseEntity<Map<String,String>> listResourcesEndpoint() throws Exception {
-        return new ResponseEntity<>(listResources(), HttpStatus.OK);
+        RequestTiming timing = startTiming("listResourcesEndpoint");
+        Map<String, String> resources = listResources();
+        timing.handled();
+        return new ResponseEntity<>(resources, HttpStatus.OK);
     }
 
     /**
@@ -76,15 +107,15 @@ public abstract class Ngsi2BaseController {
      * @param geometry an optional geometry. Possible values: point, line, polygon, box.
      * @param coords an optional coordinate
      * @param orderBy an option list of attributes to difine the order of entities
-     * @param options an optional list of options separated by comma. Possible value for option: count.
-     *        Theses keyValues,values and unique options are not supported.
+     * @param options an optional list of options separated by comma. Possible values for option: count, keyValues, values, unique.
      *        If count is present then the total number of entities is returned in the response as a HTTP header named `X-Total-Count`.
+     *        keyValues, values and unique select a simplified representation of the entities.
      * @return a list of Entities http status 200 (ok)
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.GET,
             value = {"/entities"})
-    final public ResponseEntity<List<Entity>> listEntitiesEndpoint(@RequestParam Optional<Set<String>> id, @RequestParam Optional<Set<String>> type,
+    final public ResponseEntity<Iterable<Entity>> listEntitiesEndpoint(@RequestParam Optional<Set<String>> id, @RequestParam Optional<Set<String>> type,
                                                                    @RequestParam Optional<String> idPattern, @RequestParam Optional<Integer> limit,
                                                                    @RequestParam Optional<Integer> offset, @RequestParam Optional<List<String>> attrs,
                                                                    @RequestParam Optional<String> query, @RequestParam Optional<String> georel,
@@ -92,6 +123,7 @@ public abstract class Ngsi2BaseController {
                                                                    @RequestParam Optional<List<String>> orderBy,
                                                                    @RequestParam Optional<Set<String>> options) throws Exception {
 
+        RequestTiming timing = startTiming("listEntitiesEndpoint");
         if (id.isPresent() && idPattern.isPresent()) {
             throw new IncompatibleParameterException("id", "idPattern", "List entities");
         }
@@ -107,39 +139,57 @@ public abstract class Ngsi2BaseController {
             geoQuery = Optional.of(Ngsi2ParsingHelper.parseGeoQuery(georel.get(), geometry.get(), coords.get()));
         }
 
-        boolean count = false;
-        if (options.isPresent()) {
-            Set<String> optionsSet = options.get();
-            //TODO: to support keyValues, values and unique as options
-            if (optionsSet.contains("keyValues") || optionsSet.contains("values") || optionsSet.contains("unique")) {
-                throw new UnsupportedOptionException("keyValues, values or unique");
-            }
-            count = optionsSet.contains("count");
-        }
+        // Compiled once (and cached), then given to listEntities()
+        CompiledQuery compiledQuery = query.isPresent() ? queryParser.compile(query.get()) : null;
+        timing.validated();
 
-        Paginated<Entity> paginatedEntity = listEntities(id.orElse(null), type.orElse(null), idPattern.orElse(null), limit.orElse(0), offset.orElse(0), attrs.orElse(new ArrayList<>()), query.orElse(null), geoQuery.orElse(null), orderBy.orElse(new ArrayList<>()));
+        boolean count = options.isPresent() && options.get().contains("count");
+        EntityRepresentation representation = EntityRepresentation.fromOptions(options.orElse(null));
+
+        Paginated<Entity> paginatedEntity = listEntities(id.orElse(null), type.orElse(null), idPattern.orElse(null), limit.orElse(0), offset.orElse(0), attrs.orElse(new ArrayList<>()), query.orElse(null), compiledQuery, geoQuery.orElse(null), orderBy.orElse(new ArrayList<>()));
+        timing.handled();
+        Iterable<Entity> body = body(paginatedEntity, representation, attrs.orElse(null));
         if (count) {
-            return new ResponseEntity<>(paginatedEntity.getItems(), xTotalCountHeader(paginatedEntity.getTotal()), HttpStatus.OK);
+            return new ResponseEntity<>(body, xTotalCountHeader(paginatedEntity.getTotal()), HttpStatus.OK);
         } else {
-            return new ResponseEntity<>(paginatedEntity.getItems(), HttpStatus.OK);
+            return new ResponseEntity<>(body, HttpStatus.OK);
         }
     }
 
     /**
      * Endpoint post /v2/entities
-     * @param entity
-     * @param options keyValues is not supported.
+     * @param entity the entity
+     * @param options no option is supported, keyValues being handled by createEntityKeyValuesEndpoint
      * @return http status 201 (created) and location header /v2/entities/{entityId}
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/entities", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/entities", params = "options!=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity createEntityEndpoint(@RequestBody Entity entity, @RequestParam Optional<String> options) {
 
-        validateSyntax(entity);
-        //TODO: to support keyValues as options
-        if (options.isPresent())  {
+        RequestTiming timing = startTiming("createEntityEndpoint");
+        if (options.isPresent()) {
             throw new UnsupportedOptionException(options.get());
         }
+        validateSyntax(entity);
+        timing.validated();
+        createEntity(entity);
+        timing.handled();
+        return new ResponseEntity(locationHeader(entity.getId()), HttpStatus.CREATED);
+    }
+
+    /**
+     * Endpoint post /v2/entities?options=keyValues
+     * @param body the entity in the keyValues representation
+     * @return http status 201 (created) and location header /v2/entities/{entityId}
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/entities", params = "options=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity createEntityKeyValuesEndpoint(InputStream body) throws IOException {
+
+        RequestTiming timing = startTiming("createEntityEndpoint");
+        Entity entity = readKeyValuesBody(body, ENTITY);
+        validateSyntax(entity);
+        timing.validated();
         createEntity(entity);
+        timing.handled();
         return new ResponseEntity(locationHeader(entity.getId()), HttpStatus.CREATED);
     }
 
@@ -148,22 +198,40 @@ public abstract class Ngsi2BaseController {
      * @param entityId the entity ID
      * @param type an optional type of entity
      * @param attrs an optional list of attributes to return for the entity
-     * @param options an optional list of options separated by comma.
-     *        Theses keyValues,values and unique options are not supported.
-     * @return the entity and http status 200 (ok) or 409 (conflict)
+     * @param options an optional list of options separated by comma. Possible values for option: keyValues, values, unique
+     *        to select a simplified representation of the entity.
+     * @param ifNoneMatch an optional list of ETags of the entity known by the client
+     * @return the entity and http status 200 (ok), 304 (not modified) or 409 (conflict)
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.GET,
             value = {"/entities/{entityId}"})
-    final public ResponseEntity<Entity> retrieveEntityEndpoint(@PathVariable String entityId, @RequestParam Optional<String> type, @RequestParam Optional<List<String>> attrs,
-                                                               @RequestParam Optional<String> options) throws Exception {
+    final public ResponseEntity<Object> retrieveEntityEndpoint(@PathVariable String entityId, @RequestParam Optional<String> type, @RequestParam Optional<List<String>> attrs,
+                                                               @RequestParam Optional<Set<String>> options,
+                                                               @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveEntityEndpoint");
         validateSyntax(entityId, type.orElse(null), attrs.orElse(null));
-        //TODO: to support keyValues, values and unique as options
+        EntityRepresentation representation = EntityRepresentation.fromOptions(options.orElse(null));
         if (options.isPresent()) {
-            throw new UnsupportedOptionException(options.get());
+            for (String option : options.get()) {
+                if (!option.equals("keyValues") && !option.equals("values") && !option.equals("unique")) {
+                    throw new UnsupportedOptionException(option);
+                }
+            }
+        }
+        timing.validated();
+        String eTag = eTag(retrieveEntityVersion(entityId, type.orElse(null)));
+        if (notModified(ifNoneMatch, eTag)) {
+            timing.handled();
+            return notModifiedResponse(eTag);
         }
-        return new ResponseEntity<>(retrieveEntity(entityId, type.orElse(null), attrs.orElse(new ArrayList<>())), HttpStatus.OK);
+        Entity entity = retrieveEntity(entityId, type.orElse(null), attrs.orElse(new ArrayList<>()));
+        timing.handled();
+        if (representation == EntityRepresentation.normalized) {
+            return new ResponseEntity<>(entity, eTagHeader(eTag), HttpStatus.OK);
+        }
+        return new ResponseEntity<>(SimplifiedEntities.of(entity, representation.serializer(attrs.orElse(null))), eTagHeader(eTag), HttpStatus.OK);
     }
 
     /**
@@ -172,26 +240,45 @@ public abstract class Ngsi2BaseController {
      * @param attributes the attributes to update or to append
      * @param type an optional type of entity
      * @param options an optional list of options separated by comma. Possible value for option: append.
-     *        keyValues options is not supported.
-     *        If append is present then the operation is an append operation
+     *        If append is present then the operation is an append operation.
+     *        keyValues is handled by updateOrAppendEntityKeyValuesEndpoint
      * @return http status 201 (created)
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.POST,
-            value = {"/entities/{entityId}"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = {"/entities/{entityId}"},
+            params = {"options!=keyValues", "options!=keyValues,append", "options!=append,keyValues"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity updateOrAppendEntityEndpoint(@PathVariable String entityId, @RequestBody HashMap<String, Attribute> attributes,
                                                              @RequestParam Optional<String> type, @RequestParam Optional<Set<String>> options) throws Exception {
+        RequestTiming timing = startTiming("updateOrAppendEntityEndpoint");
+        boolean append = options.isPresent() && options.get().contains("append");
         validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
 
-        boolean append = false;
-        if (options.isPresent()) {
-            //TODO: to support keyValues as options
-            if (options.get().contains("keyValues")) {
-                throw new UnsupportedOptionException("keyValues");
-            }
-            append = options.get().contains("append");
-        }
         updateOrAppendEntity(entityId, type.orElse(null), attributes, append);
+        timing.handled();
+        return new ResponseEntity(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Endpoint post /v2/entities/{entityId}?options=keyValues
+     * The other values of options are handled by updateOrAppendEntityEndpoint, whose mapping is more specific.
+     * @param entityId the entity ID
+     * @param body the attributes to update or to append, in the keyValues representation
+     * @param type an optional type of entity
+     * @param options keyValues, and append if the operation is an append operation
+     * @return http status 201 (created)
+     * @throws Exception
+     */
+    @RequestMapping(method = RequestMethod.POST, value = {"/entities/{entityId}"}, params = "options", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity updateOrAppendEntityKeyValuesEndpoint(@PathVariable String entityId, InputStream body,
+                                                                      @RequestParam Optional<String> type, @RequestParam Set<String> options) throws Exception {
+        RequestTiming timing = startTiming("updateOrAppendEntityEndpoint");
+        Map<String, Attribute> attributes = readKeyValuesBody(body, ATTRIBUTES);
+        validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
+
+        updateOrAppendEntity(entityId, type.orElse(null), attributes, options.contains("append"));
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -200,20 +287,43 @@ public abstract class Ngsi2BaseController {
      * @param entityId the entity ID
      * @param attributes the attributes to update
      * @param type an optional type of entity
-     * @param options keyValues is not supported.
+     * @param options no option is supported, keyValues being handled by updateExistingEntityAttributesKeyValuesEndpoint
      * @return http status 204 (no content)
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.PATCH, value = {"/entities/{entityId}"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.PATCH, value = {"/entities/{entityId}"}, params = "options!=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity updateExistingEntityAttributesEndpoint(@PathVariable String entityId, @RequestBody HashMap<String, Attribute> attributes,
                                                                        @RequestParam Optional<String> type, @RequestParam Optional<String> options) throws Exception {
 
-        validateSyntax(entityId, type.orElse(null), attributes);
-        //TODO: to support keyValues as options
-        if (options.isPresent())  {
+        RequestTiming timing = startTiming("updateExistingEntityAttributesEndpoint");
+        if (options.isPresent()) {
             throw new UnsupportedOptionException(options.get());
         }
+        validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
         updateExistingEntityAttributes(entityId, type.orElse(null), attributes);
+        timing.handled();
+        return new ResponseEntity(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Endpoint patch /v2/entities/{entityId}?options=keyValues
+     * @param entityId the entity ID
+     * @param body the attributes to update, in the keyValues representation
+     * @param type an optional type of entity
+     * @return http status 204 (no content)
+     * @throws Exception
+     */
+    @RequestMapping(method = RequestMethod.PATCH, value = {"/entities/{entityId}"}, params = "options=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity updateExistingEntityAttributesKeyValuesEndpoint(@PathVariable String entityId, InputStream body,
+                                                                                @RequestParam Optional<String> type) throws Exception {
+
+        RequestTiming timing = startTiming("updateExistingEntityAttributesEndpoint");
+        Map<String, Attribute> attributes = readKeyValuesBody(body, ATTRIBUTES);
+        validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
+        updateExistingEntityAttributes(entityId, type.orElse(null), attributes);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -222,20 +332,43 @@ public abstract class Ngsi2BaseController {
      * @param entityId the entity ID
      * @param attributes the new set of attributes
      * @param type an optional type of entity
-     * @param options keyValues is not supported.
+     * @param options no option is supported, keyValues being handled by replaceAllEntityAttributesKeyValuesEndpoint
      * @return http status 204 (no content)
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.PUT, value = {"/entities/{entityId}"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.PUT, value = {"/entities/{entityId}"}, params = "options!=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity replaceAllEntityAttributesEndpoint(@PathVariable String entityId, @RequestBody HashMap<String, Attribute> attributes,
                                                                    @RequestParam Optional<String> type, @RequestParam Optional<String> options) throws Exception {
 
-        validateSyntax(entityId, type.orElse(null), attributes);
-        //TODO: to support keyValues as options
-        if (options.isPresent())  {
+        RequestTiming timing = startTiming("replaceAllEntityAttributesEndpoint");
+        if (options.isPresent()) {
             throw new UnsupportedOptionException(options.get());
         }
+        validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
         replaceAllEntityAttributes(entityId, type.orElse(null), attributes);
+        timing.handled();
+        return new ResponseEntity(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Endpoint put /v2/entities/{entityId}?options=keyValues
+     * @param entityId the entity ID
+     * @param body the new set of attributes, in the keyValues representation
+     * @param type an optional type of entity
+     * @return http status 204 (no content)
+     * @throws Exception
+     */
+    @RequestMapping(method = RequestMethod.PUT, value = {"/entities/{entityId}"}, params = "options=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity replaceAllEntityAttributesKeyValuesEndpoint(@PathVariable String entityId, InputStream body,
+                                                                            @RequestParam Optional<String> type) throws Exception {
+
+        RequestTiming timing = startTiming("replaceAllEntityAttributesEndpoint");
+        Map<String, Attribute> attributes = readKeyValuesBody(body, ATTRIBUTES);
+        validateSyntax(entityId, type.orElse(null), attributes);
+        timing.validated();
+        replaceAllEntityAttributes(entityId, type.orElse(null), attributes);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -249,9 +382,12 @@ public abstract class Ngsi2BaseController {
     @RequestMapping(method = RequestMethod.DELETE, value = {"/entities/{entityId}"})
     final public ResponseEntity removeEntityEndpoint(@PathVariable String entityId, @RequestParam Optional<String> type) throws Exception {
 
+        RequestTiming timing = startTiming("removeEntityEndpoint");
         validateSyntax(entityId);
         type.ifPresent(this::validateSyntax);
+        timing.validated();
         removeEntity(entityId);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -267,8 +403,12 @@ public abstract class Ngsi2BaseController {
             value = {"/entities/{entityId}/attrs/{attrName}"})
     final public ResponseEntity<Attribute> retrieveAttributeByEntityIdEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveAttributeByEntityIdEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
-        return new ResponseEntity<>(retrieveAttributeByEntityId(entityId, attrName, type.orElse(null)), HttpStatus.OK);
+        timing.validated();
+        Attribute attribute = retrieveAttributeByEntityId(entityId, attrName, type.orElse(null));
+        timing.handled();
+        return new ResponseEntity<>(attribute, HttpStatus.OK);
     }
 
     /**
@@ -280,12 +420,15 @@ public abstract class Ngsi2BaseController {
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.PUT,
-            value = {"/entities/{entityId}/attrs/{attrName}"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+            value = {"/entities/{entityId}/attrs/{attrName}"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity updateAttributeByEntityIdEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type, @RequestBody Attribute attribute) throws Exception {
 
+        RequestTiming timing = startTiming("updateAttributeByEntityIdEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
         validateSyntax(attribute);
+        timing.validated();
         updateAttributeByEntityId(entityId, attrName, type.orElse(null), attribute);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -300,8 +443,11 @@ public abstract class Ngsi2BaseController {
     @RequestMapping(method = RequestMethod.DELETE, value = {"/entities/{entityId}/attrs/{attrName}"})
     final public ResponseEntity removeAttributeByEntityIdEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type) throws Exception {
 
+        RequestTiming timing = startTiming("removeAttributeByEntityIdEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
+        timing.validated();
         removeAttributeByEntityId(entityId, attrName, type.orElse(null));
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -314,11 +460,14 @@ public abstract class Ngsi2BaseController {
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.GET,
-            value = {"/entities/{entityId}/attrs/{attrName}/value"}, produces = MediaType.APPLICATION_JSON_VALUE)
+            value = {"/entities/{entityId}/attrs/{attrName}/value"}, produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity<Object> retrieveAttributeValueEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveAttributeValueEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
+        timing.validated();
         Object value = retrieveAttributeValue(entityId, attrName, type.orElse(null));
+        timing.handled();
         if ((value == null) || (value instanceof String) || (value instanceof Number) || (value instanceof Boolean)) {
             throw new NotAcceptableException();
         }
@@ -337,8 +486,11 @@ public abstract class Ngsi2BaseController {
             value = {"/entities/{entityId}/attrs/{attrName}/value"}, produces = MediaType.TEXT_PLAIN_VALUE)
     final public ResponseEntity<String> retrievePlainTextAttributeValueEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type) throws Exception {
 
+        RequestTiming timing = startTiming("retrievePlainTextAttributeValueEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
+        timing.validated();
         Object value = retrieveAttributeValue(entityId, attrName, type.orElse(null));
+        timing.handled();
         return new ResponseEntity<>(objectMapper.writeValueAsString(value), HttpStatus.OK);
     }
 
@@ -351,11 +503,14 @@ public abstract class Ngsi2BaseController {
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.PUT,
-            value = {"/entities/{entityId}/attrs/{attrName}/value"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+            value = {"/entities/{entityId}/attrs/{attrName}/value"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity updateAttributeValueEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type, @RequestBody Object value) throws Exception {
 
+        RequestTiming timing = startTiming("updateAttributeValueEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
+        timing.validated();
         updateAttributeValue(entityId, attrName, type.orElse(null), value);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -371,8 +526,11 @@ public abstract class Ngsi2BaseController {
             value = {"/entities/{entityId}/attrs/{attrName}/value"}, consumes = MediaType.TEXT_PLAIN_VALUE)
     final public ResponseEntity updatePlainTextAttributeValueEndpoint(@PathVariable String entityId, @PathVariable String attrName, @RequestParam Optional<String> type, @RequestBody String value) throws Exception {
 
+        RequestTiming timing = startTiming("updatePlainTextAttributeValueEndpoint");
         validateSyntax(entityId, type.orElse(null), attrName);
+        timing.validated();
         updateAttributeValue(entityId, attrName, type.orElse(null), Ngsi2ParsingHelper.parseTextValue(value));
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -391,6 +549,7 @@ public abstract class Ngsi2BaseController {
             @RequestParam Optional<Integer> offset,
             @RequestParam Optional<Set<String>> options) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveEntityTypesEndpoint");
         boolean count = false;
         if (options.isPresent()) {
             //TODO: to support values as options
@@ -399,7 +558,10 @@ public abstract class Ngsi2BaseController {
             }
             count = options.get().contains("count");
         }
+        timing.validated();
         Paginated<EntityType> entityTypes = retrieveEntityTypes(limit.orElse(0), offset.orElse(0), count);
+        timing.handled();
+        timing.resultSize(entityTypes.getItems().size());
         if (count) {
             return new ResponseEntity<>(entityTypes.getItems() , xTotalCountHeader(entityTypes.getTotal()), HttpStatus.OK);
         }
@@ -409,14 +571,25 @@ public abstract class Ngsi2BaseController {
     /**
      * Endpoint get /v2/types/{entityType}
      * @param entityType the type of entity
-     * @return the entity type json object and http status 200 (ok)
+     * @param ifNoneMatch an optional list of ETags of the entity type known by the client
+     * @return the entity type json object and http status 200 (ok) or 304 (not modified)
      * @throws Exception
      */
     @RequestMapping(method = RequestMethod.GET, value = {"/types/{entityType}"})
-    final public ResponseEntity<EntityType> retrieveEntityTypeEndpoint(@PathVariable String entityType) throws Exception {
+    final public ResponseEntity<EntityType> retrieveEntityTypeEndpoint(@PathVariable String entityType,
+                                                                       @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveEntityTypeEndpoint");
         validateSyntax(entityType);
-        return new ResponseEntity<>(retrieveEntityType(entityType), HttpStatus.OK);
+        timing.validated();
+        String eTag = eTag(retrieveEntityTypeVersion(entityType));
+        if (notModified(ifNoneMatch, eTag)) {
+            timing.handled();
+            return notModifiedResponse(eTag);
+        }
+        EntityType type = retrieveEntityType(entityType);
+        timing.handled();
+        return new ResponseEntity<>(type, eTagHeader(eTag), HttpStatus.OK);
     }
 
     /**
@@ -427,7 +600,11 @@ public abstract class Ngsi2BaseController {
             value = {"/registrations"})
     final public ResponseEntity<List<Registration>> listRegistrationsEndpoint() {
 
-        return new ResponseEntity<>(listRegistrations(), HttpStatus.OK);
+        RequestTiming timing = startTiming("listRegistrationsEndpoint");
+        List<Registration> registrations = listRegistrations();
+        timing.handled();
+        timing.resultSize(registrations.size());
+        return new ResponseEntity<>(registrations, HttpStatus.OK);
     }
 
     /**
@@ -436,11 +613,14 @@ public abstract class Ngsi2BaseController {
      * @return http status 201 (created)
      */
     @RequestMapping(method = RequestMethod.POST,
-            value = "/registrations", consumes = MediaType.APPLICATION_JSON_VALUE)
+            value = "/registrations", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity createRegistrationEndpoint(@RequestBody Registration registration) {
 
+        RequestTiming timing = startTiming("createRegistrationEndpoint");
         validateSyntax(registration);
+        timing.validated();
         createRegistration(registration);
+        timing.handled();
         return new ResponseEntity(HttpStatus.CREATED);
     }
 
@@ -453,8 +633,12 @@ public abstract class Ngsi2BaseController {
             value = {"/registrations/{registrationId}"})
     final public ResponseEntity<Registration> retrieveRegistrationEndpoint(@PathVariable String registrationId) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveRegistrationEndpoint");
         validateSyntax(registrationId);
-        return new ResponseEntity<>(retrieveRegistration(registrationId), HttpStatus.OK);
+        timing.validated();
+        Registration registration = retrieveRegistration(registrationId);
+        timing.handled();
+        return new ResponseEntity<>(registration, HttpStatus.OK);
     }
 
     /**
@@ -466,9 +650,12 @@ public abstract class Ngsi2BaseController {
             value = {"/registrations/{registrationId}"})
     final public ResponseEntity updateRegistrationEndpoint(@PathVariable String registrationId, @RequestBody Registration registration) throws Exception {
 
+        RequestTiming timing = startTiming("updateRegistrationEndpoint");
         validateSyntax(registrationId);
         validateSyntax(registration);
+        timing.validated();
         updateRegistration(registrationId, registration);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -481,8 +668,11 @@ public abstract class Ngsi2BaseController {
     @RequestMapping(method = RequestMethod.DELETE, value = {"/registrations/{registrationId}"})
     final public ResponseEntity removeRegistrationEndpoint(@PathVariable String registrationId) throws Exception {
 
+        RequestTiming timing = startTiming("removeRegistrationEndpoint");
         validateSyntax(registrationId);
+        timing.validated();
         removeRegistration(registrationId);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -499,8 +689,11 @@ public abstract class Ngsi2BaseController {
             value = {"/subscriptions"})
     final public ResponseEntity<List<Subscription>> listSubscriptionsEndpoint(@RequestParam Optional<Integer> limit, @RequestParam Optional<Integer> offset, @RequestParam Optional<String> options) throws Exception {
 
+        RequestTiming timing = startTiming("listSubscriptionsEndpoint");
         Paginated<Subscription> paginatedSubscription = listSubscriptions(limit.orElse(0), offset.orElse(0));
+        timing.handled();
         List<Subscription> subscriptionList = paginatedSubscription.getItems();
+        timing.resultSize(subscriptionList.size());
         if (options.isPresent() && (options.get().contains("count"))) {
             return new ResponseEntity<>(subscriptionList , xTotalCountHeader(paginatedSubscription.getTotal()), HttpStatus.OK);
         } else {
@@ -513,25 +706,39 @@ public abstract class Ngsi2BaseController {
      * @param subscription a subscription to create
      * @return http status 201 (created)
      */
-    @RequestMapping(method = RequestMethod.POST, value = "/subscriptions", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = "/subscriptions", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity createSubscriptionEndpoint(@RequestBody Subscription subscription) {
 
+        RequestTiming timing = startTiming("createSubscriptionEndpoint");
         validateSyntax(subscription);
+        timing.validated();
         createSubscription(subscription);
+        timing.handled();
         return new ResponseEntity(HttpStatus.CREATED);
     }
 
     /**
      * Endpoint get /v2/subscriptions/{subscriptionId}
      * @param subscriptionId the subscription ID
-     * @return the subscription and http status 200 (ok)
+     * @param ifNoneMatch an optional list of ETags of the subscription known by the client
+     * @return the subscription and http status 200 (ok) or 304 (not modified)
      */
     @RequestMapping(method = RequestMethod.GET,
             value = {"/subscriptions/{subscriptionId}"})
-    final public ResponseEntity<Subscription> retrieveSubscriptionEndpoint(@PathVariable String subscriptionId) throws Exception {
+    final public ResponseEntity<Subscription> retrieveSubscriptionEndpoint(@PathVariable String subscriptionId,
+                                                                           @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) throws Exception {
 
+        RequestTiming timing = startTiming("retrieveSubscriptionEndpoint");
         validateSyntax(subscriptionId);
-        return new ResponseEntity<>(retrieveSubscription(subscriptionId), HttpStatus.OK);
+        timing.validated();
+        String eTag = eTag(retrieveSubscriptionVersion(subscriptionId));
+        if (notModified(ifNoneMatch, eTag)) {
+            timing.handled();
+            return notModifiedResponse(eTag);
+        }
+        Subscription subscription = retrieveSubscription(subscriptionId);
+        timing.handled();
+        return new ResponseEntity<>(subscription, eTagHeader(eTag), HttpStatus.OK);
     }
 
     /**
@@ -543,9 +750,12 @@ public abstract class Ngsi2BaseController {
             value = {"/subscriptions/{subscriptionId}"})
     final public ResponseEntity updateSubscriptionEndpoint(@PathVariable String subscriptionId, @RequestBody Subscription subscription) throws Exception {
 
+        RequestTiming timing = startTiming("updateSubscriptionEndpoint");
         validateSyntax(subscriptionId);
         validateSyntax(subscription);
+        timing.validated();
         updateSubscription(subscriptionId, subscription);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -558,8 +768,11 @@ public abstract class Ngsi2BaseController {
     @RequestMapping(method = RequestMethod.DELETE, value = {"/subscriptions/{subscriptionId}"})
     final public ResponseEntity removeSubscriptionEndpoint(@PathVariable String subscriptionId) throws Exception {
 
+        RequestTiming timing = startTiming("removeSubscriptionEndpoint");
         validateSyntax(subscriptionId);
+        timing.validated();
         removeSubscription(subscriptionId);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -570,19 +783,39 @@ public abstract class Ngsi2BaseController {
     /**
      * Update, append or delete multiple entities in a single operation
      * @param bulkUpdateRequest a BulkUpdateRequest with an actionType and a list of entities to update
-     * @param options an optional list of options separated by comma. keyValues option is not supported.
+     * @param options no option is supported, keyValues being handled by bulkUpdateKeyValuesEndpoint
      * @return http status 204 (no content)
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.POST, value = {"/op/update"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = {"/op/update"}, params = "options!=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity bulkUpdateEndpoint(@RequestBody BulkUpdateRequest bulkUpdateRequest, @RequestParam Optional<String> options) throws Exception {
 
-        bulkUpdateRequest.getEntities().forEach(this::validateSyntax);
-        //TODO: to support keyValues as options
-        if (options.isPresent())  {
+        RequestTiming timing = startTiming("bulkUpdateEndpoint");
+        if (options.isPresent()) {
             throw new UnsupportedOptionException(options.get());
         }
+        bulkValidator.validate(bulkUpdateRequest.getEntities(), this::validateSyntax);
+        timing.validated();
         bulkUpdate(bulkUpdateRequest);
+        timing.handled();
+        return new ResponseEntity(HttpStatus.NO_CONTENT);
+    }
+
+    /**
+     * Update, append or delete multiple entities in the keyValues representation in a single operation
+     * @param body a BulkUpdateRequest with an actionType and a list of entities to update
+     * @return http status 204 (no content)
+     * @throws Exception
+     */
+    @RequestMapping(method = RequestMethod.POST, value = {"/op/update"}, params = "options=keyValues", consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity bulkUpdateKeyValuesEndpoint(InputStream body) throws Exception {
+
+        RequestTiming timing = startTiming("bulkUpdateEndpoint");
+        BulkUpdateRequest bulkUpdateRequest = readKeyValuesBody(body, BULK_UPDATE);
+        bulkValidator.validate(bulkUpdateRequest.getEntities(), this::validateSyntax);
+        timing.validated();
+        bulkUpdate(bulkUpdateRequest);
+        timing.handled();
         return new ResponseEntity(HttpStatus.NO_CONTENT);
     }
 
@@ -592,32 +825,29 @@ public abstract class Ngsi2BaseController {
      * @param limit an optional limit
      * @param offset an optional offset
      * @param orderBy an optional list of attributes to order the entities
-     * @param options an optional list of options separated by comma. Possible value for option: count.
-     *        Theses keyValues,values and unique options are not supported.
+     * @param options an optional list of options separated by comma. Possible values for option: count, keyValues, values, unique.
      *        If count is present then the total number of entities is returned in the response as a HTTP header named `X-Total-Count`.
+     *        keyValues, values and unique select a simplified representation of the entities.
      * @return a list of Entities http status 200 (ok)
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.POST, value = {"/op/query"}, consumes = MediaType.APPLICATION_JSON_VALUE)
-    final public ResponseEntity<List<Entity>> bulkQueryEndpoint(@RequestBody BulkQueryRequest bulkQueryRequest, @RequestParam Optional<Integer> limit,
+    @RequestMapping(method = RequestMethod.POST, value = {"/op/query"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
+    final public ResponseEntity<Iterable<Entity>> bulkQueryEndpoint(@RequestBody BulkQueryRequest bulkQueryRequest, @RequestParam Optional<Integer> limit,
                                                   @RequestParam Optional<Integer> offset, @RequestParam Optional<List<String>> orderBy,
                                                   @RequestParam Optional<Set<String>> options) throws Exception {
 
+        RequestTiming timing = startTiming("bulkQueryEndpoint");
         validateSyntax(bulkQueryRequest);
-        boolean count = false;
-        if (options.isPresent()) {
-            Set<String> optionsSet = options.get();
-            //TODO: to support keyValues, values and unique as options
-            if (optionsSet.contains("keyValues") || optionsSet.contains("values") || optionsSet.contains("unique")) {
-                throw new UnsupportedOptionException("keyValues, values or unique");
-            }
-            count = optionsSet.contains("count");
-        }
+        timing.validated();
+        boolean count = options.isPresent() && options.get().contains("count");
+        EntityRepresentation representation = EntityRepresentation.fromOptions(options.orElse(null));
         Paginated<Entity> paginatedEntity = bulkQuery(bulkQueryRequest, limit.orElse(0), offset.orElse(0), orderBy.orElse(new ArrayList<>()), count);
+        timing.handled();
+        Iterable<Entity> body = body(paginatedEntity, representation, bulkQueryRequest.getAttributes());
         if (count) {
-            return new ResponseEntity<>(paginatedEntity.getItems(), xTotalCountHeader(paginatedEntity.getTotal()), HttpStatus.OK);
+            return new ResponseEntity<>(body, xTotalCountHeader(paginatedEntity.getTotal()), HttpStatus.OK);
         } else {
-            return new ResponseEntity<>(paginatedEntity.getItems(), HttpStatus.OK);
+            return new ResponseEntity<>(body, HttpStatus.OK);
         }
     }
 
@@ -627,11 +857,15 @@ public abstract class Ngsi2BaseController {
      * @return a list of registration ids
      * @throws Exception
      */
-    @RequestMapping(method = RequestMethod.POST, value = {"/op/register"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = {"/op/register"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity<List<String>> bulkRegisterEndpoint(@RequestBody BulkRegisterRequest bulkRegisterRequest) throws Exception {
 
-        bulkRegisterRequest.getRegistrations().forEach(this::validateSyntax);
-        return new ResponseEntity<>(bulkRegister(bulkRegisterRequest), HttpStatus.OK);
+        RequestTiming timing = startTiming("bulkRegisterEndpoint");
+        bulkValidator.validate(bulkRegisterRequest.getRegistrations(), this::validateSyntax);
+        timing.validated();
+        List<String> registrationIds = bulkRegister(bulkRegisterRequest);
+        timing.handled();
+        return new ResponseEntity<>(registrationIds, HttpStatus.OK);
     }
 
     /**
@@ -643,18 +877,22 @@ public abstract class Ngsi2BaseController {
      *        If count is present then the total number of registrations is returned in the response as a HTTP header named `X-Total-Count`.
      * @return a paginated list of registration
      */
-    @RequestMapping(method = RequestMethod.POST, value = {"/op/discover"}, consumes = MediaType.APPLICATION_JSON_VALUE)
+    @RequestMapping(method = RequestMethod.POST, value = {"/op/discover"}, consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE})
     final public ResponseEntity<List<Registration>> bulkDiscoverEndpoint(@RequestBody BulkQueryRequest bulkQueryRequest, @RequestParam Optional<Integer> limit,
                                                                 @RequestParam Optional<Integer> offset,
                                                                 @RequestParam Optional<Set<String>> options) {
 
+        RequestTiming timing = startTiming("bulkDiscoverEndpoint");
         validateSyntax(bulkQueryRequest);
+        timing.validated();
         boolean count = false;
         if (options.isPresent()) {
             Set<String> optionsSet = options.get();
             count = optionsSet.contains("count");
         }
         Paginated<Registration> paginatedRegistration = bulkDiscover(bulkQueryRequest, limit.orElse(0), offset.orElse(0), count);
+        timing.handled();
+        timing.resultSize(paginatedRegistration.getItems().size());
         if (count) {
             return new ResponseEntity<>(paginatedRegistration.getItems(), xTotalCountHeader(paginatedRegistration.getTotal()), HttpStatus.OK);
         } else {
@@ -668,6 +906,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({UnsupportedOperationException.class})
     public ResponseEntity<Object> unsupportedOperation(UnsupportedOperationException exception, HttpServletRequest request) {
+        metrics.recordException("unsupportedOperation");
         logger.error("Unsupported operation: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.NOT_IMPLEMENTED;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -678,6 +917,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({UnsupportedOptionException.class})
     public ResponseEntity<Object> unsupportedOption(UnsupportedOptionException exception, HttpServletRequest request) {
+        metrics.recordException("unsupportedOption");
         logger.error("Unsupported option: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.NOT_IMPLEMENTED;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -688,6 +928,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({BadRequestException.class})
     public ResponseEntity<Object> incompatibleParameter(BadRequestException exception, HttpServletRequest request) {
+        metrics.recordException("incompatibleParameter");
         logger.error("Bad request: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -698,6 +939,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({IncompatibleParameterException.class})
     public ResponseEntity<Object> incompatibleParameter(IncompatibleParameterException exception, HttpServletRequest request) {
+        metrics.recordException("incompatibleParameter");
         logger.error("Incompatible parameter: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -708,6 +950,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({InvalidatedSyntaxException.class})
     public ResponseEntity<Object> invalidSyntax(InvalidatedSyntaxException exception, HttpServletRequest request) {
+        metrics.recordException("invalidSyntax");
         logger.error("Invalid syntax: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -716,8 +959,42 @@ public abstract class Ngsi2BaseController {
         return new ResponseEntity<>(exception.getError(), httpStatus);
     }
 
+    @ExceptionHandler({RequestEntityTooLargeException.class})
+    public ResponseEntity<Object> requestEntityTooLarge(RequestEntityTooLargeException exception, HttpServletRequest request) {
+        metrics.recordException("requestEntityTooLarge");
+        logger.error("Request entity too large: {}", exception.getMessage());
+        HttpStatus httpStatus = HttpStatus.PAYLOAD_TOO_LARGE;
+        String accept = request.getHeader("Accept");
+        if (accept != null && accept.contains(MediaType.TEXT_PLAIN_VALUE)) {
+            return new ResponseEntity<>(exception.getError().toString(), httpStatus);
+        }
+        return new ResponseEntity<>(exception.getError(), httpStatus);
+    }
+
+    /**
+     * Bodies bound by the message converters: the too large ones once decompressed are rejected with 413,
+     * the malformed ones with 400
+     */
+    @ExceptionHandler({HttpMessageNotReadableException.class})
+    public ResponseEntity<Object> messageNotReadable(HttpMessageNotReadableException exception, HttpServletRequest request) {
+        if (exception.getCause() instanceof Ngsi2CompressionFilter.InflatedSizeExceededException) {
+            long maxInflatedSize = ((Ngsi2CompressionFilter.InflatedSizeExceededException) exception.getCause()).getMaxInflatedSize();
+            return requestEntityTooLarge(new RequestEntityTooLargeException(maxInflatedSize), request);
+        }
+        metrics.recordException("messageNotReadable");
+        logger.error("Message not readable: {}", exception.getMessage());
+        BadRequestException badRequest = new BadRequestException(exception.getMessage());
+        HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
+        String accept = request.getHeader("Accept");
+        if (accept != null && accept.contains(MediaType.TEXT_PLAIN_VALUE)) {
+            return new ResponseEntity<>(badRequest.getError().toString(), httpStatus);
+        }
+        return new ResponseEntity<>(badRequest.getError(), httpStatus);
+    }
+
     @ExceptionHandler({ConflictingEntitiesException.class})
     public ResponseEntity<Object> conflictingEntities(ConflictingEntitiesException exception, HttpServletRequest request) {
+        metrics.recordException("conflictingEntities");
         logger.error("ConflictingEntities: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.CONFLICT;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -726,8 +1003,31 @@ public abstract class Ngsi2BaseController {
         return new ResponseEntity<>(exception.getError(), httpStatus);
     }
 
+    @ExceptionHandler({NotFoundException.class})
+    public ResponseEntity<Object> notFound(NotFoundException exception, HttpServletRequest request) {
+        metrics.recordException("notFound");
+        logger.error("Not Found: {}", exception.getMessage());
+        HttpStatus httpStatus = HttpStatus.NOT_FOUND;
+        if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
+            return new ResponseEntity<>(exception.getError().toString(), httpStatus);
+        }
+        return new ResponseEntity<>(exception.getError(), httpStatus);
+    }
+
+    @ExceptionHandler({AlreadyExistsException.class})
+    public ResponseEntity<Object> alreadyExists(AlreadyExistsException exception, HttpServletRequest request) {
+        metrics.recordException("alreadyExists");
+        logger.error("Already Exists: {}", exception.getMessage());
+        HttpStatus httpStatus = HttpStatus.UNPROCESSABLE_ENTITY;
+        if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
+            return new ResponseEntity<>(exception.getError().toString(), httpStatus);
+        }
+        return new ResponseEntity<>(exception.getError(), httpStatus);
+    }
+
     @ExceptionHandler({NotAcceptableException.class})
     public ResponseEntity<Object> notAcceptable(NotAcceptableException exception, HttpServletRequest request) {
+        metrics.recordException("notAcceptable");
         logger.error("Not Acceptable: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.NOT_ACCEPTABLE;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -738,6 +1038,7 @@ public abstract class Ngsi2BaseController {
 
     @ExceptionHandler({IllegalArgumentException.class})
     public ResponseEntity<Object> illegalArgument(IllegalArgumentException exception, HttpServletRequest request) {
+        metrics.recordException("illegalArgument");
         logger.error("Illegal Argument: {}", exception.getMessage());
         HttpStatus httpStatus = HttpStatus.BAD_REQUEST;
         if (request.getHeader("Accept").contains(MediaType.TEXT_PLAIN_VALUE)) {
@@ -758,10 +1059,10 @@ public abstract class Ngsi2BaseController {
      * @param limit an optional limit (0 for none)
      * @param offset an optional offset (0 for none)
      * @param attrs an optional list of attributes to return for all entities (null or empty for none)
-     * @param query an optional Simple Query Language query (null for none)
+     * @param query an optional Simple Query Language query (null for none), its syntax has already been checked
      * @param geoQuery an optional Geo query (null for none)
      * @param orderBy an option list of attributes to define the order of entities (null or empty for none)
-     * @return a paginated of list of Entities
+     * @return a paginated of list of Entities, which can be streamed to write large pages without holding them in memory
      * @throws Exception
      */
     protected Paginated<Entity> listEntities(Set<String> ids, Set<String> types, String idPattern,
@@ -770,6 +1071,60 @@ public abstract class Ngsi2BaseController {
          throw new UnsupportedOperationException("List Entities");
     }
 
+    /**
+     * Retrieve a list of Entities which match different criteria, called by the endpoint with the query already compiled.
+     * Delegates by default to listEntities() without the compiled query.
+     * @param query an optional Simple Query Language query (null for none)
+     * @param compiledQuery the compiled form of the query (null for none)
+     * @see #listEntities(Set, Set, String, int, int, List, String, GeoQuery, List)
+     */
+    protected Paginated<Entity> listEntities(Set<String> ids, Set<String> types, String idPattern,
+                                             int limit, int offset, List<String> attrs,
+                                             String query, CompiledQuery compiledQuery, GeoQuery geoQuery, List<String> orderBy) throws Exception {
+        return listEntities(ids, types, idPattern, limit, offset, attrs, query, geoQuery, orderBy);
+    }
+
+    /**
+     * @return the parser of Simple Query Language queries, caching the compiled queries
+     */
+    protected QueryParser getQueryParser() {
+        return queryParser;
+    }
+
+    /**
+     * @return the metrics recording the requests of this controller
+     */
+    protected Ngsi2ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param objectMapper the ObjectMapper of the application, left unchanged: the controller reads the keyValues bodies
+     *                     with a copy of it registering the StringPoolModule. The normalized bodies are bound by the
+     *                     message converters, Ngsi2JsonHttpMessageConverter pooling their strings the same way.
+     */
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper.copy().registerModule(new StringPoolModule());
+    }
+
+    /**
+     * @param metrics the metrics recording the requests of this controller, Ngsi2ServerMetrics.NONE by default.
+     *                Injected when declared as a bean.
+     */
+    @Autowired(required = false)
+    public void setMetrics(Ngsi2ServerMetrics metrics) {
+        this.metrics = metrics == null ? Ngsi2ServerMetrics.NONE : metrics;
+    }
+
+    /**
+     * @return the validator of the entities and registrations of bulk requests, to configure the maximum number
+     * of items and the parallel validation of large requests
+     */
+    protected BulkValidator getBulkValidator() {
+        return bulkValidator;
+    }
+
     /**
      * Retrieve the list of supported operations under /v2
      * @return the list of supported operations under /v2
@@ -799,6 +1154,18 @@ public abstract class Ngsi2BaseController {
         throw new UnsupportedOperationException("Retrieve Entity");
     }
 
+    /**
+     * Version of an entity, changing with each change of the entity (a counter or a hash of its content), sent as
+     * a weak ETag by retrieveEntityEndpoint. When it matches the If-None-Match header of the request,
+     * 304 (not modified) is answered without calling retrieveEntity.
+     * @param entityId the entity ID
+     * @param type an optional type of entity (null for none)
+     * @return the version, without double quotes, or null if unknown (no ETag)
+     */
+    protected String retrieveEntityVersion(String entityId, String type) {
+        return null;
+    }
+
     /**
      * Update existing or append some attributes to an entity
      * @param entityId the entity ID
@@ -860,6 +1227,15 @@ public abstract class Ngsi2BaseController {
         throw new UnsupportedOperationException("Retrieve Entity Type");
     }
 
+    /**
+     * Version of an entity type, changing with the entities of that type, see retrieveEntityVersion
+     * @param entityType the type of entity
+     * @return the version, without double quotes, or null if unknown (no ETag)
+     */
+    protected String retrieveEntityTypeVersion(String entityType) {
+        return null;
+    }
+
     /**
      * Retrieve an Attribute by the entity ID
      * @param entityId the entity ID
@@ -993,6 +1369,16 @@ public abstract class Ngsi2BaseController {
         throw new UnsupportedOperationException("Retrieve Subscription");
     }
 
+    /**
+     * Version of a subscription, changing with the subscription and its notification counters,
+     * see retrieveEntityVersion
+     * @param subscriptionId the subscription ID
+     * @return the version, without double quotes, or null if unknown (no ETag)
+     */
+    protected String retrieveSubscriptionVersion(String subscriptionId) {
+        return null;
+    }
+
     /**
      * Update some fields to a subscription
      * @param subscriptionId the subscription ID
@@ -1025,7 +1411,7 @@ public abstract class Ngsi2BaseController {
      * @param offset an optional offset (0 for none)
      * @param orderBy an option list of attributes to define the order of entities (empty for none)
      * @param count is true if the count is required
-     * @return a paginated of list of Entities
+     * @return a paginated of list of Entities, which can be streamed to write large pages without holding them in memory
      */
     protected Paginated<Entity> bulkQuery(BulkQueryRequest bulkQueryRequest, int limit, int offset, List<String> orderBy, Boolean count){
         throw new UnsupportedOperationException("Query");
@@ -1057,138 +1443,170 @@ public abstract class Ngsi2BaseController {
      */
 
     private void validateSyntax(String field) throws InvalidatedSyntaxException {
-        if (( field.length() > 256) || (!fieldPattern.matcher(field).matches())) {
-            throw new InvalidatedSyntaxException(field);
-        }
+        FieldValidator.validate(field);
     }
 
     private void validateSyntax(Collection<String> strings) {
-        if (strings != null) {
-            strings.forEach(this::validateSyntax);
-        }
+        FieldValidator.validate(strings);
     }
 
     private void validateSyntax(Set<String> ids, Set<String> types, List<String> attrs) {
-        validateSyntax(ids);
-        validateSyntax(types);
-        validateSyntax(attrs);
+        FieldValidator.validate(ids);
+        FieldValidator.validate(types);
+        FieldValidator.validate(attrs);
     }
 
     private void validateSyntax(String id, String type, List<String> attrs) {
-        if (id != null) validateSyntax(id);
-        if (type != null) validateSyntax(type);
-        validateSyntax(attrs);
+        if (id != null) FieldValidator.validate(id);
+        if (type != null) FieldValidator.validate(type);
+        FieldValidator.validate(attrs);
     }
 
     private void validateSyntax(String id, String type, String attributeName) {
-        if (id != null) validateSyntax(id);
-        if (type != null) validateSyntax(type);
-        if (attributeName != null) validateSyntax(attributeName);
+        if (id != null) FieldValidator.validate(id);
+        if (type != null) FieldValidator.validate(type);
+        if (attributeName != null) FieldValidator.validate(attributeName);
     }
 
     private void validateSyntax(Entity entity) {
-        if (entity.getId() != null) {
-            validateSyntax(entity.getId());
-        }
-        if (entity.getType() != null ) {
-            validateSyntax(entity.getType());
-        }
-        if (entity.getAttributes() != null) {
-            validateSyntax(entity.getAttributes());
-        }
+        FieldValidator.validate(entity);
     }
 
     private void validateSyntax(Attribute attribute) {
-        //check attribute type
-        if (attribute.getType() != null) {
-            attribute.getType().ifPresent(this::validateSyntax);
-        }
-        Map<String, Metadata> metadatas = attribute.getMetadata();
-        if (metadatas != null) {
-            //check metadata name
-            metadatas.keySet().forEach(this::validateSyntax);
-            //check metadata type
-            metadatas.values().forEach(metadata -> {
-                if (metadata.getType() != null) {
-                    validateSyntax(metadata.getType());
-                }
-            });
-        }
+        FieldValidator.validate(attribute);
     }
 
-    private void validateSyntax(Map<String, Attribute> attributes) {
-        //check attribute name
-        attributes.keySet().forEach(this::validateSyntax);
-        attributes.values().forEach(this::validateSyntax);
+    private void validateSyntax(String entityId, String type, Map<String, Attribute> attributes) {
+        if (entityId != null) FieldValidator.validate(entityId);
+        if (type != null) FieldValidator.validate(type);
+        FieldValidator.validate(attributes);
     }
 
-    private void validateSyntax(String entityId, String type, Map<String, Attribute> attributes) {
-        if (entityId != null) {
-            validateSyntax(entityId);
-        }
-        if (type != null) {
-            validateSyntax(type);
+    private void validateSyntax(Registration registration) {
+        FieldValidator.validate(registration);
+    }
+
+    private void validateSyntax(Subscription subscription) {
+        FieldValidator.validate(subscription);
+    }
+
+    private void validateSyntax(BulkQueryRequest bulkQueryRequest) {
+        FieldValidator.validate(bulkQueryRequest);
+    }
+
+    /**
+     * @return the items of a Paginated, written one by one to the response if the Paginated is streamed
+     */
+    private static <T> Iterable<T> body(Paginated<T> paginated) {
+        RequestTiming timing = RequestTiming.current();
+        if (paginated.isStreamed()) {
+            return new StreamingJsonArray<>(timing.resultSize(paginated.iterator()));
         }
-        if (attributes != null) {
-            validateSyntax(attributes);
+        timing.resultSize(paginated.getItems().size());
+        return paginated.getItems();
+    }
+
+    /**
+     * @return the entities of a Paginated in the requested representation
+     */
+    private static Iterable<Entity> body(Paginated<Entity> paginated, EntityRepresentation representation, List<String> attributes) {
+        if (representation == EntityRepresentation.normalized) {
+            return body(paginated);
         }
+        return new SimplifiedEntities(RequestTiming.current().resultSize(paginated.iterator()), representation.serializer(attributes));
     }
 
-    private void validateSyntax(List<SubjectEntity> subjectEntities) {
-        subjectEntities.forEach(subjectEntity -> {
-            if (subjectEntity.getId() != null) {
-                subjectEntity.getId().ifPresent(this::validateSyntax);
-            }
-            if (subjectEntity.getType()!= null) {
-                subjectEntity.getType().ifPresent(this::validateSyntax);
+    /**
+     * Read the body of a write request in the keyValues representation, the normalized one being bound by the
+     * message converters. When jackson-dataformat-smile is present, a body starting with the Smile header is read as Smile.
+     * Jackson errors are reported as for a body bound by the message converters, compressed bodies too large once
+     * decompressed by a RequestEntityTooLargeException.
+     */
+    private <T> T readKeyValuesBody(InputStream body, TypeReference<T> type) throws IOException {
+        try {
+            ObjectMapper mapper = keyValuesObjectMapper();
+            if (smilePresent) {
+                PushbackInputStream input = new PushbackInputStream(body, SMILE_HEADER.length);
+                if (startsWithSmileHeader(input)) {
+                    mapper = keyValuesSmileObjectMapper();
+                }
+                body = input;
             }
-        });
+            T value = mapper.readValue(body, type);
+            RequestTiming.current().parsed();
+            return value;
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+        } catch (Ngsi2CompressionFilter.InflatedSizeExceededException e) {
+            throw new RequestEntityTooLargeException(e.getMaxInflatedSize());
+        }
     }
 
-    private void validateSyntax(Registration registration) {
-        if (registration.getSubject() != null) {
-            if (registration.getSubject().getEntities() != null) {
-                validateSyntax(registration.getSubject().getEntities());
-            }
-            if (registration.getSubject().getAttributes() != null) {
-                registration.getSubject().getAttributes().forEach(this::validateSyntax);
-            }
+    /**
+     * Start the timing of the request by an endpoint
+     * @param endpoint the name of the endpoint method
+     */
+    private RequestTiming startTiming(String endpoint) {
+        return RequestTiming.current().start(metrics, endpoint);
+    }
+
+    /**
+     * @return true if the stream starts with the Smile header, the bytes read being pushed back
+     */
+    private static boolean startsWithSmileHeader(PushbackInputStream input) throws IOException {
+        byte[] header = new byte[SMILE_HEADER.length];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = input.read(header, length, header.length - length)) > 0) {
+            length += read;
         }
-        Map<String, Metadata> metadatas = registration.getMetadata();
-        if (metadatas != null) {
-            //check metadata name
-            metadatas.keySet().forEach(this::validateSyntax);
-            //check metadata type
-            metadatas.values().forEach(metadata -> {
-                if (metadata.getType() != null) {
-                    validateSyntax(metadata.getType());
-                }
-            });
+        if (length > 0) {
+            input.unread(header, 0, length);
         }
+        return Arrays.equals(header, SMILE_HEADER);
     }
 
-    private void validateSyntax(Subscription subscription) {
-        if (subscription.getSubject() != null) {
-            if (subscription.getSubject().getEntities() != null) {
-                validateSyntax(subscription.getSubject().getEntities());
-            }
-            if ((subscription.getSubject().getCondition() != null) && (subscription.getSubject().getCondition().getAttributes() != null)) {
-                subscription.getSubject().getCondition().getAttributes().forEach(this::validateSyntax);
-            }
+    /**
+     * @return a copy of the ObjectMapper reading entities and attributes in the keyValues representation
+     */
+    private ObjectMapper keyValuesObjectMapper() {
+        ObjectMapper mapper = keyValuesObjectMapper;
+        if (mapper == null) {
+            mapper = withKeyValues(objectMapper);
+            keyValuesObjectMapper = mapper;
         }
-        if ((subscription.getNotification() != null) && (subscription.getNotification().getAttributes() != null)) {
-            subscription.getNotification().getAttributes().forEach(this::validateSyntax);
+        return mapper;
+    }
+
+    /**
+     * @return the ObjectMapper reading Smile bodies, configured as the one of SmileHttpMessageConverter
+     */
+    private ObjectMapper smileObjectMapper() {
+        ObjectMapper mapper = smileObjectMapper;
+        if (mapper == null) {
+            mapper = new SmileHttpMessageConverter().getObjectMapper();
+            smileObjectMapper = mapper;
         }
+        return mapper;
     }
 
-    private void validateSyntax(BulkQueryRequest bulkQueryRequest) {
-        validateSyntax(bulkQueryRequest.getEntities());
-        validateSyntax(bulkQueryRequest.getAttributes());
-        bulkQueryRequest.getScopes().forEach(scope -> {
-            if (scope.getType() != null) {
-                validateSyntax(scope.getType());
-            }
-        });
+    /**
+     * @return a copy of the Smile ObjectMapper reading entities and attributes in the keyValues representation
+     */
+    private ObjectMapper keyValuesSmileObjectMapper() {
+        ObjectMapper mapper = keyValuesSmileObjectMapper;
+        if (mapper == null) {
+            mapper = withKeyValues(smileObjectMapper());
+            keyValuesSmileObjectMapper = mapper;
+        }
+        return mapper;
+    }
+
+    private static ObjectMapper withKeyValues(ObjectMapper objectMapper) {
+        SimpleModule module = new SimpleModule("keyValues");
+        module.addDeserializer(Entity.class, new EntityKeyValuesDeserializer());
+        module.addDeserializer(Attribute.class, new AttributeKeyValuesDeserializer());
+        return objectMapper.copy().registerModule(module);
     }
 
     private HttpHeaders locationHeader(String entityId) {
@@ -1202,4 +1620,47 @@ public abstract class Ngsi2BaseController {
         headers.put("X-Total-Count", Collections.singletonList(Integer.toString(countNumber)));
         return headers;
     }
+
+    /**
+     * Weak ETags, the JSON and Smile representations (compressed or not) being equivalent
+     */
+    private static String eTag(String version) {
+        return version == null ? null : "W/\"" + version + "\"";
+    }
+
+    private static HttpHeaders eTagHeader(String eTag) {
+        HttpHeaders headers = new HttpHeaders();
+        if (eTag != null) {
+            headers.setETag(eTag);
+        }
+        return headers;
+    }
+
+    private static <T> ResponseEntity<T> notModifiedResponse(String eTag) {
+        return new ResponseEntity<>(eTagHeader(eTag), HttpStatus.NOT_MODIFIED);
+    }
+
+    /**
+     * Weak comparison of the ETags of the If-None-Match header with the current one
+     * @param ifNoneMatch the If-None-Match header, null if none
+     * @param eTag the current ETag, null if none
+     * @return true if the representation known by the client is still the current one
+     */
+    static boolean notModified(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        String opaqueTag = opaqueTag(eTag);
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || opaqueTag.equals(opaqueTag(tag))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
 }
@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Servlet filter compressing the responses (gzip or deflate, as accepted by the client) larger than a threshold,
+ * and decompressing the request bodies sent with a gzip or deflate Content-Encoding. Smaller responses are sent
+ * as is. Deflaters are pooled to avoid allocating the native zlib state of each response.
+ * Request bodies inflating to more than a maximum size are rejected with a 413 status.
+ * Declared as a bean, it is installed by Spring Boot:
+ *
+ * <pre>
+ * &#64;Bean
+ * public Ngsi2CompressionFilter ngsi2CompressionFilter() {
+ *     return new Ngsi2CompressionFilter();
+ * }
+ * </pre>
+ */
+public class Ngsi2CompressionFilter implements Filter {
+
+    public final static int DEFAULT_THRESHOLD = 1024;
+
+    public final static long DEFAULT_MAX_INFLATED_SIZE = 10 * 1024 * 1024;
+
+    final static String GZIP = "gzip";
+
+    final static String DEFLATE = "deflate";
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final int threshold;
+
+    private final long maxInflatedSize;
+
+    private final DeflaterPool gzipDeflaters;
+
+    private final DeflaterPool deflateDeflaters;
+
+    /**
+     * Compress the responses larger than DEFAULT_THRESHOLD bytes with the default compression level,
+     * and accept request bodies up to DEFAULT_MAX_INFLATED_SIZE bytes once decompressed
+     */
+    public Ngsi2CompressionFilter() {
+        this(DEFAULT_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param threshold the size in bytes above which responses are compressed
+     * @param level the compression level, from Deflater.BEST_SPEED (1) to Deflater.BEST_COMPRESSION (9)
+     */
+    public Ngsi2CompressionFilter(int threshold, int level) {
+        this(threshold, level, DEFAULT_MAX_INFLATED_SIZE);
+    }
+
+    /**
+     * @param threshold the size in bytes above which responses are compressed
+     * @param level the compression level, from Deflater.BEST_SPEED (1) to Deflater.BEST_COMPRESSION (9)
+     * @param maxInflatedSize the maximum size in bytes of a compressed request body once decompressed
+     */
+    public Ngsi2CompressionFilter(int threshold, int level, long maxInflatedSize) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must be positive or zero: " + threshold);
+        }
+        if (maxInflatedSize <= 0) {
+            throw new IllegalArgumentException("maxInflatedSize must be positive: " + maxInflatedSize);
+        }
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        this.threshold = threshold;
+        this.maxInflatedSize = maxInflatedSize;
+        int capacity = 2 * Runtime.getRuntime().availableProcessors();
+        this.gzipDeflaters = new DeflaterPool(level, true, capacity);
+        this.deflateDeflaters = new DeflaterPool(level, false, capacity);
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public long getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest) || !(response instanceof HttpServletResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        InflatingRequest inflatingRequest = null;
+        String contentEncoding = httpRequest.getHeader("Content-Encoding");
+        if (contentEncoding != null && decodable(contentEncoding.trim())) {
+            inflatingRequest = new InflatingRequest(httpRequest, contentEncoding.trim(), maxInflatedSize);
+            httpRequest = inflatingRequest;
+        }
+        try {
+            filter(httpRequest, httpResponse, chain);
+        } catch (IOException | ServletException e) {
+            // not handled by the application, typically when the body is read by a component other than the controller
+            if (!(rootCause(e) instanceof InflatedSizeExceededException) || httpResponse.isCommitted()) {
+                throw e;
+            }
+            httpResponse.reset();
+            httpResponse.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        } finally {
+            if (inflatingRequest != null) {
+                inflatingRequest.close();
+            }
+        }
+    }
+
+    private void filter(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain) throws IOException, ServletException {
+        httpResponse.addHeader("Vary", "Accept-Encoding");
+        String encoding = "HEAD".equals(httpRequest.getMethod()) ? null : negotiate(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null) {
+            chain.doFilter(httpRequest, httpResponse);
+            return;
+        }
+        CompressingResponse compressingResponse = new CompressingResponse(httpResponse, encoding);
+        try {
+            chain.doFilter(httpRequest, compressingResponse);
+            compressingResponse.finish();
+        } finally {
+            compressingResponse.release();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        gzipDeflaters.clear();
+        deflateDeflaters.clear();
+    }
+
+    /**
+     * @return the number of idle deflaters kept by the filter
+     */
+    int idleDeflaters() {
+        return gzipDeflaters.size() + deflateDeflaters.size();
+    }
+
+    /**
+     * @param acceptEncoding the Accept-Encoding header of the request
+     * @return gzip or deflate as accepted by the client, gzip being preferred, null if none
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        float gzip = -1, deflate = -1, any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            float quality = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name)) {
+                gzip = quality;
+            } else if (DEFLATE.equalsIgnoreCase(name)) {
+                deflate = quality;
+            } else if ("*".equals(name)) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static Throwable rootCause(Throwable e) {
+        while (e.getCause() != null && e.getCause() != e) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static boolean decodable(String contentEncoding) {
+        return GZIP.equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding) || DEFLATE.equalsIgnoreCase(contentEncoding);
+    }
+
+    /**
+     * Thrown while reading a request body inflating to more than the maximum size
+     */
+    static class InflatedSizeExceededException extends IOException {
+
+        private final long maxInflatedSize;
+
+        InflatedSizeExceededException(long maxInflatedSize) {
+            super("request body larger than " + maxInflatedSize + " bytes once decompressed");
+            this.maxInflatedSize = maxInflatedSize;
+        }
+
+        long getMaxInflatedSize() {
+            return maxInflatedSize;
+        }
+    }
+
+    /**
+     * Request whose body is decompressed while read, up to a maximum size
+     */
+    private static class InflatingRequest extends HttpServletRequestWrapper {
+
+        private final String contentEncoding;
+
+        private final long maxInflatedSize;
+
+        private long inflatedSize;
+
+        private InputStream inflater;
+
+        private ServletInputStream inputStream;
+
+        private BufferedReader reader;
+
+        InflatingRequest(HttpServletRequest request, String contentEncoding, long maxInflatedSize) {
+            super(request);
+            this.contentEncoding = contentEncoding;
+            this.maxInflatedSize = maxInflatedSize;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return hidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration getHeaders(String name) {
+            return hidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public int getIntHeader(String name) {
+            return hidden(name) ? -1 : super.getIntHeader(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (reader != null) {
+                throw new IllegalStateException("getReader() already called");
+            }
+            if (inputStream == null) {
+                InputStream body = super.getInputStream();
+                inflater = DEFLATE.equalsIgnoreCase(contentEncoding) ? new InflaterInputStream(body) : new GZIPInputStream(body, BUFFER_SIZE);
+                inputStream = new ServletInputStream() {
+                    @Override
+                    public int read() throws IOException {
+                        int b = inflater.read();
+                        if (b >= 0) {
+                            inflated(1);
+                        }
+                        return b;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        int n = inflater.read(b, off, len);
+                        if (n > 0) {
+                            inflated(n);
+                        }
+                        return n;
+                    }
+
+                    @Override
+                    public int available() throws IOException {
+                        return inflater.available();
+                    }
+                };
+            }
+            return inputStream;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            if (reader == null) {
+                String charset = getCharacterEncoding();
+                reader = new BufferedReader(new InputStreamReader(getInputStream(), charset == null ? StandardCharsets.ISO_8859_1.name() : charset));
+            }
+            return reader;
+        }
+
+        private void inflated(int n) throws InflatedSizeExceededException {
+            inflatedSize += n;
+            if (inflatedSize > maxInflatedSize) {
+                throw new InflatedSizeExceededException(maxInflatedSize);
+            }
+        }
+
+        /**
+         * Release the native state of the inflater
+         */
+        void close() throws IOException {
+            if (inflater != null) {
+                inflater.close();
+            }
+        }
+
+        private static boolean hidden(String name) {
+            return "Content-Encoding".equalsIgnoreCase(name) || "Content-Length".equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * Response buffering its first bytes up to the threshold, then compressing them and the following ones.
+     * When the whole body fits in the threshold, it is sent as is with its Content-Length.
+     */
+    private class CompressingResponse extends HttpServletResponseWrapper {
+
+        private final String encoding;
+
+        private int status = SC_OK;
+
+        private byte[] buffer;
+
+        private int count;
+
+        /**
+         * True when the body is written as is (after an error, or already encoded)
+         */
+        private boolean passThrough;
+
+        private Deflater deflater;
+
+        private DeflaterOutputStream compressor;
+
+        private ServletOutputStream outputStream;
+
+        private PrintWriter writer;
+
+        CompressingResponse(HttpServletResponse response, String encoding) {
+            super(response);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() already called");
+            }
+            return outputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (outputStream != null) {
+                    throw new IllegalStateException("getOutputStream() already called");
+                }
+                writer = new PrintWriter(new OutputStreamWriter(outputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            if (passThrough) {
+                super.setContentLength(len);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (passThrough || !"Content-Length".equalsIgnoreCase(name)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (passThrough || !"Content-Length".equalsIgnoreCase(name)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (passThrough || !"Content-Length".equalsIgnoreCase(name)) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (passThrough || !"Content-Length".equalsIgnoreCase(name)) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void setStatus(int sc, String sm) {
+            status = sc;
+            super.setStatus(sc, sm);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            discard();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            discard();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            discard();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            } else {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            if (compressor != null) {
+                compressor.flush();
+            } else if (passThrough) {
+                super.flushBuffer();
+            }
+            // else keep buffering until the threshold or the end of the response
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            status = SC_OK;
+            count = 0;
+            super.addHeader("Vary", "Accept-Encoding");
+        }
+
+        @Override
+        public void resetBuffer() {
+            super.resetBuffer();
+            count = 0;
+        }
+
+        private ServletOutputStream outputStream() {
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[] { (byte) b }, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        CompressingResponse.this.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        CompressingResponse.this.flush();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (compressor != null) {
+                compressor.write(b, off, len);
+            } else if (passThrough) {
+                super.getOutputStream().write(b, off, len);
+            } else if (count + len <= threshold) {
+                if (buffer == null) {
+                    buffer = new byte[threshold];
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            } else {
+                OutputStream out = start();
+                if (count > 0) {
+                    out.write(buffer, 0, count);
+                    count = 0;
+                }
+                out.write(b, off, len);
+            }
+        }
+
+        /**
+         * Called when the body exceeds the threshold: compress it unless it cannot be
+         * @return the stream to write the body to
+         */
+        private OutputStream start() throws IOException {
+            if (status == SC_NO_CONTENT || status == SC_NOT_MODIFIED || containsHeader("Content-Encoding")) {
+                passThrough = true;
+                return super.getOutputStream();
+            }
+            super.setHeader("Content-Encoding", encoding);
+            if (GZIP.equals(encoding)) {
+                deflater = gzipDeflaters.acquire();
+                compressor = new GzipOutputStream(super.getOutputStream(), deflater);
+            } else {
+                deflater = deflateDeflaters.acquire();
+                compressor = new DeflaterOutputStream(super.getOutputStream(), deflater, BUFFER_SIZE);
+            }
+            return compressor;
+        }
+
+        private void discard() {
+            passThrough = true;
+            count = 0;
+        }
+
+        /**
+         * Complete the body once the request is handled
+         */
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (compressor != null) {
+                compressor.finish();
+            } else if (!passThrough && count > 0) {
+                super.setContentLength(count);
+                super.getOutputStream().write(buffer, 0, count);
+                count = 0;
+            }
+        }
+
+        /**
+         * Return the deflater to its pool
+         */
+        void release() {
+            if (deflater != null) {
+                (GZIP.equals(encoding) ? gzipDeflaters : deflateDeflaters).release(deflater);
+                deflater = null;
+            }
+        }
+    }
+
+    /**
+     * GZIP stream on a given (raw) deflater, which GZIPOutputStream does not accept.
+     * finish() writes the trailer without ending the deflater or closing the underlying stream.
+     */
+    static final class GzipOutputStream extends DeflaterOutputStream {
+
+        private final static byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+        private final CRC32 crc = new CRC32();
+
+        private boolean finished;
+
+        GzipOutputStream(OutputStream out, Deflater deflater) throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                super.finish();
+                writeInt((int) crc.getValue());
+                writeInt((int) def.getBytesRead());
+                out.flush();
+            }
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+        }
+    }
+}
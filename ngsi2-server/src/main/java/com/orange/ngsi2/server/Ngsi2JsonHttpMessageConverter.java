@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.model.StringPoolModule;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * JSON converter of the NGSI v2 server, binding the request bodies with a copy of the application ObjectMapper
+ * registering the StringPoolModule, so that entity types, attribute names and types are shared with the default
+ * StringPool. Declare it as the MappingJackson2HttpMessageConverter bean of the application.
+ * The time spent binding a body is recorded as the PARSE phase of the endpoint handling the request.
+ */
+public class Ngsi2JsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+    /**
+     * @param objectMapper the ObjectMapper of the application, left unchanged
+     */
+    public Ngsi2JsonHttpMessageConverter(ObjectMapper objectMapper) {
+        super(objectMapper.copy().registerModule(new StringPoolModule()));
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage) throws IOException {
+        long start = System.nanoTime();
+        Object body = super.read(type, contextClass, inputMessage);
+        RequestTiming.current().bodyRead(System.nanoTime() - start);
+        return body;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+        long start = System.nanoTime();
+        Object body = super.readInternal(clazz, inputMessage);
+        RequestTiming.current().bodyRead(System.nanoTime() - start);
+        return body;
+    }
+}
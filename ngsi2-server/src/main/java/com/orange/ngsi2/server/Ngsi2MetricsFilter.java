@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * Servlet filter completing the metrics of the requests handled by Ngsi2BaseController with the time spent
+ * writing the response and the total time of the request. Declared as a bean, it is installed by Spring Boot:
+ *
+ * <pre>
+ * &#64;Bean
+ * public Ngsi2MetricsFilter ngsi2MetricsFilter() {
+ *     return new Ngsi2MetricsFilter();
+ * }
+ * </pre>
+ */
+public class Ngsi2MetricsFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        RequestTiming timing = RequestTiming.current();
+        timing.requestStarted();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            timing.requestCompleted();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+/**
+ * Instrumentation hook of Ngsi2BaseController, called with the name of the endpoint method
+ * (listEntitiesEndpoint, bulkUpdateEndpoint...).
+ * The time of a request is split into consecutive phases: the reading of the body, the syntax validation,
+ * the backend method (listEntities, bulkUpdate...) and the writing of the response, the last one being only
+ * measured when the Ngsi2MetricsFilter is installed.
+ * The methods are called by the threads handling the requests, they must be thread-safe and fast.
+ * All the methods do nothing by default.
+ */
+public interface Ngsi2ServerMetrics {
+
+    /**
+     * Metrics recording nothing, used by default
+     */
+    Ngsi2ServerMetrics NONE = new Ngsi2ServerMetrics() {};
+
+    /**
+     * Phases of a request
+     */
+    enum Phase {
+        /** reading of the request body, by the keyValues endpoints or by Ngsi2JsonHttpMessageConverter */
+        PARSE,
+        /** syntax validation of the parameters and the body */
+        VALIDATE,
+        /** method implementing the endpoint in the child class */
+        BACKEND,
+        /** building and writing of the response, measured by Ngsi2MetricsFilter */
+        WRITE,
+        /** whole request, measured by Ngsi2MetricsFilter */
+        TOTAL
+    }
+
+    /**
+     * Called at the end of each phase of a request
+     * @param endpoint the name of the endpoint method
+     * @param phase the phase
+     * @param durationNanos the duration of the phase, in nanoseconds
+     */
+    default void recordPhase(String endpoint, Phase phase, long durationNanos) {
+    }
+
+    /**
+     * Called for each exception handled by the controller
+     * @param handler the name of the exception handler method (unsupportedOperation, invalidSyntax...)
+     */
+    default void recordException(String handler) {
+    }
+
+    /**
+     * Called with the number of items returned by the endpoints returning a list
+     * @param endpoint the name of the endpoint method
+     * @param size the number of items
+     */
+    default void recordResultSize(String endpoint, int size) {
+    }
+}
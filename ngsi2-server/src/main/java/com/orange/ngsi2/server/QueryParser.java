@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.server.CompiledQuery.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Parser of the NGSIv2 Simple Query Language (q parameter).
+ *
+ * Supported statements, separated by ';' (conjunction):
+ * attr, !attr, attr==value, attr!=value, attr&lt;value, attr&lt;=value, attr&gt;value, attr&gt;=value,
+ * where value can also be a list (v1,v2,...) or a range (min..max) for == and !=.
+ * Values are numbers, true, false, or strings (optionally single quoted).
+ *
+ * Compiled queries are kept in a bounded cache keyed by the query string, read without locking. Above its capacity,
+ * entries not used since the previous eviction are removed first (second chance, approximating LRU).
+ */
+public class QueryParser {
+
+    /** Default number of compiled queries kept in cache */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+(\\.\\d+)?([eE][+-]?\\d+)?");
+
+    private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+    private final int cacheSize;
+
+    private final ConcurrentMap<String, Cached> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Held by a single thread evicting entries
+     */
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    public QueryParser() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the maximum number of compiled queries kept in cache
+     */
+    public QueryParser(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Return the compiled query from the cache, or parse and cache it
+     * @param query the q parameter
+     * @return the compiled query
+     * @throws InvalidatedSyntaxException on error
+     */
+    public CompiledQuery compile(String query) {
+        Cached cached = cache.get(query);
+        if (cached != null) {
+            if (!cached.used) {
+                cached.used = true;
+            }
+            return cached.query;
+        }
+        CompiledQuery compiled = parse(query);
+        cache.putIfAbsent(query, new Cached(compiled));
+        if (cache.size() > cacheSize) {
+            evict(query);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the number of compiled queries in cache
+     */
+    public int cacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Remove entries down to the capacity, those used since the previous pass being spared once
+     * @param added the query just added, kept
+     */
+    private void evict(String added) {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (int pass = 0; pass < 2 && cache.size() > cacheSize; pass++) {
+                Iterator<Cached> iterator = cache.values().iterator();
+                while (iterator.hasNext() && cache.size() > cacheSize) {
+                    Cached cached = iterator.next();
+                    if (cached.query.getQuery().equals(added)) {
+                        continue;
+                    }
+                    if (cached.used) {
+                        cached.used = false;
+                    } else {
+                        iterator.remove();
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Compiled query with the flag set when read from the cache
+     */
+    private static final class Cached {
+
+        final CompiledQuery query;
+
+        volatile boolean used;
+
+        Cached(CompiledQuery query) {
+            this.query = query;
+        }
+    }
+
+    /**
+     * Parse a query without caching it
+     * @param query the q parameter
+     * @return the compiled query
+     * @throws InvalidatedSyntaxException on error
+     */
+    public static CompiledQuery parse(String query) {
+        List<Statement> statements = new ArrayList<>();
+        for (String statement : split(query, ";")) {
+            statements.add(parseStatement(statement.trim()));
+        }
+        return new CompiledQuery(query, statements);
+    }
+
+    private static Statement parseStatement(String statement) {
+        if (statement.isEmpty()) {
+            throw new InvalidatedSyntaxException("q");
+        }
+        int position = -1;
+        String operator = null;
+        for (int i = 0; i < statement.length() && operator == null; i++) {
+            if (statement.charAt(i) == '\'') {
+                break;
+            }
+            for (String candidate : OPERATORS) {
+                if (statement.startsWith(candidate, i)) {
+                    position = i;
+                    operator = candidate;
+                    break;
+                }
+            }
+        }
+
+        if (operator == null) {
+            if (statement.startsWith("!")) {
+                return new NotExists(attribute(statement.substring(1), statement));
+            }
+            return new Exists(attribute(statement, statement));
+        }
+
+        String attribute = attribute(statement.substring(0, position), statement);
+        String value = statement.substring(position + operator.length()).trim();
+        if (value.isEmpty()) {
+            throw new InvalidatedSyntaxException(statement);
+        }
+        switch (operator) {
+            case "==":
+                return equal(attribute, value, statement);
+            case "!=":
+                return new Not(equal(attribute, value, statement));
+            case "<":
+                return new Compare(attribute, Compare.Operator.LT, operand(value, statement));
+            case "<=":
+                return new Compare(attribute, Compare.Operator.LE, operand(value, statement));
+            case ">":
+                return new Compare(attribute, Compare.Operator.GT, operand(value, statement));
+            default:
+                return new Compare(attribute, Compare.Operator.GE, operand(value, statement));
+        }
+    }
+
+    private static Statement equal(String attribute, String value, String statement) {
+        List<String> range = split(value, "..");
+        if (range.size() == 2) {
+            return new Range(attribute, operand(range.get(0), statement), operand(range.get(1), statement));
+        } else if (range.size() > 2) {
+            throw new InvalidatedSyntaxException(statement);
+        }
+        List<String> values = split(value, ",");
+        Operand[] operands = new Operand[values.size()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = operand(values.get(i), statement);
+        }
+        return new In(attribute, operands);
+    }
+
+    private static String attribute(String attribute, String statement) {
+        attribute = attribute.trim();
+        if (attribute.isEmpty()) {
+            throw new InvalidatedSyntaxException(statement);
+        }
+        for (int i = 0; i < attribute.length(); i++) {
+            char c = attribute.charAt(i);
+            if (Character.isWhitespace(c) || c == '\'' || c == '!' || c == '=' || c == '<' || c == '>' || c == ',') {
+                throw new InvalidatedSyntaxException(statement);
+            }
+        }
+        return attribute;
+    }
+
+    private static Operand operand(String value, String statement) {
+        value = value.trim();
+        if (value.isEmpty()) {
+            throw new InvalidatedSyntaxException(statement);
+        }
+        if (value.charAt(0) == '\'') {
+            if (value.length() < 2 || value.charAt(value.length() - 1) != '\'') {
+                throw new InvalidatedSyntaxException(statement);
+            }
+            return Operand.string(value.substring(1, value.length() - 1));
+        } else if (value.equals("true") || value.equals("false")) {
+            return Operand.bool(Boolean.parseBoolean(value));
+        } else if (NUMBER.matcher(value).matches()) {
+            return Operand.number(Double.parseDouble(value));
+        }
+        return Operand.string(value);
+    }
+
+    /**
+     * Split the text on the separator, ignoring separators within single quoted strings
+     */
+    private static List<String> split(String text, String separator) {
+        List<String> parts = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && text.startsWith(separator, i)) {
+                parts.add(text.substring(start, i));
+                i += separator.length() - 1;
+                start = i + 1;
+            }
+        }
+        if (quoted) {
+            throw new InvalidatedSyntaxException(text);
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import java.util.Iterator;
+
+/**
+ * Timing of the request handled by the current thread, started by an endpoint of Ngsi2BaseController and
+ * completed by Ngsi2MetricsFilter when installed. Each lap records the time since the previous one.
+ * The instance of each thread is reused by its requests, nothing is measured when the metrics are NONE.
+ */
+final class RequestTiming {
+
+    private static final ThreadLocal<RequestTiming> timings = ThreadLocal.withInitial(RequestTiming::new);
+
+    private Ngsi2ServerMetrics metrics = Ngsi2ServerMetrics.NONE;
+
+    private String endpoint;
+
+    /**
+     * Start of the request given by the filter, 0 without filter
+     */
+    private long requestStart;
+
+    private long lapStart;
+
+    /**
+     * Time spent by Ngsi2JsonHttpMessageConverter binding the body before the endpoint started, recorded as its PARSE phase
+     */
+    private long bodyReadNanos;
+
+    static RequestTiming current() {
+        return timings.get();
+    }
+
+    /**
+     * Called by the filter before handling a request
+     */
+    void requestStarted() {
+        metrics = Ngsi2ServerMetrics.NONE;
+        endpoint = null;
+        bodyReadNanos = 0;
+        requestStart = System.nanoTime();
+    }
+
+    /**
+     * Called by the filter once the response is written
+     */
+    void requestCompleted() {
+        if (endpoint != null) {
+            long now = System.nanoTime();
+            metrics.recordPhase(endpoint, Ngsi2ServerMetrics.Phase.WRITE, now - lapStart);
+            metrics.recordPhase(endpoint, Ngsi2ServerMetrics.Phase.TOTAL, now - requestStart);
+        }
+        metrics = Ngsi2ServerMetrics.NONE;
+        endpoint = null;
+        bodyReadNanos = 0;
+        requestStart = 0;
+    }
+
+    /**
+     * Called by the endpoint handling the request
+     */
+    RequestTiming start(Ngsi2ServerMetrics metrics, String endpoint) {
+        if (metrics == Ngsi2ServerMetrics.NONE) {
+            this.metrics = metrics;
+            this.endpoint = null;
+        } else {
+            this.metrics = metrics;
+            this.endpoint = endpoint;
+            if (bodyReadNanos > 0) {
+                metrics.recordPhase(endpoint, Ngsi2ServerMetrics.Phase.PARSE, bodyReadNanos);
+            }
+            lapStart = System.nanoTime();
+        }
+        bodyReadNanos = 0;
+        return this;
+    }
+
+    /**
+     * Called by Ngsi2JsonHttpMessageConverter once it has bound a request body, before the endpoint starts
+     */
+    void bodyRead(long durationNanos) {
+        bodyReadNanos += durationNanos;
+    }
+
+    /**
+     * End of the reading of the body
+     */
+    void parsed() {
+        lap(Ngsi2ServerMetrics.Phase.PARSE);
+    }
+
+    /**
+     * End of the syntax validation
+     */
+    void validated() {
+        lap(Ngsi2ServerMetrics.Phase.VALIDATE);
+    }
+
+    /**
+     * End of the backend method
+     */
+    void handled() {
+        lap(Ngsi2ServerMetrics.Phase.BACKEND);
+    }
+
+    void resultSize(int size) {
+        if (endpoint != null) {
+            metrics.recordResultSize(endpoint, size);
+        }
+    }
+
+    /**
+     * @return the iterator of a streamed result, recording its size once consumed
+     */
+    <T> Iterator<T> resultSize(Iterator<T> iterator) {
+        if (endpoint == null) {
+            return iterator;
+        }
+        Ngsi2ServerMetrics metrics = this.metrics;
+        String endpoint = this.endpoint;
+        return new Iterator<T>() {
+            private int size;
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = iterator.hasNext();
+                if (!hasNext && size >= 0) {
+                    metrics.recordResultSize(endpoint, size);
+                    size = -1;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                T next = iterator.next();
+                size++;
+                return next;
+            }
+        };
+    }
+
+    private void lap(Ngsi2ServerMetrics.Phase phase) {
+        if (endpoint != null) {
+            long now = System.nanoTime();
+            metrics.recordPhase(endpoint, phase, now - lapStart);
+            lapStart = now;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.orange.ngsi2.model.Entity;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Response body of entities in a simplified representation (keyValues, values or unique),
+ * each entity written by the serializer of the representation as the iterator produces them.
+ */
+final class SimplifiedEntities implements Iterable<Entity>, JsonSerializable {
+
+    private final Iterator<Entity> iterator;
+
+    private final JsonSerializer<Entity> serializer;
+
+    SimplifiedEntities(Iterator<Entity> iterator, JsonSerializer<Entity> serializer) {
+        this.iterator = iterator;
+        this.serializer = serializer;
+    }
+
+    /**
+     * @return the response body of a single entity in a simplified representation
+     */
+    static JsonSerializable of(Entity entity, JsonSerializer<Entity> serializer) {
+        return new JsonSerializable.Base() {
+            @Override
+            public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+                serializer.serialize(entity, gen, serializers);
+            }
+
+            @Override
+            public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+                serialize(gen, serializers);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Entity> iterator() {
+        return iterator;
+    }
+
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeStartArray();
+        while (iterator.hasNext()) {
+            serializer.serialize(iterator.next(), gen, serializers);
+        }
+        gen.writeEndArray();
+    }
+
+    @Override
+    public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+        serialize(gen, serializers);
+    }
+}
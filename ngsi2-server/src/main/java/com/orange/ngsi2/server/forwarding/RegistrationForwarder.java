@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.forwarding;
+
+import com.orange.ngsi2.client.Ngsi2Client;
+import com.orange.ngsi2.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Forwards queries to the context providers registered for the queried entities and attributes.
+ *
+ * The matching registrations are found through a RegistrationIndex. Each provider (callback URL) is queried once,
+ * all providers in parallel, for the union of the attributes registered by its matching registrations.
+ * A provider failing or not answering within the timeout is ignored: the result is then partial. The request of a
+ * provider not answering in time is cancelled.
+ * Entities returned by providers are merged into the local entities: attributes already present locally are kept,
+ * the others are added. Entities only known by providers are appended.
+ */
+public class RegistrationForwarder {
+
+    private static Logger logger = LoggerFactory.getLogger(RegistrationForwarder.class);
+
+    /** Default timeout of a provider in milliseconds */
+    public static final long DEFAULT_TIMEOUT = 2000;
+
+    /** Default maximum number of entities requested to a provider */
+    public static final int DEFAULT_LIMIT = 1000;
+
+    private final RegistrationIndex registrationIndex = new RegistrationIndex();
+
+    private final ConcurrentMap<String, Ngsi2Client> clients = new ConcurrentHashMap<>();
+
+    private final AsyncRestTemplate asyncRestTemplate;
+
+    private final ScheduledExecutorService scheduler;
+
+    private long timeout = DEFAULT_TIMEOUT;
+
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * @param asyncRestTemplate the template used to query the providers, its pool bounds the parallel requests
+     */
+    public RegistrationForwarder(AsyncRestTemplate asyncRestTemplate) {
+        this(asyncRestTemplate, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ngsi2-forwarding-timeout");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * @param asyncRestTemplate the template used to query the providers, its pool bounds the parallel requests
+     * @param scheduler expires the requests to the providers
+     */
+    public RegistrationForwarder(AsyncRestTemplate asyncRestTemplate, ScheduledExecutorService scheduler) {
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the index of the registrations to forward to, kept up to date by the controller
+     */
+    public RegistrationIndex getRegistrationIndex() {
+        return registrationIndex;
+    }
+
+    /**
+     * @param timeout the maximum time to wait for each provider in milliseconds
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param limit the maximum number of entities requested to each provider
+     */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Complete an entity with the attributes of the providers
+     * @param local the local entity, null if not found locally
+     * @param entityId the entity ID
+     * @param type the entity type (null for none)
+     * @param attrs the requested attributes (null or empty for all)
+     * @return the merged entity, or null if found neither locally nor by the providers
+     */
+    public Entity retrieveEntity(Entity local, String entityId, String type, Collection<String> attrs) {
+        SubjectEntity queried = new SubjectEntity(Optional.of(entityId));
+        queried.setType(Optional.ofNullable(type));
+        Map<String, List<String>> providers = providers(Collections.singletonList(queried), attrs);
+        if (providers.isEmpty()) {
+            return local;
+        }
+        List<Entity> remote = fanOut(providers,
+                (client, attributes) -> client.getEntity(entityId, type, attributes), Collections::singletonList);
+        List<Entity> merged = merge(local == null ? Collections.<Entity>emptyList() : Collections.singletonList(local), remote);
+        return merged.isEmpty() ? null : merged.get(0);
+    }
+
+    /**
+     * Query the providers registered for a list of entities
+     * @param ids an optional list of entity IDs (null or empty for none)
+     * @param types an optional list of types of entity (null or empty for none)
+     * @param idPattern an optional pattern of entity IDs (null for none)
+     * @param attrs the requested attributes (null or empty for all)
+     * @param query an optional Simple Query Language query forwarded to the providers (null for none)
+     * @return the entities of the providers, merged by id and type
+     */
+    public List<Entity> listEntities(Collection<String> ids, Collection<String> types, String idPattern, Collection<String> attrs,
+                                     String query) {
+        Map<String, List<String>> providers = providers(subjects(ids, types, idPattern), attrs);
+        if (providers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return merge(Collections.emptyList(), fanOut(providers, (client, attributes) ->
+                client.getEntities(ids, idPattern, types, attributes, query, null, null, 0, limit, false), Paginated::getItems));
+    }
+
+    /**
+     * Forward a bulk query to the providers registered for its entities and attributes
+     * @param bulkQueryRequest the request
+     * @return the entities of the providers, merged by id and type
+     */
+    public List<Entity> bulkQuery(BulkQueryRequest bulkQueryRequest) {
+        Map<String, List<String>> providers = providers(bulkQueryRequest.getEntities(), bulkQueryRequest.getAttributes());
+        if (providers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return merge(Collections.emptyList(), fanOut(providers, (client, attributes) -> {
+            BulkQueryRequest forwarded = new BulkQueryRequest(bulkQueryRequest.getEntities(), attributes, bulkQueryRequest.getScopes());
+            return client.bulkQuery(forwarded, null, 0, limit, false);
+        }, Paginated::getItems));
+    }
+
+    /**
+     * Merge the entities of the providers into the local entities
+     * @param local the local entities, never modified
+     * @param remote the entities of the providers, in order of precedence
+     * @return the local entities completed with the attributes of the providers, then the entities only known by providers
+     */
+    public static List<Entity> merge(Collection<Entity> local, Collection<Entity> remote) {
+        Map<List<String>, Entity> merged = new LinkedHashMap<>();
+        for (Entity entity : local) {
+            merged.put(Arrays.asList(entity.getId(), entity.getType()), entity);
+        }
+        Set<List<String>> copied = new HashSet<>();
+        for (Entity entity : remote) {
+            if (entity == null || entity.getId() == null) {
+                continue;
+            }
+            List<String> key = Arrays.asList(entity.getId(), entity.getType());
+            Entity existing = merged.get(key);
+            if (existing == null) {
+                merged.put(key, entity);
+                copied.add(key);
+                continue;
+            }
+            if (copied.add(key)) {
+                Map<String, Attribute> attributes = existing.getAttributes() == null ? new HashMap<>() : new HashMap<>(existing.getAttributes());
+                existing = new Entity(existing.getId(), existing.getType(), attributes);
+                merged.put(key, existing);
+            }
+            if (entity.getAttributes() != null) {
+                for (Map.Entry<String, Attribute> entry : entity.getAttributes().entrySet()) {
+                    existing.getAttributes().putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /**
+     * Send a request to each provider in parallel, then wait for all of them
+     * @param providers the attributes to request (null for all) by provider URL
+     * @param request the request to send to a provider, its future being cancelled on timeout
+     * @param items the entities of the response of a provider
+     * @return the entities of the providers which answered in time
+     */
+    private <T> List<Entity> fanOut(Map<String, List<String>> providers, BiFunction<Ngsi2Client, List<String>, CompletableFuture<T>> request,
+                                    Function<T, List<Entity>> items) {
+        List<CompletableFuture<List<Entity>>> futures = new ArrayList<>(providers.size());
+        providers.forEach((url, attributes) -> futures.add(forward(url, attributes, request, items)));
+        List<Entity> entities = new ArrayList<>();
+        for (CompletableFuture<List<Entity>> future : futures) {
+            entities.addAll(future.join());
+        }
+        return entities;
+    }
+
+    private <T> CompletableFuture<List<Entity>> forward(String url, List<String> attributes,
+                                                        BiFunction<Ngsi2Client, List<String>, CompletableFuture<T>> request,
+                                                        Function<T, List<Entity>> items) {
+        CompletableFuture<T> future;
+        try {
+            future = request.apply(client(url), attributes);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        CompletableFuture<T> result = future;
+        // cancelling the future of the client cancels its HTTP request, so that a slow provider does not hold a connection
+        ScheduledFuture<?> timer = scheduler.schedule(() -> result.cancel(true), timeout, TimeUnit.MILLISECONDS);
+        return result.handle((response, failure) -> {
+            timer.cancel(false);
+            if (failure != null) {
+                Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+                logger.warn("Provider {} ignored: {}", url, cause instanceof CancellationException ? "timeout" : cause.getMessage());
+                return Collections.<Entity>emptyList();
+            }
+            return items.apply(response);
+        });
+    }
+
+    /**
+     * Group the matching registrations by provider
+     * @return the attributes to request (null for all) by provider URL
+     */
+    private Map<String, List<String>> providers(List<SubjectEntity> queried, Collection<String> attrs) {
+        boolean allAttributes = attrs == null || attrs.isEmpty();
+        Map<String, List<String>> providers = new LinkedHashMap<>();
+        for (Registration registration : registrationIndex.match(queried, attrs)) {
+            if (registration.getCallback() == null) {
+                continue;
+            }
+            String url = registration.getCallback().toString();
+            List<String> registered = registration.getSubject().getAttributes();
+            List<String> attributes;
+            if (registered == null || registered.isEmpty()) {
+                attributes = allAttributes ? null : new ArrayList<>(attrs);
+            } else {
+                attributes = new ArrayList<>(registered);
+                if (!allAttributes) {
+                    attributes.retainAll(attrs);
+                }
+            }
+            if (providers.containsKey(url)) {
+                List<String> previous = providers.get(url);
+                if (previous == null || attributes == null) {
+                    providers.put(url, null);
+                } else {
+                    attributes.stream().filter(name -> !previous.contains(name)).forEach(previous::add);
+                }
+            } else {
+                providers.put(url, attributes);
+            }
+        }
+        return providers;
+    }
+
+    private Ngsi2Client client(String url) {
+        return clients.computeIfAbsent(url, u -> newClient(u.endsWith("/") ? u : u + "/"));
+    }
+
+    /**
+     * @param baseURL the URL of a provider, ending with "/"
+     * @return a client to the provider
+     */
+    protected Ngsi2Client newClient(String baseURL) {
+        return new Ngsi2Client(asyncRestTemplate, baseURL);
+    }
+
+    private static List<SubjectEntity> subjects(Collection<String> ids, Collection<String> types, String idPattern) {
+        List<Optional<String>> queriedTypes = new ArrayList<>();
+        if (types == null || types.isEmpty()) {
+            queriedTypes.add(Optional.empty());
+        } else {
+            types.forEach(type -> queriedTypes.add(Optional.of(type)));
+        }
+        List<SubjectEntity> subjects = new ArrayList<>();
+        for (Optional<String> type : queriedTypes) {
+            if (ids != null && !ids.isEmpty()) {
+                for (String id : ids) {
+                    SubjectEntity subjectEntity = new SubjectEntity(Optional.of(id));
+                    subjectEntity.setType(type);
+                    subjects.add(subjectEntity);
+                }
+            } else {
+                SubjectEntity subjectEntity = new SubjectEntity();
+                subjectEntity.setIdPattern(Optional.ofNullable(idPattern));
+                subjectEntity.setType(type);
+                subjects.add(subjectEntity);
+            }
+        }
+        return subjects;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.forwarding;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.model.Registration;
+import com.orange.ngsi2.model.SubjectEntity;
+import com.orange.ngsi2.model.SubjectRegistration;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds the registrations of context providers concerned by a query.
+ *
+ * A registration matches a queried entity (id or idPattern, and type) when one of its entities may designate the
+ * same entities: types are equal or one is missing, ids are equal, an idPattern matches an id, or idPatterns are equal.
+ * It must also provide one of the queried attributes, when both the registration and the query list attributes.
+ *
+ * Registered entities are indexed by id, by type when they have no id, and by the type of their id otherwise,
+ * so that queries by id or by type only check the registrations which may match.
+ */
+public class RegistrationIndex {
+
+    private static final String NO_TYPE = "";
+
+    private final ConcurrentMap<String, CompiledRegistration> registrations = new ConcurrentHashMap<>();
+
+    /* registered entities with an id */
+    private final ConcurrentMap<String, Set<CompiledRegistration>> byId = new ConcurrentHashMap<>();
+
+    /* registered entities with an id, by type (NO_TYPE for none) */
+    private final ConcurrentMap<String, Set<CompiledRegistration>> idsByType = new ConcurrentHashMap<>();
+
+    /* registered entities without id but with a type */
+    private final ConcurrentMap<String, Set<CompiledRegistration>> byType = new ConcurrentHashMap<>();
+
+    /* registered entities with neither id nor type */
+    private final Set<CompiledRegistration> others = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Add or replace a registration
+     * @param registration the registration, with an id
+     * @throws InvalidatedSyntaxException if an idPattern is invalid
+     */
+    public void register(Registration registration) {
+        CompiledRegistration compiled = new CompiledRegistration(registration);
+        registrations.compute(registration.getId(), (id, previous) -> {
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(compiled);
+            return compiled;
+        });
+    }
+
+    /**
+     * @param registrationId the id of the registration to remove
+     */
+    public void unregister(String registrationId) {
+        registrations.computeIfPresent(registrationId, (id, previous) -> {
+            unindex(previous);
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of registrations
+     */
+    public int size() {
+        return registrations.size();
+    }
+
+    /**
+     * @param queried the queried entities, all entities if null or empty (registrations without subject never match)
+     * @param attributes the queried attributes, all attributes if null or empty
+     * @return the matching registrations, each once
+     * @throws InvalidatedSyntaxException if a queried idPattern is invalid
+     */
+    public List<Registration> match(Collection<SubjectEntity> queried, Collection<String> attributes) {
+        Set<CompiledRegistration> matching = new LinkedHashSet<>();
+        if (queried == null || queried.isEmpty()) {
+            for (CompiledRegistration compiled : registrations.values()) {
+                if (compiled.subject && compiled.provides(attributes)) {
+                    matching.add(compiled);
+                }
+            }
+        } else {
+            for (SubjectEntity subjectEntity : queried) {
+                String id = value(subjectEntity.getId());
+                String type = value(subjectEntity.getType());
+                String idPattern = value(subjectEntity.getIdPattern());
+                Pattern pattern = idPattern == null ? null : compile(idPattern);
+                for (Collection<CompiledRegistration> candidates : candidates(id, type)) {
+                    for (CompiledRegistration compiled : candidates) {
+                        if (!matching.contains(compiled) && compiled.provides(attributes) && compiled.matches(id, type, idPattern, pattern)) {
+                            matching.add(compiled);
+                        }
+                    }
+                }
+            }
+        }
+        List<Registration> result = new ArrayList<>(matching.size());
+        matching.forEach(compiled -> result.add(compiled.registration));
+        return result;
+    }
+
+    /**
+     * @return the sets of registrations which may match a queried id and type
+     */
+    private List<Collection<CompiledRegistration>> candidates(String id, String type) {
+        List<Collection<CompiledRegistration>> candidates = new ArrayList<>();
+        candidates.add(others);
+        if (id != null) {
+            addIfPresent(candidates, byId.get(id));
+            if (type != null) {
+                addIfPresent(candidates, byType.get(type));
+            } else {
+                candidates.addAll(byType.values());
+            }
+        } else if (type != null) {
+            addIfPresent(candidates, idsByType.get(type));
+            addIfPresent(candidates, idsByType.get(NO_TYPE));
+            addIfPresent(candidates, byType.get(type));
+        } else {
+            candidates.add(registrations.values());
+        }
+        return candidates;
+    }
+
+    /**
+     * Must be called while holding the entry of the registration
+     */
+    private void index(CompiledRegistration compiled) {
+        for (int i = 0; i < compiled.ids.length; i++) {
+            if (compiled.ids[i] != null) {
+                addToIndex(byId, compiled.ids[i], compiled);
+                addToIndex(idsByType, compiled.types[i] == null ? NO_TYPE : compiled.types[i], compiled);
+            } else if (compiled.types[i] != null) {
+                addToIndex(byType, compiled.types[i], compiled);
+            } else {
+                others.add(compiled);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the entry of the registration
+     */
+    private void unindex(CompiledRegistration compiled) {
+        for (int i = 0; i < compiled.ids.length; i++) {
+            if (compiled.ids[i] != null) {
+                removeFromIndex(byId, compiled.ids[i], compiled);
+                removeFromIndex(idsByType, compiled.types[i] == null ? NO_TYPE : compiled.types[i], compiled);
+            } else if (compiled.types[i] != null) {
+                removeFromIndex(byType, compiled.types[i], compiled);
+            } else {
+                others.remove(compiled);
+            }
+        }
+    }
+
+    private static void addIfPresent(List<Collection<CompiledRegistration>> candidates, Set<CompiledRegistration> set) {
+        if (set != null) {
+            candidates.add(set);
+        }
+    }
+
+    private static void addToIndex(ConcurrentMap<String, Set<CompiledRegistration>> index, String value, CompiledRegistration compiled) {
+        index.compute(value, (v, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(compiled);
+            return set;
+        });
+    }
+
+    private static void removeFromIndex(ConcurrentMap<String, Set<CompiledRegistration>> index, String value, CompiledRegistration compiled) {
+        index.computeIfPresent(value, (v, set) -> {
+            set.remove(compiled);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static Pattern compile(String idPattern) {
+        try {
+            return Pattern.compile(idPattern);
+        } catch (PatternSyntaxException e) {
+            throw new InvalidatedSyntaxException(idPattern);
+        }
+    }
+
+    private static String value(Optional<String> optional) {
+        return optional == null ? null : optional.orElse(null);
+    }
+
+    /**
+     * Registration with its entities flattened and its patterns compiled once
+     */
+    private static final class CompiledRegistration {
+
+        final Registration registration;
+
+        final String[] ids;
+
+        final String[] types;
+
+        final String[] idPatterns;
+
+        final Pattern[] patterns;
+
+        final List<String> attributes;
+
+        final boolean subject;
+
+        CompiledRegistration(Registration registration) {
+            this.registration = registration;
+            SubjectRegistration subject = registration.getSubject();
+            List<SubjectEntity> entities = subject == null || subject.getEntities() == null ? Collections.emptyList() : subject.getEntities();
+            this.ids = new String[entities.size()];
+            this.types = new String[entities.size()];
+            this.idPatterns = new String[entities.size()];
+            this.patterns = new Pattern[entities.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = value(entities.get(i).getId());
+                types[i] = value(entities.get(i).getType());
+                idPatterns[i] = value(entities.get(i).getIdPattern());
+                patterns[i] = idPatterns[i] == null ? null : compile(idPatterns[i]);
+            }
+            this.attributes = subject == null || subject.getAttributes() == null ? Collections.emptyList() : subject.getAttributes();
+            this.subject = subject != null;
+        }
+
+        boolean provides(Collection<String> queried) {
+            return queried == null || queried.isEmpty() || attributes.isEmpty() || !Collections.disjoint(attributes, queried);
+        }
+
+        boolean matches(String id, String type, String idPattern, Pattern pattern) {
+            for (int i = 0; i < ids.length; i++) {
+                if (types[i] != null && type != null && !types[i].equals(type)) {
+                    continue;
+                }
+                if (ids[i] != null && id != null) {
+                    if (ids[i].equals(id)) {
+                        return true;
+                    }
+                } else if (patterns[i] != null && id != null) {
+                    if (patterns[i].matcher(id).find()) {
+                        return true;
+                    }
+                } else if (pattern != null && ids[i] != null) {
+                    if (pattern.matcher(ids[i]).find()) {
+                        return true;
+                    }
+                } else if (idPatterns[i] != null && idPattern != null) {
+                    if (idPatterns[i].equals(idPattern)) {
+                        return true;
+                    }
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Notification;
+import com.orange.ngsi2.model.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the notifications of the subscriptions when entities change.
+ *
+ * Changes are matched against the subscriptions, then queued per subscription. Changes of the same entity
+ * waiting in the queue are coalesced: only its latest state is notified. A subscription is notified at most once
+ * per throttling period, with all the entities changed since its previous notification.
+ * The data of a notification is rendered once for all the subscriptions notified with the same batch and format.
+ * Notifications are posted asynchronously, failures (I/O errors, 5xx, 429) are retried with an exponential backoff.
+ */
+public class NotificationDispatcher {
+
+    private static Logger logger = LoggerFactory.getLogger(NotificationDispatcher.class);
+
+    public static final int DEFAULT_POOL_SIZE = 16;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+
+    public static final long DEFAULT_MAX_BACKOFF = 30000;
+
+    private final SubscriptionMatcher matcher = new SubscriptionMatcher();
+
+    private final ConcurrentMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+    private final NotificationRenderer renderer;
+
+    private final AsyncRestTemplate asyncRestTemplate;
+
+    private final ScheduledExecutorService scheduler;
+
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+
+    private long maxBackoff = DEFAULT_MAX_BACKOFF;
+
+    /**
+     * Dispatcher with a bounded HTTP pool of DEFAULT_POOL_SIZE threads and a single scheduling thread
+     * @param objectMapper the mapper used to render the notifications, supporting java 8 types
+     */
+    public NotificationDispatcher(ObjectMapper objectMapper) {
+        this(objectMapper, boundedAsyncRestTemplate(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT),
+                Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("ngsi2-notification-scheduler")));
+    }
+
+    /**
+     * @param objectMapper the mapper used to render the notifications, supporting java 8 types
+     * @param asyncRestTemplate the template used to post the notifications
+     * @param scheduler runs the throttled notifications, the rendering and the retries
+     */
+    public NotificationDispatcher(ObjectMapper objectMapper, AsyncRestTemplate asyncRestTemplate, ScheduledExecutorService scheduler) {
+        this.renderer = new NotificationRenderer(objectMapper);
+        this.asyncRestTemplate = asyncRestTemplate;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Create an AsyncRestTemplate whose requests are run by a bounded pool of threads.
+     * When the pool and its queue are full, notifications are retried later.
+     * @param threads the maximum number of concurrent requests
+     * @param queueCapacity the maximum number of requests waiting for a thread
+     * @param connectTimeout the connect timeout in milliseconds
+     * @param readTimeout the read timeout in milliseconds
+     * @return the template
+     */
+    public static AsyncRestTemplate boundedAsyncRestTemplate(int threads, int queueCapacity, int connectTimeout, int readTimeout) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreadFactory("ngsi2-notification-sender"));
+        executor.allowCoreThreadTimeOut(true);
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        requestFactory.setTaskExecutor(new TaskExecutorAdapter(executor));
+        return new AsyncRestTemplate(requestFactory);
+    }
+
+    /**
+     * Add or replace a subscription. Subscriptions without callback are ignored.
+     * @param subscription the subscription, with an id
+     * @throws com.orange.ngsi2.exception.InvalidatedSyntaxException if its idPattern or q expression is invalid
+     */
+    public void subscribe(Subscription subscription) {
+        if (subscription.getNotification() == null || subscription.getNotification().getCallback() == null) {
+            unsubscribe(subscription.getId());
+            return;
+        }
+        Channel channel = new Channel(subscription);
+        matcher.register(subscription);
+        Channel previous = channels.put(subscription.getId(), channel);
+        if (previous != null) {
+            previous.closed = true;
+        }
+    }
+
+    /**
+     * @param subscriptionId the id of the subscription to remove, its pending notifications are dropped
+     */
+    public void unsubscribe(String subscriptionId) {
+        matcher.unregister(subscriptionId);
+        Channel channel = channels.remove(subscriptionId);
+        if (channel != null) {
+            channel.closed = true;
+        }
+    }
+
+    /**
+     * Notify the change of an entity to the matching subscriptions
+     * @param entity the new state of the entity, must not be modified afterwards
+     * @param changedAttributes the names of the attributes which changed
+     */
+    public void entityChanged(Entity entity, Collection<String> changedAttributes) {
+        long now = System.currentTimeMillis();
+        List<Channel> ready = new ArrayList<>();
+        for (Subscription subscription : matcher.match(entity, changedAttributes)) {
+            Channel channel = channels.get(subscription.getId());
+            if (channel == null) {
+                continue;
+            }
+            long delay = channel.enqueue(entity, now);
+            if (delay == 0) {
+                ready.add(channel);
+            } else if (delay > 0) {
+                scheduler.schedule(() -> flush(Collections.singletonList(channel)), delay, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (!ready.isEmpty()) {
+            // a single task, so that the subscriptions notified for this change share their rendering
+            scheduler.execute(() -> flush(ready));
+        }
+    }
+
+    /**
+     * Stop sending notifications
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * @return the matcher of the subscriptions
+     */
+    public SubscriptionMatcher getMatcher() {
+        return matcher;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * @param initialBackoff the delay before the first retry in milliseconds, doubled for each following retry
+     */
+    public void setInitialBackoff(long initialBackoff) {
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * @param maxBackoff the maximum delay between two retries in milliseconds
+     */
+    public void setMaxBackoff(long maxBackoff) {
+        this.maxBackoff = maxBackoff;
+    }
+
+    private void flush(List<Channel> ready) {
+        Map<RenderKey, byte[]> rendered = new HashMap<>();
+        for (Channel channel : ready) {
+            long now = System.currentTimeMillis();
+            List<Entity> batch = channel.drain(now);
+            if (batch.isEmpty() || channel.closed) {
+                continue;
+            }
+            try {
+                RenderKey key = new RenderKey(channel.format, channel.attributes, batch);
+                byte[] data = rendered.get(key);
+                if (data == null) {
+                    data = renderer.renderData(channel.format, channel.attributes, batch);
+                    rendered.put(key, data);
+                }
+                byte[] payload = renderer.renderPayload(channel.subscription.getId(), data);
+                channel.subscription.getNotification().notified(Instant.ofEpochMilli(now));
+                send(channel, payload, 0);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to render notification of subscription {}", channel.subscription.getId(), e);
+            }
+        }
+    }
+
+    private void send(Channel channel, byte[] payload, int attempt) {
+        if (channel.closed) {
+            return;
+        }
+        ListenableFuture<ResponseEntity<Void>> future;
+        try {
+            future = asyncRestTemplate.exchange(channel.uri, HttpMethod.POST, new HttpEntity<>(payload, channel.headers), Void.class);
+        } catch (RuntimeException e) {
+            // typically the pool of the template is full
+            retry(channel, payload, attempt, e);
+            return;
+        }
+        future.addCallback(result -> {}, failure -> retry(channel, payload, attempt, failure));
+    }
+
+    private void retry(Channel channel, byte[] payload, int attempt, Throwable failure) {
+        if (attempt >= maxRetries || !retryable(failure)) {
+            logger.warn("Notification of subscription {} to {} failed: {}", channel.subscription.getId(), channel.uri, failure.getMessage());
+            return;
+        }
+        long delay = Math.min(maxBackoff, initialBackoff << Math.min(attempt, 30));
+        try {
+            scheduler.schedule(() -> send(channel, payload, attempt + 1), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Notification of subscription {} dropped on shutdown", channel.subscription.getId());
+        }
+    }
+
+    private static boolean retryable(Throwable failure) {
+        return !(failure instanceof HttpClientErrorException)
+                || ((HttpClientErrorException) failure).getStatusCode() == HttpStatus.TOO_MANY_REQUESTS;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queue of the changes to notify to a subscription
+     */
+    private static final class Channel {
+
+        final Subscription subscription;
+
+        final URI uri;
+
+        final HttpHeaders headers;
+
+        final Notification.Format format;
+
+        final List<String> attributes;
+
+        final long throttling;
+
+        volatile boolean closed;
+
+        /* guarded by this */
+        private Map<String, Entity> pending = new LinkedHashMap<>();
+
+        private boolean scheduled;
+
+        private long lastFlush;
+
+        Channel(Subscription subscription) {
+            Notification notification = subscription.getNotification();
+            this.subscription = subscription;
+            UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(notification.getCallback().toString());
+            if (notification.getQuery() != null && notification.getQuery().isPresent()) {
+                notification.getQuery().get().forEach(builder::queryParam);
+            }
+            this.uri = builder.build().encode().toUri();
+            this.headers = new HttpHeaders();
+            this.headers.setContentType(MediaType.APPLICATION_JSON);
+            if (notification.getHeaders() != null && notification.getHeaders().isPresent()) {
+                notification.getHeaders().get().forEach(this.headers::add);
+            }
+            this.format = notification.getAttrsFormat() == null ? Notification.Format.normalized
+                    : notification.getAttrsFormat().orElse(Notification.Format.normalized);
+            this.attributes = notification.getAttributes();
+            // throttling is in seconds
+            this.throttling = notification.getThrottling() == null ? 0 : notification.getThrottling().orElse(0L) * 1000;
+        }
+
+        /**
+         * @return the delay before flushing this channel, or -1 if a flush is already scheduled
+         */
+        synchronized long enqueue(Entity entity, long now) {
+            pending.put(entity.getId() + '\u0000' + entity.getType(), entity);
+            if (scheduled) {
+                return -1;
+            }
+            scheduled = true;
+            return Math.max(0, lastFlush + throttling - now);
+        }
+
+        /**
+         * @return the changes to notify now
+         */
+        synchronized List<Entity> drain(long now) {
+            List<Entity> batch = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+            lastFlush = now;
+            return batch;
+        }
+    }
+
+    /**
+     * Identifies the rendering of a batch: entities are compared by reference as they are not modified once notified
+     */
+    private static final class RenderKey {
+
+        private final Notification.Format format;
+
+        private final List<String> attributes;
+
+        private final List<Entity> batch;
+
+        RenderKey(Notification.Format format, List<String> attributes, List<Entity> batch) {
+            this.format = format;
+            this.attributes = attributes == null ? Collections.emptyList() : attributes;
+            this.batch = batch;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) o;
+            if (format != other.format || !attributes.equals(other.attributes) || batch.size() != other.batch.size()) {
+                return false;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i) != other.batch.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * format.hashCode() + attributes.hashCode();
+            for (Entity entity : batch) {
+                hash = 31 * hash + System.identityHashCode(entity);
+            }
+            return hash;
+        }
+    }
+}
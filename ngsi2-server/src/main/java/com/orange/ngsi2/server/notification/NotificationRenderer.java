@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Notification;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Renders the body of notifications: {"subscriptionId": "...", "data": [...]}.
+ * The data part only depends on the format, the notified attributes and the entities, it is rendered once
+ * and shared by all the subscriptions notified with the same batch.
+ */
+final class NotificationRenderer {
+
+    private static final byte[] START = "{\"subscriptionId\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] DATA = ",\"data\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] END = "}".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper;
+
+    NotificationRenderer(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param format the format of the attributes
+     * @param attributes the attributes to render, all if null or empty
+     * @param entities the entities
+     * @return the data part of the notification
+     */
+    byte[] renderData(Notification.Format format, List<String> attributes, List<Entity> entities) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 * entities.size());
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+            gen.writeStartArray();
+            for (Entity entity : entities) {
+                Map<String, Attribute> selected = select(entity, attributes);
+                switch (format) {
+                    case values:
+                        gen.writeStartArray();
+                        for (Attribute attribute : selected.values()) {
+                            gen.writeObject(attribute.getValue());
+                        }
+                        gen.writeEndArray();
+                        break;
+                    case keyValues:
+                        writeStart(gen, entity);
+                        for (Map.Entry<String, Attribute> entry : selected.entrySet()) {
+                            gen.writeFieldName(entry.getKey());
+                            gen.writeObject(entry.getValue().getValue());
+                        }
+                        gen.writeEndObject();
+                        break;
+                    default:
+                        writeStart(gen, entity);
+                        for (Map.Entry<String, Attribute> entry : selected.entrySet()) {
+                            gen.writeFieldName(entry.getKey());
+                            gen.writeObject(entry.getValue());
+                        }
+                        gen.writeEndObject();
+                }
+            }
+            gen.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param subscriptionId the id of the subscription
+     * @param data the data part rendered by renderData
+     * @return the body of the notification
+     */
+    byte[] renderPayload(String subscriptionId, byte[] data) throws IOException {
+        byte[] id = objectMapper.writeValueAsBytes(subscriptionId);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + id.length + 32);
+        out.write(START);
+        out.write(id);
+        out.write(DATA);
+        out.write(data);
+        out.write(END);
+        return out.toByteArray();
+    }
+
+    private static void writeStart(JsonGenerator gen, Entity entity) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("id", entity.getId());
+        if (entity.getType() != null) {
+            gen.writeStringField("type", entity.getType());
+        }
+    }
+
+    /**
+     * @return the attributes of the entity in the order of the requested attributes
+     */
+    private static Map<String, Attribute> select(Entity entity, List<String> attributes) {
+        Map<String, Attribute> all = entity.getAttributes() == null ? Collections.emptyMap() : entity.getAttributes();
+        if (attributes == null || attributes.isEmpty()) {
+            return all;
+        }
+        Map<String, Attribute> selected = new LinkedHashMap<>();
+        for (String name : attributes) {
+            Attribute attribute = all.get(name);
+            if (attribute != null) {
+                selected.put(name, attribute);
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.model.Condition;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.SubjectEntity;
+import com.orange.ngsi2.model.Subscription;
+import com.orange.ngsi2.server.CompiledQuery;
+import com.orange.ngsi2.server.QueryParser;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Finds the subscriptions concerned by a change of an entity.
+ *
+ * A subscription matches when the entity matches one of its subject entities (id or idPattern, and type),
+ * one of the changed attributes is in its condition attributes (any attribute if none),
+ * and the entity matches the q expression of its condition if any.
+ * Only active and not expired subscriptions are matched.
+ *
+ * Subscriptions are indexed both by subject and by condition attributes, the smallest set of candidates is then
+ * checked exactly. Subjects are indexed by id and by type, idPatterns sharing the same literal prefix after a leading
+ * "^" are grouped under that prefix, looked up from the prefixes of the entity id. Identical idPatterns are compiled
+ * and tested once per change whatever the number of subscriptions using them.
+ */
+public class SubscriptionMatcher {
+
+    private final ConcurrentMap<String, CompiledSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<CompiledSubscription>> idIndex = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<CompiledSubscription>> typeIndex = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<CompiledSubscription>> prefixIndex = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, PatternGroup> patterns = new ConcurrentHashMap<>();
+
+    private final Set<CompiledSubscription> anySubject = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<String, Set<CompiledSubscription>> attributeIndex = new ConcurrentHashMap<>();
+
+    private final Set<CompiledSubscription> anyAttribute = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Add or replace a subscription
+     * @param subscription the subscription, with an id
+     * @throws InvalidatedSyntaxException if an idPattern or the q expression of the condition is invalid
+     */
+    public void register(Subscription subscription) {
+        CompiledSubscription compiled = new CompiledSubscription(subscription);
+        subscriptions.compute(subscription.getId(), (id, previous) -> {
+            if (previous != null) {
+                unindex(previous);
+            }
+            index(compiled);
+            return compiled;
+        });
+    }
+
+    /**
+     * @param subscriptionId the id of the subscription to remove
+     */
+    public void unregister(String subscriptionId) {
+        subscriptions.computeIfPresent(subscriptionId, (id, previous) -> {
+            unindex(previous);
+            return null;
+        });
+    }
+
+    /**
+     * @return the number of registered subscriptions
+     */
+    public int size() {
+        return subscriptions.size();
+    }
+
+    /**
+     * @param entity the new state of the entity
+     * @param changedAttributes the names of the attributes which changed
+     * @return the subscriptions to notify
+     */
+    public List<Subscription> match(Entity entity, Collection<String> changedAttributes) {
+        List<Set<CompiledSubscription>> bySubject = subjectCandidates(entity);
+        List<Set<CompiledSubscription>> byAttribute = new ArrayList<>(changedAttributes.size() + 1);
+        byAttribute.add(anyAttribute);
+        for (String name : changedAttributes) {
+            Set<CompiledSubscription> set = attributeIndex.get(name);
+            if (set != null) {
+                byAttribute.add(set);
+            }
+        }
+        List<Set<CompiledSubscription>> candidates = count(bySubject) <= count(byAttribute) ? bySubject : byAttribute;
+
+        List<Subscription> matching = new ArrayList<>();
+        Set<CompiledSubscription> seen = candidates.size() > 1 ? new HashSet<>() : null;
+        Instant now = Instant.now();
+        for (Set<CompiledSubscription> set : candidates) {
+            for (CompiledSubscription compiled : set) {
+                // a subscription may be referenced by several sets
+                if (seen != null && !seen.add(compiled)) {
+                    continue;
+                }
+                if (compiled.matches(entity, changedAttributes, now)) {
+                    matching.add(compiled.subscription);
+                }
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * @return the sets of subscriptions whose subject may match the entity
+     */
+    private List<Set<CompiledSubscription>> subjectCandidates(Entity entity) {
+        List<Set<CompiledSubscription>> candidates = new ArrayList<>();
+        candidates.add(anySubject);
+        String id = entity.getId();
+        addIfPresent(candidates, idIndex.get(id));
+        if (entity.getType() != null) {
+            addIfPresent(candidates, typeIndex.get(entity.getType()));
+        }
+        if (!prefixIndex.isEmpty()) {
+            for (int i = 1; i <= id.length(); i++) {
+                addIfPresent(candidates, prefixIndex.get(id.substring(0, i)));
+            }
+        }
+        for (PatternGroup group : patterns.values()) {
+            if (group.pattern.matcher(id).find()) {
+                candidates.add(group.subscriptions);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Must be called while holding the entry of the subscription
+     */
+    private void index(CompiledSubscription compiled) {
+        for (int i = 0; i < compiled.idPatterns.length; i++) {
+            String entityId = compiled.ids[i];
+            String type = compiled.types[i];
+            if (entityId != null) {
+                addToIndex(idIndex, entityId, compiled);
+            } else if (compiled.idPatterns[i] != null) {
+                String pattern = compiled.idPatterns[i].pattern();
+                String prefix = literalPrefix(pattern);
+                if (prefix.isEmpty()) {
+                    Pattern compiledPattern = compiled.idPatterns[i];
+                    patterns.compute(pattern, (p, group) -> {
+                        if (group == null) {
+                            group = new PatternGroup(compiledPattern);
+                        }
+                        group.subscriptions.add(compiled);
+                        return group;
+                    });
+                } else {
+                    addToIndex(prefixIndex, prefix, compiled);
+                }
+            } else if (type != null) {
+                addToIndex(typeIndex, type, compiled);
+            } else {
+                anySubject.add(compiled);
+            }
+        }
+        if (compiled.conditionAttributes == null) {
+            anyAttribute.add(compiled);
+        } else {
+            for (String name : compiled.conditionAttributes) {
+                addToIndex(attributeIndex, name, compiled);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the entry of the subscription
+     */
+    private void unindex(CompiledSubscription compiled) {
+        for (int i = 0; i < compiled.idPatterns.length; i++) {
+            String entityId = compiled.ids[i];
+            String type = compiled.types[i];
+            if (entityId != null) {
+                removeFromIndex(idIndex, entityId, compiled);
+            } else if (compiled.idPatterns[i] != null) {
+                String pattern = compiled.idPatterns[i].pattern();
+                String prefix = literalPrefix(pattern);
+                if (prefix.isEmpty()) {
+                    patterns.computeIfPresent(pattern, (p, group) -> {
+                        group.subscriptions.remove(compiled);
+                        return group.subscriptions.isEmpty() ? null : group;
+                    });
+                } else {
+                    removeFromIndex(prefixIndex, prefix, compiled);
+                }
+            } else if (type != null) {
+                removeFromIndex(typeIndex, type, compiled);
+            } else {
+                anySubject.remove(compiled);
+            }
+        }
+        if (compiled.conditionAttributes == null) {
+            anyAttribute.remove(compiled);
+        } else {
+            for (String name : compiled.conditionAttributes) {
+                removeFromIndex(attributeIndex, name, compiled);
+            }
+        }
+    }
+
+    /**
+     * @return the literal characters every id matching an idPattern anchored with "^" starts with,
+     * empty if the pattern is not anchored or may match alternatives
+     */
+    static String literalPrefix(String pattern) {
+        if (!pattern.startsWith("^") || pattern.indexOf('|') >= 0) {
+            return "";
+        }
+        int end = 1;
+        while (end < pattern.length() && "\\[](){}.*+?^$|".indexOf(pattern.charAt(end)) < 0) {
+            end++;
+        }
+        // the last literal is optional or repeated when followed by a quantifier
+        if (end < pattern.length() && "?*{".indexOf(pattern.charAt(end)) >= 0) {
+            end--;
+        }
+        return end <= 1 ? "" : pattern.substring(1, end);
+    }
+
+    private static void addIfPresent(List<Set<CompiledSubscription>> candidates, Set<CompiledSubscription> set) {
+        if (set != null) {
+            candidates.add(set);
+        }
+    }
+
+    private static void addToIndex(ConcurrentMap<String, Set<CompiledSubscription>> index, String value, CompiledSubscription compiled) {
+        index.compute(value, (v, set) -> {
+            if (set == null) {
+                set = ConcurrentHashMap.newKeySet();
+            }
+            set.add(compiled);
+            return set;
+        });
+    }
+
+    private static void removeFromIndex(ConcurrentMap<String, Set<CompiledSubscription>> index, String value, CompiledSubscription compiled) {
+        index.computeIfPresent(value, (v, set) -> {
+            set.remove(compiled);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static int count(List<Set<CompiledSubscription>> sets) {
+        int count = 0;
+        for (Set<CompiledSubscription> set : sets) {
+            count += set.size();
+        }
+        return count;
+    }
+
+    private static <T> T value(Optional<T> optional) {
+        return optional == null ? null : optional.orElse(null);
+    }
+
+    /**
+     * The subscriptions sharing an idPattern which cannot be indexed by prefix
+     */
+    private static final class PatternGroup {
+
+        final Pattern pattern;
+
+        final Set<CompiledSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+        PatternGroup(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * Subscription with its subject flattened and its patterns and q expression compiled once.
+     * A registered subscription must be registered again to take its changes into account.
+     */
+    static final class CompiledSubscription {
+
+        final Subscription subscription;
+
+        final String[] ids;
+
+        final String[] types;
+
+        final Pattern[] idPatterns;
+
+        final Set<String> conditionAttributes;
+
+        private final boolean expired;
+
+        private final Instant expires;
+
+        private final CompiledQuery query;
+
+        CompiledSubscription(Subscription subscription) {
+            this.subscription = subscription;
+            List<SubjectEntity> entities = subscription.getSubject() == null || subscription.getSubject().getEntities() == null
+                    ? Collections.emptyList() : subscription.getSubject().getEntities();
+            this.ids = new String[entities.size()];
+            this.types = new String[entities.size()];
+            this.idPatterns = new Pattern[entities.size()];
+            for (int i = 0; i < idPatterns.length; i++) {
+                ids[i] = value(entities.get(i).getId());
+                types[i] = value(entities.get(i).getType());
+                String idPattern = value(entities.get(i).getIdPattern());
+                if (idPattern != null) {
+                    try {
+                        idPatterns[i] = Pattern.compile(idPattern);
+                    } catch (PatternSyntaxException e) {
+                        throw new InvalidatedSyntaxException(idPattern);
+                    }
+                }
+            }
+            Condition condition = subscription.getSubject() == null ? null : subscription.getSubject().getCondition();
+            this.conditionAttributes = condition == null || condition.getAttributes() == null || condition.getAttributes().isEmpty()
+                    ? null : new HashSet<>(condition.getAttributes());
+            String q = condition == null || condition.getExpression() == null ? null : condition.getExpression().get("q");
+            this.query = q == null ? null : QueryParser.parse(q);
+            this.expired = subscription.getStatus() == Subscription.Status.expired;
+            this.expires = subscription.getExpires();
+        }
+
+        boolean matches(Entity entity, Collection<String> changedAttributes, Instant now) {
+            if (expired || (expires != null && expires.isBefore(now))) {
+                return false;
+            }
+            if (conditionAttributes != null) {
+                boolean changed = false;
+                for (String name : changedAttributes) {
+                    if (conditionAttributes.contains(name)) {
+                        changed = true;
+                        break;
+                    }
+                }
+                if (!changed) {
+                    return false;
+                }
+            }
+            return matchesSubject(entity) && (query == null || query.matches(entity));
+        }
+
+        private boolean matchesSubject(Entity entity) {
+            for (int i = 0; i < idPatterns.length; i++) {
+                if (types[i] != null && !types[i].equals(entity.getType())) {
+                    continue;
+                }
+                if (ids[i] != null && !ids[i].equals(entity.getId())) {
+                    continue;
+                }
+                if (idPatterns[i] != null && !idPatterns[i].matcher(entity.getId()).find()) {
+                    continue;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.orange.ngsi2.model.Attribute;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for the AttributeKeyValuesDeserializer
+ */
+public class AttributeKeyValuesDeserializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addDeserializer(Attribute.class, new AttributeKeyValuesDeserializer()));
+
+    @Test
+    public void testInferredTypes() throws Exception {
+        Map<String, Attribute> attributes = objectMapper.readValue(
+                "{\"name\":\"Room 1\",\"floor\":2,\"temperature\":23.5,\"open\":true,\"closed\":false,\"owner\":null,"
+                        + "\"location\":{\"x\":1,\"y\":2},\"sensors\":[\"t1\",\"t2\"]}",
+                new TypeReference<Map<String, Attribute>>() {});
+        assertAttribute("Room 1", "Text", attributes.get("name"));
+        assertAttribute(2, "Number", attributes.get("floor"));
+        assertAttribute(23.5, "Number", attributes.get("temperature"));
+        assertAttribute(true, "Boolean", attributes.get("open"));
+        assertAttribute(false, "Boolean", attributes.get("closed"));
+        assertAttribute(null, "None", attributes.get("owner"));
+        assertEquals(Optional.of("StructuredValue"), attributes.get("location").getType());
+        assertEquals(1, ((Map) attributes.get("location").getValue()).get("x"));
+        assertAttribute(Arrays.asList("t1", "t2"), "StructuredValue", attributes.get("sensors"));
+        assertEquals(Collections.emptyMap(), attributes.get("name").getMetadata());
+    }
+
+    @Test
+    public void testNullValue() throws Exception {
+        assertAttribute(null, "None", objectMapper.readValue("null", Attribute.class));
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testEndOfInput() throws Exception {
+        objectMapper.readValue("", Attribute.class);
+    }
+
+    private static void assertAttribute(Object value, String type, Attribute attribute) {
+        if (value == null) {
+            assertNull(attribute.getValue());
+        } else {
+            assertEquals(value, attribute.getValue());
+        }
+        assertEquals(Optional.of(type), attribute.getType());
+    }
+}
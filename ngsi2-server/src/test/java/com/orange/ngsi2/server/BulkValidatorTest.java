@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.exception.RequestEntityTooLargeException;
+import com.orange.ngsi2.model.FieldValidator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the BulkValidator
+ */
+public class BulkValidatorTest {
+
+    @Test
+    public void testValid() {
+        BulkValidator validator = new BulkValidator();
+        AtomicInteger validated = new AtomicInteger();
+        validator.validate(fields(5000), field -> {
+            FieldValidator.validate(field);
+            validated.incrementAndGet();
+        });
+        assertEquals(5000, validated.get());
+        validator.validate((List<String>) null, FieldValidator::validate);
+    }
+
+    @Test
+    public void testFirstInvalidReported() {
+        BulkValidator validator = new BulkValidator();
+        validator.setPool(new ForkJoinPool(4));
+        List<String> fields = fields(5000);
+        fields.set(4000, "Room 4000");
+        fields.set(1234, "Room#1234");
+        fields.set(3000, "Room?3000");
+        for (int i = 0; i < 20; i++) {
+            try {
+                validator.validate(fields, FieldValidator::validate);
+                fail("InvalidatedSyntaxException expected");
+            } catch (InvalidatedSyntaxException e) {
+                assertEquals("The incoming request is invalid in this context. Room#1234 has a bad syntax.", e.getError().getDescription().get());
+            }
+        }
+    }
+
+    @Test
+    public void testFailFast() {
+        BulkValidator validator = new BulkValidator();
+        validator.setPool(new ForkJoinPool(2));
+        List<String> fields = fields(10000);
+        fields.set(0, "Room 0");
+        AtomicInteger validated = new AtomicInteger();
+        try {
+            validator.validate(fields, field -> {
+                validated.incrementAndGet();
+                FieldValidator.validate(field);
+            });
+            fail("InvalidatedSyntaxException expected");
+        } catch (InvalidatedSyntaxException e) {
+            assertTrue(validated.get() < 10000);
+        }
+    }
+
+    @Test
+    public void testSequential() {
+        BulkValidator validator = new BulkValidator();
+        validator.setThreshold(0);
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        validator.validate(new LinkedList<>(fields(2000)), field -> threads.add(Thread.currentThread().getName()));
+        assertEquals(2000, threads.size());
+        assertTrue(threads.stream().allMatch(name -> name.equals(Thread.currentThread().getName())));
+    }
+
+    @Test(expected = RequestEntityTooLargeException.class)
+    public void testMaxItems() {
+        BulkValidator validator = new BulkValidator();
+        validator.setMaxItems(100);
+        validator.validate(fields(101), FieldValidator::validate);
+    }
+
+    private static List<String> fields(int count) {
+        List<String> fields = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fields.add("Room" + i);
+        }
+        return fields;
+    }
+}
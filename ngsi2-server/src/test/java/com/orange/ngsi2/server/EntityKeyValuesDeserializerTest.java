@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.orange.ngsi2.model.BulkUpdateRequest;
+import com.orange.ngsi2.model.Entity;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the EntityKeyValuesDeserializer
+ */
+public class EntityKeyValuesDeserializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .registerModule(new SimpleModule().addDeserializer(Entity.class, new EntityKeyValuesDeserializer()));
+
+    @Test
+    public void testEntity() throws Exception {
+        Entity entity = objectMapper.readValue("{\"temperature\":23.5,\"id\":\"Room1\",\"type\":\"Room\",\"name\":\"Kitchen\"}", Entity.class);
+        assertEquals("Room1", entity.getId());
+        assertEquals("Room", entity.getType());
+        assertEquals(2, entity.getAttributes().size());
+        assertEquals(23.5, entity.getAttributes().get("temperature").getValue());
+        assertEquals(Optional.of("Number"), entity.getAttributes().get("temperature").getType());
+        assertEquals("Kitchen", entity.getAttributes().get("name").getValue());
+        assertEquals(Optional.of("Text"), entity.getAttributes().get("name").getType());
+    }
+
+    @Test
+    public void testEmptyEntity() throws Exception {
+        Entity entity = objectMapper.readValue("{}", Entity.class);
+        assertEquals(null, entity.getId());
+        assertTrue(entity.getAttributes().isEmpty());
+    }
+
+    @Test
+    public void testBulkUpdate() throws Exception {
+        BulkUpdateRequest request = objectMapper.readValue("{\"actionType\":\"APPEND\",\"entities\":["
+                + "{\"id\":\"Room1\",\"temperature\":23},{\"id\":\"Room2\",\"open\":true}]}", BulkUpdateRequest.class);
+        assertEquals(2, request.getEntities().size());
+        Entity room2 = request.getEntities().stream().filter(entity -> entity.getId().equals("Room2")).findFirst().get();
+        assertEquals(true, room2.getAttributes().get("open").getValue());
+        assertEquals(Optional.of("Boolean"), room2.getAttributes().get("open").getType());
+    }
+
+    @Test(expected = JsonMappingException.class)
+    public void testNotAnObject() throws Exception {
+        objectMapper.readValue("[\"Room1\"]", Entity.class);
+    }
+}
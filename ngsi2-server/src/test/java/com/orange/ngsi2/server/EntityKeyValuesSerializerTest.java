@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the EntityKeyValuesSerializer
+ */
+public class EntityKeyValuesSerializerTest {
+
+    @Test
+    public void testAllAttributes() throws Exception {
+        assertEquals("{\"id\":\"Room1\",\"type\":\"Room\",\"temperature\":23.5,\"pressure\":720,\"location\":{\"floor\":2}}",
+                write(room(), null));
+    }
+
+    @Test
+    public void testSelectedAttributes() throws Exception {
+        assertEquals("{\"id\":\"Room1\",\"type\":\"Room\",\"pressure\":720,\"temperature\":23.5}",
+                write(room(), Arrays.asList("pressure", "unknown", "temperature")));
+    }
+
+    @Test
+    public void testNoTypeNoAttributes() throws Exception {
+        assertEquals("{\"id\":\"Room1\"}", write(new Entity("Room1", null), null));
+    }
+
+    private static String write(Entity entity, List<String> attributes) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new SimpleModule().addSerializer(Entity.class, new EntityKeyValuesSerializer(attributes)));
+        return objectMapper.writeValueAsString(entity);
+    }
+
+    static Entity room() {
+        Entity entity = new Entity("Room1", "Room", new LinkedHashMap<>());
+        entity.setAttributes("temperature", new Attribute(23.5));
+        entity.setAttributes("pressure", new Attribute(720));
+        entity.setAttributes("location", new Attribute(Collections.singletonMap("floor", 2)));
+        return entity;
+    }
+}
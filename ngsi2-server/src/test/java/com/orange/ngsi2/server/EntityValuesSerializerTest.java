@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the EntityValuesSerializer
+ */
+public class EntityValuesSerializerTest {
+
+    @Test
+    public void testValues() throws Exception {
+        assertEquals("[23.5,720,{\"floor\":2}]", write(EntityKeyValuesSerializerTest.room(), null, false));
+        assertEquals("[720,23.5]", write(EntityKeyValuesSerializerTest.room(), Arrays.asList("pressure", "temperature"), false));
+        assertEquals("[]", write(new Entity("Room1", "Room"), null, false));
+    }
+
+    @Test
+    public void testUnique() throws Exception {
+        Entity entity = EntityKeyValuesSerializerTest.room();
+        entity.setAttributes("humidity", new Attribute(720));
+        entity.setAttributes("position", new Attribute(Collections.singletonMap("floor", 2)));
+        assertEquals("[23.5,720,{\"floor\":2},720,{\"floor\":2}]", write(entity, null, false));
+        assertEquals("[23.5,720,{\"floor\":2}]", write(entity, null, true));
+        assertEquals("[720,23.5]", write(entity, Arrays.asList("pressure", "humidity", "temperature", "pressure"), true));
+    }
+
+    private static String write(Entity entity, List<String> attributes, boolean unique) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new SimpleModule().addSerializer(Entity.class, new EntityValuesSerializer(attributes, unique)));
+        return objectMapper.writeValueAsString(entity);
+    }
+}
@@ -45,11 +45,25 @@ public class FakeNgsi2ControllerHelper extends Ngsi2BaseController {
         if ((id != null) && id.contains("Bcn-Welt")) {
             return new Paginated<>(Collections.singletonList(createEntityBcnWelt()),1, 1, 1);
         }
+        if (idPattern != null) {
+            return new Paginated<>(createListEntitiesConflictingReference().iterator(), 2, 2, 2);
+        }
         return new Paginated<>(createListEntitiesConflictingReference(), 2, 2, 2);
     }
 
+    private volatile Entity createdEntity;
+
     @Override
-    protected void createEntity(Entity entity){ }
+    protected void createEntity(Entity entity){
+        createdEntity = entity;
+    }
+
+    /**
+     * @return the last entity given to createEntity
+     */
+    public Entity getCreatedEntity() {
+        return createdEntity;
+    }
 
     @Override
     protected Entity retrieveEntity(String entityId, String type, List<String> attrs) throws ConflictingEntitiesException {
@@ -190,7 +204,7 @@ public class FakeNgsi2ControllerHelper extends Ngsi2BaseController {
     @Override
     protected Paginated<Entity> bulkQuery(BulkQueryRequest bulkQueryRequest, int limit,
                                              int offset, List<String> orderBy, Boolean count) {
-        return new Paginated<>(Collections.singletonList(createEntityBcnWelt()),1, 1, 1);
+        return new Paginated<>(Collections.singletonList(createEntityBcnWelt()).iterator(),1, 1, 1);
     }
 
     @Override
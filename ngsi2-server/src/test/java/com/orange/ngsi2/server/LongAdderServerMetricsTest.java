@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for LongAdderServerMetrics
+ */
+public class LongAdderServerMetricsTest {
+
+    private final LongAdderServerMetrics metrics = new LongAdderServerMetrics();
+
+    @Test
+    public void checkPhases() {
+        metrics.recordPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.VALIDATE, 1000);
+        metrics.recordPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.BACKEND, 5000);
+        metrics.recordPhase("bulkUpdateEndpoint", Ngsi2ServerMetrics.Phase.PARSE, 200);
+        assertEquals(new HashSet<>(Arrays.asList("bulkUpdateEndpoint", "listEntitiesEndpoint")), metrics.getEndpoints());
+        assertEquals(1, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.BACKEND).getCount());
+        assertEquals(5000, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.BACKEND).getMax());
+        assertEquals(0, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.PARSE).getCount());
+        assertEquals(0, metrics.getPhase("unknownEndpoint", Ngsi2ServerMetrics.Phase.PARSE).getCount());
+    }
+
+    @Test
+    public void checkHistogram() {
+        LongAdderServerMetrics.Histogram histogram = new LongAdderServerMetrics.Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(100, histogram.getMax());
+        // 50 is in the bucket [32, 63]
+        assertEquals(63, histogram.getValueAtPercentile(50));
+        // 99 is in the bucket [64, 127], bounded by the maximum
+        assertEquals(100, histogram.getValueAtPercentile(99));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void checkResultSizes() {
+        metrics.recordResultSize("listEntitiesEndpoint", 0);
+        metrics.recordResultSize("listEntitiesEndpoint", 20);
+        assertEquals(2, metrics.getResultSize("listEntitiesEndpoint").getCount());
+        assertEquals(20, metrics.getResultSize("listEntitiesEndpoint").getMax());
+        assertEquals(0, metrics.getResultSize("bulkQueryEndpoint").getCount());
+    }
+
+    @Test
+    public void checkExceptions() {
+        metrics.recordException("notFound");
+        metrics.recordException("notFound");
+        metrics.recordException("invalidSyntax");
+        assertEquals(2L, (long) metrics.getExceptions().get("notFound"));
+        assertEquals(1L, (long) metrics.getExceptions().get("invalidSyntax"));
+        metrics.reset();
+        assertEquals(Collections.emptyMap(), metrics.getExceptions());
+        assertTrue(metrics.getEndpoints().isEmpty());
+    }
+
+    @Test
+    public void checkReport() {
+        metrics.recordPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.TOTAL, 100000);
+        metrics.recordException("notFound");
+        String[] lines = metrics.report().split("\\R");
+        assertEquals(3, lines.length);
+        assertTrue(lines[1].startsWith("listEntitiesEndpoint"));
+        assertTrue(lines[2].startsWith("notFound"));
+    }
+}
@@ -17,7 +17,10 @@
 
 package com.orange.ngsi2.server;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.client.SmileHttpMessageConverter;
 import com.orange.ngsi2.model.BulkUpdateRequest;
+import com.orange.ngsi2.model.Entity;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,13 +34,24 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static com.orange.ngsi2.utility.Utils.*;
 import static com.orange.ngsi2.utility.Utils.updateReference;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
@@ -63,6 +77,12 @@ public class Ngsi2BaseControllerTest {
     @Autowired
     private MappingJackson2HttpMessageConverter jsonV2Converter;
 
+    @Autowired
+    private FakeNgsi2ControllerHelper fakeNgsi2Controller;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @Before
     public void setup() throws Exception {
         this.mockMvc = webAppContextSetup(webApplicationContext).build();
@@ -106,6 +126,15 @@ public class Ngsi2BaseControllerTest {
                 .andExpect(status().isBadRequest());
     }
 
+    @Test
+    public void checkListEntitiesInvalidQuery() throws Exception {
+        mockMvc.perform(
+                get("/v2/i/entities").param("query", "temperature>;humidity").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("400"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("The incoming request is invalid in this context. temperature> has a bad syntax."))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void checkListTypeInvalidSyntax() throws Exception {
         String p257times = IntStream.range(0, 257)
@@ -141,6 +170,86 @@ public class Ngsi2BaseControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void checkNotModified() {
+        assertFalse(Ngsi2BaseController.notModified(null, "W/\"12\""));
+        assertFalse(Ngsi2BaseController.notModified("W/\"12\"", null));
+        assertTrue(Ngsi2BaseController.notModified("W/\"12\"", "W/\"12\""));
+        assertTrue(Ngsi2BaseController.notModified("\"12\"", "W/\"12\""));
+        assertTrue(Ngsi2BaseController.notModified("W/\"11\", W/\"12\"", "W/\"12\""));
+        assertTrue(Ngsi2BaseController.notModified("*", "W/\"12\""));
+        assertFalse(Ngsi2BaseController.notModified("W/\"11\"", "W/\"12\""));
+    }
+
+    @Test
+    public void checkListEntitiesMetrics() throws Exception {
+        LongAdderServerMetrics metrics = new LongAdderServerMetrics();
+        fakeNgsi2Controller.setMetrics(metrics);
+        try {
+            MockMvc metricsMockMvc = webAppContextSetup(webApplicationContext).addFilters(new Ngsi2MetricsFilter()).build();
+            metricsMockMvc.perform(
+                    get("/v2/i/entities").param("id", "Bcn-Welt").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk());
+            metricsMockMvc.perform(
+                    get("/v2/i/entities").param("id", "Boe_Idearium?").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        } finally {
+            fakeNgsi2Controller.setMetrics(Ngsi2ServerMetrics.NONE);
+        }
+        assertEquals(Collections.singleton("listEntitiesEndpoint"), metrics.getEndpoints());
+        assertEquals(1, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.VALIDATE).getCount());
+        assertEquals(1, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.BACKEND).getCount());
+        assertEquals(2, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.WRITE).getCount());
+        assertEquals(2, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.TOTAL).getCount());
+        assertEquals(0, metrics.getPhase("listEntitiesEndpoint", Ngsi2ServerMetrics.Phase.PARSE).getCount());
+        assertEquals(1, metrics.getResultSize("listEntitiesEndpoint").getCount());
+        assertEquals(Collections.singletonMap("invalidSyntax", 1L), metrics.getExceptions());
+    }
+
+    @Test
+    public void checkCreateEntityParseMetrics() throws Exception {
+        LongAdderServerMetrics metrics = new LongAdderServerMetrics();
+        fakeNgsi2Controller.setMetrics(metrics);
+        try {
+            MockMvc metricsMockMvc = webAppContextSetup(webApplicationContext).addFilters(new Ngsi2MetricsFilter()).build();
+            metricsMockMvc.perform(
+                    post("/v2/i/entities").content(json(jsonV2Converter, createEntityBcnWelt())).contentType(MediaType.APPLICATION_JSON)
+                            .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isCreated());
+            metricsMockMvc.perform(
+                    post("/v2/i/entities").content("{\"id\":\"Bcn-Welt\",\"temperature\":21.7}").param("options", "keyValues")
+                            .contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isCreated());
+        } finally {
+            fakeNgsi2Controller.setMetrics(Ngsi2ServerMetrics.NONE);
+        }
+        // the normalized body is read by the converter, the keyValues one by the endpoint
+        assertEquals(2, metrics.getPhase("createEntityEndpoint", Ngsi2ServerMetrics.Phase.PARSE).getCount());
+        assertEquals(2, metrics.getPhase("createEntityEndpoint", Ngsi2ServerMetrics.Phase.VALIDATE).getCount());
+    }
+
+    @Test
+    public void checkListEntitiesSmile() throws Exception {
+        ObjectMapper smileObjectMapper = new SmileHttpMessageConverter().getObjectMapper();
+        byte[] body = mockMvc.perform(
+                get("/v2/i/entities").param("id", "Bcn-Welt").header("Host", "localhost").accept(SmileHttpMessageConverter.APPLICATION_SMILE))
+                .andExpect(content().contentType(SmileHttpMessageConverter.APPLICATION_SMILE))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        Entity[] entities = smileObjectMapper.readValue(body, Entity[].class);
+        assertEquals(1, entities.length);
+        assertEquals("Bcn-Welt", entities[0].getId());
+        assertEquals(21.7, entities[0].getAttributes().get("temperature").getValue());
+    }
+
+    @Test
+    public void checkListEntitiesJsonByDefault() throws Exception {
+        mockMvc.perform(
+                get("/v2/i/entities").param("id", "Bcn-Welt").header("Host", "localhost"))
+                .andExpect(content().contentType("application/json;charset=UTF-8"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void checkListEntitiesWithoutCount() throws Exception {
         mockMvc.perform(
@@ -150,6 +259,17 @@ public class Ngsi2BaseControllerTest {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    public void checkListEntitiesStreamed() throws Exception {
+        mockMvc.perform(
+                get("/v2/i/entities").param("idPattern", "Boe-.*").param("options","count").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$", hasSize(2)))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.[0].type").value("RoomA"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.[1].temperature.value").value(22.5))
+                .andExpect(header().string("X-Total-Count", "2"))
+                .andExpect(status().isOk());
+    }
+
     @Test
     public void checkListEntitiesAllParameters() throws Exception {
         mockMvc.perform(
@@ -164,30 +284,31 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkListEntitiesUnsupportedKeyValuesOptions() throws Exception {
+    public void checkListEntitiesKeyValuesOptions() throws Exception {
         mockMvc.perform(
                 get("/v2/i/entities").param("id", "Bcn-Welt").param("options","keyValues").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues, values or unique"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value("Bcn-Welt"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].type").value("Room"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].temperature").value(21.7))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].humidity").value(60))
+                .andExpect(status().isOk());
     }
 
     @Test
-    public void checkListEntitiesUnsupportedValuesOptions() throws Exception {
+    public void checkListEntitiesValuesOptions() throws Exception {
         mockMvc.perform(
-                get("/v2/i/entities").param("id", "Bcn-Welt").param("options","values").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues, values or unique"))
-                .andExpect(status().isNotImplemented());
+                get("/v2/i/entities").param("id", "Bcn-Welt").param("attrs", "humidity,temperature").param("options","values,count").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("[[60,21.7]]"))
+                .andExpect(header().string("X-Total-Count","1"))
+                .andExpect(status().isOk());
     }
 
     @Test
-    public void checkListEntitiesUnsupportedUniqueOptions() throws Exception {
+    public void checkListEntitiesUniqueOptions() throws Exception {
         mockMvc.perform(
-                get("/v2/i/entities").param("id", "Bcn-Welt").param("options","unique").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues, values or unique"))
-                .andExpect(status().isNotImplemented());
+                get("/v2/i/entities").param("id", "Bcn-Welt").param("attrs", "temperature,temperature,humidity").param("options","unique").contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string("[[21.7,60]]"))
+                .andExpect(status().isOk());
     }
 
     @Test
@@ -415,15 +536,56 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkCreateEntityUnsupportedKeyValuesOptions() throws Exception {
+    public void checkCreateEntitySmile() throws Exception {
+        ObjectMapper smileObjectMapper = new SmileHttpMessageConverter().getObjectMapper();
+        mockMvc.perform(
+                post("/v2/i/entities").content(smileObjectMapper.writeValueAsBytes(createEntityBcnWelt())).contentType(SmileHttpMessageConverter.APPLICATION_SMILE)
+                        .header("Host", "localhost").accept(SmileHttpMessageConverter.APPLICATION_SMILE))
+                .andExpect(header().string("Location","/v2/entities/Bcn-Welt"))
+                .andExpect(status().isCreated());
+        mockMvc.perform(
+                post("/v2/i/entities").content(smileObjectMapper.writeValueAsBytes(Collections.singletonMap("id", "Bcn-Welt"))).param("options","keyValues")
+                        .contentType(SmileHttpMessageConverter.APPLICATION_SMILE).header("Host", "localhost"))
+                .andExpect(header().string("Location","/v2/entities/Bcn-Welt"))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    public void checkCreateEntityKeyValuesOptions() throws Exception {
+        mockMvc.perform(
+                post("/v2/i/entities").content("{\"id\":\"Bcn-Welt\",\"type\":\"Room\",\"temperature\":21.7,\"humidity\":60}").param("options","keyValues").contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(header().string("Location","/v2/entities/Bcn-Welt"))
+                .andExpect(status().isCreated());
+    }
+
+    @Test
+    public void checkCreateEntityUnsupportedOptions() throws Exception {
         mockMvc.perform(
-                post("/v2/i/entities").content(json(jsonV2Converter, createEntityBcnWelt())).param("options","keyValues").contentType(MediaType.APPLICATION_JSON)
+                post("/v2/i/entities").content(json(jsonV2Converter, createEntityBcnWelt())).param("options","values").contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: values"))
                 .andExpect(status().isNotImplemented());
     }
 
+    @Test
+    public void checkCreateEntityMalformedBody() throws Exception {
+        mockMvc.perform(
+                post("/v2/i/entities").content("{\"id\":\"Bcn-Welt\",").param("options","keyValues").contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void checkCreateEntityMalformedNormalizedBody() throws Exception {
+        mockMvc.perform(
+                post("/v2/i/entities").content("{\"id\":\"Bcn-Welt\",").contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("400"))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     public void checkRetrieveEntityNotImplemented() throws Exception {
         mockMvc.perform(
@@ -477,35 +639,37 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkRetrieveEntityUnsupportedKeyValuesOptions() throws Exception {
+    public void checkRetrieveEntityKeyValuesOptions() throws Exception {
         mockMvc.perform(
                 get("/v2/i/entities/Bcn-Welt").contentType(MediaType.APPLICATION_JSON)
                         .param("options","keyValues")
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(MockMvcResultMatchers.jsonPath("$.id").value("Bcn-Welt"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.type").value("Room"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.temperature").value(21.7))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.humidity").value(60))
+                .andExpect(status().isOk());
     }
 
     @Test
-    public void checkRetrieveEntityUnsupportedValuesOptions() throws Exception {
+    public void checkRetrieveEntityValuesOptions() throws Exception {
         mockMvc.perform(
                 get("/v2/i/entities/Bcn-Welt").contentType(MediaType.APPLICATION_JSON)
+                        .param("attrs","temperature,humidity")
                         .param("options","values")
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: values"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(content().string("[21.7,60]"))
+                .andExpect(status().isOk());
     }
 
     @Test
-    public void checkRetrieveEntityUnsupportedUniqueOptions() throws Exception {
+    public void checkRetrieveEntityUnsupportedOptions() throws Exception {
         mockMvc.perform(
                 get("/v2/i/entities/Bcn-Welt").contentType(MediaType.APPLICATION_JSON)
-                        .param("options","unique")
+                        .param("options","unique,count")
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
                 .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: unique"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: count"))
                 .andExpect(status().isNotImplemented());
     }
 
@@ -553,15 +717,25 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkUpdateOrAppendEntityIdUnsupportedKeyValuesOptions() throws Exception {
+    public void checkUpdateOrAppendEntityIdKeyValuesOptions() throws Exception {
         mockMvc.perform(
-                post("/v2/i/entities/Bcn-Welt").content(json(jsonV2Converter, createUpdateAttributesReference()))
-                        .param("options","keyValues")
+                post("/v2/i/entities/Bcn-Welt").content("{\"temperature\":22,\"humidity\":55}")
+                        .param("options","append,keyValues")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(content().string(""))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void checkUpdateOrAppendEntityIdKeyValuesFirstOptions() throws Exception {
+        mockMvc.perform(
+                post("/v2/i/entities/Bcn-Welt").content("{\"temperature\":22,\"humidity\":55}")
+                        .param("options","keyValues,append")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(content().string(""))
+                .andExpect(status().isNoContent());
     }
 
     @Test
@@ -597,15 +771,26 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkUpdateExistingEntityAttributesUnsupportedKeyValuesOptions() throws Exception {
+    public void checkUpdateExistingEntityAttributesKeyValuesOptions() throws Exception {
         mockMvc.perform(
-                patch("/v2/i/entities/Bcn-Welt").content(json(jsonV2Converter, createUpdateAttributesReference()))
+                patch("/v2/i/entities/Bcn-Welt").content("{\"temperature\":22}")
                         .param("options","keyValues")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(content().string(""))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void checkUpdateExistingEntityAttributesKeyValuesInvalidSyntax() throws Exception {
+        mockMvc.perform(
+                patch("/v2/i/entities/Bcn-Welt").content("{\"temp erature\":22}")
+                        .param("options","keyValues")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("400"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("The incoming request is invalid in this context. temp erature has a bad syntax."))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
@@ -641,15 +826,14 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkReplaceAllEntityAttributesUnsupportedKeyValuesOptions() throws Exception {
+    public void checkReplaceAllEntityAttributesKeyValuesOptions() throws Exception {
         mockMvc.perform(
-                put("/v2/ni/entities/Bcn-Welt").content(json(jsonV2Converter, createUpdateAttributesReference()))
+                put("/v2/i/entities/Bcn-Welt").content("{\"temperature\":22,\"location\":{\"floor\":2}}")
                         .param("options","keyValues")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(content().string(""))
+                .andExpect(status().isNoContent());
     }
 
     @Test
@@ -1390,16 +1574,27 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkBulkUpdateUnsupportedKeyValuesOption() throws Exception {
+    public void checkBulkUpdateTooLarge() throws Exception {
+        List<Entity> entities = IntStream.range(0, BulkValidator.DEFAULT_MAX_ITEMS + 1)
+                .mapToObj(i -> new Entity("Room" + i, "Room"))
+                .collect(Collectors.toList());
+        mockMvc.perform(
+                post("/v2/i/op/update").content(json(jsonV2Converter, new BulkUpdateRequest(BulkUpdateRequest.Action.APPEND, entities))).contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("413"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("The incoming request is too large: 10001 items, at most 10000 are accepted."))
+                .andExpect(status().isPayloadTooLarge());
+    }
+
+    @Test
+    public void checkBulkUpdateKeyValuesOption() throws Exception {
         mockMvc.perform(
-                post("/v2/i/op/update").content(json(jsonV2Converter, updateReference()))
+                post("/v2/i/op/update").content("{\"actionType\":\"APPEND\",\"entities\":[{\"id\":\"Bcn-Welt\",\"type\":\"Room\",\"temperature\":21.7}]}")
                         .param("options","keyValues")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost")
                         .accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(status().isNoContent());
     }
 
     @Test
@@ -1414,6 +1609,101 @@ public class Ngsi2BaseControllerTest {
                 .andExpect(status().isNotImplemented());
     }
 
+    @Test
+    public void checkBulkUpdateSmile() throws Exception {
+        mockMvc.perform(
+                post("/v2/i/op/update").content(new SmileHttpMessageConverter().getObjectMapper().writeValueAsBytes(updateReference()))
+                        .contentType(SmileHttpMessageConverter.APPLICATION_SMILE).header("Host", "localhost"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void checkBulkQuerySmile() throws Exception {
+        ObjectMapper smileObjectMapper = new SmileHttpMessageConverter().getObjectMapper();
+        byte[] body = mockMvc.perform(
+                post("/v2/i/op/query").content(smileObjectMapper.writeValueAsBytes(queryReference())).contentType(SmileHttpMessageConverter.APPLICATION_SMILE)
+                        .header("Host", "localhost").accept(SmileHttpMessageConverter.APPLICATION_SMILE))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals("Bcn-Welt", smileObjectMapper.readValue(body, Entity[].class)[0].getId());
+    }
+
+    @Test
+    public void checkBulkUpdateAndQueryGzip() throws Exception {
+        MockMvc gzipMockMvc = webAppContextSetup(webApplicationContext).addFilters(new Ngsi2CompressionFilter(0, Deflater.BEST_SPEED)).build();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(json(jsonV2Converter, updateReference()).getBytes(StandardCharsets.UTF_8));
+        }
+        gzipMockMvc.perform(
+                post("/v2/i/op/update").content(gzip.toByteArray()).contentType(MediaType.APPLICATION_JSON)
+                        .header("Content-Encoding", "gzip").header("Host", "localhost"))
+                .andExpect(status().isNoContent());
+
+        byte[] body = gzipMockMvc.perform(
+                post("/v2/i/op/query").content(json(jsonV2Converter, queryReference())).contentType(MediaType.APPLICATION_JSON)
+                        .header("Host", "localhost").header("Accept-Encoding", "gzip").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        Entity[] entities = jsonV2Converter.getObjectMapper().readValue(new GZIPInputStream(new ByteArrayInputStream(body)), Entity[].class);
+        assertEquals("Bcn-Welt", entities[0].getId());
+    }
+
+    @Test
+    public void checkNormalizedBodiesStringsPooled() throws Exception {
+        Entity[] entities = new Entity[2];
+        for (int i = 0; i < entities.length; i++) {
+            mockMvc.perform(
+                    post("/v2/i/entities").content("{\"id\":\"Bcn-Welt\",\"type\":\"Room\",\"temperature\":{\"value\":21.7,\"type\":\"Float\"}}")
+                            .contentType(MediaType.APPLICATION_JSON).header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isCreated());
+            entities[i] = fakeNgsi2Controller.getCreatedEntity();
+        }
+        assertNotSame(entities[0], entities[1]);
+        assertSame(entities[0].getType(), entities[1].getType());
+        assertSame(entities[0].getAttributes().keySet().iterator().next(), entities[1].getAttributes().keySet().iterator().next());
+        assertSame(entities[0].getAttributes().get("temperature").getType().get(), entities[1].getAttributes().get("temperature").getType().get());
+    }
+
+    @Test
+    public void checkApplicationObjectMapperUnchanged() throws Exception {
+        new FakeNgsi2ControllerHelper().setObjectMapper(objectMapper);
+        Entity first = objectMapper.readValue("{\"id\":\"Bcn-Welt\",\"type\":\"Room\"}", Entity.class);
+        Entity second = objectMapper.readValue("{\"id\":\"Bcn-Welt\",\"type\":\"Room\"}", Entity.class);
+        // the types are not shared through the StringPool
+        assertEquals(first.getType(), second.getType());
+        assertNotSame(first.getType(), second.getType());
+    }
+
+    @Test
+    public void checkBulkUpdateGzipTooLarge() throws Exception {
+        MockMvc gzipMockMvc = webAppContextSetup(webApplicationContext).addFilters(new Ngsi2CompressionFilter(0, Deflater.BEST_SPEED, 100)).build();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(json(jsonV2Converter, updateReference()).getBytes(StandardCharsets.UTF_8));
+        }
+        gzipMockMvc.perform(
+                post("/v2/i/op/update").content(gzip.toByteArray()).contentType(MediaType.APPLICATION_JSON)
+                        .header("Content-Encoding", "gzip").header("Host", "localhost").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("413"));
+    }
+
+    @Test
+    public void checkBulkUpdateGzipTooLargeWithoutAccept() throws Exception {
+        MockMvc gzipMockMvc = webAppContextSetup(webApplicationContext).addFilters(new Ngsi2CompressionFilter(0, Deflater.BEST_SPEED, 100)).build();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(json(jsonV2Converter, updateReference()).getBytes(StandardCharsets.UTF_8));
+        }
+        gzipMockMvc.perform(
+                post("/v2/i/op/update").content(gzip.toByteArray()).contentType(MediaType.APPLICATION_JSON)
+                        .header("Content-Encoding", "gzip").header("Host", "localhost"))
+                .andExpect(status().isPayloadTooLarge())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("413"));
+    }
+
     @Test
     public void checkBulkQueryOK() throws Exception {
         mockMvc.perform(
@@ -1446,16 +1736,16 @@ public class Ngsi2BaseControllerTest {
     }
 
     @Test
-    public void checkBulkQueryUnsupportedKeyValuesOption() throws Exception {
+    public void checkBulkQueryKeyValuesOption() throws Exception {
         mockMvc.perform(
                 post("/v2/i/op/query").content(json(jsonV2Converter, queryReference()))
                         .param("options","keyValues")
                         .contentType(MediaType.APPLICATION_JSON)
                         .header("Host", "localhost")
                         .accept(MediaType.APPLICATION_JSON))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.error").value("501"))
-                .andExpect(MockMvcResultMatchers.jsonPath("$.description").value("Unsupported option value: keyValues, values or unique"))
-                .andExpect(status().isNotImplemented());
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value("Bcn-Welt"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$[0].humidity").value(60))
+                .andExpect(status().isOk());
     }
 
     @Test
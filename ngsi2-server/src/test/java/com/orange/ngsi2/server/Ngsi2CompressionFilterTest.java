@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Ngsi2CompressionFilter
+ */
+public class Ngsi2CompressionFilterTest {
+
+    private final Ngsi2CompressionFilter filter = new Ngsi2CompressionFilter(100, Deflater.BEST_SPEED);
+
+    @Test
+    public void testNegotiate() {
+        assertNull(Ngsi2CompressionFilter.negotiate(null));
+        assertNull(Ngsi2CompressionFilter.negotiate("identity"));
+        assertEquals("gzip", Ngsi2CompressionFilter.negotiate("gzip, deflate"));
+        assertEquals("gzip", Ngsi2CompressionFilter.negotiate("deflate, gzip"));
+        assertEquals("deflate", Ngsi2CompressionFilter.negotiate("deflate"));
+        assertEquals("deflate", Ngsi2CompressionFilter.negotiate("gzip;q=0.5, deflate"));
+        assertEquals("gzip", Ngsi2CompressionFilter.negotiate("*"));
+        assertEquals("deflate", Ngsi2CompressionFilter.negotiate("gzip;q=0, *"));
+        assertNull(Ngsi2CompressionFilter.negotiate("gzip;q=0, deflate;q=0"));
+    }
+
+    @Test
+    public void testSmallResponseNotCompressed() throws Exception {
+        byte[] body = bytes(100);
+        MockHttpServletResponse response = filter(request("gzip"), (req, res) -> res.getOutputStream().write(body));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(100, response.getContentLength());
+        assertArrayEquals(body, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testGzipResponse() throws Exception {
+        byte[] body = bytes(10000);
+        MockHttpServletResponse response = filter(request("gzip, deflate"), (req, res) -> {
+            ServletOutputStream out = res.getOutputStream();
+            out.write(body[0]);
+            out.write(body, 1, 49);
+            out.flush();
+            res.setContentLength(body.length);
+            out.write(body, 50, body.length - 50);
+        });
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals(0, response.getContentLength());
+        assertTrue(response.getContentAsByteArray().length < body.length);
+        assertArrayEquals(body, StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+        assertEquals(1, filter.idleDeflaters());
+
+        // the pooled deflater is reused
+        response = filter(request("gzip"), (req, res) -> res.getOutputStream().write(body));
+        assertArrayEquals(body, StreamUtils.copyToByteArray(new GZIPInputStream(new ByteArrayInputStream(response.getContentAsByteArray()))));
+        assertEquals(1, filter.idleDeflaters());
+    }
+
+    @Test
+    public void testDeflateResponse() throws Exception {
+        String body = new String(bytes(1000), StandardCharsets.ISO_8859_1);
+        MockHttpServletResponse response = filter(request("deflate"), (req, res) -> res.getWriter().print(body));
+
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        byte[] inflated = StreamUtils.copyToByteArray(new InflaterInputStream(new ByteArrayInputStream(response.getContentAsByteArray())));
+        assertEquals(body, new String(inflated, StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testNotAccepted() throws Exception {
+        byte[] body = bytes(1000);
+        MockHttpServletResponse response = filter(request(null), (req, res) -> res.getOutputStream().write(body));
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(body, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testAlreadyEncodedResponse() throws Exception {
+        byte[] body = bytes(1000);
+        MockHttpServletResponse response = filter(request("gzip"), (req, res) -> {
+            ((HttpServletResponse) res).setHeader("Content-Encoding", "br");
+            res.getOutputStream().write(body);
+        });
+
+        assertEquals("br", response.getHeader("Content-Encoding"));
+        assertArrayEquals(body, response.getContentAsByteArray());
+        assertEquals(0, filter.idleDeflaters());
+    }
+
+    @Test
+    public void testGzipRequest() throws Exception {
+        byte[] body = bytes(5000);
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(body);
+        }
+        MockHttpServletRequest request = request(null);
+        request.setMethod("POST");
+        request.addHeader("Content-Encoding", "gzip");
+        request.setContent(gzip.toByteArray());
+
+        byte[][] read = new byte[1][];
+        filter(request, (req, res) -> {
+            assertNull(((HttpServletRequest) req).getHeader("Content-Encoding"));
+            assertEquals(-1, req.getContentLength());
+            try (InputStream in = req.getInputStream()) {
+                read[0] = StreamUtils.copyToByteArray(in);
+            }
+        });
+        assertArrayEquals(body, read[0]);
+    }
+
+    @Test
+    public void testInflatedSizeLimit() throws Exception {
+        Ngsi2CompressionFilter limitedFilter = new Ngsi2CompressionFilter(100, Deflater.BEST_SPEED, 10000);
+        // a megabyte of zeros compresses to about a kilobyte
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(new byte[1024 * 1024]);
+        }
+        assertTrue(gzip.size() < 10000);
+        MockHttpServletRequest request = request(null);
+        request.setMethod("POST");
+        request.addHeader("Content-Encoding", "gzip");
+        request.setContent(gzip.toByteArray());
+
+        long[] read = new long[1];
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        limitedFilter.doFilter(request, response, (req, res) -> {
+            InputStream in = req.getInputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                read[0] += n;
+            }
+        });
+        assertEquals(413, response.getStatus());
+        assertTrue(read[0] <= 10000);
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, FilterChain chain) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    private static MockHttpServletRequest request(String acceptEncoding) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v2/entities");
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        return request;
+    }
+
+    /**
+     * @return compressible bytes
+     */
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        byte[] pattern = "{\"temperature\":{\"value\":23,\"type\":\"Number\"}},".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < length; i++) {
+            bytes[i] = pattern[i % pattern.length];
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for QueryParser and CompiledQuery
+ */
+public class QueryParserTest {
+
+    private static Entity room() {
+        Entity entity = new Entity("Bcn-Welt", "Room");
+        entity.setAttributes("temperature", new Attribute(21.7));
+        entity.setAttributes("humidity", new Attribute(60));
+        entity.setAttributes("status", new Attribute("open"));
+        entity.setAttributes("heating", new Attribute(true));
+        entity.setAttributes("updated", new Attribute("2016-03-15T11:00:00Z"));
+        return entity;
+    }
+
+    private static boolean matches(String query) {
+        return QueryParser.parse(query).matches(room());
+    }
+
+    @Test
+    public void testExistence() {
+        assertTrue(matches("temperature"));
+        assertFalse(matches("pressure"));
+        assertTrue(matches("!pressure"));
+        assertFalse(matches("!temperature"));
+    }
+
+    @Test
+    public void testEqual() {
+        assertTrue(matches("temperature==21.7"));
+        assertTrue(matches("humidity==60"));
+        assertTrue(matches("status==open"));
+        assertTrue(matches("status=='open'"));
+        assertTrue(matches("heating==true"));
+        assertFalse(matches("heating==false"));
+        assertFalse(matches("humidity=='60'"));
+        assertFalse(matches("pressure==60"));
+    }
+
+    @Test
+    public void testNotEqual() {
+        assertTrue(matches("humidity!=50"));
+        assertFalse(matches("humidity!=60"));
+        assertTrue(matches("status!=closed"));
+        // the attribute must exist
+        assertFalse(matches("pressure!=1000"));
+    }
+
+    @Test
+    public void testCompare() {
+        assertTrue(matches("temperature>20"));
+        assertFalse(matches("temperature<20"));
+        assertTrue(matches("humidity>=60"));
+        assertTrue(matches("humidity<=60"));
+        assertFalse(matches("humidity<60"));
+        assertTrue(matches("updated>2016-01-01"));
+        // not comparable
+        assertFalse(matches("status>10"));
+    }
+
+    @Test
+    public void testRangeAndList() {
+        assertTrue(matches("temperature==20..25"));
+        assertFalse(matches("temperature==22..25"));
+        assertTrue(matches("temperature!=22..25"));
+        assertTrue(matches("humidity==50,60,70"));
+        assertFalse(matches("humidity==50,70"));
+        assertTrue(matches("status=='closed','open'"));
+        assertTrue(matches("updated=='2016-01-01'..'2016-12-31'"));
+    }
+
+    @Test
+    public void testConjunction() {
+        assertTrue(matches("temperature>20;humidity==60;!pressure"));
+        assertFalse(matches("temperature>20;humidity==50"));
+        assertTrue(matches("status=='a;b,c',open"));
+    }
+
+    @Test
+    public void testRequiredAttributes() {
+        CompiledQuery query = QueryParser.parse("temperature>20;!pressure;status;temperature<30");
+        assertEquals(Arrays.asList("temperature", "status"), query.getRequiredAttributes());
+        assertEquals(Collections.emptyList(), QueryParser.parse("!pressure").getRequiredAttributes());
+    }
+
+    @Test
+    public void testCache() {
+        QueryParser parser = new QueryParser(2);
+        CompiledQuery temperature = parser.compile("temperature>20");
+        assertSame(temperature, parser.compile("temperature>20"));
+        CompiledQuery humidity = parser.compile("humidity>20");
+        parser.compile("temperature>20");
+        parser.compile("status==open");
+        assertEquals(2, parser.cacheSize());
+        // not used since added, so evicted first
+        assertSame(temperature, parser.compile("temperature>20"));
+        assertNotSame(humidity, parser.compile("humidity>20"));
+    }
+
+    @Test
+    public void testConcurrentCache() throws Exception {
+        QueryParser parser = new QueryParser(100);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    String query = "temperature>" + ((i * 7 + thread) % 500);
+                    assertEquals(query, parser.compile(query).getQuery());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        // approximately bounded, entries added while another thread evicts may be left over
+        assertTrue(parser.cacheSize() < 200);
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testMissingValue() {
+        QueryParser.parse("temperature>");
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testMissingAttribute() {
+        QueryParser.parse("==20");
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testEmptyStatement() {
+        QueryParser.parse("temperature>20;;humidity");
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testUnterminatedString() {
+        QueryParser.parse("status=='open");
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testBadRange() {
+        QueryParser.parse("temperature==1..2..3");
+    }
+}
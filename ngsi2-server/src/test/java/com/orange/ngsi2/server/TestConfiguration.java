@@ -24,12 +24,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.orange.ngsi2.client.SmileHttpMessageConverter;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * TestConfiguration for NGSI2 server tests
@@ -42,8 +46,19 @@ public class TestConfiguration {
     public MappingJackson2HttpMessageConverter jsonV2Converter(ObjectMapper objectMapper) {
 
         objectMapper.registerModule(new Jdk8Module());
-        return new MappingJackson2HttpMessageConverter(objectMapper);
+        return new Ngsi2JsonHttpMessageConverter(objectMapper);
 
     }
 
+    @Bean
+    public WebMvcConfigurerAdapter smileConfigurer() {
+        return new WebMvcConfigurerAdapter() {
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                // after the JSON converter, to remain the default
+                converters.add(new SmileHttpMessageConverter());
+            }
+        };
+    }
+
 }
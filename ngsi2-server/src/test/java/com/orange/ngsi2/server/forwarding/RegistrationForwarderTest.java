@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.forwarding;
+
+import com.orange.ngsi2.client.Ngsi2Client;
+import com.orange.ngsi2.client.Ngsi2ClientBuilder;
+import com.orange.ngsi2.client.Ngsi2Future;
+import com.orange.ngsi2.model.*;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.util.concurrent.SettableListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.orange.ngsi2.server.forwarding.RegistrationIndexTest.entity;
+import static com.orange.ngsi2.server.forwarding.RegistrationIndexTest.registration;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+/**
+ * Test class for RegistrationForwarder
+ */
+public class RegistrationForwarderTest {
+
+    private MockRestServiceServer mockServer;
+
+    private RegistrationForwarder forwarder;
+
+    @Before
+    public void setup() throws Exception {
+        AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate();
+        mockServer = MockRestServiceServer.createServer(asyncRestTemplate);
+        forwarder = new RegistrationForwarder(asyncRestTemplate);
+        forwarder.getRegistrationIndex().register(registration("pressure", entity("Room1", "Room", null), "pressure"));
+        forwarder.getRegistrationIndex().register(registration("humidity", entity(null, "Room", null), "humidity", "pressure"));
+    }
+
+    @Test
+    public void testRetrieveEntity() throws Exception {
+        mockServer.expect(requestTo("http://localhost:1026/pressure/v2/entities/Room1?type=Room&attrs=pressure"))
+                .andRespond(withSuccess("{\"id\":\"Room1\",\"type\":\"Room\",\"pressure\":{\"value\":720}}", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo("http://localhost:1026/humidity/v2/entities/Room1?type=Room&attrs=humidity,pressure"))
+                .andRespond(withSuccess("{\"id\":\"Room1\",\"type\":\"Room\",\"humidity\":{\"value\":40},\"pressure\":{\"value\":0}}",
+                        MediaType.APPLICATION_JSON));
+
+        Entity local = new Entity("Room1", "Room");
+        local.setAttributes("temperature", new Attribute(23.5));
+        Entity entity = forwarder.retrieveEntity(local, "Room1", "Room", null);
+
+        mockServer.verify();
+        assertEquals(3, entity.getAttributes().size());
+        assertEquals(23.5, entity.getAttributes().get("temperature").getValue());
+        // the first provider takes precedence
+        assertEquals(720, entity.getAttributes().get("pressure").getValue());
+        assertEquals(40, entity.getAttributes().get("humidity").getValue());
+        // the local entity is not modified
+        assertEquals(1, local.getAttributes().size());
+    }
+
+    @Test
+    public void testRetrieveEntityOnlyRemote() throws Exception {
+        mockServer.expect(requestTo("http://localhost:1026/humidity/v2/entities/Room2?type=Room&attrs=humidity"))
+                .andRespond(withSuccess("{\"id\":\"Room2\",\"type\":\"Room\",\"humidity\":{\"value\":40}}", MediaType.APPLICATION_JSON));
+
+        Entity entity = forwarder.retrieveEntity(null, "Room2", "Room", Collections.singletonList("humidity"));
+
+        mockServer.verify();
+        assertEquals("Room2", entity.getId());
+        assertEquals(40, entity.getAttributes().get("humidity").getValue());
+    }
+
+    @Test
+    public void testProviderFailureIgnored() throws Exception {
+        mockServer.expect(requestTo("http://localhost:1026/humidity/v2/entities/Room2?type=Room&attrs=humidity,pressure"))
+                .andRespond(withServerError());
+
+        assertNull(forwarder.retrieveEntity(null, "Room2", "Room", null));
+        mockServer.verify();
+    }
+
+    @Test
+    public void testNoMatchingProvider() throws Exception {
+        Entity local = new Entity("Car1", "Car");
+        assertSame(local, forwarder.retrieveEntity(local, "Car1", "Car", null));
+        assertTrue(forwarder.listEntities(null, Collections.singleton("Car"), null, null, null).isEmpty());
+    }
+
+    @Test
+    public void testListEntities() throws Exception {
+        mockServer.expect(requestTo("http://localhost:1026/pressure/v2/entities?type=Room&attrs=pressure&limit=1000"))
+                .andRespond(withSuccess("[{\"id\":\"Room1\",\"type\":\"Room\",\"pressure\":{\"value\":720}}]", MediaType.APPLICATION_JSON));
+        mockServer.expect(requestTo("http://localhost:1026/humidity/v2/entities?type=Room&attrs=pressure&limit=1000"))
+                .andRespond(withSuccess("[{\"id\":\"Room1\",\"type\":\"Room\",\"pressure\":{\"value\":0}}," +
+                        "{\"id\":\"Room2\",\"type\":\"Room\",\"pressure\":{\"value\":710}}]", MediaType.APPLICATION_JSON));
+
+        List<Entity> entities = forwarder.listEntities(null, Collections.singleton("Room"), null, Collections.singletonList("pressure"), null);
+
+        mockServer.verify();
+        assertEquals(2, entities.size());
+        assertEquals(720, entities.get(0).getAttributes().get("pressure").getValue());
+        assertEquals(710, entities.get(1).getAttributes().get("pressure").getValue());
+    }
+
+    @Test
+    public void testBulkQuery() throws Exception {
+        mockServer.expect(requestTo("http://localhost:1026/humidity/v2/op/query?limit=1000"))
+                .andExpect(jsonPath("$.attributes[0]").value("humidity"))
+                .andRespond(withSuccess("[{\"id\":\"Room3\",\"type\":\"Room\",\"humidity\":{\"value\":35}}]", MediaType.APPLICATION_JSON));
+
+        BulkQueryRequest request = new BulkQueryRequest(Collections.singletonList(entity(null, "Room", "^Room[3-9]")),
+                Collections.singletonList("humidity"), Collections.emptyList());
+        List<Entity> entities = forwarder.bulkQuery(request);
+
+        mockServer.verify();
+        assertEquals(1, entities.size());
+        assertEquals("Room3", entities.get(0).getId());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Ngsi2Client slow = mock(Ngsi2Client.class);
+        SettableListenableFuture<Entity> pending = new SettableListenableFuture<>();
+        when(slow.getEntity(anyString(), anyString(), anyCollection())).thenReturn(Ngsi2Future.of(pending));
+        Ngsi2Client fast = mock(Ngsi2Client.class);
+        SettableListenableFuture<Entity> answered = new SettableListenableFuture<>();
+        Entity remote = new Entity("Room1", "Room");
+        remote.setAttributes("pressure", new Attribute(720));
+        answered.set(remote);
+        when(fast.getEntity(anyString(), anyString(), any())).thenReturn(Ngsi2Future.of(answered));
+
+        RegistrationForwarder forwarder = new RegistrationForwarder(new AsyncRestTemplate()) {
+            @Override
+            protected Ngsi2Client newClient(String baseURL) {
+                return baseURL.endsWith("/pressure/") ? fast : slow;
+            }
+        };
+        forwarder.setTimeout(100);
+        forwarder.getRegistrationIndex().register(registration("pressure", entity("Room1", "Room", null), "pressure"));
+        forwarder.getRegistrationIndex().register(registration("humidity", entity(null, "Room", null), "humidity"));
+
+        long start = System.currentTimeMillis();
+        Entity entity = forwarder.retrieveEntity(null, "Room1", "Room", null);
+
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertEquals(Collections.singleton("pressure"), entity.getAttributes().keySet());
+        // the request to the slow provider is cancelled
+        assertTrue(pending.isCancelled());
+    }
+
+    @Test
+    public void testConnectionReleasedOnTimeout() throws Exception {
+        CountDownLatch stop = new CountDownLatch(1);
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v2", exchange -> {
+            if (requests.incrementAndGet() == 1) {
+                // the first request is answered once the test is over
+                try {
+                    stop.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            byte[] body = "{\"id\":\"Room1\",\"type\":\"Room\",\"humidity\":{\"value\":40}}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+        try {
+            // a single connection to the provider, not available to the second request if still held by the first one
+            AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate(new Ngsi2ClientBuilder("http://localhost/")
+                    .maxConnectionsPerRoute(1).buildRequestFactory());
+            RegistrationForwarder forwarder = new RegistrationForwarder(asyncRestTemplate);
+            forwarder.setTimeout(500);
+            Registration registration = new Registration("humidity", new URL("http://localhost:" + server.getAddress().getPort()));
+            registration.setSubject(new SubjectRegistration(Collections.singletonList(entity(null, "Room", null)),
+                    Collections.singletonList("humidity")));
+            forwarder.getRegistrationIndex().register(registration);
+
+            assertNull(forwarder.retrieveEntity(null, "Room1", "Room", null));
+            Entity entity = forwarder.retrieveEntity(null, "Room1", "Room", null);
+
+            assertNotNull(entity);
+            assertEquals(40, entity.getAttributes().get("humidity").getValue());
+        } finally {
+            stop.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        Entity local = new Entity("Room1", "Room");
+        local.setAttributes("temperature", new Attribute(20));
+        Entity remote1 = new Entity("Room1", "Room");
+        remote1.setAttributes("temperature", new Attribute(30));
+        remote1.setAttributes("pressure", new Attribute(720));
+        Entity remote2 = new Entity("Room1", "Hall");
+
+        List<Entity> merged = RegistrationForwarder.merge(Collections.singletonList(local), Arrays.asList(remote1, remote2));
+
+        assertEquals(2, merged.size());
+        assertEquals(20, merged.get(0).getAttributes().get("temperature").getValue());
+        assertEquals(720, merged.get(0).getAttributes().get("pressure").getValue());
+        assertSame(remote2, merged.get(1));
+    }
+}
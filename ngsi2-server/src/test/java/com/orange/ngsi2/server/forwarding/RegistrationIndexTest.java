@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.forwarding;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.model.Registration;
+import com.orange.ngsi2.model.SubjectEntity;
+import com.orange.ngsi2.model.SubjectRegistration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for RegistrationIndex
+ */
+public class RegistrationIndexTest {
+
+    private RegistrationIndex index;
+
+    static Registration registration(String id, SubjectEntity subjectEntity, String... attributes) throws MalformedURLException {
+        Registration registration = new Registration(id, new URL("http://localhost:1026/" + id));
+        registration.setSubject(new SubjectRegistration(Collections.singletonList(subjectEntity), Arrays.asList(attributes)));
+        return registration;
+    }
+
+    static SubjectEntity entity(String id, String type, String idPattern) {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setId(Optional.ofNullable(id));
+        subjectEntity.setType(Optional.ofNullable(type));
+        subjectEntity.setIdPattern(Optional.ofNullable(idPattern));
+        return subjectEntity;
+    }
+
+    @Before
+    public void setup() throws Exception {
+        index = new RegistrationIndex();
+        index.register(registration("room1", entity("Room1", "Room", null), "pressure"));
+        index.register(registration("room1Untyped", entity("Room1", null, null), "humidity"));
+        index.register(registration("rooms", entity(null, "Room", null)));
+        index.register(registration("pattern", entity(null, null, "^Car"), "speed"));
+        index.register(registration("cars", entity(null, "Car", "^Car")));
+    }
+
+    @Test
+    public void testMatchById() {
+        assertEquals(Arrays.asList("room1", "room1Untyped", "rooms"), match(entity("Room1", "Room", null)));
+        assertEquals(Arrays.asList("room1", "room1Untyped", "rooms"), match(entity("Room1", null, null)));
+        assertEquals(Collections.singletonList("rooms"), match(entity("Room2", "Room", null)));
+        assertEquals(Arrays.asList("cars", "pattern"), match(entity("Car1", "Car", null)));
+        // the type of a registration without id is unknown when the query has no type
+        assertEquals(Arrays.asList("cars", "pattern", "rooms"), match(entity("Car1", null, null)));
+        assertTrue(match(entity("Bike1", "Bike", null)).isEmpty());
+    }
+
+    @Test
+    public void testMatchByType() {
+        assertEquals(Arrays.asList("pattern", "room1", "room1Untyped", "rooms"), match(entity(null, "Room", null)));
+        assertEquals(Arrays.asList("cars", "pattern", "room1Untyped"), match(entity(null, "Car", null)));
+        assertEquals(Arrays.asList("pattern", "room1Untyped"), match(entity(null, "Bike", null)));
+    }
+
+    @Test
+    public void testMatchByPattern() {
+        assertEquals(Arrays.asList("room1", "room1Untyped", "rooms"), match(entity(null, null, "^Room1$")));
+        assertEquals(Arrays.asList("cars", "pattern"), match(entity(null, "Car", "^Car")));
+    }
+
+    @Test
+    public void testMatchAttributes() {
+        assertEquals(Arrays.asList("room1", "rooms"), match(Collections.singletonList(entity("Room1", "Room", null)), "pressure"));
+        assertEquals(Collections.singletonList("rooms"), match(Collections.singletonList(entity("Room1", "Room", null)), "temperature"));
+        assertEquals(Arrays.asList("cars", "pattern", "rooms"), match(Collections.emptyList(), "speed"));
+        assertEquals(5, match(Collections.emptyList()).size());
+    }
+
+    @Test
+    public void testReplaceAndUnregister() throws Exception {
+        index.register(registration("rooms", entity(null, "Hall", null)));
+        assertEquals(Arrays.asList("pattern", "room1", "room1Untyped"), match(entity(null, "Room", null)));
+        index.unregister("room1");
+        assertEquals(Arrays.asList("pattern", "room1Untyped"), match(entity(null, "Room", null)));
+        assertEquals(4, index.size());
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testInvalidPattern() throws Exception {
+        index.register(registration("invalid", entity(null, null, "Room[")));
+    }
+
+    private List<String> match(SubjectEntity queried) {
+        return match(Collections.singletonList(queried));
+    }
+
+    private List<String> match(List<SubjectEntity> queried, String... attributes) {
+        return index.match(queried, Arrays.asList(attributes)).stream().map(Registration::getId).sorted().collect(Collectors.toList());
+    }
+}
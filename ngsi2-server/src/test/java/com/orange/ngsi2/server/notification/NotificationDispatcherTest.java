@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.orange.ngsi2.model.Notification;
+import com.orange.ngsi2.model.Subscription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.orange.ngsi2.server.notification.SubscriptionMatcherTest.*;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.*;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.*;
+
+/**
+ * Test class for NotificationDispatcher
+ */
+public class NotificationDispatcherTest {
+
+    private final static String CALLBACK = "http://localhost:1028/accumulate";
+
+    private MockRestServiceServer mockServer;
+
+    private ScheduledExecutorService scheduler;
+
+    private NotificationDispatcher dispatcher;
+
+    @Before
+    public void setup() {
+        AsyncRestTemplate asyncRestTemplate = new AsyncRestTemplate();
+        mockServer = MockRestServiceServer.createServer(asyncRestTemplate);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        dispatcher = new NotificationDispatcher(new ObjectMapper().registerModule(new Jdk8Module()), asyncRestTemplate, scheduler);
+        dispatcher.setInitialBackoff(1);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.shutdown();
+    }
+
+    @Test
+    public void testNotify() throws Exception {
+        Subscription subscription = subscription("abc", ofType("Room"), null);
+        subscription.getNotification().setAttributes(Collections.singletonList("temperature"));
+        subscription.getNotification().setHeader("Fiware-Service", "rooms");
+        subscription.getNotification().setQuery("token", "xyz");
+        dispatcher.subscribe(subscription);
+
+        CountDownLatch sent = new CountDownLatch(1);
+        mockServer.expect(requestTo(CALLBACK + "?token=xyz"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Content-Type", MediaType.APPLICATION_JSON_VALUE))
+                .andExpect(header("Fiware-Service", "rooms"))
+                .andExpect(jsonPath("$.subscriptionId").value("abc"))
+                .andExpect(jsonPath("$.data", hasSize(1)))
+                .andExpect(jsonPath("$.data[0].id").value("Room1"))
+                .andExpect(jsonPath("$.data[0].temperature.value").value(20.0))
+                .andExpect(jsonPath("$.data[0].pressure").doesNotExist())
+                .andRespond(countDown(sent, withNoContent()));
+
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+        assertEquals(1, subscription.getNotification().getTimesSent());
+        assertNotNull(subscription.getNotification().getLastNotification());
+    }
+
+    @Test
+    public void testNotifyKeyValues() throws Exception {
+        Subscription subscription = subscription("abc", ofType("Room"), null);
+        subscription.getNotification().setAttrsFormat(Optional.of(Notification.Format.keyValues));
+        dispatcher.subscribe(subscription);
+
+        CountDownLatch sent = new CountDownLatch(1);
+        mockServer.expect(requestTo(CALLBACK))
+                .andExpect(jsonPath("$.data[0].temperature").value(20.0))
+                .andExpect(jsonPath("$.data[0].pressure").value(720))
+                .andRespond(countDown(sent, withNoContent()));
+
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+    }
+
+    @Test
+    public void testThrottlingCoalescesChanges() throws Exception {
+        Subscription subscription = subscription("abc", ofType("Room"), null);
+        subscription.getNotification().setThrottling(Optional.of(1L));
+        dispatcher.subscribe(subscription);
+
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch second = new CountDownLatch(1);
+        mockServer.expect(requestTo(CALLBACK))
+                .andExpect(jsonPath("$.data", hasSize(1)))
+                .andRespond(countDown(first, withNoContent()));
+        mockServer.expect(requestTo(CALLBACK))
+                .andExpect(jsonPath("$.data", hasSize(2)))
+                .andExpect(jsonPath("$.data[0].id").value("Room1"))
+                .andExpect(jsonPath("$.data[0].temperature.value").value(22.0))
+                .andExpect(jsonPath("$.data[1].id").value("Room2"))
+                .andRespond(countDown(second, withNoContent()));
+
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+
+        // within the throttling period
+        dispatcher.entityChanged(room("Room1", 21), Collections.singleton("temperature"));
+        dispatcher.entityChanged(room("Room2", 25), Collections.singleton("temperature"));
+        dispatcher.entityChanged(room("Room1", 22), Collections.singleton("temperature"));
+        assertEquals(1, second.getCount());
+
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+        assertEquals(2, subscription.getNotification().getTimesSent());
+    }
+
+    @Test
+    public void testRetryOnServerError() throws Exception {
+        Subscription subscription = subscription("abc", ofType("Room"), null);
+        dispatcher.subscribe(subscription);
+
+        CountDownLatch sent = new CountDownLatch(1);
+        mockServer.expect(requestTo(CALLBACK)).andRespond(withServerError());
+        mockServer.expect(requestTo(CALLBACK)).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS));
+        mockServer.expect(requestTo(CALLBACK)).andRespond(countDown(sent, withNoContent()));
+
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+        // retries do not count as new notifications
+        assertEquals(1, subscription.getNotification().getTimesSent());
+    }
+
+    @Test
+    public void testNoRetryOnClientError() throws Exception {
+        dispatcher.subscribe(subscription("abc", ofType("Room"), null));
+
+        CountDownLatch sent = new CountDownLatch(1);
+        AtomicInteger retried = new AtomicInteger();
+        mockServer.expect(requestTo(CALLBACK)).andRespond(countDown(sent, withBadRequest()));
+        mockServer.expect(requestTo(CALLBACK)).andRespond(request -> {
+            retried.incrementAndGet();
+            return withNoContent().createResponse(request);
+        });
+
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(0, retried.get());
+    }
+
+    @Test
+    public void testRenderOncePerBatch() throws Exception {
+        dispatcher.subscribe(subscription("abc", ofType("Room"), null));
+        dispatcher.subscribe(subscription("def", ofIdPattern("^Room"), null));
+
+        CountDownLatch sent = new CountDownLatch(2);
+        mockServer.expect(requestTo(CALLBACK))
+                .andExpect(jsonPath("$.data[0].id").value("Room1"))
+                .andRespond(countDown(sent, withNoContent()));
+        mockServer.expect(requestTo(CALLBACK))
+                .andExpect(jsonPath("$.data[0].id").value("Room1"))
+                .andRespond(countDown(sent, withNoContent()));
+
+        dispatcher.entityChanged(room("Room1", 20), Arrays.asList("temperature", "pressure"));
+
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+    }
+
+    @Test
+    public void testUnsubscribe() throws Exception {
+        dispatcher.subscribe(subscription("abc", ofType("Room"), null));
+        dispatcher.unsubscribe("abc");
+
+        assertEquals(0, dispatcher.getMatcher().size());
+        dispatcher.entityChanged(room("Room1", 20), Collections.singleton("temperature"));
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS));
+        mockServer.verify();
+    }
+
+    private static ResponseCreator countDown(CountDownLatch latch, ResponseCreator responseCreator) {
+        return request -> {
+            latch.countDown();
+            return responseCreator.createResponse(request);
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Notification;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.orange.ngsi2.server.notification.SubscriptionMatcherTest.room;
+import static org.junit.Assert.*;
+
+/**
+ * Test class for NotificationRenderer
+ */
+public class NotificationRendererTest {
+
+    private final NotificationRenderer renderer = new NotificationRenderer(new ObjectMapper().registerModule(new Jdk8Module()));
+
+    private final List<Entity> entities = Arrays.asList(room("Room1", 20.5), room("Room2", 22));
+
+    @Test
+    public void testNormalized() throws Exception {
+        assertEquals("[{\"id\":\"Room1\",\"type\":\"Room\",\"temperature\":{\"value\":20.5,\"metadata\":{}}}," +
+                        "{\"id\":\"Room2\",\"type\":\"Room\",\"temperature\":{\"value\":22.0,\"metadata\":{}}}]",
+                render(Notification.Format.normalized, Collections.singletonList("temperature")));
+    }
+
+    @Test
+    public void testKeyValues() throws Exception {
+        assertEquals("[{\"id\":\"Room1\",\"type\":\"Room\",\"pressure\":720,\"temperature\":20.5}," +
+                        "{\"id\":\"Room2\",\"type\":\"Room\",\"pressure\":720,\"temperature\":22.0}]",
+                render(Notification.Format.keyValues, Arrays.asList("pressure", "temperature")));
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        assertEquals("[[20.5,720],[22.0,720]]", render(Notification.Format.values, Arrays.asList("temperature", "pressure", "unknown")));
+    }
+
+    @Test
+    public void testPayload() throws Exception {
+        byte[] payload = renderer.renderPayload("abc", "[]".getBytes(StandardCharsets.UTF_8));
+        assertEquals("{\"subscriptionId\":\"abc\",\"data\":[]}", new String(payload, StandardCharsets.UTF_8));
+    }
+
+    private String render(Notification.Format format, List<String> attributes) throws Exception {
+        return new String(renderer.renderData(format, attributes, entities), StandardCharsets.UTF_8);
+    }
+}
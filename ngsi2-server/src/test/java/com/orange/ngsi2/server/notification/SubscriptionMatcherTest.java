@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.server.notification;
+
+import com.orange.ngsi2.exception.InvalidatedSyntaxException;
+import com.orange.ngsi2.model.*;
+import org.junit.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test class for SubscriptionMatcher
+ */
+public class SubscriptionMatcherTest {
+
+    static Subscription subscription(String id, SubjectEntity subjectEntity, Condition condition) throws MalformedURLException {
+        Notification notification = new Notification(Collections.emptyList(), new URL("http://localhost:1028/accumulate"));
+        return new Subscription(id, new SubjectSubscription(Collections.singletonList(subjectEntity), condition), notification,
+                null, Subscription.Status.active);
+    }
+
+    static SubjectEntity ofType(String type) {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setType(Optional.of(type));
+        return subjectEntity;
+    }
+
+    static SubjectEntity ofIdPattern(String idPattern) {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setIdPattern(Optional.of(idPattern));
+        return subjectEntity;
+    }
+
+    static Condition condition(String q, String... attributes) {
+        Condition condition = new Condition();
+        if (attributes.length > 0) {
+            condition.setAttributes(Arrays.asList(attributes));
+        }
+        if (q != null) {
+            condition.setExpression("q", q);
+        }
+        return condition;
+    }
+
+    static Entity room(String id, double temperature) {
+        Entity entity = new Entity(id, "Room");
+        entity.setAttributes("temperature", new Attribute(temperature));
+        entity.setAttributes("pressure", new Attribute(720));
+        return entity;
+    }
+
+    @Test
+    public void testMatchSubject() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("byType", ofType("Room"), null));
+        matcher.register(subscription("byId", new SubjectEntity(Optional.of("Room1")), null));
+        matcher.register(subscription("byPattern", ofIdPattern("^Room[2-3]$"), null));
+        matcher.register(subscription("otherType", ofType("Car"), null));
+        assertEquals(4, matcher.size());
+
+        assertEquals(Arrays.asList("byId", "byType"), ids(matcher, room("Room1", 20), "temperature"));
+        assertEquals(Arrays.asList("byPattern", "byType"), ids(matcher, room("Room2", 20), "temperature"));
+        assertEquals(Collections.singletonList("byType"), ids(matcher, room("Room4", 20), "temperature"));
+    }
+
+    @Test
+    public void testMatchConditionAttributes() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("temperature", ofType("Room"), condition(null, "temperature")));
+        matcher.register(subscription("any", ofType("Room"), condition(null)));
+
+        assertEquals(Arrays.asList("any", "temperature"), ids(matcher, room("Room1", 20), "temperature", "pressure"));
+        assertEquals(Collections.singletonList("any"), ids(matcher, room("Room1", 20), "pressure"));
+    }
+
+    @Test
+    public void testMatchQuery() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("hot", ofType("Room"), condition("temperature>25", "temperature")));
+
+        assertEquals(Collections.singletonList("hot"), ids(matcher, room("Room1", 30), "temperature"));
+        assertTrue(matcher.match(room("Room1", 20), Collections.singleton("temperature")).isEmpty());
+    }
+
+    @Test
+    public void testSkipInactive() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        Subscription expired = subscription("expired", ofType("Room"), null);
+        expired.setExpires(Instant.now().minusSeconds(60));
+        matcher.register(expired);
+        Subscription inactive = subscription("inactive", ofType("Room"), null);
+        inactive.setStatus(Subscription.Status.expired);
+        matcher.register(inactive);
+
+        assertTrue(matcher.match(room("Room1", 20), Collections.singleton("temperature")).isEmpty());
+    }
+
+    @Test
+    public void testUnregister() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("byType", ofType("Room"), null));
+        matcher.unregister("byType");
+
+        assertEquals(0, matcher.size());
+        assertTrue(matcher.match(room("Room1", 20), Collections.singleton("temperature")).isEmpty());
+    }
+
+    @Test
+    public void testMatchPatterns() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("prefix", ofIdPattern("^Room"), null));
+        matcher.register(subscription("longerPrefix", ofIdPattern("^Room1.*"), null));
+        matcher.register(subscription("optional", ofIdPattern("^Rooms?1"), null));
+        matcher.register(subscription("unanchored", ofIdPattern("oom2$"), null));
+        matcher.register(subscription("sameUnanchored", ofIdPattern("oom2$"), null));
+        matcher.register(subscription("alternative", ofIdPattern("^Car|^Room2"), null));
+
+        assertEquals(Arrays.asList("longerPrefix", "optional", "prefix"), ids(matcher, room("Room1", 20), "temperature"));
+        assertEquals(Arrays.asList("alternative", "prefix", "sameUnanchored", "unanchored"), ids(matcher, room("Room2", 20), "temperature"));
+        assertTrue(ids(matcher, room("Hall1", 20), "temperature").isEmpty());
+    }
+
+    @Test
+    public void testReplace() throws Exception {
+        SubscriptionMatcher matcher = new SubscriptionMatcher();
+        matcher.register(subscription("abc", ofIdPattern("^Room"), condition(null, "temperature")));
+        matcher.register(subscription("abc", ofType("Car"), condition(null, "speed")));
+
+        assertEquals(1, matcher.size());
+        assertTrue(ids(matcher, room("Room1", 20), "temperature").isEmpty());
+        Entity car = new Entity("Car1", "Car");
+        car.setAttributes("speed", new Attribute(100));
+        assertEquals(Collections.singletonList("abc"), ids(matcher, car, "speed"));
+    }
+
+    @Test
+    public void testLiteralPrefix() {
+        assertEquals("Room", SubscriptionMatcher.literalPrefix("^Room"));
+        assertEquals("Room", SubscriptionMatcher.literalPrefix("^Room.*"));
+        assertEquals("Roo", SubscriptionMatcher.literalPrefix("^Room*"));
+        assertEquals("urn:ngsi", SubscriptionMatcher.literalPrefix("^urn:ngsi\\.[0-9]+"));
+        assertEquals("", SubscriptionMatcher.literalPrefix("Room"));
+        assertEquals("", SubscriptionMatcher.literalPrefix("^.*Room"));
+        assertEquals("", SubscriptionMatcher.literalPrefix("^A|^B"));
+        assertEquals("", SubscriptionMatcher.literalPrefix("^(?i)room"));
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testInvalidIdPattern() throws Exception {
+        new SubscriptionMatcher().register(subscription("invalid", ofIdPattern("Room["), null));
+    }
+
+    @Test(expected = InvalidatedSyntaxException.class)
+    public void testInvalidQuery() throws Exception {
+        new SubscriptionMatcher().register(subscription("invalid", ofType("Room"), condition("temperature>")));
+    }
+
+    private static List<String> ids(SubscriptionMatcher matcher, Entity entity, String... changed) {
+        return matcher.match(entity, Arrays.asList(changed)).stream().map(Subscription::getId).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *          http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Metadata;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+/**
+ * Memory efficient and immutable form of an entity kept by InMemoryEntityStore.
+ *
+ * The attributes are held by flat arrays in their insertion order: the interned name, the interned type and
+ * the value of each attribute, numbers and booleans being stored in a long instead of a boxed value.
+ * Above 8 attributes, an open-addressing table of the positions speeds up the lookup by name.
+ * Attributes with metadata or with a value of another class (objects, arrays, floats...) are kept as a deep copy,
+ * so that neither the caller giving them nor the readers of the views can modify the stored ones.
+ *
+ * toEntity() returns a read-only view in the public model, creating the Attribute objects on demand.
+ */
+final class CompactEntity {
+
+    private static final byte STRING = 0;
+    private static final byte NULL = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte LONG = 3;
+    private static final byte INTEGER = 4;
+    private static final byte BOOLEAN = 5;
+    /** a deep copy of the Attribute object is kept */
+    private static final byte KEPT = 6;
+
+    private static final byte KIND = 0x0F;
+    /** the type of the attribute is null rather than Optional.empty() */
+    private static final byte NULL_TYPE = 0x10;
+
+    /** no index below this number of attributes, they are scanned */
+    private static final int INDEX_THRESHOLD = 8;
+
+    private final String id;
+
+    private final String type;
+
+    /** given by the store, greater for each new snapshot */
+    private final long version;
+
+    private final String[] names;
+
+    private final String[] types;
+
+    private final byte[] kinds;
+
+    /** numbers and booleans, null if none */
+    private final long[] primitives;
+
+    /** strings and kept attributes, null if none */
+    private final Object[] references;
+
+    /** open-addressing table of the positions plus one, null below INDEX_THRESHOLD attributes */
+    private final int[] index;
+
+    private CompactEntity(String id, String type, long version, int size) {
+        this.id = id;
+        this.type = type;
+        this.version = version;
+        this.names = new String[size];
+        this.types = new String[size];
+        this.kinds = new byte[size];
+        this.primitives = new long[size];
+        this.references = new Object[size];
+        this.index = size > INDEX_THRESHOLD ? new int[tableSize(size)] : null;
+    }
+
+    private CompactEntity(CompactEntity entity, long[] primitives, Object[] references) {
+        this.id = entity.id;
+        this.type = entity.type;
+        this.version = entity.version;
+        this.names = entity.names;
+        this.types = entity.types;
+        this.kinds = entity.kinds;
+        this.primitives = primitives;
+        this.references = references;
+        this.index = entity.index;
+    }
+
+    /**
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @param attributes the attributes, in the order to keep
+     * @param version the version of this snapshot of the entity
+     * @param interner interns the attribute names and types
+     * @return the compact form of the entity
+     */
+    static CompactEntity of(String id, String type, Map<String, Attribute> attributes, long version, UnaryOperator<String> interner) {
+        CompactEntity entity = new CompactEntity(id, type, version, attributes.size());
+        boolean hasPrimitives = false;
+        boolean hasReferences = false;
+        int i = 0;
+        for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
+            entity.names[i] = interner.apply(entry.getKey());
+            Attribute attribute = entry.getValue();
+            byte kind = kind(attribute);
+            if (kind == KEPT) {
+                entity.references[i] = copy(attribute);
+                hasReferences = true;
+            } else {
+                Optional<String> attributeType = attribute.getType();
+                if (attributeType == null) {
+                    kind |= NULL_TYPE;
+                } else if (attributeType.isPresent()) {
+                    entity.types[i] = interner.apply(attributeType.get());
+                }
+                Object value = attribute.getValue();
+                switch (kind & KIND) {
+                    case STRING:
+                        entity.references[i] = value;
+                        hasReferences = true;
+                        break;
+                    case DOUBLE:
+                        entity.primitives[i] = Double.doubleToRawLongBits((Double) value);
+                        hasPrimitives = true;
+                        break;
+                    case LONG:
+                    case INTEGER:
+                        entity.primitives[i] = ((Number) value).longValue();
+                        hasPrimitives = true;
+                        break;
+                    case BOOLEAN:
+                        entity.primitives[i] = (Boolean) value ? 1 : 0;
+                        hasPrimitives = true;
+                        break;
+                    default:
+                }
+            }
+            entity.kinds[i] = kind;
+            if (entity.index != null) {
+                int slot = entity.names[i].hashCode() & (entity.index.length - 1);
+                while (entity.index[slot] != 0) {
+                    slot = (slot + 1) & (entity.index.length - 1);
+                }
+                entity.index[slot] = i + 1;
+            }
+            i++;
+        }
+        if (hasPrimitives && hasReferences) {
+            return entity;
+        }
+        // drop the unused array
+        return new CompactEntity(entity, hasPrimitives ? entity.primitives : null, hasReferences ? entity.references : null);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the name of the attribute at a position
+     */
+    String name(int position) {
+        return names[position];
+    }
+
+    /**
+     * @return the position of the attribute, -1 if not found
+     */
+    int position(String name) {
+        if (index == null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i] == name) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int slot = name.hashCode() & (index.length - 1);
+        int position;
+        while ((position = index[slot]) != 0) {
+            String candidate = names[position - 1];
+            if (candidate == name || candidate.equals(name)) {
+                return position - 1;
+            }
+            slot = (slot + 1) & (index.length - 1);
+        }
+        return -1;
+    }
+
+    boolean has(String name) {
+        return position(name) >= 0;
+    }
+
+    /**
+     * @return the type of the attribute at a position, null if none
+     */
+    String attributeType(int position) {
+        if ((kinds[position] & KIND) == KEPT) {
+            Optional<String> type = ((Attribute) references[position]).getType();
+            return type != null ? type.orElse(null) : null;
+        }
+        return types[position];
+    }
+
+    /**
+     * @return a new Attribute for the attribute at a position, a deep copy for a kept Attribute
+     */
+    Attribute attribute(int position) {
+        byte kind = kinds[position];
+        if ((kind & KIND) == KEPT) {
+            return copy((Attribute) references[position]);
+        }
+        Attribute attribute = new Attribute(value(position));
+        attribute.setType((kind & NULL_TYPE) != 0 ? null : Optional.ofNullable(types[position]));
+        return attribute;
+    }
+
+    /**
+     * @return true if the attributes at the given positions of the two entities have the same type and value
+     */
+    boolean sameAttribute(int position, CompactEntity other, int otherPosition) {
+        byte kind = kinds[position];
+        if (kind != other.kinds[otherPosition]) {
+            return false;
+        }
+        switch (kind & KIND) {
+            case KEPT:
+                return sameKept((Attribute) references[position], (Attribute) other.references[otherPosition]);
+            case STRING:
+                return Objects.equals(types[position], other.types[otherPosition]) && references[position].equals(other.references[otherPosition]);
+            case NULL:
+                return Objects.equals(types[position], other.types[otherPosition]);
+            default:
+                return Objects.equals(types[position], other.types[otherPosition]) && primitives[position] == other.primitives[otherPosition];
+        }
+    }
+
+    /**
+     * @return a read-only view of the entity in the public model
+     */
+    Entity toEntity() {
+        return new Entity(id, type, new Attributes());
+    }
+
+    private Object value(int position) {
+        switch (kinds[position] & KIND) {
+            case STRING:
+                return references[position];
+            case DOUBLE:
+                return Double.longBitsToDouble(primitives[position]);
+            case LONG:
+                return primitives[position];
+            case INTEGER:
+                return (int) primitives[position];
+            case BOOLEAN:
+                return primitives[position] != 0;
+            default:
+                return null;
+        }
+    }
+
+    private static byte kind(Attribute attribute) {
+        if (attribute.getClass() != Attribute.class || !attribute.getMetadata().isEmpty()) {
+            return KEPT;
+        }
+        Object value = attribute.getValue();
+        if (value == null) {
+            return NULL;
+        }
+        Class<?> valueClass = value.getClass();
+        if (valueClass == String.class) {
+            return STRING;
+        } else if (valueClass == Double.class) {
+            return DOUBLE;
+        } else if (valueClass == Long.class) {
+            return LONG;
+        } else if (valueClass == Integer.class) {
+            return INTEGER;
+        } else if (valueClass == Boolean.class) {
+            return BOOLEAN;
+        }
+        return KEPT;
+    }
+
+    /**
+     * @return a deep copy of the attribute, sharing nothing mutable with it
+     */
+    private static Attribute copy(Attribute attribute) {
+        Attribute copy = new Attribute(copyValue(attribute.getValue()));
+        copy.setType(attribute.getType());
+        if (!attribute.getMetadata().isEmpty()) {
+            Map<String, Metadata> metadata = new LinkedHashMap<>();
+            attribute.getMetadata().forEach((name, value) ->
+                    metadata.put(name, value == null ? null : new Metadata(value.getType(), copyValue(value.getValue()))));
+            copy.setMetadata(metadata);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of the structured values (JSON objects and arrays), other values being immutable
+     */
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            ((Map<?, ?>) value).forEach((key, item) -> copy.put(key, copyValue(item)));
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            ((List<?>) value).forEach(item -> copy.add(copyValue(item)));
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Kept attributes are copies, compared by content as the unchanged ones of an update are not the same objects
+     */
+    private static boolean sameKept(Attribute attribute, Attribute other) {
+        if (attribute == other) {
+            return true;
+        }
+        if (!Objects.equals(attribute.getType(), other.getType()) || !Objects.equals(attribute.getValue(), other.getValue())
+                || attribute.getMetadata().size() != other.getMetadata().size()) {
+            return false;
+        }
+        for (Map.Entry<String, Metadata> entry : attribute.getMetadata().entrySet()) {
+            if (!other.getMetadata().containsKey(entry.getKey())) {
+                return false;
+            }
+            Metadata metadata = entry.getValue();
+            Metadata otherMetadata = other.getMetadata().get(entry.getKey());
+            if (metadata == null || otherMetadata == null ? metadata != otherMetadata
+                    : !Objects.equals(metadata.getType(), otherMetadata.getType()) || !Objects.equals(metadata.getValue(), otherMetadata.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int tableSize(int size) {
+        int tableSize = 1;
+        while (tableSize * 3 < size * 4) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    /**
+     * Read-only map of the attributes, each Attribute being created once on first access
+     */
+    private final class Attributes extends AbstractMap<String, Attribute> {
+
+        private Attribute[] attributes;
+
+        @Override
+        public int size() {
+            return names.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && position((String) key) >= 0;
+        }
+
+        @Override
+        public Attribute get(Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            int position = position((String) key);
+            return position < 0 ? null : attribute(position);
+        }
+
+        @Override
+        public Set<Entry<String, Attribute>> entrySet() {
+            return new AbstractSet<Entry<String, Attribute>>() {
+                @Override
+                public Iterator<Entry<String, Attribute>> iterator() {
+                    return new Iterator<Entry<String, Attribute>>() {
+                        private int position;
+
+                        @Override
+                        public boolean hasNext() {
+                            return position < names.length;
+                        }
+
+                        @Override
+                        public Entry<String, Attribute> next() {
+                            if (position >= names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int current = position++;
+                            return new SimpleImmutableEntry<String, Attribute>(names[current], null) {
+                                @Override
+                                public Attribute getValue() {
+                                    return attribute(current);
+                                }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+
+        private Attribute attribute(int position) {
+            if (attributes == null) {
+                attributes = new Attribute[names.length];
+            }
+            Attribute attribute = attributes[position];
+            if (attribute == null) {
+                attribute = CompactEntity.this.attribute(position);
+                attributes[position] = attribute;
+            }
+            return attribute;
+        }
+    }
+}
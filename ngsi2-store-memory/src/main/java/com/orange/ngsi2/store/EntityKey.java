@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import java.util.Objects;
+
+/**
+ * Identifies an entity in the store: two entities can share the same id as long as their types differ
+ */
+final class EntityKey {
+
+    private final String id;
+
+    private final String type;
+
+    private final int hash;
+
+    EntityKey(String id, String type) {
+        this.id = id;
+        this.type = type;
+        this.hash = 31 * id.hashCode() + Objects.hashCode(type);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EntityKey)) {
+            return false;
+        }
+        EntityKey other = (EntityKey) o;
+        return hash == other.hash && id.equals(other.id) && Objects.equals(type, other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return type == null ? id : id + "/" + type;
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.geo.GeoIndex;
+import com.orange.ngsi2.geo.GeoPredicate;
+import com.orange.ngsi2.geo.Shape;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.StringPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent in-memory store of entities.
+ *
+ * Entities are kept as immutable snapshots: every write replaces the stored entity by a new one, so that readers
+ * never need to lock. Snapshots are kept in a compact form (attribute names and types shared through the StringPool, numbers and booleans
+ * stored unboxed in flat arrays), the entities returned to callers are read-only views on them. Secondary indexes by id, type and attribute name are maintained on each write and are used
+ * to answer queries without scanning the whole store. The location of the entities (first attribute of a geo:* type)
+ * is kept in a spatial index.
+ *
+ * Attributes with metadata or with a value other than a string, a number or a boolean are shared between successive
+ * snapshots and with the entities returned to callers, they must be considered as read only.
+ */
+public class InMemoryEntityStore {
+
+    private static Logger logger = LoggerFactory.getLogger(InMemoryEntityStore.class);
+
+    private final ConcurrentMap<EntityKey, CompactEntity> entities = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<EntityKey>> idIndex = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<EntityKey>> typeIndex = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<EntityKey>> attributeIndex = new ConcurrentHashMap<>();
+
+    private final GeoIndex<EntityKey> geoIndex = new GeoIndex<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    /** version of the last change of an entity of each type */
+    private final ConcurrentMap<String, Long> typeVersions = new ConcurrentHashMap<>();
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listener of the writes of entities
+     */
+    @FunctionalInterface
+    public interface ChangeListener {
+
+        /**
+         * @param previous the previous snapshot of the entity, null on creation
+         * @param next the new snapshot of the entity, null on removal
+         * @param changed the names of the attributes added or replaced by the write
+         */
+        void entityChanged(Entity previous, Entity next, Collection<String> changed);
+    }
+
+    /**
+     * Register a listener called after each write with the previous and the new snapshot of the entity,
+     * the previous one being null on creation and the new one null on removal
+     * @param listener the listener
+     */
+    public void addListener(BiConsumer<Entity, Entity> listener) {
+        listeners.add((previous, next, changed) -> listener.accept(previous, next));
+    }
+
+    /**
+     * Register a listener called after each write with the snapshots of the entity and the changed attributes
+     * @param listener the listener
+     */
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the number of entities in the store
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    /**
+     * Retrieve an entity
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @return the entity or null if not found
+     */
+    public Entity get(String id, String type) {
+        return view(entities.get(new EntityKey(id, type)));
+    }
+
+    /**
+     * Version of an entity, greater after each change of the entity
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @return the version, -1 if not found
+     */
+    public long getVersion(String id, String type) {
+        CompactEntity entity = entities.get(new EntityKey(id, type));
+        return entity == null ? -1 : entity.getVersion();
+    }
+
+    /**
+     * Version of the only entity having an ID
+     * @param id the entity ID
+     * @return the version, -1 if no entity or several entities of different types have this ID
+     */
+    public long getVersionById(String id) {
+        Set<EntityKey> keys = idIndex.get(id);
+        if (keys == null || keys.size() != 1) {
+            return -1;
+        }
+        CompactEntity entity = entities.get(keys.iterator().next());
+        return entity == null ? -1 : entity.getVersion();
+    }
+
+    /**
+     * Version of an entity type, changing after each addition, change or removal of an entity of that type
+     * @param type the entity type
+     * @return the version, -1 if no entity has this type
+     */
+    public long getTypeVersion(String type) {
+        Set<EntityKey> keys = typeIndex.get(type);
+        Long version = typeVersions.get(type);
+        return keys == null || keys.isEmpty() || version == null ? -1 : version;
+    }
+
+    /**
+     * Retrieve all the entities sharing the same ID
+     * @param id the entity ID
+     * @return a list of entities of different types, empty if none
+     */
+    public List<Entity> getById(String id) {
+        Set<EntityKey> keys = idIndex.get(id);
+        if (keys == null) {
+            return Collections.emptyList();
+        }
+        return keys.stream().map(entities::get).filter(Objects::nonNull).map(CompactEntity::toEntity).collect(Collectors.toList());
+    }
+
+    /**
+     * Add a new entity
+     * @param entity the entity to add
+     * @return false if an entity with the same id and type already exists
+     */
+    public boolean add(Entity entity) {
+        EntityKey key = new EntityKey(entity.getId(), entity.getType() == null ? null : intern(entity.getType()));
+        // same order of attributes as a HashMap
+        CompactEntity snapshot = snapshot(key, entity.getAttributes() == null ? Collections.emptyMap() : new HashMap<>(entity.getAttributes()));
+        boolean[] added = new boolean[1];
+        entities.compute(key, (k, previous) -> {
+            if (previous != null) {
+                return previous;
+            }
+            index(k, null, snapshot);
+            added[0] = true;
+            return snapshot;
+        });
+        if (added[0]) {
+            changedType(key.getType());
+            Entity next = snapshot.toEntity();
+            fire(null, next, next.getAttributes().keySet());
+        }
+        return added[0];
+    }
+
+    /**
+     * Update the attributes of an existing entity.
+     * The updater is given a copy of the attributes of the entity and may throw to abort the update.
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @param updater modifies the attributes in place
+     * @return the updated entity or null if not found
+     */
+    public Entity update(String id, String type, Consumer<Map<String, Attribute>> updater) {
+        Entity[] updated = new Entity[1];
+        List<String> changed = new ArrayList<>();
+        CompactEntity next = entities.computeIfPresent(new EntityKey(id, type), (k, previous) -> {
+            Entity view = previous.toEntity();
+            Map<String, Attribute> attributes = new HashMap<>(view.getAttributes());
+            updater.accept(attributes);
+            // the view gives the same attribute objects on each call, the replaced ones are not the same
+            changed.clear();
+            attributes.forEach((name, attribute) -> {
+                if (view.getAttributes().get(name) != attribute) {
+                    changed.add(name);
+                }
+            });
+            CompactEntity snapshot = snapshot(k, attributes);
+            index(k, previous, snapshot);
+            updated[0] = view;
+            return snapshot;
+        });
+        if (next == null) {
+            return null;
+        }
+        changedType(type);
+        Entity entity = next.toEntity();
+        fire(updated[0], entity, changed);
+        return entity;
+    }
+
+    /**
+     * Remove an entity
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @return the removed entity or null if not found
+     */
+    public Entity remove(String id, String type) {
+        Entity[] removed = new Entity[1];
+        entities.computeIfPresent(new EntityKey(id, type), (k, previous) -> {
+            index(k, previous, null);
+            removed[0] = previous.toEntity();
+            return null;
+        });
+        if (removed[0] != null) {
+            changedType(type);
+            fire(removed[0], null, Collections.emptyList());
+        }
+        return removed[0];
+    }
+
+    /**
+     * Find the entities matching all the given criteria.
+     * The most selective index is used to enumerate the candidates, the other criteria are then checked on each candidate.
+     * @param ids an optional list of entity IDs (null or empty for none)
+     * @param types an optional list of types of entity (null or empty for none)
+     * @param idPattern an optional pattern of entity IDs (null for none)
+     * @param attributes an optional list of attribute names, entities must have at least one of them (null or empty for none)
+     * @return a stream of matching entities
+     */
+    public Stream<Entity> find(Collection<String> ids, Collection<String> types, Pattern idPattern, Collection<String> attributes) {
+        return find(ids, types, idPattern, attributes, null);
+    }
+
+    /**
+     * Find the entities matching all the given criteria, including a geographical query on their location.
+     * @param ids an optional list of entity IDs (null or empty for none)
+     * @param types an optional list of types of entity (null or empty for none)
+     * @param idPattern an optional pattern of entity IDs (null for none)
+     * @param attributes an optional list of attribute names, entities must have at least one of them (null or empty for none)
+     * @param geoPredicate an optional geographical query (null for none), entities without location never match
+     * @return a stream of matching entities
+     */
+    public Stream<Entity> find(Collection<String> ids, Collection<String> types, Pattern idPattern, Collection<String> attributes,
+                               GeoPredicate geoPredicate) {
+        List<Set<EntityKey>> candidates = null;
+        boolean overlapping = false;
+        Set<EntityKey> located = null;
+        if (geoPredicate != null) {
+            located = geoIndex.query(geoPredicate);
+            candidates = Collections.singletonList(located);
+        }
+        if (!nullOrEmpty(ids)) {
+            List<Set<EntityKey>> byId = lookup(idIndex, ids);
+            if (candidates == null || count(byId) < count(candidates)) {
+                candidates = byId;
+            }
+        }
+        if (!nullOrEmpty(types)) {
+            List<Set<EntityKey>> byType = lookup(typeIndex, types);
+            if (candidates == null || count(byType) < count(candidates)) {
+                candidates = byType;
+            }
+        }
+        if (!nullOrEmpty(attributes)) {
+            List<Set<EntityKey>> byAttribute = lookup(attributeIndex, attributes);
+            if (candidates == null || count(byAttribute) < count(candidates)) {
+                candidates = byAttribute;
+                // an entity is referenced once per attribute
+                overlapping = true;
+            }
+        }
+
+        // no need to filter on the geographical matches when they are the candidates
+        if (located != null && candidates.size() == 1 && candidates.get(0) == located) {
+            located = null;
+        }
+
+        Stream<EntityKey> keys;
+        if (candidates == null) {
+            keys = entities.keySet().stream();
+        } else if (candidates.size() == 1) {
+            keys = candidates.get(0).stream();
+        } else {
+            keys = candidates.stream().flatMap(Set::stream);
+            if (overlapping) {
+                keys = keys.distinct();
+            }
+        }
+        if (!nullOrEmpty(ids)) {
+            keys = keys.filter(key -> ids.contains(key.getId()));
+        }
+        if (!nullOrEmpty(types)) {
+            keys = keys.filter(key -> types.contains(key.getType()));
+        }
+        if (idPattern != null) {
+            keys = keys.filter(key -> idPattern.matcher(key.getId()).find());
+        }
+        if (located != null) {
+            keys = keys.filter(located::contains);
+        }
+        Stream<CompactEntity> result = keys.map(entities::get).filter(Objects::nonNull);
+        if (!nullOrEmpty(attributes)) {
+            result = result.filter(entity -> attributes.stream().anyMatch(entity::has));
+        }
+        return result.map(CompactEntity::toEntity);
+    }
+
+    /**
+     * @param id the entity ID
+     * @param type the entity type (null for none)
+     * @return the location of the entity, or null if the entity is not found or has no location
+     */
+    public Shape getLocation(String id, String type) {
+        return geoIndex.get(new EntityKey(id, type));
+    }
+
+    /**
+     * @return the types of all the entities in the store
+     */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(typeIndex.keySet());
+    }
+
+    /**
+     * Retrieve all the entities of a given type
+     * @param type the type of entity
+     * @return a stream of entities
+     */
+    public Stream<Entity> findByType(String type) {
+        Set<EntityKey> keys = typeIndex.get(type);
+        if (keys == null) {
+            return Stream.empty();
+        }
+        return keys.stream().map(entities::get).filter(Objects::nonNull).map(CompactEntity::toEntity);
+    }
+
+    /**
+     * Remove all entities
+     */
+    public void clear() {
+        entities.keySet().forEach(key -> remove(key.getId(), key.getType()));
+    }
+
+    /**
+     * Called outside of the entry of the entity, listeners can read the store
+     */
+    private void fire(Entity previous, Entity next, Collection<String> changed) {
+        for (ChangeListener listener : listeners) {
+            listener.entityChanged(previous, next, changed);
+        }
+    }
+
+    /**
+     * Called once the change is visible, so that the content read after a version is never older than it
+     */
+    private void changedType(String type) {
+        if (type != null) {
+            typeVersions.put(type, versions.incrementAndGet());
+        }
+    }
+
+    private CompactEntity snapshot(EntityKey key, Map<String, Attribute> attributes) {
+        return CompactEntity.of(key.getId(), key.getType(), attributes, versions.incrementAndGet(), InMemoryEntityStore::intern);
+    }
+
+    /**
+     * Through the default StringPool, bounded, so that the names are usually the instances read from JSON
+     * without keeping the names of removed entities forever
+     */
+    private static String intern(String string) {
+        return StringPool.getDefault().canonicalize(string);
+    }
+
+    private static Entity view(CompactEntity entity) {
+        return entity == null ? null : entity.toEntity();
+    }
+
+    /**
+     * Update the indexes for the transition of an entity from previous to next.
+     * Must be called while holding the entry of the entity in the entities map.
+     */
+    private void index(EntityKey key, CompactEntity previous, CompactEntity next) {
+        int previousLocation = location(previous);
+        int nextLocation = location(next);
+        if (previousLocation < 0 || nextLocation < 0 || !previous.sameAttribute(previousLocation, next, nextLocation)) {
+            if (previousLocation >= 0 || nextLocation >= 0) {
+                geoIndex.put(key, nextLocation < 0 ? null : shape(key, next.attribute(nextLocation)));
+            }
+        }
+
+        if (previous == null) {
+            addToIndex(idIndex, key.getId(), key);
+            if (key.getType() != null) {
+                addToIndex(typeIndex, key.getType(), key);
+            }
+        } else if (next == null) {
+            removeFromIndex(idIndex, key.getId(), key);
+            if (key.getType() != null) {
+                removeFromIndex(typeIndex, key.getType(), key);
+            }
+        }
+        if (previous != null) {
+            for (int i = 0; i < previous.size(); i++) {
+                if (next == null || !next.has(previous.name(i))) {
+                    removeFromIndex(attributeIndex, previous.name(i), key);
+                }
+            }
+        }
+        if (next != null) {
+            for (int i = 0; i < next.size(); i++) {
+                if (previous == null || !previous.has(next.name(i))) {
+                    addToIndex(attributeIndex, next.name(i), key);
+                }
+            }
+        }
+    }
+
+    /**
+     * The geo index being an optimisation, an invalid or unsupported location does not reject the entity,
+     * which is then not found by geographical queries
+     * @return the shape of the location, or null if not indexed
+     */
+    private static Shape shape(EntityKey key, Attribute location) {
+        try {
+            return Shape.fromAttribute(location);
+        } catch (BadRequestException e) {
+            logger.warn("Location of entity {} not indexed: {}", key.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the position of the first attribute of a geo:* type, or -1 if none
+     */
+    private static int location(CompactEntity entity) {
+        if (entity == null) {
+            return -1;
+        }
+        for (int i = 0; i < entity.size(); i++) {
+            String type = entity.attributeType(i);
+            if (type != null && type.startsWith("geo:")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void addToIndex(ConcurrentMap<String, Set<EntityKey>> index, String value, EntityKey key) {
+        index.compute(value, (v, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(key);
+            return keys;
+        });
+    }
+
+    private static void removeFromIndex(ConcurrentMap<String, Set<EntityKey>> index, String value, EntityKey key) {
+        index.computeIfPresent(value, (v, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static List<Set<EntityKey>> lookup(ConcurrentMap<String, Set<EntityKey>> index, Collection<String> values) {
+        List<Set<EntityKey>> sets = new ArrayList<>(values.size());
+        for (String value : values) {
+            Set<EntityKey> keys = index.get(value);
+            if (keys != null) {
+                sets.add(keys);
+            }
+        }
+        return sets;
+    }
+
+    private static int count(List<Set<EntityKey>> sets) {
+        int count = 0;
+        for (Set<EntityKey> keys : sets) {
+            count += keys.size();
+        }
+        return count;
+    }
+
+    private static boolean nullOrEmpty(Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+}
@@ -0,0 +1,738 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.orange.ngsi2.exception.*;
+import com.orange.ngsi2.geo.GeoPredicate;
+import com.orange.ngsi2.model.*;
+import com.orange.ngsi2.server.CompiledQuery;
+import com.orange.ngsi2.server.Ngsi2BaseController;
+import com.orange.ngsi2.server.forwarding.RegistrationForwarder;
+import com.orange.ngsi2.server.forwarding.RegistrationIndex;
+import com.orange.ngsi2.server.notification.NotificationDispatcher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reference implementation of a NGSI v2 server keeping entities, registrations and subscriptions in memory.
+ *
+ * This class is not annotated as a controller so that it is not picked up by component scanning,
+ * declare it as a bean (or extend it with a @RestController) to expose it.
+ * When given a NotificationDispatcher, the subscriptions are notified of the changes of the entities.
+ * When given a RegistrationForwarder, entity queries are also forwarded to the registered context providers
+ * (except geographical queries) and their results merged with the local entities.
+ */
+public class InMemoryNgsi2Controller extends Ngsi2BaseController {
+
+    private static final String STRING_QUERY_SCOPE = "FIWARE::StringQuery";
+
+    private final InMemoryEntityStore entityStore;
+
+    /**
+     * As for the subscriptions, the index is updated from the atomic compute methods of the map
+     */
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * The compute methods of a ConcurrentHashMap being atomic, the dispatcher is called from them so that
+     * the subscriptions it knows always match the ones of the map
+     */
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    /** version of the last creation or update of each subscription */
+    private final ConcurrentMap<String, Long> subscriptionVersions = new ConcurrentHashMap<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    private final NotificationDispatcher notificationDispatcher;
+
+    private final RegistrationForwarder registrationForwarder;
+
+    private final RegistrationIndex registrationIndex;
+
+    public InMemoryNgsi2Controller() {
+        this(new InMemoryEntityStore());
+    }
+
+    public InMemoryNgsi2Controller(InMemoryEntityStore entityStore) {
+        this(entityStore, null);
+    }
+
+    /**
+     * @param entityStore the store of entities
+     * @param notificationDispatcher the dispatcher of notifications (null for none)
+     */
+    public InMemoryNgsi2Controller(InMemoryEntityStore entityStore, NotificationDispatcher notificationDispatcher) {
+        this(entityStore, notificationDispatcher, null);
+    }
+
+    /**
+     * @param entityStore the store of entities
+     * @param notificationDispatcher the dispatcher of notifications (null for none)
+     * @param registrationForwarder the forwarder of queries to context providers (null for none)
+     */
+    public InMemoryNgsi2Controller(InMemoryEntityStore entityStore, NotificationDispatcher notificationDispatcher,
+                                   RegistrationForwarder registrationForwarder) {
+        this.entityStore = entityStore;
+        this.notificationDispatcher = notificationDispatcher;
+        this.registrationForwarder = registrationForwarder;
+        this.registrationIndex = registrationForwarder != null ? registrationForwarder.getRegistrationIndex() : new RegistrationIndex();
+        if (notificationDispatcher != null) {
+            entityStore.addChangeListener(this::entityChanged);
+        }
+    }
+
+    /**
+     * @return the underlying entity store
+     */
+    public InMemoryEntityStore getEntityStore() {
+        return entityStore;
+    }
+
+    @Override
+    protected Map<String, String> listResources() throws Exception {
+        Map<String, String> resources = new HashMap<>();
+        resources.put("entities_url", "/v2/entities");
+        resources.put("types_url", "/v2/types");
+        resources.put("subscriptions_url", "/v2/subscriptions");
+        resources.put("registrations_url", "/v2/registrations");
+        return resources;
+    }
+
+    /*
+     * Entities
+     */
+
+    @Override
+    protected Paginated<Entity> listEntities(Set<String> ids, Set<String> types, String idPattern, int limit, int offset,
+                                             List<String> attrs, String query, GeoQuery geoQuery, List<String> orderBy) throws Exception {
+        return listEntities(ids, types, idPattern, limit, offset, attrs, query, query == null ? null : getQueryParser().compile(query), geoQuery, orderBy);
+    }
+
+    @Override
+    protected Paginated<Entity> listEntities(Set<String> ids, Set<String> types, String idPattern, int limit, int offset,
+                                             List<String> attrs, String query, CompiledQuery compiledQuery, GeoQuery geoQuery,
+                                             List<String> orderBy) throws Exception {
+        GeoPredicate geoPredicate = geoQuery == null ? null : GeoPredicate.of(geoQuery);
+        Stream<Entity> matching;
+        if (compiledQuery == null) {
+            matching = entityStore.find(ids, types, compilePattern(idPattern), null, geoPredicate);
+        } else {
+            // Any attribute required by the query restricts the candidates through the attribute index
+            List<String> required = compiledQuery.getRequiredAttributes();
+            matching = entityStore.find(ids, types, compilePattern(idPattern),
+                    required.isEmpty() ? null : Collections.singletonList(required.get(0)), geoPredicate).filter(compiledQuery::matches);
+        }
+        if (registrationForwarder != null && geoQuery == null) {
+            List<Entity> remote = registrationForwarder.listEntities(ids, types, idPattern, attrs, query);
+            if (!remote.isEmpty()) {
+                matching = RegistrationForwarder.merge(matching.collect(Collectors.toList()), remote).stream();
+            }
+        }
+        return paginate(matching, limit, offset, attrs, orderBy);
+    }
+
+    @Override
+    protected void createEntity(Entity entity) {
+        if (entity.getId() == null) {
+            throw new BadRequestException("missing entity id");
+        }
+        if (!entityStore.add(entity)) {
+            throw new AlreadyExistsException(entity.getId());
+        }
+    }
+
+    @Override
+    protected Entity retrieveEntity(String entityId, String type, List<String> attrs) throws ConflictingEntitiesException {
+        if (registrationForwarder == null) {
+            return project(resolve(entityId, type), attrs);
+        }
+        Entity local = type != null ? entityStore.get(entityId, type) : find(entityId);
+        Entity entity = registrationForwarder.retrieveEntity(local, entityId, type, attrs);
+        if (entity == null) {
+            throw new NotFoundException("entity " + entityId);
+        }
+        return project(entity, attrs);
+    }
+
+    /**
+     * Not versioned when registered by context providers, their attributes being merged
+     */
+    @Override
+    protected String retrieveEntityVersion(String entityId, String type) {
+        if (registrationForwarder != null) {
+            SubjectEntity queried = new SubjectEntity(Optional.of(entityId));
+            queried.setType(Optional.ofNullable(type));
+            if (!registrationIndex.match(Collections.singletonList(queried), null).isEmpty()) {
+                return null;
+            }
+        }
+        long version = type != null ? entityStore.getVersion(entityId, type) : entityStore.getVersionById(entityId);
+        return version < 0 ? null : Long.toString(version);
+    }
+
+    @Override
+    protected void updateOrAppendEntity(String entityId, String type, Map<String, Attribute> attributes, Boolean append) {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            if (append) {
+                attributes.keySet().stream().filter(current::containsKey).findFirst().ifPresent(name -> {
+                    throw new AlreadyExistsException(name);
+                });
+            }
+            current.putAll(attributes);
+        });
+    }
+
+    @Override
+    protected void updateExistingEntityAttributes(String entityId, String type, Map<String, Attribute> attributes) {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            attributes.keySet().stream().filter(name -> !current.containsKey(name)).findFirst().ifPresent(name -> {
+                throw new NotFoundException("attribute " + name);
+            });
+            current.putAll(attributes);
+        });
+    }
+
+    @Override
+    protected void replaceAllEntityAttributes(String entityId, String type, Map<String, Attribute> attributes) {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            current.clear();
+            current.putAll(attributes);
+        });
+    }
+
+    @Override
+    protected void removeEntity(String entityId) {
+        Entity entity = resolve(entityId, null);
+        if (entityStore.remove(entity.getId(), entity.getType()) == null) {
+            throw new NotFoundException("entity " + entityId);
+        }
+    }
+
+    /*
+     * Entity types
+     */
+
+    @Override
+    protected Paginated<EntityType> retrieveEntityTypes(int limit, int offset, boolean count) {
+        List<String> types = new ArrayList<>(entityStore.getTypes());
+        Collections.sort(types);
+        List<EntityType> entityTypes = page(types, limit, offset).stream().map(this::entityType).collect(Collectors.toList());
+        return new Paginated<>(entityTypes, offset, limit, types.size());
+    }
+
+    @Override
+    protected EntityType retrieveEntityType(String entityType) {
+        EntityType result = entityType(entityType);
+        if (result.getCount() == 0) {
+            throw new NotFoundException("type " + entityType);
+        }
+        result.setType(null);
+        return result;
+    }
+
+    @Override
+    protected String retrieveEntityTypeVersion(String entityType) {
+        long version = entityStore.getTypeVersion(entityType);
+        return version < 0 ? null : Long.toString(version);
+    }
+
+    /*
+     * Attributes
+     */
+
+    @Override
+    protected Attribute retrieveAttributeByEntityId(String entityId, String attrName, String type) throws ConflictingEntitiesException {
+        Attribute attribute = resolve(entityId, type).getAttributes().get(attrName);
+        if (attribute == null) {
+            throw new NotFoundException("attribute " + attrName);
+        }
+        return attribute;
+    }
+
+    @Override
+    protected void updateAttributeByEntityId(String entityId, String attrName, String type, Attribute attribute) throws ConflictingEntitiesException {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            if (!current.containsKey(attrName)) {
+                throw new NotFoundException("attribute " + attrName);
+            }
+            current.put(attrName, attribute);
+        });
+    }
+
+    @Override
+    protected void removeAttributeByEntityId(String entityId, String attrName, String type) throws ConflictingEntitiesException {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            if (current.remove(attrName) == null) {
+                throw new NotFoundException("attribute " + attrName);
+            }
+        });
+    }
+
+    @Override
+    protected Object retrieveAttributeValue(String entityId, String attrName, String type) {
+        return retrieveAttributeByEntityId(entityId, attrName, type).getValue();
+    }
+
+    @Override
+    protected void updateAttributeValue(String entityId, String attrName, String type, Object value) throws ConflictingEntitiesException {
+        Entity entity = resolve(entityId, type);
+        update(entity, current -> {
+            Attribute previous = current.get(attrName);
+            if (previous == null) {
+                throw new NotFoundException("attribute " + attrName);
+            }
+            // Stored attributes are shared with readers, never modify them in place
+            Attribute attribute = new Attribute(value);
+            attribute.setType(previous.getType());
+            attribute.setMetadata(previous.getMetadata());
+            current.put(attrName, attribute);
+        });
+    }
+
+    /*
+     * Registrations
+     */
+
+    @Override
+    protected List<Registration> listRegistrations() {
+        List<Registration> all = new ArrayList<>(registrations.values());
+        all.sort(Comparator.comparing(Registration::getId));
+        return all;
+    }
+
+    @Override
+    protected void createRegistration(Registration registration) {
+        if (registration.getId() == null) {
+            registration.setId(UUID.randomUUID().toString());
+        }
+        // an invalid idPattern aborts the creation
+        registrations.compute(registration.getId(), (id, previous) -> {
+            if (previous != null) {
+                throw new AlreadyExistsException(id);
+            }
+            registrationIndex.register(registration);
+            return registration;
+        });
+    }
+
+    @Override
+    protected Registration retrieveRegistration(String registrationId) {
+        Registration registration = registrations.get(registrationId);
+        if (registration == null) {
+            throw new NotFoundException("registration " + registrationId);
+        }
+        return registration;
+    }
+
+    @Override
+    protected void updateRegistration(String registrationId, Registration registration) {
+        Registration updated = registrations.computeIfPresent(registrationId, (id, previous) -> {
+            Registration next = new Registration(id, registration.getCallback() != null ? registration.getCallback() : previous.getCallback());
+            next.setSubject(registration.getSubject() != null ? registration.getSubject() : previous.getSubject());
+            next.setMetadata(registration.getMetadata() != null ? registration.getMetadata() : previous.getMetadata());
+            next.setDuration(registration.getDuration() != null ? registration.getDuration() : previous.getDuration());
+            registrationIndex.register(next);
+            return next;
+        });
+        if (updated == null) {
+            throw new NotFoundException("registration " + registrationId);
+        }
+    }
+
+    @Override
+    protected void removeRegistration(String registrationId) {
+        registrations.compute(registrationId, (id, previous) -> {
+            if (previous == null) {
+                throw new NotFoundException("registration " + id);
+            }
+            registrationIndex.unregister(id);
+            return null;
+        });
+    }
+
+    /*
+     * Subscriptions
+     */
+
+    @Override
+    protected Paginated<Subscription> listSubscriptions(int limit, int offset) throws Exception {
+        List<Subscription> all = new ArrayList<>(subscriptions.values());
+        all.sort(Comparator.comparing(Subscription::getId));
+        return new Paginated<>(page(all, limit, offset), offset, limit, all.size());
+    }
+
+    @Override
+    protected void createSubscription(Subscription subscription) {
+        if (subscription.getId() == null) {
+            subscription.setId(UUID.randomUUID().toString());
+        }
+        if (subscription.getStatus() == null) {
+            subscription.setStatus(Subscription.Status.active);
+        }
+        // an invalid idPattern or q expression aborts the creation
+        subscriptions.compute(subscription.getId(), (id, previous) -> {
+            if (previous != null) {
+                throw new AlreadyExistsException(id);
+            }
+            subscribe(subscription);
+            return subscription;
+        });
+        // once the subscription is visible, so that the content read after a version is never older than it
+        subscriptionVersions.put(subscription.getId(), versions.incrementAndGet());
+    }
+
+    @Override
+    protected Subscription retrieveSubscription(String subscriptionId) {
+        Subscription subscription = subscriptions.get(subscriptionId);
+        if (subscription == null) {
+            throw new NotFoundException("subscription " + subscriptionId);
+        }
+        return subscription;
+    }
+
+    /**
+     * The notification counters being updated in place, they are part of the version
+     */
+    @Override
+    protected String retrieveSubscriptionVersion(String subscriptionId) {
+        Subscription subscription = subscriptions.get(subscriptionId);
+        Long version = subscriptionVersions.get(subscriptionId);
+        if (subscription == null || version == null) {
+            return null;
+        }
+        Notification notification = subscription.getNotification();
+        return notification == null ? Long.toString(version) : version + "-" + notification.getTimesSent();
+    }
+
+    @Override
+    protected void updateSubscription(String subscriptionId, Subscription subscription) {
+        Subscription updated = subscriptions.computeIfPresent(subscriptionId, (id, previous) -> {
+            Subscription next = new Subscription(id,
+                    subscription.getSubject() != null ? subscription.getSubject() : previous.getSubject(),
+                    subscription.getNotification() != null ? subscription.getNotification() : previous.getNotification(),
+                    subscription.getExpires() != null ? subscription.getExpires() : previous.getExpires(),
+                    subscription.getStatus() != null ? subscription.getStatus() : previous.getStatus());
+            subscribe(next);
+            return next;
+        });
+        if (updated == null) {
+            throw new NotFoundException("subscription " + subscriptionId);
+        }
+        subscriptionVersions.put(subscriptionId, versions.incrementAndGet());
+    }
+
+    @Override
+    protected void removeSubscription(String subscriptionId) {
+        subscriptions.compute(subscriptionId, (id, previous) -> {
+            if (previous == null) {
+                throw new NotFoundException("subscription " + id);
+            }
+            if (notificationDispatcher != null) {
+                notificationDispatcher.unsubscribe(id);
+            }
+            subscriptionVersions.remove(id);
+            return null;
+        });
+    }
+
+    /*
+     * Bulk operations
+     */
+
+    /**
+     * Entities are processed one after the other, the whole request is not atomic:
+     * on error, the entities preceding the failing one are already updated.
+     */
+    @Override
+    protected void bulkUpdate(BulkUpdateRequest bulkUpdateRequest) {
+        BulkUpdateRequest.Action action = bulkUpdateRequest.getActionType();
+        for (Entity entity : bulkUpdateRequest.getEntities()) {
+            Map<String, Attribute> attributes = entity.getAttributes() == null ? Collections.emptyMap() : entity.getAttributes();
+            Entity existing = entity.getType() != null ? entityStore.get(entity.getId(), entity.getType()) : find(entity.getId());
+            switch (action) {
+                case APPEND:
+                case APPEND_STRICT:
+                    if (existing == null) {
+                        createEntity(entity);
+                    } else {
+                        updateOrAppendEntity(existing.getId(), existing.getType(), attributes, action == BulkUpdateRequest.Action.APPEND_STRICT);
+                    }
+                    break;
+                case UPDATE:
+                    if (existing == null) {
+                        throw new NotFoundException("entity " + entity.getId());
+                    }
+                    updateExistingEntityAttributes(existing.getId(), existing.getType(), attributes);
+                    break;
+                case DELETE:
+                    if (existing == null) {
+                        throw new NotFoundException("entity " + entity.getId());
+                    }
+                    if (attributes.isEmpty()) {
+                        entityStore.remove(existing.getId(), existing.getType());
+                    } else {
+                        update(existing, current -> current.keySet().removeAll(attributes.keySet()));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * The attributes of the request are used both to select the entities (an entity must have at least one of them)
+     * and to restrict the attributes returned. Only the FIWARE::StringQuery scope is supported.
+     */
+    @Override
+    protected Paginated<Entity> bulkQuery(BulkQueryRequest bulkQueryRequest, int limit, int offset, List<String> orderBy, Boolean count) {
+        List<CompiledQuery> queries = new ArrayList<>();
+        if (bulkQueryRequest.getScopes() != null) {
+            for (Scope scope : bulkQueryRequest.getScopes()) {
+                if (!STRING_QUERY_SCOPE.equals(scope.getType()) || scope.getValue() == null) {
+                    throw new UnsupportedOptionException(scope.getType());
+                }
+                queries.add(getQueryParser().compile(scope.getValue()));
+            }
+        }
+        List<String> attributes = bulkQueryRequest.getAttributes();
+        Stream<Entity> matching;
+        if (bulkQueryRequest.getEntities() == null || bulkQueryRequest.getEntities().isEmpty()) {
+            matching = entityStore.find(null, null, null, attributes);
+        } else {
+            Set<EntityKey> seen = new HashSet<>();
+            matching = bulkQueryRequest.getEntities().stream()
+                    .flatMap(subjectEntity -> find(subjectEntity, attributes))
+                    .filter(entity -> seen.add(new EntityKey(entity.getId(), entity.getType())));
+        }
+        for (CompiledQuery query : queries) {
+            matching = matching.filter(query::matches);
+        }
+        if (registrationForwarder != null) {
+            List<Entity> remote = registrationForwarder.bulkQuery(bulkQueryRequest);
+            if (!remote.isEmpty()) {
+                matching = RegistrationForwarder.merge(matching.collect(Collectors.toList()), remote).stream();
+            }
+        }
+        return paginate(matching, limit, offset, attributes, orderBy);
+    }
+
+    @Override
+    protected List<String> bulkRegister(BulkRegisterRequest bulkRegisterRequest) {
+        List<String> ids = new ArrayList<>();
+        for (Registration registration : bulkRegisterRequest.getRegistrations()) {
+            switch (bulkRegisterRequest.getActionType()) {
+                case CREATE:
+                    createRegistration(registration);
+                    break;
+                case UPDATE:
+                    updateRegistration(registration.getId(), registration);
+                    break;
+                case DELETE:
+                    removeRegistration(registration.getId());
+                    break;
+            }
+            ids.add(registration.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    protected Paginated<Registration> bulkDiscover(BulkQueryRequest bulkQueryRequest, int limit, int offset, Boolean count) {
+        List<Registration> matching = registrationIndex.match(bulkQueryRequest.getEntities(), bulkQueryRequest.getAttributes());
+        matching.sort(Comparator.comparing(Registration::getId));
+        return new Paginated<>(page(matching, limit, offset), offset, limit, matching.size());
+    }
+
+    /*
+     * Private methods
+     */
+
+    /**
+     * Resolve a single entity from its id and an optional type
+     * @throws NotFoundException if no entity matches
+     * @throws ConflictingEntitiesException if no type is given and several entities share the same id
+     */
+    private Entity resolve(String entityId, String type) {
+        if (type != null) {
+            Entity entity = entityStore.get(entityId, type);
+            if (entity == null) {
+                throw new NotFoundException("entity " + entityId);
+            }
+            return entity;
+        }
+        Entity entity = find(entityId);
+        if (entity == null) {
+            throw new NotFoundException("entity " + entityId);
+        }
+        return entity;
+    }
+
+    private void subscribe(Subscription subscription) {
+        if (notificationDispatcher != null) {
+            notificationDispatcher.subscribe(subscription);
+        }
+    }
+
+    /**
+     * The store gives the attributes added or replaced by each write.
+     * Removals of entities are not notified.
+     */
+    private void entityChanged(Entity previous, Entity next, Collection<String> changed) {
+        if (next == null || (previous != null && changed.isEmpty())) {
+            return;
+        }
+        notificationDispatcher.entityChanged(next, changed);
+    }
+
+    private Entity find(String entityId) {
+        List<Entity> entities = entityStore.getById(entityId);
+        if (entities.size() > 1) {
+            throw new ConflictingEntitiesException(entityId, "GET /v2/entities/" + entityId + "?type=");
+        }
+        return entities.isEmpty() ? null : entities.get(0);
+    }
+
+    private Stream<Entity> find(SubjectEntity subjectEntity, List<String> attributes) {
+        String id = value(subjectEntity.getId());
+        String type = value(subjectEntity.getType());
+        return entityStore.find(id == null ? null : Collections.singleton(id),
+                type == null ? null : Collections.singleton(type),
+                compilePattern(value(subjectEntity.getIdPattern())), attributes);
+    }
+
+    private void update(Entity entity, Consumer<Map<String, Attribute>> updater) {
+        if (entityStore.update(entity.getId(), entity.getType(), updater) == null) {
+            throw new NotFoundException("entity " + entity.getId());
+        }
+    }
+
+    private EntityType entityType(String type) {
+        EntityType entityType = new EntityType(type, new HashMap<>(), 0);
+        entityStore.findByType(type).forEach(entity -> {
+            entityType.setCount(entityType.getCount() + 1);
+            entity.getAttributes().forEach((name, attribute) -> entityType.getAttrs().computeIfAbsent(name,
+                    n -> new AttributeType(attribute.getType() != null ? attribute.getType().orElse(null) : null)));
+        });
+        return entityType;
+    }
+
+    /**
+     * Only the references to the matching snapshots are collected (to count and sort them),
+     * the page is streamed and each entity is projected while it is written to the response.
+     */
+    private Paginated<Entity> paginate(Stream<Entity> entities, int limit, int offset, List<String> attrs, List<String> orderBy) {
+        List<Entity> matching = entities.collect(Collectors.toList());
+        if (orderBy != null && !orderBy.isEmpty()) {
+            matching.sort(comparator(orderBy));
+        }
+        Iterator<Entity> items = page(matching, limit, offset).stream().map(entity -> project(entity, attrs)).iterator();
+        return new Paginated<>(items, offset, limit, matching.size());
+    }
+
+    private static <T> List<T> page(List<T> items, int limit, int offset) {
+        int from = Math.min(offset, items.size());
+        int to = limit > 0 ? Math.min(items.size(), from + limit) : items.size();
+        return items.subList(from, to);
+    }
+
+    /**
+     * @return a copy of the entity restricted to the given attributes, or the entity itself if no attributes are given
+     */
+    private static Entity project(Entity entity, Collection<String> attrs) {
+        if (attrs == null || attrs.isEmpty()) {
+            return entity;
+        }
+        Map<String, Attribute> attributes = new HashMap<>();
+        for (String name : attrs) {
+            Attribute attribute = entity.getAttributes().get(name);
+            if (attribute != null) {
+                attributes.put(name, attribute);
+            }
+        }
+        return new Entity(entity.getId(), entity.getType(), attributes);
+    }
+
+    /**
+     * Order by a list of attributes, "id" and "type" referring to the entity id and type.
+     * A name starting with "!" means descending order. Entities missing an attribute come last.
+     */
+    private static Comparator<Entity> comparator(List<String> orderBy) {
+        Comparator<Entity> comparator = null;
+        for (String field : orderBy) {
+            boolean descending = field.startsWith("!");
+            String name = descending ? field.substring(1) : field;
+            Comparator<Entity> next = (e1, e2) -> compareValues(fieldValue(e1, name), fieldValue(e2, name), descending);
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return comparator;
+    }
+
+    private static Object fieldValue(Entity entity, String name) {
+        if ("id".equals(name)) {
+            return entity.getId();
+        } else if ("type".equals(name)) {
+            return entity.getType();
+        }
+        Attribute attribute = entity.getAttributes().get(name);
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object v1, Object v2, boolean descending) {
+        if (v1 == null || v2 == null) {
+            return v1 == v2 ? 0 : (v1 == null ? 1 : -1);
+        }
+        int result;
+        if (v1 instanceof Number && v2 instanceof Number) {
+            result = Double.compare(((Number) v1).doubleValue(), ((Number) v2).doubleValue());
+        } else if (v1 instanceof Comparable && v1.getClass() == v2.getClass()) {
+            result = ((Comparable<Object>) v1).compareTo(v2);
+        } else {
+            result = v1.toString().compareTo(v2.toString());
+        }
+        return descending ? -result : result;
+    }
+
+    private static Pattern compilePattern(String idPattern) {
+        if (idPattern == null) {
+            return null;
+        }
+        try {
+            return Pattern.compile(idPattern);
+        } catch (PatternSyntaxException e) {
+            throw new InvalidatedSyntaxException(idPattern);
+        }
+    }
+
+    private static String value(Optional<String> optional) {
+        return optional == null ? null : optional.orElse(null);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.Metadata;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CompactEntity
+ */
+public class CompactEntityTest {
+
+    private final Map<String, String> strings = new HashMap<>();
+
+    private final UnaryOperator<String> interner = string -> strings.computeIfAbsent(string, s -> s);
+
+    @Test
+    public void testValues() {
+        Map<String, Attribute> attributes = new LinkedHashMap<>();
+        attributes.put("name", attribute("Boe", "Text"));
+        attributes.put("temperature", attribute(22.5, "Number"));
+        attributes.put("count", attribute(12, null));
+        attributes.put("timestamp", attribute(1466010222000L, "Number"));
+        attributes.put("open", attribute(true, "Boolean"));
+        attributes.put("empty", attribute(null, "None"));
+        attributes.put("list", attribute(Arrays.asList(1, 2), "List"));
+
+        Entity entity = CompactEntity.of("Boe-Idearium", "Room", attributes, 0, interner).toEntity();
+
+        assertEquals("Boe-Idearium", entity.getId());
+        assertEquals("Room", entity.getType());
+        assertEquals(new ArrayList<>(attributes.keySet()), new ArrayList<>(entity.getAttributes().keySet()));
+        for (Map.Entry<String, Attribute> entry : attributes.entrySet()) {
+            Attribute attribute = entity.getAttributes().get(entry.getKey());
+            assertEquals(entry.getValue().getValue(), attribute.getValue());
+            assertEquals(entry.getValue().getType(), attribute.getType());
+        }
+        assertEquals(Integer.class, entity.getAttributes().get("count").getValue().getClass());
+        assertEquals(Long.class, entity.getAttributes().get("timestamp").getValue().getClass());
+        // other values are kept as a copy
+        assertNotSame(attributes.get("list"), entity.getAttributes().get("list"));
+        assertNotSame(attributes.get("list").getValue(), entity.getAttributes().get("list").getValue());
+    }
+
+    @Test
+    public void testTypes() {
+        Map<String, Attribute> attributes = new HashMap<>();
+        Attribute untyped = new Attribute("value");
+        untyped.setType(null);
+        attributes.put("untyped", untyped);
+        attributes.put("empty", attribute("value", null));
+
+        Entity entity = CompactEntity.of("id", null, attributes, 0, interner).toEntity();
+
+        assertNull(entity.getType());
+        assertNull(entity.getAttributes().get("untyped").getType());
+        assertEquals(Optional.empty(), entity.getAttributes().get("empty").getType());
+    }
+
+    @Test
+    public void testMetadataKept() {
+        Attribute attribute = attribute(20, "Number");
+        attribute.setMetadata(Collections.singletonMap("unit", new Metadata("Text", "celsius")));
+
+        CompactEntity entity = CompactEntity.of("id", "Room", Collections.singletonMap("temperature", attribute), 0, interner);
+
+        Attribute kept = entity.toEntity().getAttributes().get("temperature");
+        assertEquals(20, kept.getValue());
+        assertEquals("celsius", kept.getMetadata().get("unit").getValue());
+        assertEquals("Number", entity.attributeType(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testKeptAttributesCopied() {
+        Map<String, Object> coordinates = new LinkedHashMap<>();
+        coordinates.put("type", "Point");
+        coordinates.put("coordinates", new ArrayList<>(Arrays.asList(2.3, 48.1)));
+        Attribute attribute = attribute(coordinates, "geo:json");
+        attribute.addMetadata("accuracy", new Metadata("Number", 10));
+
+        CompactEntity entity = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute), 0, interner);
+
+        // neither the given attribute nor the ones of a view change the stored one
+        coordinates.put("type", "Polygon");
+        attribute.getMetadata().get("accuracy").setValue(20);
+        Attribute read = entity.toEntity().getAttributes().get("location");
+        ((List<Object>) ((Map<String, Object>) read.getValue()).get("coordinates")).set(0, 0.0);
+        read.getMetadata().put("unit", new Metadata("Text", "m"));
+        read.setType(Optional.of("Text"));
+
+        Attribute stored = entity.toEntity().getAttributes().get("location");
+        assertEquals("Point", ((Map<?, ?>) stored.getValue()).get("type"));
+        assertEquals(Arrays.asList(2.3, 48.1), ((Map<?, ?>) stored.getValue()).get("coordinates"));
+        assertEquals(Collections.singleton("accuracy"), stored.getMetadata().keySet());
+        assertEquals(10, stored.getMetadata().get("accuracy").getValue());
+        assertEquals(Optional.of("geo:json"), stored.getType());
+    }
+
+    @Test
+    public void testSameKeptAttribute() {
+        Map<String, Object> point = new LinkedHashMap<>();
+        point.put("type", "Point");
+        point.put("coordinates", Arrays.asList(2.3, 48.1));
+        Map<String, Object> moved = new LinkedHashMap<>(point);
+        moved.put("coordinates", Arrays.asList(2.4, 48.1));
+        CompactEntity first = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute(point, "geo:json")), 0, interner);
+        // an unchanged attribute of an update is the copy given by the view of the previous snapshot
+        CompactEntity same = CompactEntity.of("id", "Car", first.toEntity().getAttributes(), 1, interner);
+        CompactEntity other = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute(moved, "geo:json")), 2, interner);
+
+        assertTrue(first.sameAttribute(0, same, 0));
+        assertFalse(first.sameAttribute(0, other, 0));
+    }
+
+    @Test
+    public void testIndex() {
+        Map<String, Attribute> attributes = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            attributes.put("attribute" + i, attribute(i, "Number"));
+        }
+
+        CompactEntity entity = CompactEntity.of("id", "Room", attributes, 0, interner);
+
+        assertEquals(100, entity.size());
+        for (int i = 0; i < 100; i++) {
+            // not the interned string
+            String name = new String("attribute" + i);
+            assertEquals(i, entity.position(name));
+            assertEquals(i, entity.toEntity().getAttributes().get(name).getValue());
+        }
+        assertEquals(-1, entity.position("unknown"));
+        assertFalse(entity.has("attribute100"));
+        assertNull(entity.toEntity().getAttributes().get("unknown"));
+    }
+
+    @Test
+    public void testInterning() {
+        CompactEntity first = CompactEntity.of("id1", "Room", Collections.singletonMap(new String("temperature"), attribute(1, new String("Number"))), 0, interner);
+        CompactEntity second = CompactEntity.of("id2", "Room", Collections.singletonMap(new String("temperature"), attribute(2, new String("Number"))), 0, interner);
+
+        assertSame(first.name(0), second.name(0));
+        assertSame(first.attributeType(0), second.attributeType(0));
+    }
+
+    @Test
+    public void testSameAttribute() {
+        CompactEntity first = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute("48.1,2.3", "geo:point")), 0, interner);
+        CompactEntity same = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute("48.1,2.3", "geo:point")), 0, interner);
+        CompactEntity moved = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute("48.2,2.3", "geo:point")), 0, interner);
+        CompactEntity retyped = CompactEntity.of("id", "Car", Collections.singletonMap("location", attribute("48.1,2.3", "Text")), 0, interner);
+
+        assertTrue(first.sameAttribute(0, same, 0));
+        assertFalse(first.sameAttribute(0, moved, 0));
+        assertFalse(first.sameAttribute(0, retyped, 0));
+    }
+
+    @Test
+    public void testView() {
+        Entity entity = CompactEntity.of("id", "Room", Collections.singletonMap("temperature", attribute(20, "Number")), 0, interner).toEntity();
+
+        // the same attribute is given by a view on each call
+        assertSame(entity.getAttributes().get("temperature"), entity.getAttributes().get("temperature"));
+        assertSame(entity.getAttributes().get("temperature"), entity.getAttributes().values().iterator().next());
+        assertTrue(entity.getAttributes().containsKey("temperature"));
+        assertEquals(1, entity.getAttributes().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnlyView() {
+        Entity entity = CompactEntity.of("id", "Room", Collections.emptyMap(), 0, interner).toEntity();
+        entity.getAttributes().put("temperature", attribute(20, "Number"));
+    }
+
+    private static Attribute attribute(Object value, String type) {
+        Attribute attribute = new Attribute(value);
+        attribute.setType(Optional.ofNullable(type));
+        return attribute;
+    }
+}
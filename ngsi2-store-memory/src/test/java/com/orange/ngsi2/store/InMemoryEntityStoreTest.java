@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.orange.ngsi2.exception.BadRequestException;
+import com.orange.ngsi2.geo.GeoPredicate;
+import com.orange.ngsi2.model.Attribute;
+import com.orange.ngsi2.model.Coordinate;
+import com.orange.ngsi2.model.Entity;
+import com.orange.ngsi2.model.GeoQuery;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for InMemoryEntityStore
+ */
+public class InMemoryEntityStoreTest {
+
+    private InMemoryEntityStore store;
+
+    @Before
+    public void setup() {
+        store = new InMemoryEntityStore();
+        store.add(entity("DC_S1-D41", "Room", "temperature", 35.6));
+        store.add(entity("Boe-Idearium", "Room", "temperature", 22.5));
+        store.add(entity("Boe-Idearium", "Office", "humidity", 60));
+        store.add(entity("P-9873-K", "Car", "speed", 100));
+    }
+
+    @Test
+    public void testAddAndGet() {
+        assertEquals(4, store.size());
+        assertFalse(store.add(entity("P-9873-K", "Car", "speed", 120)));
+        assertEquals(100, store.get("P-9873-K", "Car").getAttributes().get("speed").getValue());
+        assertNull(store.get("P-9873-K", "Room"));
+        assertEquals(2, store.getById("Boe-Idearium").size());
+        assertTrue(store.getById("unknown").isEmpty());
+    }
+
+    @Test
+    public void testVersions() {
+        long car = store.getVersion("P-9873-K", "Car");
+        long room = store.getVersion("DC_S1-D41", "Room");
+        long rooms = store.getTypeVersion("Room");
+        assertTrue(car > 0);
+        assertEquals(car, store.getVersionById("P-9873-K"));
+        assertEquals(-1, store.getVersionById("Boe-Idearium"));
+        assertEquals(-1, store.getVersion("unknown", "Car"));
+        assertEquals(-1, store.getTypeVersion("Bike"));
+
+        store.update("P-9873-K", "Car", attributes -> attributes.put("speed", new Attribute(120)));
+        assertTrue(store.getVersion("P-9873-K", "Car") > car);
+        assertEquals(room, store.getVersion("DC_S1-D41", "Room"));
+        assertEquals(rooms, store.getTypeVersion("Room"));
+
+        store.remove("Boe-Idearium", "Room");
+        assertNotEquals(rooms, store.getTypeVersion("Room"));
+        store.remove("DC_S1-D41", "Room");
+        assertEquals(-1, store.getTypeVersion("Room"));
+        assertEquals(-1, store.getVersion("DC_S1-D41", "Room"));
+    }
+
+    @Test
+    public void testListener() {
+        List<Entity[]> changes = new ArrayList<>();
+        List<Collection<String>> changedAttributes = new ArrayList<>();
+        store.addListener((previous, next) -> changes.add(new Entity[] {previous, next}));
+        store.addChangeListener((previous, next, changed) -> changedAttributes.add(changed));
+
+        store.add(entity("Boe-Idearium", "Hall", "temperature", 20));
+        assertFalse(store.add(entity("Boe-Idearium", "Hall", "temperature", 20)));
+        Attribute speed = store.get("P-9873-K", "Car").getAttributes().get("speed");
+        store.update("P-9873-K", "Car", attributes -> attributes.put("fuel", new Attribute(20)));
+        store.remove("P-9873-K", "Car");
+        assertNull(store.update("P-9873-K", "Car", attributes -> attributes.put("fuel", new Attribute(30))));
+
+        assertEquals(3, changes.size());
+        assertNull(changes.get(0)[0]);
+        assertEquals("Hall", changes.get(0)[1].getType());
+        assertEquals(speed.getValue(), changes.get(1)[0].getAttributes().get("speed").getValue());
+        assertEquals(speed.getValue(), changes.get(1)[1].getAttributes().get("speed").getValue());
+        assertTrue(changes.get(1)[1].getAttributes().containsKey("fuel"));
+        assertEquals(changes.get(1)[1].getAttributes().keySet(), changes.get(2)[0].getAttributes().keySet());
+        assertNull(changes.get(2)[1]);
+        // only the replaced attributes are changed
+        assertEquals(Collections.singleton("temperature"), new HashSet<>(changedAttributes.get(0)));
+        assertEquals(Collections.singletonList("fuel"), changedAttributes.get(1));
+        assertTrue(changedAttributes.get(2).isEmpty());
+    }
+
+    @Test
+    public void testFindByIdAndType() {
+        assertEquals(Collections.singletonList("Room"), ids(store.find(Collections.singleton("Boe-Idearium"), Collections.singleton("Room"), null, null)
+                .map(Entity::getType)));
+        assertEquals(Arrays.asList("Boe-Idearium", "DC_S1-D41"), ids(store.find(null, Collections.singleton("Room"), null, null).map(Entity::getId)));
+        assertEquals(0, store.find(null, Collections.singleton("Unknown"), null, null).count());
+        assertEquals(4, store.find(null, null, null, null).count());
+    }
+
+    @Test
+    public void testFindByPatternAndAttributes() {
+        assertEquals(Arrays.asList("Boe-Idearium", "Boe-Idearium"), ids(store.find(null, null, Pattern.compile("^Boe"), null).map(Entity::getId)));
+        assertEquals(Arrays.asList("Boe-Idearium", "DC_S1-D41"), ids(store.find(null, null, null, Collections.singleton("temperature")).map(Entity::getId)));
+        assertEquals(3, store.find(null, null, null, Arrays.asList("temperature", "humidity")).count());
+        assertEquals(1, store.find(null, Collections.singleton("Office"), null, Arrays.asList("temperature", "humidity")).count());
+    }
+
+    @Test
+    public void testFindByLocation() {
+        store.update("P-9873-K", "Car", attributes -> attributes.put("location", location("45.188, 5.724")));
+        store.update("DC_S1-D41", "Room", attributes -> attributes.put("location", location("45.19, 5.73")));
+        GeoPredicate near = GeoPredicate.of(new GeoQuery(GeoQuery.Modifier.maxDistance, 1000, GeoQuery.Geometry.point,
+                Collections.singletonList(new Coordinate(45.19, 5.72))));
+        assertEquals(Arrays.asList("DC_S1-D41", "P-9873-K"), ids(store.find(null, null, null, null, near).map(Entity::getId)));
+        assertEquals(Collections.singletonList("DC_S1-D41"), ids(store.find(null, Collections.singleton("Room"), null, null, near).map(Entity::getId)));
+        assertNotNull(store.getLocation("P-9873-K", "Car"));
+
+        // moving away
+        store.update("P-9873-K", "Car", attributes -> attributes.put("location", location("48.85, 2.35")));
+        assertEquals(Collections.singletonList("DC_S1-D41"), ids(store.find(null, null, null, null, near).map(Entity::getId)));
+        store.remove("DC_S1-D41", "Room");
+        assertEquals(0, store.find(null, null, null, null, near).count());
+        assertNull(store.getLocation("DC_S1-D41", "Room"));
+    }
+
+    @Test
+    public void testInvalidLocationIsNotIndexed() {
+        assertNotNull(store.update("P-9873-K", "Car", attributes -> attributes.put("location", location("north pole"))));
+        assertTrue(store.get("P-9873-K", "Car").getAttributes().containsKey("location"));
+        assertNull(store.getLocation("P-9873-K", "Car"));
+    }
+
+    @Test
+    public void testUnsupportedLocationsAreNotIndexed() {
+        Map<String, Object> multiPolygon = new HashMap<>();
+        multiPolygon.put("type", "MultiPolygon");
+        multiPolygon.put("coordinates", Collections.singletonList(Collections.singletonList(Arrays.asList(
+                Arrays.asList(0, 0), Arrays.asList(10, 0), Arrays.asList(10, 10), Arrays.asList(0, 0)))));
+        Attribute area = new Attribute(multiPolygon);
+        area.setType(Optional.of("geo:json"));
+        Entity district = new Entity("District-1", "District");
+        district.setAttributes("area", area);
+        assertTrue(store.add(district));
+        assertNotNull(store.get("District-1", "District"));
+        assertNull(store.getLocation("District-1", "District"));
+
+        Attribute place = new Attribute("somewhere");
+        place.setType(Optional.of("geo:foo"));
+        Entity park = new Entity("Park-1", "Park");
+        park.setAttributes("place", place);
+        assertTrue(store.add(park));
+        assertNotNull(store.get("Park-1", "Park"));
+        assertNull(store.getLocation("Park-1", "Park"));
+    }
+
+    @Test
+    public void testUpdateReindexesAttributes() {
+        Entity updated = store.update("P-9873-K", "Car", attributes -> {
+            attributes.remove("speed");
+            attributes.put("temperature", new Attribute(12));
+        });
+        assertNotNull(updated);
+        assertNull(updated.getAttributes().get("speed"));
+        assertEquals(0, store.find(null, null, null, Collections.singleton("speed")).count());
+        assertEquals(3, store.find(null, null, null, Collections.singleton("temperature")).count());
+        assertNull(store.update("unknown", null, attributes -> attributes.clear()));
+    }
+
+    @Test
+    public void testFailedUpdateLeavesEntityUnchanged() {
+        try {
+            store.update("P-9873-K", "Car", attributes -> {
+                attributes.clear();
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(1, store.get("P-9873-K", "Car").getAttributes().size());
+            assertEquals(1, store.find(null, null, null, Collections.singleton("speed")).count());
+        }
+    }
+
+    @Test
+    public void testRemove() {
+        assertNotNull(store.remove("Boe-Idearium", "Office"));
+        assertNull(store.remove("Boe-Idearium", "Office"));
+        assertEquals(1, store.getById("Boe-Idearium").size());
+        assertFalse(store.getTypes().contains("Office"));
+        assertEquals(0, store.find(null, null, null, Collections.singleton("humidity")).count());
+        store.clear();
+        assertEquals(0, store.size());
+        assertTrue(store.getTypes().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception {
+        store.clear();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    String id = "e" + (i % 50);
+                    store.add(entity(id, "T", "a", i));
+                    store.update(id, "T", attributes -> attributes.put("b", new Attribute(1)));
+                    if (i % 3 == 0) {
+                        store.remove(id, "T");
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        // indexes must reflect exactly the content of the store
+        assertEquals(store.size(), store.find(null, Collections.singleton("T"), null, null).count());
+        assertEquals(store.size(), store.find(null, null, null, Collections.singleton("a")).count());
+    }
+
+    private static List<String> ids(Stream<String> ids) {
+        return ids.sorted().collect(Collectors.toList());
+    }
+
+    private static Entity entity(String id, String type, String attributeName, Object value) {
+        Entity entity = new Entity(id, type);
+        entity.setAttributes(attributeName, new Attribute(value));
+        return entity;
+    }
+
+    private static Attribute location(String value) {
+        Attribute attribute = new Attribute(value);
+        attribute.setType(Optional.of("geo:point"));
+        return attribute;
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.orange.ngsi2.model.*;
+import com.orange.ngsi2.server.forwarding.RegistrationForwarder;
+import com.orange.ngsi2.server.notification.NotificationDispatcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.match.MockRestRequestMatchers;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withNoContent;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
+
+/**
+ * Tests for InMemoryNgsi2Controller through the NGSI v2 endpoints
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = TestConfiguration.class)
+@WebAppConfiguration
+public class InMemoryNgsi2ControllerTest {
+
+    private MockMvc mockMvc;
+
+    @Autowired
+    private WebApplicationContext webApplicationContext;
+
+    @Autowired
+    private InMemoryNgsi2Controller controller;
+
+    @Autowired
+    private AsyncRestTemplate notificationRestTemplate;
+
+    @Autowired
+    private AsyncRestTemplate forwardingRestTemplate;
+
+    @Before
+    public void setup() throws Exception {
+        this.mockMvc = webAppContextSetup(webApplicationContext).build();
+        controller.getEntityStore().clear();
+        createEntity("{\"id\":\"DC_S1-D41\",\"type\":\"Room\",\"temperature\":{\"value\":35.6},\"humidity\":{\"value\":40}}");
+        createEntity("{\"id\":\"Boe-Idearium\",\"type\":\"Room\",\"temperature\":{\"value\":22.5}}");
+        createEntity("{\"id\":\"Boe-Idearium\",\"type\":\"Office\",\"temperature\":{\"value\":19.5}}");
+        createEntity("{\"id\":\"P-9873-K\",\"type\":\"Car\",\"speed\":{\"value\":100,\"type\":\"number\"}}");
+    }
+
+    @Test
+    public void checkCreateEntityAlreadyExists() throws Exception {
+        mockMvc.perform(post("/v2/entities").content("{\"id\":\"P-9873-K\",\"type\":\"Car\"}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnprocessableEntity())
+                .andExpect(jsonPath("$.error").value("422"));
+    }
+
+    @Test
+    public void checkKeyValues() throws Exception {
+        mockMvc.perform(post("/v2/entities").param("options", "keyValues")
+                .content("{\"id\":\"Bike-1\",\"type\":\"Bike\",\"speed\":12.5,\"brand\":\"Acme\",\"location\":{\"lat\":45.2}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mockMvc.perform(patch("/v2/entities/Bike-1").param("options", "keyValues").content("{\"speed\":14}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/entities/Bike-1").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.speed.value").value(14))
+                .andExpect(jsonPath("$.speed.type").value("Number"))
+                .andExpect(jsonPath("$.brand.type").value("Text"))
+                .andExpect(jsonPath("$.location.type").value("StructuredValue"));
+        mockMvc.perform(get("/v2/entities/Bike-1").param("options", "keyValues").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.speed").value(14))
+                .andExpect(jsonPath("$.location.lat").value(45.2));
+    }
+
+    @Test
+    public void checkRetrieveEntity() throws Exception {
+        mockMvc.perform(get("/v2/entities/P-9873-K").param("attrs", "speed").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value("P-9873-K"))
+                .andExpect(jsonPath("$.type").value("Car"))
+                .andExpect(jsonPath("$.speed.value").value(100))
+                .andExpect(jsonPath("$.speed.type").value("number"));
+    }
+
+    @Test
+    public void checkRetrieveEntityNotFound() throws Exception {
+        mockMvc.perform(get("/v2/entities/unknown").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.error").value("404"));
+    }
+
+    @Test
+    public void checkRetrieveEntityConflicting() throws Exception {
+        mockMvc.perform(get("/v2/entities/Boe-Idearium").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isConflict());
+        mockMvc.perform(get("/v2/entities/Boe-Idearium").param("type", "Office").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.temperature.value").value(19.5));
+    }
+
+    @Test
+    public void checkListEntitiesByType() throws Exception {
+        mockMvc.perform(get("/v2/entities").param("type", "Room").param("orderBy", "!temperature").param("options", "count")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "2"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].id").value("DC_S1-D41"))
+                .andExpect(jsonPath("$[1].id").value("Boe-Idearium"));
+    }
+
+    @Test
+    public void checkListEntitiesPaginated() throws Exception {
+        mockMvc.perform(get("/v2/entities").param("orderBy", "id,type").param("offset", "1").param("limit", "2")
+                .param("attrs", "temperature").param("options", "count").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "4"))
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].type").value("Room"))
+                .andExpect(jsonPath("$[0].temperature.value").value(22.5))
+                .andExpect(jsonPath("$[1].id").value("DC_S1-D41"))
+                .andExpect(jsonPath("$[1].humidity").doesNotExist());
+    }
+
+    @Test
+    public void checkListEntitiesByIdPattern() throws Exception {
+        mockMvc.perform(get("/v2/entities").param("idPattern", "^Boe").param("type", "Office").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].type").value("Office"));
+    }
+
+    @Test
+    public void checkListEntitiesByQuery() throws Exception {
+        mockMvc.perform(get("/v2/entities").param("query", "temperature>20;!humidity").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id").value("Boe-Idearium"))
+                .andExpect(jsonPath("$[0].type").value("Room"));
+        mockMvc.perform(get("/v2/entities").param("query", "temperature==19..23").param("orderBy", "temperature")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].type").value("Office"));
+        mockMvc.perform(get("/v2/entities").param("query", "speed==").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void checkListEntitiesByLocation() throws Exception {
+        createEntity("{\"id\":\"Bus-12\",\"type\":\"Bus\",\"location\":{\"value\":\"45.188, 5.724\",\"type\":\"geo:point\"}}");
+        createEntity("{\"id\":\"Bus-13\",\"type\":\"Bus\",\"location\":{\"value\":\"45.166, 5.717\",\"type\":\"geo:point\"}}");
+        mockMvc.perform(get("/v2/entities").param("georel", "near;maxDistance:1000").param("geometry", "point")
+                .param("coords", "45.19,5.72").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id").value("Bus-12"));
+        mockMvc.perform(get("/v2/entities").param("georel", "coveredBy").param("geometry", "polygon")
+                .param("coords", "45.1,5.7;45.2,5.7;45.2,5.8;45.1,5.8;45.1,5.7").param("orderBy", "id").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[1].id").value("Bus-13"));
+        mockMvc.perform(get("/v2/entities").param("georel", "near;maxDistance:1000").param("geometry", "box")
+                .param("coords", "45.1,5.7;45.2,5.8").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void checkCreateEntityInvalidLocation() throws Exception {
+        mockMvc.perform(post("/v2/entities").content("{\"id\":\"Bus-14\",\"location\":{\"value\":\"nowhere\",\"type\":\"geo:point\"}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/v2/entities/Bus-14").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void checkUpdateOrAppendEntity() throws Exception {
+        mockMvc.perform(post("/v2/entities/P-9873-K").content("{\"fuel\":{\"value\":80}}").param("options", "append")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post("/v2/entities/P-9873-K").content("{\"fuel\":{\"value\":70}}").param("options", "append")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isUnprocessableEntity());
+        mockMvc.perform(get("/v2/entities/P-9873-K/attrs/fuel/value").accept(MediaType.TEXT_PLAIN))
+                .andExpect(status().isOk())
+                .andExpect(content().string("80"));
+    }
+
+    @Test
+    public void checkUpdateExistingEntityAttributesNotFound() throws Exception {
+        mockMvc.perform(patch("/v2/entities/P-9873-K").content("{\"fuel\":{\"value\":80}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void checkRemoveEntity() throws Exception {
+        mockMvc.perform(delete("/v2/entities/P-9873-K").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/entities/P-9873-K").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void checkRetrieveEntityType() throws Exception {
+        mockMvc.perform(get("/v2/types/Room").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.count").value(2))
+                .andExpect(jsonPath("$.attrs.temperature").exists())
+                .andExpect(jsonPath("$.attrs.humidity").exists());
+        mockMvc.perform(get("/v2/types").param("options", "count").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "3"))
+                .andExpect(jsonPath("$[0].type").value("Car"));
+    }
+
+    @Test
+    public void checkConditionalRetrieve() throws Exception {
+        String entityETag = mockMvc.perform(get("/v2/entities/P-9873-K").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        String typeETag = mockMvc.perform(get("/v2/types/Car").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertTrue(entityETag.startsWith("W/\""));
+        mockMvc.perform(get("/v2/entities/P-9873-K").header("If-None-Match", entityETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", entityETag))
+                .andExpect(content().string(""));
+        mockMvc.perform(get("/v2/types/Car").header("If-None-Match", typeETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+        // other entities do not change the version of the entity
+        mockMvc.perform(post("/v2/entities/DC_S1-D41").content("{\"temperature\":{\"value\":36}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/entities/P-9873-K").header("If-None-Match", entityETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(post("/v2/entities/P-9873-K").content("{\"speed\":{\"value\":110}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/entities/P-9873-K").header("If-None-Match", entityETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.speed.value").value(110));
+        mockMvc.perform(get("/v2/types/Car").header("If-None-Match", typeETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(post("/v2/subscriptions").content("{\"id\":\"conditional\",\"subject\":{\"entities\":[{\"type\":\"Bike\"}]},"
+                + "\"notification\":{\"callback\":\"http://localhost:1234\"}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        String subscriptionETag = mockMvc.perform(get("/v2/subscriptions/conditional").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        mockMvc.perform(get("/v2/subscriptions/conditional").header("If-None-Match", subscriptionETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(patch("/v2/subscriptions/conditional").content("{\"subject\":{\"entities\":[{\"type\":\"Bike\"}]},"
+                + "\"notification\":{\"callback\":\"http://localhost:1234\"},\"status\":\"expired\"}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/subscriptions/conditional").header("If-None-Match", subscriptionETag).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("expired"));
+        mockMvc.perform(delete("/v2/subscriptions/conditional").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void checkBulkUpdateAndQuery() throws Exception {
+        mockMvc.perform(post("/v2/op/update").content("{\"actionType\":\"APPEND\",\"entities\":["
+                + "{\"id\":\"P-9873-K\",\"type\":\"Car\",\"fuel\":{\"value\":80}},"
+                + "{\"id\":\"Q-1234-A\",\"type\":\"Car\",\"fuel\":{\"value\":20}}]}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post("/v2/op/query").content("{\"entities\":[{\"type\":\"Car\"},{\"idPattern\":\"^DC\"}],"
+                + "\"attributes\":[\"fuel\",\"humidity\"],\"scopes\":[]}").param("orderBy", "id").param("options", "count")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Total-Count", "3"))
+                .andExpect(jsonPath("$[0].id").value("DC_S1-D41"))
+                .andExpect(jsonPath("$[0].temperature").doesNotExist())
+                .andExpect(jsonPath("$[1].fuel.value").value(80))
+                .andExpect(jsonPath("$[1].speed").doesNotExist())
+                .andExpect(jsonPath("$[2].id").value("Q-1234-A"));
+    }
+
+    @Test
+    public void checkBulkQueryWithStringQuery() throws Exception {
+        mockMvc.perform(post("/v2/op/query").content("{\"entities\":[{\"idPattern\":\".*\"}],\"attributes\":[],"
+                + "\"scopes\":[{\"type\":\"FIWARE::StringQuery\",\"value\":\"speed>=100\"}]}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].id").value("P-9873-K"));
+    }
+
+    @Test
+    public void checkSubscriptions() throws Exception {
+        mockMvc.perform(post("/v2/subscriptions").content("{\"id\":\"abcdef\",\"subject\":{\"entities\":[{\"type\":\"Room\"}]},"
+                + "\"notification\":{\"callback\":\"http://localhost:1234\"}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/v2/subscriptions/abcdef").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("active"));
+        mockMvc.perform(delete("/v2/subscriptions/abcdef").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/subscriptions/abcdef").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void checkCreateSubscriptionInvalidQuery() throws Exception {
+        mockMvc.perform(post("/v2/subscriptions").content("{\"id\":\"invalid\",\"subject\":{\"entities\":[{\"type\":\"Room\"}],"
+                + "\"condition\":{\"expression\":{\"q\":\"temperature>\"}}},\"notification\":{\"callback\":\"http://localhost:1234\"}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/v2/subscriptions/invalid").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void checkNotifyChangedAttributes() throws Exception {
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(notificationRestTemplate);
+        CountDownLatch notified = new CountDownLatch(1);
+        mockServer.expect(MockRestRequestMatchers.requestTo("http://localhost:1234/notify"))
+                .andExpect(MockRestRequestMatchers.jsonPath("$.subscriptionId").value("hot"))
+                .andExpect(MockRestRequestMatchers.jsonPath("$.data[0].id").value("Boe-Idearium"))
+                .andExpect(MockRestRequestMatchers.jsonPath("$.data[0].temperature.value").value(30))
+                .andRespond(request -> {
+                    notified.countDown();
+                    return withNoContent().createResponse(request);
+                });
+
+        mockMvc.perform(post("/v2/subscriptions").content("{\"id\":\"hot\",\"subject\":{\"entities\":[{\"type\":\"Room\"}],"
+                + "\"condition\":{\"attributes\":[\"temperature\"],\"expression\":{\"q\":\"temperature>25\"}}},"
+                + "\"notification\":{\"callback\":\"http://localhost:1234/notify\"}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        // neither the changed attribute nor the query match
+        mockMvc.perform(post("/v2/entities/Boe-Idearium").param("type", "Room").content("{\"humidity\":{\"value\":50}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post("/v2/entities/Boe-Idearium").param("type", "Room").content("{\"temperature\":{\"value\":20}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(post("/v2/entities/Boe-Idearium").param("type", "Room").content("{\"temperature\":{\"value\":30}}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+        mockServer.verify();
+        mockMvc.perform(get("/v2/subscriptions/hot").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.notification.timesSent").value(1));
+        mockMvc.perform(delete("/v2/subscriptions/hot").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    public void checkForwardToProvider() throws Exception {
+        MockRestServiceServer mockServer = MockRestServiceServer.createServer(forwardingRestTemplate);
+        mockServer.expect(MockRestRequestMatchers.requestTo("http://localhost:1026/v2/entities/Boe-Idearium?type=Room&attrs=pressure"))
+                .andRespond(withSuccess("{\"id\":\"Boe-Idearium\",\"type\":\"Room\",\"pressure\":{\"value\":720}}", MediaType.APPLICATION_JSON));
+        mockServer.expect(MockRestRequestMatchers.requestTo("http://localhost:1026/v2/entities?type=Room&attrs=pressure&limit=1000"))
+                .andRespond(withSuccess("[{\"id\":\"Boe-Idearium\",\"type\":\"Room\",\"pressure\":{\"value\":720}}," +
+                        "{\"id\":\"Remote\",\"type\":\"Room\",\"pressure\":{\"value\":710}}]", MediaType.APPLICATION_JSON));
+
+        mockMvc.perform(post("/v2/registrations").content("{\"id\":\"provider\",\"subject\":{\"entities\":[{\"type\":\"Room\"}],"
+                + "\"attributes\":[\"pressure\"]},\"callback\":\"http://localhost:1026\"}")
+                .contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+        mockMvc.perform(get("/v2/entities/Boe-Idearium").param("type", "Room").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.temperature.value").value(22.5))
+                .andExpect(jsonPath("$.pressure.value").value(720));
+        mockMvc.perform(get("/v2/entities").param("type", "Room").param("attrs", "pressure").param("orderBy", "id")
+                .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(3)))
+                .andExpect(jsonPath("$[0].id").value("Boe-Idearium"))
+                .andExpect(jsonPath("$[0].pressure.value").value(720))
+                .andExpect(jsonPath("$[2].id").value("Remote"));
+        mockServer.verify();
+
+        mockMvc.perform(delete("/v2/registrations/provider").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/v2/entities/Boe-Idearium").param("type", "Room").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.pressure").doesNotExist());
+    }
+
+    @Test
+    public void checkConcurrentSubscriptionChanges() throws Exception {
+        NotificationDispatcher dispatcher = new NotificationDispatcher(new ObjectMapper(), new AsyncRestTemplate(),
+                Executors.newSingleThreadScheduledExecutor());
+        InMemoryNgsi2Controller controller = new InMemoryNgsi2Controller(new InMemoryEntityStore(), dispatcher);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 500; i++) {
+                String id = "subscription" + i;
+                race(executor, () -> controller.createSubscription(subscription(id)),
+                        () -> controller.createSubscription(subscription(id)),
+                        () -> controller.updateSubscription(id, subscription(id)),
+                        () -> controller.removeSubscription(id));
+            }
+            // the dispatcher knows exactly the subscriptions which are not removed
+            assertEquals(controller.listSubscriptions(0, 0).getTotal(), dispatcher.getMatcher().size());
+        } finally {
+            executor.shutdown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void checkConcurrentRegistrationChanges() throws Exception {
+        RegistrationForwarder forwarder = new RegistrationForwarder(new AsyncRestTemplate());
+        InMemoryNgsi2Controller controller = new InMemoryNgsi2Controller(new InMemoryEntityStore(), null, forwarder);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 500; i++) {
+                String id = "registration" + i;
+                race(executor, () -> controller.createRegistration(registration(id)),
+                        () -> controller.createRegistration(registration(id)),
+                        () -> controller.updateRegistration(id, registration(id)),
+                        () -> controller.removeRegistration(id));
+            }
+            // the index holds exactly the registrations which are not removed
+            assertEquals(controller.listRegistrations().size(), forwarder.getRegistrationIndex().size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Run the operations at the same time, ignoring their errors (already existing or not found)
+     */
+    private static void race(ExecutorService executor, Operation... operations) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Operation operation : operations) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                operation.run();
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // the operation lost the race
+            }
+        }
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static Registration registration(String id) throws Exception {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setType(Optional.of("Room"));
+        Registration registration = new Registration(id, new URL("http://localhost:1026"));
+        registration.setSubject(new SubjectRegistration(Collections.singletonList(subjectEntity), Collections.singletonList("pressure")));
+        return registration;
+    }
+
+    private static Subscription subscription(String id) throws Exception {
+        SubjectEntity subjectEntity = new SubjectEntity();
+        subjectEntity.setType(Optional.of("Room"));
+        Notification notification = new Notification(Collections.emptyList(), new URL("http://localhost:1234"));
+        return new Subscription(id, new SubjectSubscription(Collections.singletonList(subjectEntity), null), notification,
+                null, Subscription.Status.active);
+    }
+
+    private void createEntity(String json) throws Exception {
+        mockMvc.perform(post("/v2/entities").content(json).contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isCreated());
+    }
+}
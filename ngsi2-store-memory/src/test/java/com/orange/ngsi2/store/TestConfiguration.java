@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Orange
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.orange.ngsi2.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.orange.ngsi2.server.Ngsi2JsonHttpMessageConverter;
+import com.orange.ngsi2.server.forwarding.RegistrationForwarder;
+import com.orange.ngsi2.server.notification.NotificationDispatcher;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import java.util.concurrent.Executors;
+
+/**
+ * TestConfiguration for the in-memory store tests
+ */
+@SpringBootApplication
+public class TestConfiguration {
+
+    @Bean
+    public MappingJackson2HttpMessageConverter jsonV2Converter(ObjectMapper objectMapper) {
+        objectMapper.registerModule(new Jdk8Module());
+        return new Ngsi2JsonHttpMessageConverter(objectMapper);
+    }
+
+    @Bean
+    public AsyncRestTemplate notificationRestTemplate() {
+        return new AsyncRestTemplate();
+    }
+
+    @Bean
+    public AsyncRestTemplate forwardingRestTemplate() {
+        return new AsyncRestTemplate();
+    }
+
+    @Bean
+    public InMemoryNgsi2Controller inMemoryNgsi2Controller(ObjectMapper objectMapper, AsyncRestTemplate notificationRestTemplate,
+                                                           AsyncRestTemplate forwardingRestTemplate) {
+        NotificationDispatcher notificationDispatcher = new NotificationDispatcher(objectMapper, notificationRestTemplate,
+                Executors.newSingleThreadScheduledExecutor());
+        return new InMemoryNgsi2Controller(new InMemoryEntityStore(), notificationDispatcher,
+                new RegistrationForwarder(forwardingRestTemplate));
+    }
+}